@@ -0,0 +1,91 @@
+package com.cyc.core.examples.benchmarks;
+
+/*
+ * #%L
+ * File: AnswerIterationBenchmark.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.core.examples.advanced.ColumnarResultSet;
+import com.cyc.kb.Variable;
+import com.cyc.query.QueryAnswer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the client-side cost of iterating over query answers: as a {@code List<QueryAnswer>} of
+ * the Core Client's own answer objects, and via a {@link ColumnarResultSet} copied from them, as
+ * well as the cost of that copy. The answers bind their variable to numbers rather than to KB
+ * terms, which the Core Client cannot build without a Cyc server (see {@link Fixtures}); iterating
+ * over a QueryResultSet, and materializing KB terms, are not measured for the same reason.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AnswerIterationBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  public int answerCount;
+
+  private Variable n;
+  private List<QueryAnswer> answers;
+  private ColumnarResultSet columnar;
+
+  @Setup
+  public void setUp() {
+    n = Fixtures.variable("?N");
+    answers = Fixtures.answers(n, answerCount);
+    columnar = ColumnarResultSet.from(answers, Collections.singletonList(n));
+  }
+
+  @Benchmark
+  public void answerList(Blackhole bh) {
+    for (QueryAnswer answer : answers) {
+      bh.consume((Object) answer.getBinding(n));
+    }
+  }
+
+  @Benchmark
+  public ColumnarResultSet columnarCopy() {
+    return ColumnarResultSet.from(answers, Collections.singletonList(n));
+  }
+
+  @Benchmark
+  public void columnarTermIds(Blackhole bh) {
+    for (int row = 0; row < columnar.getRowCount(); row++) {
+      bh.consume(columnar.getTermId(row, 0));
+    }
+  }
+
+}
@@ -0,0 +1,200 @@
+package com.cyc.core.examples.benchmarks;
+
+/*
+ * #%L
+ * File: Fixtures.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.baseclient.xml.cycml.Paraphrase;
+import com.cyc.kb.KbTerm;
+import com.cyc.kb.Variable;
+import com.cyc.kb.client.VariableImpl;
+import com.cyc.kb.exception.KbTypeException;
+import com.cyc.query.ProofViewNode;
+import com.cyc.query.Query;
+import com.cyc.query.QueryAnswer;
+import com.cyc.query.QueryListener;
+import com.cyc.query.client.BindingsBackedQueryAnswer;
+import com.cyc.query.client.explanations.ProofViewImpl;
+import com.cyc.xml.query.ProofView;
+import com.cyc.xml.query.ProofViewEntry;
+import com.cyc.xml.query.SubEntries;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deterministic, in-process fixtures for the objects which the Cyc server would otherwise supply,
+ * so that the benchmarks can run offline and produce comparable results from run to run.
+ * <p>
+ * Wherever the Core Client can build an object without a session, the fixture is the Core
+ * Client's own implementation: Variables are {@link VariableImpl}s; QueryAnswers are
+ * {@link BindingsBackedQueryAnswer}s, as the Core Client builds from inference results; proof
+ * view nodes are {@link ProofViewImpl} trees over Core Client JAXB entries, which carry their
+ * paraphrases, as the server supplies them, so the nodes never need to fetch them.
+ * <p>
+ * The Core Client cannot build a KB term without a session, because it asks the server for each
+ * term's type; an answer which binds a variable to a term converts it to a KB term, via the server,
+ * whenever the binding is requested. Answers therefore bind their variable to numbers, as a query
+ * such as {@code (#$integerBetween 1 ?N 10000)} does. Only two fixtures are stand-ins built
+ * via {@link Proxy}, and neither is called on a benchmark's measured path beyond what is noted:
+ * the terms which {@link TermLookupBenchmark}'s TermCache returns, which the cache only stores and
+ * hands back; and the Query which {@link QueryMetricsBenchmark} instruments, whose only method
+ * called is {@code addListener}. No benchmark which runs offline measures the Core Client's
+ * round trips, or its conversion of CycObjects to KB terms; {@link SentenceBenchmark}, which needs
+ * a Cyc server, is the only one which does.
+ */
+final class Fixtures {
+
+  private Fixtures() {
+  }
+
+  //====|    KB objects    |======================================================================//
+
+  /**
+   * Returns a stand-in term, which is equal only to itself.
+   */
+  static KbTerm term(String name) {
+    return proxy(KbTerm.class, "#$" + name);
+  }
+
+  /**
+   * Returns stand-in terms named {@code prefix0} through {@code prefix(count - 1)}.
+   */
+  static Map<String, KbTerm> terms(String prefix, int count) {
+    final Map<String, KbTerm> terms = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      terms.put(prefix + i, term(prefix + i));
+    }
+    return terms;
+  }
+
+  static Variable variable(String name) {
+    try {
+      return new VariableImpl(name);
+    } catch (KbTypeException ex) {
+      throw new IllegalArgumentException(name + " is not a variable", ex);
+    }
+  }
+
+  /**
+   * Returns a stand-in for any KB API interface whose only meaningful methods are
+   * {@code toString} and {@code stringApiValue}.
+   */
+  static <T> T proxy(Class<T> type, String cycl) {
+    return type.cast(Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[]{type},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "equals":
+                  return proxy == args[0];
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+                case "toString":
+                case "stringApiValue":
+                  return cycl;
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            }));
+  }
+
+  //====|    Query answers    |===================================================================//
+
+  /**
+   * Returns {@code count} answers, binding {@code var} to each of the integers from 1 to
+   * {@code count}.
+   */
+  static List<QueryAnswer> answers(Variable var, int count) {
+    final List<QueryAnswer> answers = new ArrayList<>(count);
+    for (int i = 1; i <= count; i++) {
+      answers.add(new BindingsBackedQueryAnswer(Collections.singletonMap(var, i)));
+    }
+    return answers;
+  }
+
+  /**
+   * Returns a stand-in query which supports only {@code addListener}, adding each listener to
+   * {@code listeners}, so that the caller can deliver notifications to them.
+   */
+  static Query query(String cycl, List<QueryListener> listeners) {
+    return (Query) Proxy.newProxyInstance(Fixtures.class.getClassLoader(),
+            new Class<?>[]{Query.class}, (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "addListener":
+                  listeners.add((QueryListener) args[0]);
+                  return proxy;
+                case "equals":
+                  return proxy == args[0];
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+                case "toString":
+                  return cycl;
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+  //====|    Proof views    |=====================================================================//
+
+  /**
+   * Returns a complete proof view tree of the specified depth, in which every non-leaf node has
+   * {@code fanOut} children.
+   */
+  static ProofView proofViewJaxb(int depth, int fanOut) {
+    final ProofView proofView = new ProofView();
+    proofView.setId(BigInteger.ONE);
+    proofView.setProofViewEntry(entry(new AtomicInteger(), 0, depth, fanOut));
+    return proofView;
+  }
+
+  private static ProofViewEntry entry(AtomicInteger ids, int level, int depth, int fanOut) {
+    final int id = ids.getAndIncrement();
+    final ProofViewEntry entry = new ProofViewEntry();
+    entry.setId(BigInteger.valueOf(id));
+    entry.setLabel("Entry " + id);
+    entry.setCycl("(#$movieActors #$Movie" + id + " #$JackNicholson)");
+    final Paraphrase paraphrase = new Paraphrase();
+    paraphrase.getContent().add("Jack Nicholson acted in Movie " + id);
+    entry.setParaphrase(paraphrase);
+    entry.setExpandInitially(level < 2);
+    if (level < depth) {
+      final SubEntries subEntries = new SubEntries();
+      for (int i = 0; i < fanOut; i++) {
+        subEntries.getProofViewEntry().add(entry(ids, level + 1, depth, fanOut));
+      }
+      entry.setSubEntries(subEntries);
+    }
+    return entry;
+  }
+
+  /**
+   * Returns the Core Client's ProofViewNode tree for {@code proofView}. Every entry carries its
+   * paraphrase, so no node will ask for its details, and no ProofViewGenerator is needed.
+   */
+  static ProofViewNode proofViewNodes(ProofView proofView) {
+    return new ProofViewImpl(proofView.getProofViewEntry(), null);
+  }
+
+}
@@ -0,0 +1,96 @@
+package com.cyc.core.examples.benchmarks;
+
+/*
+ * #%L
+ * File: ProofViewBenchmark.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.query.ProofViewNode;
+import com.cyc.xml.query.ProofView;
+import com.cyc.xml.query.ProofViewJaxbMarshaller;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import javax.xml.bind.JAXBException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the client-side cost of traversing the Core Client's ProofViewNode tree for a proof
+ * view, as {@link com.cyc.core.examples.advanced.QueryAnswerJustifying QueryAnswerJustifying}
+ * does, and of marshalling the proof view to XML via the same JAXB marshaller which the Core
+ * Client uses. Every entry already carries its paraphrase, so no node makes a round trip.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProofViewBenchmark {
+
+  @Param({"3", "6"})
+  public int depth;
+
+  @Param({"2", "4"})
+  public int fanOut;
+
+  private ProofView proofView;
+  private ProofViewNode root;
+  private ProofViewJaxbMarshaller marshaller;
+
+  @Setup
+  public void setUp() throws JAXBException {
+    proofView = Fixtures.proofViewJaxb(depth, fanOut);
+    root = Fixtures.proofViewNodes(proofView);
+    marshaller = new ProofViewJaxbMarshaller();
+  }
+
+  @Benchmark
+  public void traverse(Blackhole bh) {
+    final Deque<ProofViewNode> stack = new ArrayDeque<>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      final ProofViewNode node = stack.pop();
+      bh.consume(node.getLabel());
+      bh.consume(node.getCyclString());
+      node.getChildren().forEach(stack::push);
+    }
+  }
+
+  @Benchmark
+  public String marshal() throws JAXBException, IOException {
+    final StringWriter writer = new StringWriter();
+    marshaller.marshal(proofView, writer);
+    return writer.toString();
+  }
+
+}
@@ -0,0 +1,144 @@
+package com.cyc.core.examples.benchmarks;
+
+/*
+ * #%L
+ * File: ProofViewMarshallingBenchmark.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.core.examples.impl.StreamingProofViewMarshaller;
+import com.cyc.query.exception.ProofViewException;
+import com.cyc.xml.query.ProofView;
+import com.cyc.xml.query.ProofViewJaxbMarshaller;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import javax.xml.bind.JAXBException;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of the Core Client's DOM-based proof view marshalling with that of the
+ * {@link StreamingProofViewMarshaller}. Both write to a sink which discards its input; the
+ * {@code bytes} counter reports the rate at which each produces XML. Run with {@code -prof gc} to
+ * see the allocation per proof view ({@code gc.alloc.rate.norm}).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProofViewMarshallingBenchmark {
+
+  @Param({"3", "6"})
+  public int depth;
+
+  @Param({"2", "4"})
+  public int fanOut;
+
+  private ProofView proofView;
+  private ProofViewJaxbMarshaller domMarshaller;
+  private StreamingProofViewMarshaller streamingMarshaller;
+
+  @Setup
+  public void setUp() throws JAXBException {
+    proofView = Fixtures.proofViewJaxb(depth, fanOut);
+    domMarshaller = new ProofViewJaxbMarshaller();
+    streamingMarshaller = new StreamingProofViewMarshaller();
+  }
+
+  @Benchmark
+  public void dom(ByteSink sink) throws JAXBException, IOException {
+    domMarshaller.marshal(proofView, sink.asOutputStream());
+  }
+
+  @Benchmark
+  public long streaming(ByteSink sink) throws ProofViewException {
+    return streamingMarshaller.marshal(proofView, sink.asChannel());
+  }
+
+  /**
+   * Discards everything written to it, counting the bytes. JMH treats every public method of an
+   * AuxCounters class as a counter, so the sink is written to via its stream and channel views.
+   */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class ByteSink {
+
+    public long bytes;
+
+    private final OutputStream out = new OutputStream() {
+      @Override
+      public void write(int b) {
+        bytes++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        bytes += len;
+      }
+    };
+
+    private final WritableByteChannel channel = new WritableByteChannel() {
+      @Override
+      public int write(ByteBuffer src) {
+        final int length = src.remaining();
+        src.position(src.limit());
+        bytes += length;
+        return length;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      bytes = 0;
+    }
+
+    OutputStream asOutputStream() {
+      return out;
+    }
+
+    WritableByteChannel asChannel() {
+      return channel;
+    }
+  }
+
+}
@@ -0,0 +1,95 @@
+package com.cyc.core.examples.benchmarks;
+
+/*
+ * #%L
+ * File: ProofViewRenderingBenchmark.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.core.examples.advanced.ProofViewRenderer;
+import com.cyc.core.examples.advanced.QueryAnswerJustifying;
+import com.cyc.query.ProofViewNode;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures repeatedly rendering a large (55,987 node) justification as text: node by node, via
+ * {@link QueryAnswerJustifying#appendJustificationNode(ProofViewNode, StringBuilder)}, and via
+ * a {@link ProofViewRenderer} whose text cache has been warmed by an earlier render. Both write
+ * into the same reused buffer, so run with {@code -prof gc} to compare the allocation per render.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ProofViewRenderingBenchmark {
+
+  private static final int DEPTH = 6;
+  private static final int FAN_OUT = 6;
+
+  private ProofViewNode root;
+  private ProofViewRenderer renderer;
+  private StringBuilder out;
+
+  @Setup
+  public void setUp() throws IOException {
+    root = Fixtures.proofViewNodes(Fixtures.proofViewJaxb(DEPTH, FAN_OUT));
+    renderer = new ProofViewRenderer();
+    out = new StringBuilder();
+    renderer.render(root, out);
+  }
+
+  @Benchmark
+  public int perNode() throws IOException {
+    out.setLength(0);
+    final Deque<ProofViewNode> stack = new ArrayDeque<>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      final ProofViewNode node = stack.pop();
+      // As QueryAnswerJustifying.displayJustificationNode, but into the shared buffer:
+      QueryAnswerJustifying.appendJustificationNode(node, out);
+      out.append(System.lineSeparator());
+      for (int i = node.getChildren().size() - 1; i >= 0; i--) {
+        stack.push(node.getChildren().get(i));
+      }
+    }
+    return out.length();
+  }
+
+  @Benchmark
+  public int renderer() throws IOException {
+    out.setLength(0);
+    renderer.render(root, out);
+    return out.length();
+  }
+
+}
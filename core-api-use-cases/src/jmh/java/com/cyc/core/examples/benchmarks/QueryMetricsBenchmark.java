@@ -0,0 +1,162 @@
+package com.cyc.core.examples.benchmarks;
+
+/*
+ * #%L
+ * File: QueryMetricsBenchmark.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.core.examples.advanced.InMemoryMetricsRegistry;
+import com.cyc.core.examples.advanced.QueryMetrics;
+import com.cyc.kb.Variable;
+import com.cyc.query.InferenceStatus;
+import com.cyc.query.InferenceSuspendReason;
+import com.cyc.query.Query;
+import com.cyc.query.QueryAnswer;
+import com.cyc.query.QueryListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the overhead of {@link QueryMetrics}. Each invocation delivers the notifications of a
+ * whole inference (creation, status changes, answers in batches of 100, and termination) to a
+ * listener which consumes every answer's binding, as a client would, with and without a
+ * QueryMetrics recorder alongside it. The difference between {@code uninstrumented} and
+ * {@code instrumented} is the cost of the instrumentation; {@code instrumentedWithSizes} adds
+ * answer size estimation. The answers are the Core Client's own; the query is a stand-in which
+ * only accepts listeners (see {@link Fixtures}), so it adds nothing to the figures beyond one
+ * call per invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryMetricsBenchmark {
+
+  private static final int BATCH_SIZE = 100;
+
+  @Param({"10", "1000", "100000"})
+  public int answerCount;
+
+  private Variable n;
+  private List<List<QueryAnswer>> batches;
+  private QueryMetrics metrics;
+  private QueryMetrics sizingMetrics;
+
+  @Setup
+  public void setUp() {
+    n = Fixtures.variable("?N");
+    final List<QueryAnswer> answers = Fixtures.answers(n, answerCount);
+    batches = new ArrayList<>();
+    for (int i = 0; i < answers.size(); i += BATCH_SIZE) {
+      batches.add(answers.subList(i, Math.min(answers.size(), i + BATCH_SIZE)));
+    }
+    metrics = new QueryMetrics(new InMemoryMetricsRegistry());
+    sizingMetrics = new QueryMetrics(new InMemoryMetricsRegistry(), QueryMetrics.CYCL_LENGTH);
+  }
+
+  @Benchmark
+  public void uninstrumented(Blackhole bh) {
+    final List<QueryListener> listeners = new ArrayList<>(2);
+    Fixtures.query("(#$integerBetween 1 ?N 100000)", listeners)
+            .addListener(new ConsumingListener(bh));
+    runInference(listeners);
+  }
+
+  @Benchmark
+  public void instrumented(Blackhole bh) {
+    final List<QueryListener> listeners = new ArrayList<>(2);
+    final Query query = Fixtures.query("(#$integerBetween 1 ?N 100000)", listeners);
+    metrics.instrument(query).addListener(new ConsumingListener(bh));
+    runInference(listeners);
+  }
+
+  @Benchmark
+  public void instrumentedWithSizes(Blackhole bh) {
+    final List<QueryListener> listeners = new ArrayList<>(2);
+    final Query query = Fixtures.query("(#$integerBetween 1 ?N 100000)", listeners);
+    sizingMetrics.instrument(query).addListener(new ConsumingListener(bh));
+    runInference(listeners);
+  }
+
+  private void runInference(List<QueryListener> listeners) {
+    for (QueryListener listener : listeners) {
+      listener.notifyInferenceCreated(null);
+      listener.notifyInferenceStatusChanged(InferenceStatus.NOT_STARTED, InferenceStatus.RUNNING,
+              null, null);
+    }
+    for (List<QueryAnswer> batch : batches) {
+      for (QueryListener listener : listeners) {
+        listener.notifyInferenceAnswersAvailable(null, batch);
+      }
+    }
+    for (QueryListener listener : listeners) {
+      listener.notifyInferenceStatusChanged(InferenceStatus.RUNNING, InferenceStatus.SUSPENDED,
+              null, null);
+      listener.notifyInferenceTerminated(null, null);
+    }
+  }
+
+  /**
+   * Consumes the binding of each answer, as a client would.
+   */
+  private final class ConsumingListener implements QueryListener {
+
+    private final Blackhole bh;
+
+    private ConsumingListener(Blackhole bh) {
+      this.bh = bh;
+    }
+
+    @Override
+    public void notifyInferenceCreated(Query query) {
+    }
+
+    @Override
+    public void notifyInferenceStatusChanged(InferenceStatus oldStatus,
+            InferenceStatus newStatus, InferenceSuspendReason suspendReason, Query query) {
+    }
+
+    @Override
+    public void notifyInferenceAnswersAvailable(Query query, List<QueryAnswer> newAnswers) {
+      for (QueryAnswer answer : newAnswers) {
+        bh.consume((Object) answer.getBinding(n));
+      }
+    }
+
+    @Override
+    public void notifyInferenceTerminated(Query query, Exception exception) {
+    }
+  }
+
+}
@@ -0,0 +1,109 @@
+package com.cyc.core.examples.benchmarks;
+
+/*
+ * #%L
+ * File: SentenceBenchmark.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.kb.KbCollection;
+import com.cyc.kb.KbPredicate;
+import com.cyc.kb.Sentence;
+import com.cyc.kb.Variable;
+import com.cyc.kb.exception.KbException;
+import com.cyc.session.SessionManager;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building Sentences via {@link Sentence#get(String)}, which has the Cyc server parse the
+ * CycL; via {@link Sentence#get(Object...)}, from terms which have already been looked up; and via
+ * {@link Sentence#and(Sentence...)}. Unlike the other benchmarks, this one needs a Cyc server,
+ * because the Core Client resolves the current session for every KB object it creates, and so
+ * each figure includes whatever round trips the Core Client makes.
+ * <p>
+ * It is excluded from the benchmarks profile's default run. To run it against a server at
+ * {@code localhost:3600}:
+ * <pre>
+ * mvn -P standard,benchmarks verify \
+ *     -Djmh.args="-f 1 -jvmArgsAppend -Dcyc.session.server=localhost:3600 SentenceBenchmark"
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SentenceBenchmark {
+
+  private static final String SERVER_PROPERTY = "cyc.session.server";
+
+  private KbPredicate isa;
+  private KbPredicate genls;
+  private KbCollection dog;
+  private Variable x;
+  private Sentence isaDog;
+  private Sentence genlsDog;
+
+  @Setup
+  public void setUp() throws KbException {
+    if (System.getProperty(SERVER_PROPERTY) == null) {
+      throw new IllegalStateException("SentenceBenchmark needs a Cyc server; pass"
+              + " -jvmArgsAppend -D" + SERVER_PROPERTY + "=HOST:PORT via jmh.args");
+    }
+    isa = KbPredicate.get("isa");
+    genls = KbPredicate.get("genls");
+    dog = KbCollection.get("Dog");
+    x = Variable.get("?X");
+    isaDog = Sentence.get(isa, x, dog);
+    genlsDog = Sentence.get(genls, x, dog);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    SessionManager.getInstance().close();
+  }
+
+  @Benchmark
+  public Sentence getFromString() throws KbException {
+    return Sentence.get("(#$isa ?X #$Dog)");
+  }
+
+  @Benchmark
+  public Sentence getFromTerms() throws KbException {
+    return Sentence.get(isa, x, dog);
+  }
+
+  @Benchmark
+  public Sentence and() throws KbException {
+    return Sentence.and(isaDog, genlsDog);
+  }
+
+}
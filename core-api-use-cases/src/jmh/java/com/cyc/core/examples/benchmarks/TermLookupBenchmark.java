@@ -0,0 +1,93 @@
+package com.cyc.core.examples.benchmarks;
+
+/*
+ * #%L
+ * File: TermLookupBenchmark.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.core.examples.impl.TermCache;
+import com.cyc.kb.KbTerm;
+import com.cyc.kb.exception.KbException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the client-side cost of term lookup via the {@link TermCache}: a single cached lookup,
+ * and a bulk lookup which misses and must be resolved by the cache's TermSource. The TermSource is
+ * an in-process stand-in, and the terms it returns are stand-ins which the cache only stores and
+ * hands back (see {@link Fixtures}), so these figures are for the cache's own overhead alone: they
+ * include neither the round trip nor the Core Client's building of KB terms.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TermLookupBenchmark {
+
+  @Param({"10", "100", "1000"})
+  public int termCount;
+
+  private TermCache cache;
+  private List<String> names;
+
+  @Setup
+  public void setUp() throws KbException {
+    final Map<String, KbTerm> terms = Fixtures.terms("Term", termCount);
+    names = new ArrayList<>(terms.keySet());
+    cache = new TermCache((requested, type) -> {
+      final Map<String, KbTerm> resolved = new LinkedHashMap<>();
+      requested.forEach(name -> resolved.put(name, terms.get(name)));
+      return resolved;
+    }, termCount, 10, TimeUnit.MINUTES);
+    cache.getAll(names, KbTerm.class);
+  }
+
+  @Benchmark
+  public KbTerm cachedLookup() throws KbException {
+    return cache.get(names.get(0), KbTerm.class);
+  }
+
+  @Benchmark
+  public Map<String, KbTerm> cachedBulkLookup() throws KbException {
+    return cache.getAll(names, KbTerm.class);
+  }
+
+  @Benchmark
+  public Map<String, KbTerm> uncachedBulkLookup() throws KbException {
+    cache.invalidateAll();
+    return cache.getAll(names, KbTerm.class);
+  }
+
+}
@@ -27,21 +27,24 @@ import com.cyc.kb.Variable;
 import com.cyc.kb.exception.CreateException;
 import com.cyc.kb.exception.KbException;
 import com.cyc.kb.exception.KbTypeException;
-import com.cyc.query.InferenceStatus;
-import com.cyc.query.InferenceSuspendReason;
 import com.cyc.query.Query;
 import com.cyc.query.QueryAnswer;
 import com.cyc.query.QueryAnswers;
-import com.cyc.query.QueryListener;
 import com.cyc.query.exception.QueryConstructionException;
-import com.cyc.query.exception.QueryRuntimeException;
 import com.cyc.session.SessionManager;
 import com.cyc.session.exception.SessionCommunicationException;
+import com.cyc.session.exception.SessionException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static com.cyc.Cyc.Constants.INFERENCE_PSC;
 
@@ -60,6 +63,10 @@ public class AdvancedQuerying {
         displayQueryBindings(q, 25);
       }
       demonstrateTermSubstitution();
+      demonstratePreparedQuery();
+      demonstrateFanOut();
+      demonstrateQueryBatch();
+      demonstrateBatchExecution();
     } catch (Exception ex) {
       System.out.println("Problem building or running demo query.");
       ex.printStackTrace(System.err);
@@ -70,25 +77,24 @@ public class AdvancedQuerying {
     }
   }
 
+  private static final String SPECIES_QUERY
+          = "(and (genls (TheFn BiologicalSpecies) ?TYPE) (scientificName ?TYPE ?NAME))";
+  private static final List<String> SAMPLE_SPECIES
+          = Arrays.asList("PlainsZebra", "Ostrich", "HumpbackWhale");
+
   /**
    * Demonstrate how terms can be substituted in a Query before it is run.
    */
   public static void demonstrateTermSubstitution() {
     final Map<KbObject, Object> substitutions = new HashMap<>();
-    final KbCollection theSpecies;
-    try {
-      theSpecies = KbCollection.findOrCreate("(TheFn BiologicalSpecies)");
-    } catch (CreateException | KbTypeException ex) {
-      throw new RuntimeException("Problem finding or creating indexical.", ex);
-    }
-    final List<String> sampleSpecies = Arrays.asList("PlainsZebra", "Ostrich", "HumpbackWhale");
-    for (final String species : sampleSpecies) {
+    final KbCollection theSpecies = findOrCreateTheSpecies();
+    for (final String species : SAMPLE_SPECIES) {
       try {
         final KbCollection kbSpecies = KbCollection.get(species);
         if (!kbSpecies.isInstanceOf(KbCollection.get("BiologicalSpecies"))) {
           throw new RuntimeException(kbSpecies + " is not known to be a species.");
         } else {
-          final Sentence querySentence = Sentence.get("(and (genls (TheFn BiologicalSpecies) ?TYPE) (scientificName ?TYPE ?NAME))");
+          final Sentence querySentence = Sentence.get(SPECIES_QUERY);
           try (Query indexicalQuery = querySentence.toQuery(INFERENCE_PSC)) {
             substitutions.put(theSpecies, kbSpecies);
             indexicalQuery.setSubstitutions(substitutions);
@@ -104,6 +110,141 @@ public class AdvancedQuerying {
     }
   }
 
+  /**
+   * Demonstrate the same substitution via a {@link PreparedQuery}, which parses the query sentence
+   * once, rather than once per species, and binds a new Query for each species.
+   */
+  public static void demonstratePreparedQuery() {
+    final KbCollection theSpecies = findOrCreateTheSpecies();
+    final PreparedQuery preparedQuery = prepareSpeciesQuery(theSpecies);
+    for (final String species : SAMPLE_SPECIES) {
+      try (Query query = preparedQuery.bind(speciesSubstitutions(theSpecies, species))) {
+        System.out.println("\nPrepared query results for " + species + ": ");
+        displayQueryBindings(query, 5);
+      } catch (KbException | QueryConstructionException | RuntimeException ex) {
+        System.out.println("Trouble testing " + species + ": " + ex.getLocalizedMessage());
+      }
+    }
+  }
+
+  /**
+   * Demonstrate how to handle many species in parallel, via a {@link FanOut}. Each species is
+   * checked and its query bound independently of the others, so a species which fails does not
+   * affect the rest. The results are displayed in the same order as the species.
+   */
+  public static void demonstrateFanOut() {
+    final KbCollection theSpecies = findOrCreateTheSpecies();
+    final PreparedQuery preparedQuery = prepareSpeciesQuery(theSpecies);
+    final FanOut.Task<String, Query> validateThenBind
+            = species -> preparedQuery.bind(speciesSubstitutions(theSpecies, species));
+    try (FanOut fanOut = new FanOut(4)) {
+      fanOut.run(SAMPLE_SPECIES, validateThenBind, true, result -> {
+        if (!result.isSuccessful()) {
+          System.out.println("Trouble testing " + result.getEntity() + ": "
+                  + result.getError().getLocalizedMessage());
+          return;
+        }
+        try (Query query = result.getValue()) {
+          System.out.println("\nFanned-out results for " + result.getEntity() + ": ");
+          displayQueryBindings(query, 5);
+        }
+      });
+    } catch (SessionException ex) {
+      throw new RuntimeException("Problem obtaining the current session.", ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Demonstrate how to run independent queries concurrently, via a {@link QueryBatch}, and display
+   * each one's results as soon as it completes.
+   */
+  public static void demonstrateQueryBatch() {
+    final KbCollection theSpecies = findOrCreateTheSpecies();
+    final PreparedQuery preparedQuery = prepareSpeciesQuery(theSpecies);
+    final Map<Query, String> speciesByQuery = new IdentityHashMap<>();
+    for (final String species : SAMPLE_SPECIES) {
+      try {
+        speciesByQuery.put(preparedQuery.bind(speciesSubstitutions(theSpecies, species)), species);
+      } catch (KbException | QueryConstructionException ex) {
+        System.out.println("Trouble testing " + species + ": " + ex.getLocalizedMessage());
+      }
+    }
+    try (QueryBatch queries = QueryBatch.start(speciesByQuery.keySet())) {
+      for (QueryBatch.Result result = queries.take(); result != null; result = queries.take()) {
+        System.out.println("\nConcurrent results for " + speciesByQuery.get(result.getQuery())
+                + ": ");
+        if (result.isSuccessful()) {
+          displayQueryBindings(result.getQuery(), 5);
+        } else {
+          System.out.println("Trouble running query: " + result.getError());
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Demonstrate how to ask about every species at once, as a single question, via
+   * {@link PreparedQuery#executeBatch(List)}.
+   */
+  public static void demonstrateBatchExecution() {
+    final KbCollection theSpecies = findOrCreateTheSpecies();
+    final PreparedQuery preparedQuery = prepareSpeciesQuery(theSpecies);
+    final List<Map<KbObject, Object>> allSubstitutions = new ArrayList<>();
+    for (final String species : SAMPLE_SPECIES) {
+      try {
+        allSubstitutions.add(speciesSubstitutions(theSpecies, species));
+      } catch (KbException ex) {
+        System.out.println("Trouble testing " + species + ": " + ex.getLocalizedMessage());
+      }
+    }
+    try {
+      final List<List<QueryAnswer>> batchAnswers = preparedQuery.executeBatch(allSubstitutions);
+      System.out.println("\nBatched results:");
+      for (int i = 0; i < allSubstitutions.size(); i++) {
+        System.out.println(allSubstitutions.get(i).get(theSpecies) + ": "
+                + batchAnswers.get(i).size() + " answer(s)");
+      }
+    } catch (KbException | QueryConstructionException ex) {
+      System.out.println("Trouble running batch: " + ex.getLocalizedMessage());
+    }
+  }
+
+  private static KbCollection findOrCreateTheSpecies() {
+    try {
+      return KbCollection.findOrCreate("(TheFn BiologicalSpecies)");
+    } catch (CreateException | KbTypeException ex) {
+      throw new RuntimeException("Problem finding or creating indexical.", ex);
+    }
+  }
+
+  private static PreparedQuery prepareSpeciesQuery(KbCollection theSpecies) {
+    try {
+      return PreparedQuery.prepare(Sentence.get(SPECIES_QUERY), INFERENCE_PSC, null,
+              Collections.singletonList(theSpecies));
+    } catch (KbException ex) {
+      throw new RuntimeException("Problem preparing query.", ex);
+    }
+  }
+
+  /**
+   * Returns the substitution of {@code species} for {@code theSpecies}, once it has been checked
+   * to be a species.
+   */
+  private static Map<KbObject, Object> speciesSubstitutions(KbCollection theSpecies,
+          String species) throws KbException {
+    final KbCollection kbSpecies = KbCollection.get(species);
+    if (!kbSpecies.isInstanceOf(KbCollection.get("BiologicalSpecies"))) {
+      throw new KbTypeException(kbSpecies + " is not known to be a species.");
+    }
+    final Map<KbObject, Object> substitutions = new HashMap<>();
+    substitutions.put(theSpecies, kbSpecies);
+    return substitutions;
+  }
+
   /**
    * A simple method to traverse and display the bindings for a query.
    */
@@ -140,9 +281,16 @@ public class AdvancedQuerying {
   /**
    * Sometimes you don't expect all the answers to a query to be returned quickly, and you want to
    * be able to do something with them as they come in. Who knows, you might even have some other
-   * reason for handling the asynchronously. This example shows how to attach a listeners to a query
-   * for all the major query events. Typically the most interesting ones are changes in the
-   * inference status (i.e. whether it's running, suspended, etc.) and arrival of new answers.
+   * reason for handling them asynchronously. This example shows how to subscribe to a query's
+   * answers via an {@link AsyncQuery}, which starts the inference without waiting for it to
+   * terminate and publishes each answer as it arrives. The subscriber requests answers a batch at a
+   * time, and can cancel the inference once it has seen enough of them. Because the publisher's
+   * buffer is bounded, the inference is suspended whenever the subscriber falls too far behind,
+   * rather than piling up answers in memory. To keep every answer to an exhaustive query, without
+   * holding them all in memory, subscribe a {@link SpillingAnswerSink} instead. The query is also
+   * instrumented via {@link QueryMetrics}, which records its latencies and throughput, and its
+   * retained inference is registered with an {@link InferenceRegistry}, which closes it if it is
+   * abandoned.
    */
   private static void demonstrateIncrementalResultsQuery() {
     // A query that should get lots of results, not all at once:
@@ -157,55 +305,78 @@ public class AdvancedQuerying {
     query.setMaxTime(30);
     query.setMaxAnswerCount(500);
     query.retainInference();
-    // Add a listener that will handle important inference events:
-    query.addListener(new QueryListener() {
-      @Override
-      public void notifyInferenceCreated(Query query) {
-        System.out.println("Created " + query);
-      }
+    final InMemoryMetricsRegistry metrics = new InMemoryMetricsRegistry();
+    new QueryMetrics(metrics, QueryMetrics.CYCL_LENGTH).instrument(query);
+    final int batchSize = 50;
+    final CompletableFuture<Integer> done = new CompletableFuture<>();
+    // Close the query if it sits idle for a minute, e.g. because the subscriber stops requesting:
+    final InferenceRegistry inferences = new InferenceRegistry(1, 10, TimeUnit.MINUTES);
+    final AsyncQuery asyncQuery = AsyncQuery.of(query, inferences);
+    // Hold no more than two batches of answers which we haven't asked for yet:
+    final AnswerPublisher publisher = asyncQuery.answerPublisher(2 * batchSize);
+    // Subscribe to the query's answers. This starts the inference, and returns immediately:
+    publisher.subscribe(new AnswerPublisher.Subscriber() {
+      private AnswerPublisher.Subscription subscription;
+      private int answerCount = 0;
 
       @Override
-      public void notifyInferenceStatusChanged(InferenceStatus oldStatus,
-                                               InferenceStatus newStatus, 
-                                               InferenceSuspendReason suspendReason,
-                                               Query query) {
-        System.out.println("Inference status changed from " + oldStatus + " to " + newStatus);
-        if (InferenceStatus.SUSPENDED.equals(newStatus)) {
-          System.out.println("Suspend reason: " + suspendReason);
-        }
+      public void onSubscribe(AnswerPublisher.Subscription subscription) {
+        System.out.println("Subscribed to " + query);
+        this.subscription = subscription;
+        subscription.request(batchSize);
       }
 
       @Override
-      public void notifyInferenceAnswersAvailable(Query query, List<QueryAnswer> newAnswers) {
-        int answerCount = query.getAnswerCount();
-        System.out.println("New answers! Query now has " + answerCount + " answers.");
-        try {//Do stuff with an answer:
-          final QueryAnswer answer = newAnswers.get(newAnswers.size() - 1);
-          System.out.println("Here is " + answer.getId());
-          for (final Variable var : query.getQueryVariables()) {
-            System.out.println(var + " -> " + answer.getBinding(var));
+      public void onNext(QueryAnswer answer) {
+        answerCount++;
+        if (answerCount % batchSize == 0) {
+          System.out.println("New answers! Query now has " + answerCount + " answers.");
+          try {//Do stuff with an answer:
+            System.out.println("Here is " + answer.getId());
+            for (final Variable var : query.getQueryVariables()) {
+              System.out.println(var + " -> " + answer.getBinding(var));
+            }
+          } catch (KbException ex) {
+            
           }
-        } catch (KbException ex) {
-
+          subscription.request(batchSize);
         }
         if (answerCount >= 1000) {
           System.out.println("Got enough answers. Terminating query.");
-          query.stop(null);
+          subscription.cancel();
+          done.complete(answerCount);
         }
       }
 
       @Override
-      public void notifyInferenceTerminated(Query query, Exception e) {
+      public void onError(Throwable error) {
+        done.completeExceptionally(error);
+      }
+
+      @Override
+      public void onComplete() {
         System.out.println("Query terminated.");
+        done.complete(answerCount);
       }
     });
     try {
-      // Start the inference. This won't return until the inference terminates:
-      query.performInference();
-    } catch (QueryRuntimeException ex) {
-      throw new RuntimeException("Exception performing inference.", ex);
+      // The inference is running in the background; here, we simply wait for it to terminate:
+      System.out.println("Received " + done.get() + " answers.");
+      System.out.println("Peak buffer depth: " + publisher.getPeakBufferDepth()
+              + "; suspended " + asyncQuery.getSuspendCount()
+              + " time(s), resumed " + asyncQuery.getResumeCount() + " time(s); mean latency "
+              + publisher.getMeanAnswerLatency(TimeUnit.MILLISECONDS) + "ms, max latency "
+              + publisher.getMaxAnswerLatency(TimeUnit.MILLISECONDS) + "ms.");
+      System.out.println(metrics);
+      System.out.println(inferences);
+    } catch (ExecutionException ex) {
+      throw new RuntimeException("Exception performing inference.", ex.getCause());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } finally {
+      // Closes the query, if the registry has not already done so:
+      inferences.close();
     }
-    query.close();
   }
 
 }
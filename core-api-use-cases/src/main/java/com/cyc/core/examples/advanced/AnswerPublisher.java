@@ -0,0 +1,359 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: AnswerPublisher.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.query.QueryAnswer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes the answers to an {@link AsyncQuery} to a single {@link Subscriber}, as they are found.
+ * <p>
+ * The Subscriber and Subscription interfaces follow the shape of the Reactive Streams API (and of
+ * {@code java.util.concurrent.Flow} in Java 9 and later), so that they are easily adapted to
+ * whichever reactive library an application uses. Answers are only delivered as the subscriber
+ * {@link Subscription#request(long) requests} them; any others are held until requested.
+ * <p>
+ * A publisher obtained via {@link AsyncQuery#answerPublisher(int)} holds a bounded number of
+ * unrequested answers, suspending the inference while its buffer is full, so that a slow
+ * subscriber cannot cause answers to accumulate in memory without limit. The publisher records
+ * its buffer depth and the latency of each answer (the time from its arrival from the Cyc server
+ * until it was handed to the subscriber); the number of suspensions is recorded by the
+ * AsyncQuery.
+ */
+public class AnswerPublisher {
+
+  //====|    Subscriber & Subscription    |=======================================================//
+
+  /**
+   * Receives the answers to a query.
+   */
+  public static interface Subscriber {
+
+    /**
+     * Called once, before any other method. No answers are delivered until they are requested via
+     * the subscription.
+     *
+     * @param subscription the subscription
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * Called once per answer, in the order in which they were found.
+     *
+     * @param answer the answer
+     */
+    void onNext(QueryAnswer answer);
+
+    /**
+     * Called once if the inference fails. No further methods will be called.
+     *
+     * @param error the cause of the failure
+     */
+    void onError(Throwable error);
+
+    /**
+     * Called once after the inference has terminated and all of its answers have been delivered.
+     */
+    void onComplete();
+  }
+
+  /**
+   * Links a Subscriber to an AnswerPublisher.
+   */
+  public static interface Subscription {
+
+    /**
+     * Request that up to {@code n} more answers be delivered. If {@code n} is not positive, the
+     * subscription is cancelled, and the subscriber is sent an IllegalArgumentException.
+     *
+     * @param n the number of answers; must be positive
+     */
+    void request(long n);
+
+    /**
+     * Stop delivering answers, and stop the underlying inference.
+     */
+    void cancel();
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  private final AsyncQuery asyncQuery;
+  private final int maxBuffered;
+  private final Queue<BufferedAnswer> buffer = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger bufferDepth = new AtomicInteger();
+  private final AtomicInteger peakBufferDepth = new AtomicInteger();
+  private final AtomicBoolean congested = new AtomicBoolean(false);
+  private final AtomicLong demand = new AtomicLong();
+  private final LongAdder deliveredCount = new LongAdder();
+  private final LongAdder totalLatencyNanos = new LongAdder();
+  private final AtomicLong maxLatencyNanos = new AtomicLong();
+  private final AtomicInteger wip = new AtomicInteger();
+  private volatile Subscriber subscriber;
+  private volatile boolean done = false;
+  private volatile Throwable error = null;
+  private volatile boolean cancelled = false;
+  private volatile Throwable failure = null;
+  private boolean terminalSignalled = false;
+
+  //====|    Construction    |====================================================================//
+
+  AnswerPublisher(AsyncQuery asyncQuery, int maxBuffered) {
+    this.asyncQuery = asyncQuery;
+    this.maxBuffered = maxBuffered;
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Subscribe to the query's answers. Only one subscriber is permitted per publisher. Subscribing
+   * starts the inference if it has not already been started, unless the subscriber cancels its
+   * subscription from {@link Subscriber#onSubscribe}; answers which were found before the
+   * subscriber subscribed are not delivered.
+   *
+   * @param subscriber the subscriber
+   */
+  public void subscribe(Subscriber subscriber) {
+    synchronized (this) {
+      if (this.subscriber != null) {
+        throw new IllegalStateException("Publisher for " + asyncQuery + " already has a subscriber");
+      }
+      this.subscriber = subscriber;
+    }
+    subscriber.onSubscribe(new Subscription() {
+      @Override
+      public void request(long n) {
+        if (n <= 0) {
+          stop(new IllegalArgumentException("Must request a positive number of answers: " + n));
+          return;
+        }
+        demand.getAndUpdate(current -> (current + n < 0) ? Long.MAX_VALUE : current + n);
+        drain();
+      }
+
+      @Override
+      public void cancel() {
+        stop(null);
+      }
+    });
+    if (!cancelled) {
+      asyncQuery.register(this);
+    }
+  }
+
+  /**
+   * Returns the number of unrequested answers which this publisher could hold before suspending
+   * the inference.
+   *
+   * @return the buffer size; Integer.MAX_VALUE if the buffer is unbounded
+   */
+  public int getMaxBuffered() {
+    return maxBuffered;
+  }
+
+  /**
+   * Returns the number of answers which have arrived but have not yet been delivered.
+   *
+   * @return the current buffer depth
+   */
+  public int getBufferDepth() {
+    return bufferDepth.get();
+  }
+
+  /**
+   * Returns the largest number of answers which this publisher has held at once.
+   *
+   * @return the peak buffer depth
+   */
+  public int getPeakBufferDepth() {
+    return peakBufferDepth.get();
+  }
+
+  /**
+   * Returns the number of answers which have been delivered to the subscriber.
+   *
+   * @return the number of answers delivered
+   */
+  public long getDeliveredCount() {
+    return deliveredCount.sum();
+  }
+
+  /**
+   * Returns the mean time from the arrival of an answer from the Cyc server until it was handed to
+   * the subscriber.
+   *
+   * @param unit the unit in which to express the latency
+   *
+   * @return the mean latency, or 0 if no answers have been delivered
+   */
+  public long getMeanAnswerLatency(TimeUnit unit) {
+    final long delivered = deliveredCount.sum();
+    return (delivered == 0) ? 0 : unit.convert(totalLatencyNanos.sum() / delivered,
+            TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the longest time from the arrival of an answer from the Cyc server until it was handed
+   * to the subscriber.
+   *
+   * @param unit the unit in which to express the latency
+   *
+   * @return the maximum latency
+   */
+  public long getMaxAnswerLatency(TimeUnit unit) {
+    return unit.convert(maxLatencyNanos.get(), TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[" + asyncQuery.getQuery()
+            + ", buffered=" + getBufferDepth() + "/" + maxBuffered
+            + ", delivered=" + getDeliveredCount() + "]";
+  }
+
+  //====|    Callbacks from AsyncQuery    |=======================================================//
+
+  void onAnswers(List<QueryAnswer> newAnswers) {
+    if (!cancelled) {
+      final long arrivedNanos = System.nanoTime();
+      newAnswers.forEach(answer -> buffer.add(new BufferedAnswer(answer, arrivedNanos)));
+      final int depth = bufferDepth.addAndGet(newAnswers.size());
+      peakBufferDepth.accumulateAndGet(depth, Math::max);
+      if (depth >= maxBuffered && congested.compareAndSet(false, true)) {
+        asyncQuery.congested(this);
+      }
+      drain();
+    }
+  }
+
+  void onTerminated(Throwable exception) {
+    error = exception;
+    done = true;
+    drain();
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  /**
+   * Stops delivering answers and stops the inference, on behalf of a subscriber which has either
+   * cancelled or broken the rules of its subscription. In the latter case, the subscriber is sent
+   * {@code failure}, once any answer which is being delivered has been delivered. The inference is
+   * stopped even if it was suspended because this publisher's buffer was full, so that it
+   * terminates, and completes the AsyncQuery's futures.
+   *
+   * @param failure the error to send to the subscriber, or null if it cancelled
+   */
+  private void stop(Throwable failure) {
+    synchronized (this) {
+      if (cancelled) {
+        return;
+      }
+      this.failure = failure;
+      cancelled = true;
+    }
+    if (asyncQuery.isStarted()) {
+      asyncQuery.cancelled(this);
+    }
+    drain();
+  }
+
+  /**
+   * Discards any buffered answers. Only called while draining.
+   */
+  private void clearBuffer() {
+    while (buffer.poll() != null) {
+      bufferDepth.decrementAndGet();
+    }
+    congested.set(false);
+  }
+
+  /**
+   * Delivers as many buffered answers as have been requested. Only one thread drains at a time;
+   * a thread which finds another already draining simply notes that there is more work to do.
+   */
+  private void drain() {
+    if (wip.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      final Subscriber target = subscriber;
+      if (cancelled) {
+        clearBuffer();
+        if (target != null && failure != null && !terminalSignalled) {
+          terminalSignalled = true;
+          target.onError(failure);
+        }
+      } else if (target != null) {
+        while (demand.get() > 0) {
+          final BufferedAnswer buffered = buffer.poll();
+          if (buffered == null) {
+            break;
+          }
+          demand.decrementAndGet();
+          final int depth = bufferDepth.decrementAndGet();
+          if (depth <= maxBuffered / 2 && congested.compareAndSet(true, false)) {
+            asyncQuery.decongested(this);
+          }
+          recordLatency(System.nanoTime() - buffered.arrivedNanos);
+          target.onNext(buffered.answer);
+        }
+        if (done && buffer.isEmpty() && !terminalSignalled) {
+          terminalSignalled = true;
+          if (error != null) {
+            target.onError(error);
+          } else {
+            target.onComplete();
+          }
+        }
+      }
+      missed = wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private void recordLatency(long latencyNanos) {
+    deliveredCount.increment();
+    totalLatencyNanos.add(latencyNanos);
+    maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+  }
+
+  //====|    BufferedAnswer    |==================================================================//
+
+  private static final class BufferedAnswer {
+
+    private final QueryAnswer answer;
+    private final long arrivedNanos;
+
+    private BufferedAnswer(QueryAnswer answer, long arrivedNanos) {
+      this.answer = answer;
+      this.arrivedNanos = arrivedNanos;
+    }
+  }
+
+}
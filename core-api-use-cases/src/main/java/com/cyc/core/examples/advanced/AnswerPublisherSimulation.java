@@ -0,0 +1,650 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: AnswerPublisherSimulation.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.baseclient.inference.DefaultInferenceSuspendReason;
+import com.cyc.query.InferenceStatus;
+import com.cyc.query.InferenceSuspendReason;
+import com.cyc.query.Query;
+import com.cyc.query.QueryAnswer;
+import com.cyc.query.QueryAnswers;
+import com.cyc.query.QueryListener;
+import com.cyc.query.parameters.InferenceParameters;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives {@link AnswerPublisher} with scripted subscribers, against a simulated, in-process
+ * inference which produces a batch of answers every few milliseconds, and which may be stopped and
+ * continued. Each scenario checks the signals which its subscriber received, and what was asked of
+ * the inference:
+ * <ul>
+ * <li>A slow subscriber of a bounded publisher receives every answer, in order, followed by
+ * a single onComplete; the inference is suspended and continued, and the buffer never holds more
+ * than one batch over its limit.</li>
+ * <li>A subscriber which cancels while the inference is suspended for backpressure receives no
+ * further signals; the inference is not continued, and the query's answers future completes.</li>
+ * <li>A subscriber which requests zero answers while the inference is suspended receives a single
+ * onError, and nothing after it; the inference is not continued, and the answers future
+ * completes.</li>
+ * <li>An inference which reaches its own answer or time limit just as it is asked to stop for
+ * backpressure is not continued: its subscriber receives the answers found within the limit,
+ * followed by onComplete, and the answers future completes without waiting for the
+ * subscriber.</li>
+ * <li>If the inference fails, the answers which it found are delivered before onError.</li>
+ * <li>A subscriber which requests a negative number of answers from another thread, while an
+ * answer is being delivered, does not receive onError until that delivery has returned.</li>
+ * </ul>
+ * <p>
+ * The simulation fails (exiting with status 1) if any check fails.
+ * <p>
+ * Usage: {@code AnswerPublisherSimulation [answers] [batch size] [buffer size]}
+ */
+public class AnswerPublisherSimulation {
+
+  private static final int DEFAULT_ANSWERS = 200;
+  private static final int DEFAULT_BATCH_SIZE = 10;
+  private static final int DEFAULT_BUFFER_SIZE = 20;
+  private static final int BATCH_INTERVAL_MS = 2;
+  private static final long TIMEOUT_MS = 10000;
+
+  public static void main(String[] args) {
+    final String exampleName = AnswerPublisherSimulation.class.getSimpleName();
+    final int answers = intArg(args, 0, DEFAULT_ANSWERS);
+    final int batchSize = intArg(args, 1, DEFAULT_BATCH_SIZE);
+    final int bufferSize = intArg(args, 2, DEFAULT_BUFFER_SIZE);
+    boolean passed = false;
+    try {
+      System.out.println("Running " + exampleName + "...");
+      System.out.println(answers + " answers in batches of " + batchSize + ", every "
+                                 + BATCH_INTERVAL_MS + "ms, to publishers buffering "
+                                 + bufferSize);
+      final AnswerPublisherSimulation simulation
+              = new AnswerPublisherSimulation(answers, batchSize, bufferSize);
+      simulation.runSlowSubscriber();
+      simulation.runCancelWhileSuspended();
+      simulation.runInvalidRequestWhileSuspended();
+      simulation.runLimitWhileCongested("answer limit while congested",
+              DefaultInferenceSuspendReason.MAX_NUMBER);
+      simulation.runLimitWhileCongested("time limit while congested",
+              DefaultInferenceSuspendReason.MAX_TIME);
+      simulation.runInferenceError();
+      simulation.runInvalidRequestDuringDelivery();
+      passed = simulation.failures.isEmpty();
+      simulation.failures.forEach(failure -> System.out.println("FAILED: " + failure));
+      simulation.server.shutdownNow();
+      System.out.println();
+    } catch (InterruptedException | ExecutionException | TimeoutException
+                     | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(passed ? 0 : 1);
+    }
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  private final int answerCount;
+  private final int batchSize;
+  private final int bufferSize;
+  private final ScheduledExecutorService server;
+  private final List<String> failures = new CopyOnWriteArrayList<>();
+
+  //====|    Construction    |====================================================================//
+
+  private AnswerPublisherSimulation(int answerCount, int batchSize, int bufferSize) {
+    this.answerCount = answerCount;
+    this.batchSize = batchSize;
+    this.bufferSize = bufferSize;
+    this.server = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "SimulatedServer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  //====|    Scenarios    |=======================================================================//
+
+  /**
+   * A subscriber which requests one answer at a time, from its own thread, pausing before each.
+   */
+  private void runSlowSubscriber() throws InterruptedException {
+    final String scenario = "slow subscriber";
+    final SimulatedInference inference = new SimulatedInference(answerCount, -1, null);
+    final AsyncQuery asyncQuery = AsyncQuery.of(inference.query);
+    final AnswerPublisher publisher = asyncQuery.answerPublisher(bufferSize);
+    final ScriptedSubscriber subscriber = new ScriptedSubscriber(0);
+    publisher.subscribe(subscriber);
+    final Thread consumer = new Thread(() -> {
+      try {
+        while (!subscriber.isTerminated()) {
+          Thread.sleep(1);
+          subscriber.subscription.request(1);
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }, "SlowSubscriber");
+    consumer.start();
+    consumer.join(TIMEOUT_MS);
+    consumer.interrupt();
+    checkAnswersInOrder(scenario, subscriber.received, inference, answerCount);
+    check(scenario, subscriber.completeCount.get() == 1 && subscriber.errorCount.get() == 0,
+            "expected a single onComplete; got " + subscriber.completeCount + " onComplete and "
+            + subscriber.errorCount + " onError");
+    check(scenario, publisher.getPeakBufferDepth() <= bufferSize + batchSize,
+            "peak buffer depth " + publisher.getPeakBufferDepth() + " exceeds " + bufferSize
+            + " + one batch of " + batchSize);
+    check(scenario, asyncQuery.getSuspendCount() > 0, "the inference was never suspended");
+    check(scenario, inference.continueCount.get() == asyncQuery.getResumeCount()
+            && asyncQuery.getResumeCount() >= asyncQuery.getSuspendCount() - 1,
+            "suspended " + asyncQuery.getSuspendCount() + " times; continued "
+            + inference.continueCount + " times");
+    check(scenario, !subscriber.overlapped.get(), "signals overlapped");
+    System.out.println(String.format("%-34s %d answers, peak buffer %d, %d suspensions,"
+            + " %d continuations", scenario + ":", subscriber.received.size(),
+            publisher.getPeakBufferDepth(), asyncQuery.getSuspendCount(),
+            inference.continueCount.get()));
+  }
+
+  private void runCancelWhileSuspended()
+          throws InterruptedException, ExecutionException, TimeoutException {
+    runSuspendedThen("cancel while suspended", subscription -> subscription.cancel(), false);
+  }
+
+  private void runInvalidRequestWhileSuspended()
+          throws InterruptedException, ExecutionException, TimeoutException {
+    runSuspendedThen("request(0) while suspended", subscription -> subscription.request(0), true);
+  }
+
+  /**
+   * A subscriber which requests a few answers, and then stops requesting them, so that the
+   * publisher's buffer fills and the inference is suspended. Once it has been suspended, the
+   * subscriber performs {@code action}.
+   */
+  private void runSuspendedThen(String scenario, SubscriptionAction action, boolean expectError)
+          throws InterruptedException, ExecutionException, TimeoutException {
+    final int requested = 5;
+    final SimulatedInference inference = new SimulatedInference(answerCount, -1, null);
+    final AsyncQuery asyncQuery = AsyncQuery.of(inference.query);
+    final AnswerPublisher publisher = asyncQuery.answerPublisher(bufferSize);
+    final ScriptedSubscriber subscriber = new ScriptedSubscriber(requested);
+    publisher.subscribe(subscriber);
+    if (!inference.awaitSuspension()) {
+      failures.add(scenario + ": the inference was never suspended");
+      return;
+    }
+    final int continuesBefore = inference.continueCount.get();
+    final int signalsBefore = subscriber.signalCount.get();
+    action.perform(subscriber.subscription);
+    asyncQuery.answers().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    Thread.sleep(10 * BATCH_INTERVAL_MS);
+    final int expectedSignals = signalsBefore + (expectError ? 1 : 0);
+    check(scenario, subscriber.signalCount.get() == expectedSignals,
+            (subscriber.signalCount.get() - signalsBefore) + " signals after the subscriber acted;"
+            + " expected " + (expectedSignals - signalsBefore));
+    check(scenario, subscriber.received.size() == requested,
+            "received " + subscriber.received.size() + " answers; requested " + requested);
+    if (expectError) {
+      check(scenario, subscriber.errorCount.get() == 1
+              && subscriber.lastError instanceof IllegalArgumentException,
+              "expected a single IllegalArgumentException; got " + subscriber.errorCount
+              + " onError: " + subscriber.lastError);
+    }
+    check(scenario, subscriber.completeCount.get() == 0, "onComplete was called");
+    check(scenario, inference.continueCount.get() == continuesBefore,
+            "the inference was continued after the subscriber acted");
+    check(scenario, publisher.getBufferDepth() == 0,
+            publisher.getBufferDepth() + " answers remain buffered");
+    System.out.println(String.format("%-34s %d answers, %d suspension(s), answers future done",
+            scenario + ":", subscriber.received.size(), asyncQuery.getSuspendCount()));
+  }
+
+  /**
+   * A subscriber which requests nothing until the query's answers future completes, from an
+   * inference which reaches its own limit with the batch of answers that fills the publisher's
+   * buffer. The publisher asks for the inference to be stopped as that batch arrives, but the
+   * inference has already terminated, for {@code limitReason}.
+   */
+  private void runLimitWhileCongested(String scenario, InferenceSuspendReason limitReason)
+          throws InterruptedException {
+    final int limit = ((bufferSize + batchSize - 1) / batchSize) * batchSize;
+    final SimulatedInference inference = new SimulatedInference(answerCount, limit, limitReason);
+    final AsyncQuery asyncQuery = AsyncQuery.of(inference.query);
+    final AnswerPublisher publisher = asyncQuery.answerPublisher(bufferSize);
+    final ScriptedSubscriber subscriber = new ScriptedSubscriber(0);
+    publisher.subscribe(subscriber);
+    try {
+      asyncQuery.answers().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException | TimeoutException ex) {
+      failures.add(scenario + ": the answers future did not complete: " + ex);
+    }
+    subscriber.subscription.request(Long.MAX_VALUE);
+    subscriber.awaitTermination();
+    Thread.sleep(10 * BATCH_INTERVAL_MS);
+    checkAnswersInOrder(scenario, subscriber.received, inference, limit);
+    check(scenario, subscriber.completeCount.get() == 1 && subscriber.errorCount.get() == 0,
+            "expected a single onComplete; got " + subscriber.completeCount + " onComplete and "
+            + subscriber.errorCount + " onError");
+    check(scenario, asyncQuery.getSuspendCount() == 1, "asked to stop the inference "
+            + asyncQuery.getSuspendCount() + " times; expected once");
+    check(scenario, inference.continueCount.get() == 0 && asyncQuery.getResumeCount() == 0,
+            "the inference was continued " + inference.continueCount + " times");
+    System.out.println(String.format("%-34s %d answers, not continued, then onComplete",
+            scenario + ":", subscriber.received.size()));
+  }
+
+  /**
+   * A subscriber which requests answers a few at a time, from its own thread, from an inference
+   * which fails after finding some of them.
+   */
+  private void runInferenceError() throws InterruptedException {
+    final String scenario = "inference error";
+    final int failAfter = answerCount / 4;
+    final SimulatedInference inference = new SimulatedInference(answerCount, failAfter, null);
+    final AsyncQuery asyncQuery = AsyncQuery.of(inference.query);
+    final ScriptedSubscriber subscriber = new ScriptedSubscriber(0);
+    asyncQuery.answerPublisher().subscribe(subscriber);
+    final Thread consumer = new Thread(() -> {
+      try {
+        while (!subscriber.isTerminated()) {
+          Thread.sleep(BATCH_INTERVAL_MS * 3);
+          subscriber.subscription.request(batchSize / 2 + 1);
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }, "ErrorSubscriber");
+    consumer.start();
+    consumer.join(TIMEOUT_MS);
+    consumer.interrupt();
+    checkAnswersInOrder(scenario, subscriber.received, inference, failAfter);
+    check(scenario, subscriber.errorCount.get() == 1
+            && subscriber.lastError == inference.failure && subscriber.completeCount.get() == 0,
+            "expected a single onError with the inference's failure; got "
+            + subscriber.errorCount + " onError (" + subscriber.lastError + ") and "
+            + subscriber.completeCount + " onComplete");
+    check(scenario, asyncQuery.answers().isCompletedExceptionally(),
+            "the answers future did not fail");
+    System.out.println(String.format("%-34s %d answers, then onError", scenario + ":",
+            subscriber.received.size()));
+  }
+
+  /**
+   * A subscriber which takes a while to handle each answer, and which requests a negative number
+   * of answers from another thread, while handling the first.
+   */
+  private void runInvalidRequestDuringDelivery() throws InterruptedException {
+    final String scenario = "request(-1) during onNext";
+    final SimulatedInference inference = new SimulatedInference(answerCount, -1, null);
+    final AsyncQuery asyncQuery = AsyncQuery.of(inference.query);
+    final ScriptedSubscriber subscriber = new ScriptedSubscriber(Long.MAX_VALUE) {
+      @Override
+      public void onNext(QueryAnswer answer) {
+        super.onNext(answer);
+        if (received.size() == 1) {
+          final Thread other = new Thread(() -> subscription.request(-1), "OtherThread");
+          other.start();
+          try {
+            other.join();
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+    subscriber.onNextMillis = 20;
+    asyncQuery.answerPublisher().subscribe(subscriber);
+    subscriber.awaitTermination();
+    Thread.sleep(10 * BATCH_INTERVAL_MS);
+    check(scenario, !subscriber.overlapped.get(), "onError overlapped onNext");
+    check(scenario, subscriber.errorCount.get() == 1
+            && subscriber.lastError instanceof IllegalArgumentException,
+            "expected a single IllegalArgumentException; got " + subscriber.errorCount
+            + " onError: " + subscriber.lastError);
+    check(scenario, subscriber.nextAfterTerminal.get() == 0,
+            subscriber.nextAfterTerminal + " answers were delivered after onError");
+    System.out.println(String.format("%-34s %d answer(s), then onError", scenario + ":",
+            subscriber.received.size()));
+  }
+
+  //====|    Checks    |==========================================================================//
+
+  private void checkAnswersInOrder(String scenario, List<QueryAnswer> received,
+          SimulatedInference inference, int expectedCount) {
+    check(scenario, received.size() == expectedCount,
+            "received " + received.size() + " answers; expected " + expectedCount);
+    for (int i = 0; i < received.size(); i++) {
+      if (received.get(i) != inference.answers.get(i)) {
+        failures.add(scenario + ": answer " + i + " was delivered out of order");
+        return;
+      }
+    }
+  }
+
+  private void check(String scenario, boolean condition, String failure) {
+    if (!condition) {
+      failures.add(scenario + ": " + failure);
+    }
+  }
+
+  private static int intArg(String[] args, int index, int defaultValue) {
+    return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+  //====|    ScriptedSubscriber    |==============================================================//
+
+  private static interface SubscriptionAction {
+
+    void perform(AnswerPublisher.Subscription subscription);
+  }
+
+  /**
+   * Records the signals it receives, and whether any of them overlapped. Requests
+   * {@code initialRequest} answers when it subscribes; any further requests are made by the
+   * scenario.
+   */
+  private static class ScriptedSubscriber implements AnswerPublisher.Subscriber {
+
+    final List<QueryAnswer> received = new CopyOnWriteArrayList<>();
+    final AtomicInteger signalCount = new AtomicInteger();
+    final AtomicInteger errorCount = new AtomicInteger();
+    final AtomicInteger completeCount = new AtomicInteger();
+    final AtomicInteger nextAfterTerminal = new AtomicInteger();
+    final AtomicBoolean inSignal = new AtomicBoolean(false);
+    final AtomicBoolean overlapped = new AtomicBoolean(false);
+    final long initialRequest;
+    volatile AnswerPublisher.Subscription subscription;
+    volatile Throwable lastError;
+    volatile long onNextMillis = 0;
+
+    ScriptedSubscriber(long initialRequest) {
+      this.initialRequest = initialRequest;
+    }
+
+    @Override
+    public void onSubscribe(AnswerPublisher.Subscription subscription) {
+      this.subscription = subscription;
+      if (initialRequest > 0) {
+        subscription.request(initialRequest);
+      }
+    }
+
+    @Override
+    public void onNext(QueryAnswer answer) {
+      enter();
+      try {
+        if (isTerminated()) {
+          nextAfterTerminal.incrementAndGet();
+        }
+        received.add(answer);
+        if (onNextMillis > 0) {
+          Thread.sleep(onNextMillis);
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      } finally {
+        exit();
+      }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      enter();
+      lastError = error;
+      errorCount.incrementAndGet();
+      exit();
+      notifyTerminated();
+    }
+
+    @Override
+    public void onComplete() {
+      enter();
+      completeCount.incrementAndGet();
+      exit();
+      notifyTerminated();
+    }
+
+    boolean isTerminated() {
+      return errorCount.get() + completeCount.get() > 0;
+    }
+
+    synchronized void awaitTermination() throws InterruptedException {
+      final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+      while (!isTerminated() && System.currentTimeMillis() < deadline) {
+        wait(deadline - System.currentTimeMillis());
+      }
+    }
+
+    private synchronized void notifyTerminated() {
+      notifyAll();
+    }
+
+    private void enter() {
+      signalCount.incrementAndGet();
+      if (!inSignal.compareAndSet(false, true)) {
+        overlapped.set(true);
+      }
+    }
+
+    private void exit() {
+      inSignal.set(false);
+    }
+  }
+
+  //====|    SimulatedInference    |==============================================================//
+
+  /**
+   * A stand-in for a continuable query, whose inference finds {@code batchSize} answers every
+   * {@link #BATCH_INTERVAL_MS} milliseconds. Stopping it suspends it, as interrupted; continuing
+   * it resumes finding answers. All of its notifications are sent from the simulated server's
+   * single thread.
+   */
+  private class SimulatedInference {
+
+    final List<QueryAnswer> answers = new ArrayList<>();
+    final List<QueryAnswer> found = new CopyOnWriteArrayList<>();
+    final AtomicInteger continueCount = new AtomicInteger();
+    final RuntimeException failure = new IllegalStateException("Simulated inference failure");
+    final Query query;
+    private final int failAfter;
+    private final InferenceSuspendReason limitReason;
+    private final List<QueryListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile InferenceStatus status = InferenceStatus.NOT_STARTED;
+    private ScheduledFuture<?> production;
+
+    /**
+     * @param answerCount the number of answers to find
+     * @param failAfter the number of answers after which the inference fails, or reaches a limit;
+     *                  -1 if it does neither
+     * @param limitReason the reason for which the inference is suspended after
+     *                    {@code failAfter} answers; null if it fails
+     */
+    SimulatedInference(int answerCount, int failAfter, InferenceSuspendReason limitReason) {
+      this.failAfter = failAfter;
+      this.limitReason = limitReason;
+      for (int i = 0; i < answerCount; i++) {
+        answers.add(newAnswer(i));
+      }
+      this.query = newQuery();
+    }
+
+    /**
+     * Waits until the inference has been suspended, and its suspension has been reported.
+     */
+    boolean awaitSuspension()
+            throws InterruptedException, ExecutionException, TimeoutException {
+      final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+      while (System.currentTimeMillis() < deadline) {
+        if (status == InferenceStatus.SUSPENDED && found.size() < answers.size()) {
+          // Let the suspension notification reach the AsyncQuery:
+          server.submit(() -> null).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+          return true;
+        }
+        Thread.sleep(1);
+      }
+      return false;
+    }
+
+    private void run() {
+      server.submit(() -> {
+        setStatus(InferenceStatus.RUNNING, null);
+        production = server.scheduleWithFixedDelay(this::findBatch, BATCH_INTERVAL_MS,
+                BATCH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+      });
+    }
+
+    private void findBatch() {
+      final int from = found.size();
+      final int limit = (failAfter >= 0) ? failAfter : answers.size();
+      final int to = Math.min(from + batchSize, limit);
+      if (to > from) {
+        final List<QueryAnswer> batch = answers.subList(from, to);
+        found.addAll(batch);
+        listeners.forEach(listener -> listener.notifyInferenceAnswersAvailable(query, batch));
+      }
+      if (to == limit) {
+        production.cancel(false);
+        if (failAfter >= 0 && limitReason != null) {
+          setStatus(InferenceStatus.SUSPENDED, limitReason);
+          listeners.forEach(listener -> listener.notifyInferenceTerminated(query, null));
+        } else if (failAfter >= 0) {
+          setStatus(InferenceStatus.SUSPENDED,
+                  DefaultInferenceSuspendReason.createFromErrorString(failure.getMessage()));
+          listeners.forEach(listener -> listener.notifyInferenceTerminated(query, failure));
+        } else {
+          setStatus(InferenceStatus.SUSPENDED, DefaultInferenceSuspendReason.EXHAUST);
+          listeners.forEach(listener -> listener.notifyInferenceTerminated(query, null));
+        }
+      }
+    }
+
+    private void stop() {
+      server.submit(() -> {
+        if (status == InferenceStatus.RUNNING) {
+          production.cancel(false);
+          setStatus(InferenceStatus.SUSPENDED, DefaultInferenceSuspendReason.INTERRUPT);
+          listeners.forEach(listener -> listener.notifyInferenceTerminated(query, null));
+        }
+      });
+    }
+
+    private void setStatus(InferenceStatus newStatus, InferenceSuspendReason reason) {
+      final InferenceStatus oldStatus = status;
+      status = newStatus;
+      listeners.forEach(listener
+              -> listener.notifyInferenceStatusChanged(oldStatus, newStatus, reason, query));
+    }
+
+    private Query newQuery() {
+      final QueryAnswers<?> queryAnswers = (QueryAnswers<?>) Proxy.newProxyInstance(
+              getClass().getClassLoader(), new Class<?>[]{QueryAnswers.class},
+              (proxy, method, args) -> {
+                try {
+                  return method.invoke(Collections.unmodifiableList(found), args);
+                } catch (IllegalArgumentException ex) {
+                  throw new UnsupportedOperationException(method.getName());
+                } catch (InvocationTargetException ex) {
+                  throw ex.getCause();
+                }
+              });
+      final InferenceParameters parameters = (InferenceParameters) Proxy.newProxyInstance(
+              getClass().getClassLoader(), new Class<?>[]{InferenceParameters.class},
+              (proxy, method, args) -> {
+                switch (method.getName()) {
+                  case "setContinuable":
+                    return proxy;
+                  default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+              });
+      return (Query) Proxy.newProxyInstance(getClass().getClassLoader(),
+              new Class<?>[]{Query.class},
+              (proxy, method, args) -> {
+                switch (method.getName()) {
+                  case "addListener":
+                    listeners.add((QueryListener) args[0]);
+                    return proxy;
+                  case "getInferenceParameters":
+                    return parameters;
+                  case "isContinuable":
+                    return true;
+                  case "start":
+                    run();
+                    return null;
+                  case "continueQuery":
+                    continueCount.incrementAndGet();
+                    run();
+                    return null;
+                  case "stop":
+                    stop();
+                    return null;
+                  case "getStatus":
+                    return status;
+                  case "getAnswers":
+                    return queryAnswers;
+                  case "close":
+                    return null;
+                  case "equals":
+                    return proxy == args[0];
+                  case "hashCode":
+                    return System.identityHashCode(proxy);
+                  case "toString":
+                    return "SimulatedQuery";
+                  default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+              });
+    }
+
+    private QueryAnswer newAnswer(int index) {
+      return (QueryAnswer) Proxy.newProxyInstance(getClass().getClassLoader(),
+              new Class<?>[]{QueryAnswer.class},
+              (proxy, method, args) -> {
+                switch (method.getName()) {
+                  case "equals":
+                    return proxy == args[0];
+                  case "hashCode":
+                    return index;
+                  case "toString":
+                    return "SimulatedAnswer-" + index;
+                  default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+              });
+    }
+  }
+
+}
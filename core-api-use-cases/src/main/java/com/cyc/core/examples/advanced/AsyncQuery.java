@@ -0,0 +1,433 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: AsyncQuery.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.baseclient.inference.DefaultInferenceSuspendReason;
+import com.cyc.query.InferenceStatus;
+import com.cyc.query.InferenceSuspendReason;
+import com.cyc.query.Query;
+import com.cyc.query.QueryAnswer;
+import com.cyc.query.QueryListener;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A non-blocking facade for running a Query. {@link Query#performInference()} does not return
+ * until the inference terminates, so a thread which calls it is tied up for the lifetime of the
+ * inference. An AsyncQuery instead starts the inference via {@link Query#start()}, which returns
+ * immediately, and reports results via a {@link CompletableFuture} or an {@link AnswerPublisher}.
+ * A single thread can therefore keep many inferences in flight.
+ * <p>
+ * Each AsyncQuery starts its Query at most once, the first time that its answers are requested.
+ * Callbacks run on the threads which the Cyc APIs use to monitor inferences, so they should be
+ * quick; hand any lengthy work off to another executor.
+ * <p>
+ * If an {@link #answerPublisher(int) bounded publisher} is used, the inference is suspended
+ * whenever that publisher's subscriber falls too far behind, and is continued once the subscriber
+ * has caught up. These pauses are invisible to the subscriber and to {@link #answers()}; only the
+ * {@link #getSuspendCount() suspend} and {@link #getResumeCount() resume} counts record them.
+ * <p>
+ * An AsyncQuery does not close its Query. As always, the Query should be closed once its results
+ * are no longer needed; where there is no obvious point at which to do so, create the AsyncQuery
+ * with an {@link InferenceRegistry}, which will close the Query once it has been idle for too long.
+ */
+public class AsyncQuery implements QueryListener {
+
+  //====|    Factory methods    |=================================================================//
+
+  /**
+   * Wrap a Query which has not yet been started.
+   *
+   * @param query the query
+   *
+   * @return a new AsyncQuery
+   */
+  public static AsyncQuery of(Query query) {
+    final AsyncQuery result = new AsyncQuery(query);
+    query.addListener(result);
+    return result;
+  }
+
+  /**
+   * Wrap a Query which has not yet been started, registering it with {@code registry}, which will
+   * close it once it has been idle, or has run, for too long. It may still be closed sooner.
+   *
+   * @param query    the query
+   * @param registry the registry which is to close the query
+   *
+   * @return a new AsyncQuery
+   *
+   * @throws IllegalStateException if the registry has been closed
+   */
+  public static AsyncQuery of(Query query, InferenceRegistry registry) {
+    return of(registry.register(query));
+  }
+
+  /**
+   * Start {@code query}, and return a future which will be completed with all of its answers when
+   * its inference terminates.
+   *
+   * @param query the query
+   *
+   * @return the query's answers
+   */
+  public static CompletableFuture<List<QueryAnswer>> getAnswers(Query query) {
+    return of(query).answers();
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  /**
+   * Runs {@link Query#continueQuery()}, which blocks until the inference stops again. The threads
+   * spend nearly all of their time waiting on the Cyc server, so there is no point in bounding them
+   * by the number of processors.
+   */
+  private static final ExecutorService CONTINUATION_EXECUTOR = Executors.newCachedThreadPool(
+          runnable -> {
+            final Thread thread = new Thread(runnable, AsyncQuery.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private final Query query;
+  private final Executor continuationExecutor;
+  private final CompletableFuture<List<QueryAnswer>> completion = new CompletableFuture<>();
+  private final List<AnswerPublisher> publishers = new CopyOnWriteArrayList<>();
+  private final AtomicBoolean started = new AtomicBoolean(false);
+  private final Set<AnswerPublisher> congested
+          = Collections.newSetFromMap(new IdentityHashMap<>());
+  private final AtomicLong suspendCount = new AtomicLong();
+  private final AtomicLong resumeCount = new AtomicLong();
+  private volatile InferenceStatus lastStatus;
+  private volatile InferenceSuspendReason lastSuspendReason;
+  private FlowState flowState = FlowState.RUNNING;
+
+  /**
+   * Tracks suspensions made on behalf of congested publishers. Guarded by {@code this}.
+   */
+  private static enum FlowState {
+    /** The inference is free to run. */
+    RUNNING,
+    /** We have asked the inference to stop, and are waiting for it to do so. */
+    SUSPENDING,
+    /** The inference has been suspended, and will be continued once no publisher is congested. */
+    SUSPENDED,
+    /** A publisher has been cancelled, so the inference should not be continued. */
+    STOPPING
+  }
+
+  //====|    Construction    |====================================================================//
+
+  protected AsyncQuery(Query query) {
+    this(query, CONTINUATION_EXECUTOR);
+  }
+
+  protected AsyncQuery(Query query, Executor continuationExecutor) {
+    this.query = query;
+    this.continuationExecutor = continuationExecutor;
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Returns a future which will be completed with all of the query's answers when its inference
+   * terminates, starting the inference if necessary.
+   *
+   * @return the query's answers
+   */
+  public CompletableFuture<List<QueryAnswer>> answers() {
+    start();
+    return completion;
+  }
+
+  /**
+   * Returns a new publisher for the query's answers. The inference will be started when the
+   * publisher's subscriber subscribes.
+   * <p>
+   * The publisher holds any answers which its subscriber has not yet requested, however many
+   * there are. Use {@link #answerPublisher(int)} if the subscriber may fall far behind.
+   *
+   * @return a new publisher
+   */
+  public AnswerPublisher answerPublisher() {
+    return new AnswerPublisher(this, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns a new publisher for the query's answers, which holds no more than roughly
+   * {@code maxBuffered} unrequested answers. When its buffer fills, the inference is suspended;
+   * once the subscriber has requested half of the buffered answers, the inference is continued.
+   * The inference will be started when the publisher's subscriber subscribes.
+   * <p>
+   * Answers which are already on their way from the Cyc server when the inference is suspended
+   * are still buffered, so the limit can be exceeded by up to one batch of answers.
+   *
+   * @param maxBuffered the number of unrequested answers at which to suspend the inference
+   *
+   * @return a new publisher
+   *
+   * @throws IllegalArgumentException if {@code maxBuffered} is not positive
+   * @throws IllegalStateException if the inference has already been started, and is not
+   *                               continuable
+   */
+  public AnswerPublisher answerPublisher(int maxBuffered) {
+    if (maxBuffered <= 0) {
+      throw new IllegalArgumentException("Buffer size must be positive: " + maxBuffered);
+    }
+    if (!isStarted()) {
+      query.getInferenceParameters().setContinuable(true);
+    } else if (!query.isContinuable()) {
+      throw new IllegalStateException(
+              "Cannot apply backpressure to " + query + ": it is not continuable");
+    }
+    return new AnswerPublisher(this, maxBuffered);
+  }
+
+  /**
+   * Perform {@code action} on each answer as it is found, starting the inference if necessary.
+   *
+   * @param action the action to perform
+   *
+   * @return a future which will be completed once the inference has terminated and {@code action}
+   *         has been performed on every answer
+   */
+  public CompletableFuture<Void> forEachAnswer(Consumer<? super QueryAnswer> action) {
+    final CompletableFuture<Void> result = new CompletableFuture<>();
+    answerPublisher().subscribe(new AnswerPublisher.Subscriber() {
+      @Override
+      public void onSubscribe(AnswerPublisher.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(QueryAnswer answer) {
+        action.accept(answer);
+      }
+
+      @Override
+      public void onError(Throwable error) {
+        result.completeExceptionally(error);
+      }
+
+      @Override
+      public void onComplete() {
+        result.complete(null);
+      }
+    });
+    return result;
+  }
+
+  public Query getQuery() {
+    return query;
+  }
+
+  public boolean isStarted() {
+    return started.get();
+  }
+
+  public boolean isDone() {
+    return completion.isDone();
+  }
+
+  /**
+   * Returns the number of times that the inference has been suspended because a publisher's
+   * buffer was full.
+   *
+   * @return the number of suspensions
+   */
+  public long getSuspendCount() {
+    return suspendCount.get();
+  }
+
+  /**
+   * Returns the number of times that the inference has been continued after having been suspended
+   * because a publisher's buffer was full.
+   *
+   * @return the number of continuations
+   */
+  public long getResumeCount() {
+    return resumeCount.get();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[" + query + "]";
+  }
+
+  //====|    QueryListener methods    |===========================================================//
+
+  @Override
+  public void notifyInferenceCreated(Query query) {
+  }
+
+  @Override
+  public void notifyInferenceStatusChanged(InferenceStatus oldStatus, InferenceStatus newStatus,
+          InferenceSuspendReason suspendReason, Query query) {
+    lastStatus = newStatus;
+    lastSuspendReason = suspendReason;
+  }
+
+  @Override
+  public void notifyInferenceAnswersAvailable(Query query, List<QueryAnswer> newAnswers) {
+    publishers.forEach(publisher -> publisher.onAnswers(newAnswers));
+  }
+
+  @Override
+  public void notifyInferenceTerminated(Query query, Exception exception) {
+    if (exception == null && wasSuspendedForBackpressure()) {
+      return;
+    }
+    publishers.forEach(publisher -> publisher.onTerminated(exception));
+    if (exception != null) {
+      completion.completeExceptionally(exception);
+    } else {
+      try {
+        completion.complete(query.getAnswers());
+      } catch (RuntimeException ex) {
+        completion.completeExceptionally(ex);
+      }
+    }
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  void register(AnswerPublisher publisher) {
+    publishers.add(publisher);
+    if (completion.isDone()) {
+      // Already terminated, so there won't be any further answers:
+      completion.whenComplete((answers, error) -> publisher.onTerminated(error));
+    }
+    start();
+  }
+
+  /**
+   * Called by a bounded publisher when its buffer fills. Suspends the inference, unless it is
+   * already suspended.
+   */
+  void congested(AnswerPublisher publisher) {
+    synchronized (this) {
+      congested.add(publisher);
+      if (flowState != FlowState.RUNNING || completion.isDone()) {
+        return;
+      }
+      flowState = FlowState.SUSPENDING;
+    }
+    suspendCount.incrementAndGet();
+    query.stop(null);
+  }
+
+  /**
+   * Called by a bounded publisher when its buffer has drained. Continues the inference if it was
+   * suspended, and no other publisher is still congested.
+   */
+  void decongested(AnswerPublisher publisher) {
+    synchronized (this) {
+      congested.remove(publisher);
+      if (flowState != FlowState.SUSPENDED || !congested.isEmpty()) {
+        // If we're still SUSPENDING, the inference will be continued once it has stopped.
+        return;
+      }
+      flowState = FlowState.RUNNING;
+    }
+    resume();
+  }
+
+  /**
+   * Called by a publisher when its subscriber cancels. Stops the inference for good.
+   */
+  void cancelled(AnswerPublisher publisher) {
+    final boolean alreadySuspended;
+    synchronized (this) {
+      congested.remove(publisher);
+      alreadySuspended = (flowState == FlowState.SUSPENDED);
+      flowState = FlowState.STOPPING;
+    }
+    if (alreadySuspended) {
+      // The inference has already stopped, so there's no termination notification to wait for:
+      notifyInferenceTerminated(query, null);
+    } else {
+      query.stop(null);
+    }
+  }
+
+  /**
+   * Decides whether the termination of the inference was just a suspension made on behalf of a
+   * congested publisher, in which case the inference should eventually be continued, rather than
+   * reported as terminated. If no publisher is still congested, it is continued immediately.
+   * <p>
+   * Only an inference which was suspended because it was interrupted, as {@link Query#stop} does,
+   * was suspended on our behalf. An inference which reaches one of its own limits (such as its
+   * maximum number of answers, or its maximum time) at the moment we ask it to stop has
+   * terminated, and is reported as such, although its suspend reason is also continuable.
+   */
+  private boolean wasSuspendedForBackpressure() {
+    synchronized (this) {
+      if (flowState != FlowState.SUSPENDING) {
+        return false;
+      }
+      if (lastStatus != InferenceStatus.SUSPENDED
+                  || !DefaultInferenceSuspendReason.INTERRUPT.equals(lastSuspendReason)) {
+        flowState = FlowState.RUNNING;
+        return false;
+      }
+      if (!congested.isEmpty()) {
+        flowState = FlowState.SUSPENDED;
+        return true;
+      }
+      flowState = FlowState.RUNNING;
+    }
+    resume();
+    return true;
+  }
+
+  private void resume() {
+    resumeCount.incrementAndGet();
+    continuationExecutor.execute(() -> {
+      try {
+        query.continueQuery();
+      } catch (RuntimeException ex) {
+        notifyInferenceTerminated(query, ex);
+      }
+    });
+  }
+
+  private void start() {
+    if (started.compareAndSet(false, true)) {
+      try {
+        query.start();
+      } catch (RuntimeException ex) {
+        notifyInferenceTerminated(query, ex);
+      }
+    }
+  }
+
+}
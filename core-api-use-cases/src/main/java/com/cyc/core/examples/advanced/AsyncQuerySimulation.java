@@ -0,0 +1,399 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: AsyncQuerySimulation.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.baseclient.inference.DefaultInferenceSuspendReason;
+import com.cyc.query.InferenceStatus;
+import com.cyc.query.Query;
+import com.cyc.query.QueryAnswer;
+import com.cyc.query.QueryAnswers;
+import com.cyc.query.QueryListener;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives the {@link AsyncQuery} facade against scripted, in-process inferences, each of which
+ * finds its answers in a few batches over a fixed latency, on a simulated server's threads. No Cyc
+ * server is needed. The scenarios are:
+ * <ul>
+ * <li>A single thread starts hundreds of inferences via {@link AsyncQuery#getAnswers(Query)}, and
+ * only then waits for their answers. Starting all of them must take less than one inference's
+ * latency, and all of them must complete in a small multiple of it, each with its own answers, in
+ * order.</li>
+ * <li>{@link AsyncQuery#answers()}, called twice, and {@link AsyncQuery#forEachAnswer} on the
+ * same AsyncQuery start the inference once, and see the same answers.</li>
+ * <li>An inference which fails part-way through completes both futures exceptionally, with its
+ * failure, after the answers it found have been passed to the action.</li>
+ * <li>A Query which cannot be started completes its answers future exceptionally.</li>
+ * </ul>
+ * <p>
+ * The simulation fails (exiting with status 1) if any check fails.
+ * <p>
+ * Usage: {@code AsyncQuerySimulation [inferences] [latency millis] [answers per inference]}
+ */
+public class AsyncQuerySimulation {
+
+  private static final int DEFAULT_INFERENCES = 500;
+  private static final int DEFAULT_LATENCY_MILLIS = 200;
+  private static final int DEFAULT_ANSWERS = 20;
+  private static final int BATCHES = 4;
+  private static final int SERVER_THREADS = 2;
+  private static final long TIMEOUT_MS = 10000;
+
+  public static void main(String[] args) {
+    final String exampleName = AsyncQuerySimulation.class.getSimpleName();
+    final int inferences = intArg(args, 0, DEFAULT_INFERENCES);
+    final int latencyMillis = intArg(args, 1, DEFAULT_LATENCY_MILLIS);
+    final int answers = intArg(args, 2, DEFAULT_ANSWERS);
+    boolean passed = false;
+    try {
+      System.out.println("Running " + exampleName + "...");
+      System.out.println(inferences + " inferences of " + answers + " answers, over "
+                                 + latencyMillis + "ms each");
+      final AsyncQuerySimulation simulation
+              = new AsyncQuerySimulation(latencyMillis, answers);
+      simulation.runManyInFlight(inferences);
+      simulation.runSharedStart();
+      simulation.runInferenceError();
+      simulation.runStartError();
+      passed = simulation.failures.isEmpty();
+      simulation.failures.forEach(failure -> System.out.println("FAILED: " + failure));
+      simulation.server.shutdownNow();
+      System.out.println();
+    } catch (InterruptedException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(passed ? 0 : 1);
+    }
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  private final int latencyMillis;
+  private final int answerCount;
+  private final ScheduledExecutorService server;
+  private final List<String> failures = new CopyOnWriteArrayList<>();
+
+  //====|    Construction    |====================================================================//
+
+  private AsyncQuerySimulation(int latencyMillis, int answerCount) {
+    this.latencyMillis = latencyMillis;
+    this.answerCount = answerCount;
+    final AtomicInteger threadIds = new AtomicInteger();
+    this.server = Executors.newScheduledThreadPool(SERVER_THREADS, runnable -> {
+      final Thread thread = new Thread(runnable, "SimulatedServer-" + threadIds.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  //====|    Scenarios    |=======================================================================//
+
+  /**
+   * Start {@code count} inferences from this thread, and then wait for all of them.
+   */
+  private void runManyInFlight(int count) throws InterruptedException {
+    final String scenario = "many in flight";
+    final List<ScriptedInference> inferences = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      inferences.add(new ScriptedInference("Inference-" + i, -1, false));
+    }
+    final long start = System.nanoTime();
+    final List<CompletableFuture<List<QueryAnswer>>> futures = new ArrayList<>(count);
+    for (ScriptedInference inference : inferences) {
+      futures.add(AsyncQuery.getAnswers(inference.query));
+    }
+    final double startMillis = (System.nanoTime() - start) / 1e6;
+    int completed = 0;
+    for (int i = 0; i < count; i++) {
+      final ScriptedInference inference = inferences.get(i);
+      try {
+        final List<QueryAnswer> answers = futures.get(i).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        check(scenario, answers.equals(inference.answers),
+                inference + " completed with " + answers.size() + " answers; expected "
+                + inference.answers.size() + ", in order");
+        completed++;
+      } catch (ExecutionException | TimeoutException ex) {
+        failures.add(scenario + ": " + inference + " did not complete: " + ex);
+      }
+      check(scenario, inference.startCount.get() == 1,
+              inference + " was started " + inference.startCount + " times");
+    }
+    final double totalMillis = (System.nanoTime() - start) / 1e6;
+    check(scenario, startMillis < latencyMillis,
+            String.format("starting %d inferences took %.0fms, against a latency of %dms", count,
+                    startMillis, latencyMillis));
+    check(scenario, totalMillis < latencyMillis * 5.0,
+            String.format("%d inferences took %.0fms to complete, against a latency of %dms",
+                    count, totalMillis, latencyMillis));
+    System.out.println(String.format("%-26s %d of %d completed; started in %.1fms, all done in"
+            + " %.0fms (%.0fms if run one at a time)", scenario + ":", completed, count,
+            startMillis, totalMillis, (double) count * latencyMillis));
+  }
+
+  /**
+   * Ask one AsyncQuery for its answers twice, and for each answer as it is found.
+   */
+  private void runSharedStart() throws InterruptedException {
+    final String scenario = "shared start";
+    final ScriptedInference inference = new ScriptedInference("Shared", -1, false);
+    final AsyncQuery asyncQuery = AsyncQuery.of(inference.query);
+    final List<QueryAnswer> seen = new CopyOnWriteArrayList<>();
+    final CompletableFuture<List<QueryAnswer>> first = asyncQuery.answers();
+    final CompletableFuture<Void> each = asyncQuery.forEachAnswer(seen::add);
+    final CompletableFuture<List<QueryAnswer>> second = asyncQuery.answers();
+    try {
+      check(scenario, first.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).equals(inference.answers)
+              && second.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).equals(inference.answers),
+              "the answers futures did not complete with the inference's answers");
+      each.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      check(scenario, seen.equals(inference.answers),
+              "forEachAnswer saw " + seen.size() + " answers; expected "
+              + inference.answers.size() + ", in order");
+    } catch (ExecutionException | TimeoutException ex) {
+      failures.add(scenario + ": did not complete: " + ex);
+    }
+    check(scenario, inference.startCount.get() == 1,
+            "the inference was started " + inference.startCount + " times");
+    check(scenario, asyncQuery.isStarted() && asyncQuery.isDone(),
+            "started=" + asyncQuery.isStarted() + ", done=" + asyncQuery.isDone());
+    System.out.println(String.format("%-26s %d answers, each seen once; started %d time(s)",
+            scenario + ":", seen.size(), inference.startCount.get()));
+  }
+
+  /**
+   * An inference which fails after half of its answers.
+   */
+  private void runInferenceError() throws InterruptedException {
+    final String scenario = "inference error";
+    final int failAfter = answerCount / 2;
+    final ScriptedInference inference = new ScriptedInference("Failing", failAfter, false);
+    final AsyncQuery asyncQuery = AsyncQuery.of(inference.query);
+    final List<QueryAnswer> seen = new CopyOnWriteArrayList<>();
+    final CompletableFuture<Void> each = asyncQuery.forEachAnswer(seen::add);
+    final CompletableFuture<List<QueryAnswer>> answers = asyncQuery.answers();
+    checkFailure(scenario, "answers()", answers, inference.failure);
+    checkFailure(scenario, "forEachAnswer", each, inference.failure);
+    check(scenario, seen.equals(inference.answers.subList(0, failAfter)),
+            "forEachAnswer saw " + seen.size() + " answers before the failure; expected "
+            + failAfter);
+    System.out.println(String.format("%-26s %d answers, then %s", scenario + ":", seen.size(),
+            inference.failure.getMessage()));
+  }
+
+  /**
+   * A Query whose {@code start()} throws.
+   */
+  private void runStartError() throws InterruptedException {
+    final String scenario = "start error";
+    final ScriptedInference inference = new ScriptedInference("Unstartable", -1, true);
+    checkFailure(scenario, "getAnswers", AsyncQuery.getAnswers(inference.query),
+            inference.failure);
+    System.out.println(String.format("%-26s %s", scenario + ":", inference.failure.getMessage()));
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private void checkFailure(String scenario, String name, CompletableFuture<?> future,
+          Throwable expected) throws InterruptedException {
+    try {
+      future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      failures.add(scenario + ": " + name + " completed normally");
+    } catch (ExecutionException ex) {
+      check(scenario, ex.getCause() == expected,
+              name + " failed with " + ex.getCause() + "; expected " + expected);
+    } catch (TimeoutException ex) {
+      failures.add(scenario + ": " + name + " did not complete");
+    }
+  }
+
+  private void check(String scenario, boolean condition, String failure) {
+    if (!condition) {
+      failures.add(scenario + ": " + failure);
+    }
+  }
+
+  private static int intArg(String[] args, int index, int defaultValue) {
+    return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+  //====|    ScriptedInference    |===============================================================//
+
+  /**
+   * A stand-in for a Query, whose inference finds its answers in {@link #BATCHES} batches, spread
+   * over the simulation's latency, on the simulated server's threads.
+   */
+  private class ScriptedInference {
+
+    final List<QueryAnswer> answers = new ArrayList<>();
+    final List<QueryAnswer> found = new CopyOnWriteArrayList<>();
+    final AtomicInteger startCount = new AtomicInteger();
+    final RuntimeException failure;
+    final Query query;
+    private final String name;
+    private final int failAfter;
+    private final boolean failToStart;
+    private final List<QueryListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile InferenceStatus status = InferenceStatus.NOT_STARTED;
+
+    /**
+     * @param name        the query's name
+     * @param failAfter   the number of answers after which the inference fails; -1 if it does not
+     * @param failToStart whether {@code start()} throws
+     */
+    ScriptedInference(String name, int failAfter, boolean failToStart) {
+      this.name = name;
+      this.failAfter = failAfter;
+      this.failToStart = failToStart;
+      this.failure = new IllegalStateException("Simulated failure of " + name);
+      for (int i = 0; i < answerCount; i++) {
+        answers.add(newAnswer(i));
+      }
+      this.query = newQuery();
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+
+    private void start() {
+      startCount.incrementAndGet();
+      if (failToStart) {
+        throw failure;
+      }
+      server.execute(() -> setStatus(InferenceStatus.RUNNING));
+      final int batchSize = (answerCount + BATCHES - 1) / BATCHES;
+      for (int batch = 1; batch <= BATCHES; batch++) {
+        final int from = Math.min((batch - 1) * batchSize, answerCount);
+        final int to = Math.min(batch * batchSize, answerCount);
+        final boolean last = (batch == BATCHES);
+        server.schedule(() -> findBatch(from, to, last), latencyMillis * batch / BATCHES,
+                TimeUnit.MILLISECONDS);
+      }
+    }
+
+    /**
+     * Finds the answers from {@code from} to {@code to}, unless the inference has already failed.
+     * Batches are scheduled in order, but may run on different threads, so they are serialized.
+     */
+    private synchronized void findBatch(int from, int to, boolean last) {
+      if (status != InferenceStatus.RUNNING) {
+        return;
+      }
+      final int limit = (failAfter >= 0) ? Math.min(to, failAfter) : to;
+      if (limit > from) {
+        final List<QueryAnswer> batch = answers.subList(from, limit);
+        found.addAll(batch);
+        listeners.forEach(listener -> listener.notifyInferenceAnswersAvailable(query, batch));
+      }
+      if (failAfter >= 0 && limit == failAfter) {
+        setStatus(InferenceStatus.SUSPENDED);
+        listeners.forEach(listener -> listener.notifyInferenceTerminated(query, failure));
+      } else if (last) {
+        setStatus(InferenceStatus.SUSPENDED);
+        listeners.forEach(listener -> listener.notifyInferenceTerminated(query, null));
+      }
+    }
+
+    private void setStatus(InferenceStatus newStatus) {
+      final InferenceStatus oldStatus = status;
+      status = newStatus;
+      listeners.forEach(listener -> listener.notifyInferenceStatusChanged(oldStatus, newStatus,
+              (newStatus == InferenceStatus.SUSPENDED)
+                      ? DefaultInferenceSuspendReason.EXHAUST
+                      : null, query));
+    }
+
+    private Query newQuery() {
+      final QueryAnswers<?> queryAnswers = (QueryAnswers<?>) Proxy.newProxyInstance(
+              getClass().getClassLoader(), new Class<?>[]{QueryAnswers.class},
+              (proxy, method, args) -> {
+                try {
+                  return method.invoke(Collections.unmodifiableList(new ArrayList<>(found)),
+                          args);
+                } catch (IllegalArgumentException ex) {
+                  throw new UnsupportedOperationException(method.getName());
+                } catch (InvocationTargetException ex) {
+                  throw ex.getCause();
+                }
+              });
+      return (Query) Proxy.newProxyInstance(getClass().getClassLoader(),
+              new Class<?>[]{Query.class},
+              (proxy, method, args) -> {
+                switch (method.getName()) {
+                  case "addListener":
+                    listeners.add((QueryListener) args[0]);
+                    return proxy;
+                  case "start":
+                    start();
+                    return null;
+                  case "getStatus":
+                    return status;
+                  case "getAnswers":
+                    return queryAnswers;
+                  case "close":
+                    return null;
+                  case "equals":
+                    return proxy == args[0];
+                  case "hashCode":
+                    return System.identityHashCode(proxy);
+                  case "toString":
+                    return name;
+                  default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+              });
+    }
+
+    private QueryAnswer newAnswer(int index) {
+      final String answerName = name + "-Answer-" + index;
+      return (QueryAnswer) Proxy.newProxyInstance(getClass().getClassLoader(),
+              new Class<?>[]{QueryAnswer.class},
+              (proxy, method, args) -> {
+                switch (method.getName()) {
+                  case "equals":
+                    return proxy == args[0];
+                  case "hashCode":
+                    return System.identityHashCode(proxy);
+                  case "toString":
+                    return answerName;
+                  default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+              });
+    }
+  }
+
+}
@@ -0,0 +1,431 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: ColumnarResultSet.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.kb.KbObject;
+import com.cyc.kb.Variable;
+import com.cyc.kb.exception.KbException;
+import com.cyc.kb.exception.KbTypeException;
+import com.cyc.query.Query;
+import com.cyc.query.QueryAnswer;
+import com.cyc.query.QueryResultSet;
+import com.cyc.session.exception.SessionCommunicationException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, read-only, column-oriented copy of a query's answers, for answer sets which are too
+ * large to hold comfortably as a {@code List<QueryAnswer>}. Each QueryAnswer holds its own map of
+ * bindings, and a {@link QueryResultSet} converts the binding to a KbObject each time that
+ * {@link QueryResultSet#getKbObject(Variable, Class) getKbObject} is called, so a million rows
+ * cost a million maps, or a million KbObjects per pass. Large answer sets typically bind each
+ * variable to far fewer distinct terms than there are rows, however.
+ * <p>
+ * A ColumnarResultSet therefore interns every distinct binding once, in a dictionary, and holds
+ * each variable's bindings as an {@code int[]} of term IDs: four bytes per binding. Iterating via
+ * {@link #getTermId(int, int)} touches no objects at all, and term IDs may be compared directly,
+ * since equal bindings share an ID. {@link #getKbObject(int, int, Class)} and
+ * {@link #getTerm(int, Class)} convert a term to the requested type at most once per distinct
+ * term, and cache the result for subsequent calls.
+ * <p>
+ * Copying is not free, however. The Core Client converts each binding to a KbObject as it is read,
+ * whether via {@link QueryResultSet#getObject(int, Class) getObject} or
+ * {@link QueryAnswer#getBinding(Variable) getBinding}, and offers no way to read the raw binding;
+ * so building a ColumnarResultSet costs one conversion per binding, as one pass over the answers
+ * would, and the dictionary holds the converted bindings. The savings are in memory, and in every
+ * later pass. A binding which is not already of the type requested from the ColumnarResultSet is
+ * converted via {@link KbObject#get(String)}; override {@link #materialize(Object, Class)} to
+ * convert bindings some other way.
+ * <p>
+ * A ColumnarResultSet does not refer to the Query or QueryResultSet from which it was built, which
+ * may be closed as soon as it has been built. Instances are safe for concurrent reads.
+ */
+public class ColumnarResultSet {
+
+  //====|    Factory methods    |=================================================================//
+
+  /**
+   * Run {@code query}, if necessary, and copy its answers.
+   *
+   * @param query the query
+   *
+   * @return its answers
+   *
+   * @throws SessionCommunicationException if the answers could not be retrieved
+   */
+  public static ColumnarResultSet of(Query query) throws SessionCommunicationException {
+    return from(query.getResultSet());
+  }
+
+  /**
+   * Copy every row of {@code resultSet}, from the first. Each binding is read via
+   * {@link QueryResultSet#getObject(int, Class) getObject}, which in the Core Client converts it
+   * to a KbObject. The result set is left positioned after its last row.
+   *
+   * @param resultSet the result set
+   *
+   * @return the copy
+   */
+  public static ColumnarResultSet from(QueryResultSet resultSet) {
+    final List<Variable> columns = resultSet.getColumns();
+    final Builder builder = new Builder(columns, resultSet.getCurrentRowCount());
+    final Object[] row = new Object[columns.size()];
+    resultSet.beforeFirst();
+    while (resultSet.next()) {
+      for (int col = 0; col < row.length; col++) {
+        // Result set columns are numbered from one:
+        row[col] = resultSet.getObject(col + 1, Object.class);
+      }
+      builder.add(row);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Copy the bindings of {@code columns} from {@code answers}. A variable which an answer does not
+   * bind is null in that row.
+   *
+   * @param answers the answers
+   * @param columns the variables to copy
+   *
+   * @return the copy
+   */
+  public static ColumnarResultSet from(Collection<? extends QueryAnswer> answers,
+          List<Variable> columns) {
+    final Builder builder = new Builder(columns, answers.size());
+    final Object[] row = new Object[columns.size()];
+    for (QueryAnswer answer : answers) {
+      for (int col = 0; col < row.length; col++) {
+        row[col] = answer.getBinding(columns.get(col));
+      }
+      builder.add(row);
+    }
+    return builder.build();
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  /**
+   * The term ID of a missing binding.
+   */
+  public static final int NO_TERM = -1;
+
+  private final List<Variable> columns;
+  private final Map<Variable, Integer> columnIndices;
+  private final int rowCount;
+  private final int[][] termIds;
+  private final Object[] terms;
+  /**
+   * The KbObject for each term, once it has been materialized. Racing threads may both
+   * materialize a term, which is harmless.
+   */
+  private final Object[] materialized;
+
+  //====|    Construction    |====================================================================//
+
+  protected ColumnarResultSet(List<Variable> columns, int rowCount, int[][] termIds,
+          Object[] terms) {
+    this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+    this.columnIndices = new HashMap<>();
+    for (int col = 0; col < columns.size(); col++) {
+      columnIndices.put(columns.get(col), col);
+    }
+    this.rowCount = rowCount;
+    this.termIds = termIds;
+    this.terms = terms;
+    this.materialized = new Object[terms.length];
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public List<Variable> getColumns() {
+    return columns;
+  }
+
+  /**
+   * Returns the index of the column for {@code var}.
+   *
+   * @param var the variable
+   *
+   * @return the column index
+   *
+   * @throws IllegalArgumentException if there is no such column
+   */
+  public int findColumn(Variable var) {
+    final Integer col = columnIndices.get(var);
+    if (col == null) {
+      throw new IllegalArgumentException("No such column: " + var);
+    }
+    return col;
+  }
+
+  /**
+   * Returns the number of distinct terms bound by all of the rows.
+   *
+   * @return the number of terms
+   */
+  public int getTermCount() {
+    return terms.length;
+  }
+
+  /**
+   * Returns the ID of the term bound in {@code row} of column {@code col}. Equal bindings have
+   * equal IDs, in every column.
+   *
+   * @param row the row, from zero
+   * @param col the column
+   *
+   * @return the term ID, or {@link #NO_TERM} if the binding is missing
+   */
+  public int getTermId(int row, int col) {
+    if (row < 0 || row >= rowCount) {
+      throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+    }
+    return termIds[col][row];
+  }
+
+  /**
+   * Returns the binding for term ID {@code termId}, as it was copied: without materializing it.
+   *
+   * @param termId the term ID
+   *
+   * @return the binding, or null for {@link #NO_TERM}
+   */
+  public Object getRawTerm(int termId) {
+    return (termId == NO_TERM) ? null : terms[termId];
+  }
+
+  /**
+   * Returns the term with ID {@code termId}, materializing it on first access.
+   *
+   * @param <O>    the type of the term
+   * @param termId the term ID
+   * @param type   the type of the term
+   *
+   * @return the term, or null for {@link #NO_TERM}
+   *
+   * @throws KbException if the term could not be materialized as a {@code type}
+   */
+  public <O> O getTerm(int termId, Class<O> type) throws KbException {
+    if (termId == NO_TERM) {
+      return null;
+    }
+    final Object cached = materialized[termId];
+    if (type.isInstance(cached)) {
+      return type.cast(cached);
+    }
+    final O term = materialize(terms[termId], type);
+    materialized[termId] = term;
+    return term;
+  }
+
+  /**
+   * Returns the term bound in {@code row} of column {@code col}, materializing it on first access.
+   *
+   * @param <O>  the type of the term
+   * @param row  the row, from zero
+   * @param col  the column
+   * @param type the type of the term
+   *
+   * @return the term, or null if the binding is missing
+   *
+   * @throws KbException if the term could not be materialized as a {@code type}
+   */
+  public <O> O getKbObject(int row, int col, Class<O> type) throws KbException {
+    return getTerm(getTermId(row, col), type);
+  }
+
+  public <O> O getKbObject(int row, Variable var, Class<O> type) throws KbException {
+    return getKbObject(row, findColumn(var), type);
+  }
+
+  /**
+   * Returns a copy of the term IDs of column {@code col}, in row order.
+   *
+   * @param col the column
+   *
+   * @return the term IDs
+   */
+  public int[] getTermIds(int col) {
+    return Arrays.copyOf(termIds[col], rowCount);
+  }
+
+  /**
+   * Returns a forward-only cursor over the rows, in the style of a {@link QueryResultSet}.
+   *
+   * @return a new cursor, positioned before the first row
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Estimates the memory held by this result set, excluding the terms themselves: the term ID
+   * columns, and the dictionary's references to the terms.
+   *
+   * @return the estimate, in bytes
+   */
+  public long estimateFootprint() {
+    return 4L * rowCount * columns.size() + 8L * terms.length * 2;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[" + rowCount + " rows x " + columns.size()
+            + " columns, " + terms.length + " distinct terms]";
+  }
+
+  //====|    Protected methods    |===============================================================//
+
+  /**
+   * Converts a binding, as copied, to a {@code type}. Called at most once per term and type, unless
+   * two threads race.
+   *
+   * @param <O>  the type of the term
+   * @param raw  the binding, as copied
+   * @param type the type of the term
+   *
+   * @return the term
+   *
+   * @throws KbException if the binding could not be converted
+   */
+  protected <O> O materialize(Object raw, Class<O> type) throws KbException {
+    if (type.isInstance(raw)) {
+      return type.cast(raw);
+    }
+    final KbObject kbObject = KbObject.get(raw.toString());
+    if (!type.isInstance(kbObject)) {
+      throw new KbTypeException(raw + " is not a " + type.getSimpleName());
+    }
+    return type.cast(kbObject);
+  }
+
+  //====|    Cursor    |==========================================================================//
+
+  /**
+   * A forward-only cursor over a ColumnarResultSet's rows. Not thread-safe.
+   */
+  public class Cursor {
+
+    private int row = -1;
+
+    private Cursor() {
+    }
+
+    /**
+     * Advances to the next row.
+     *
+     * @return whether there is a next row
+     */
+    public boolean next() {
+      if (row < rowCount) {
+        row++;
+      }
+      return row < rowCount;
+    }
+
+    public int getRow() {
+      return row;
+    }
+
+    public int getTermId(int col) {
+      return ColumnarResultSet.this.getTermId(row, col);
+    }
+
+    public int getTermId(Variable var) {
+      return getTermId(findColumn(var));
+    }
+
+    public <O> O getKbObject(int col, Class<O> type) throws KbException {
+      return ColumnarResultSet.this.getKbObject(row, col, type);
+    }
+
+    public <O> O getKbObject(Variable var, Class<O> type) throws KbException {
+      return getKbObject(findColumn(var), type);
+    }
+  }
+
+  //====|    Builder    |=========================================================================//
+
+  /**
+   * Accumulates rows into growable columns, interning each binding as it is added.
+   */
+  private static final class Builder {
+
+    private final List<Variable> columns;
+    private final Map<Object, Integer> termIndex = new HashMap<>();
+    private final List<Object> terms = new ArrayList<>();
+    private int[][] termIds;
+    private int rowCount = 0;
+
+    private Builder(List<Variable> columns, Integer expectedRows) {
+      this.columns = columns;
+      final int capacity = (expectedRows != null && expectedRows > 0) ? expectedRows : 16;
+      this.termIds = new int[columns.size()][capacity];
+    }
+
+    private void add(Object[] row) {
+      if (termIds.length > 0 && rowCount == termIds[0].length) {
+        for (int col = 0; col < termIds.length; col++) {
+          termIds[col] = Arrays.copyOf(termIds[col], rowCount * 2);
+        }
+      }
+      for (int col = 0; col < row.length; col++) {
+        termIds[col][rowCount] = intern(row[col]);
+      }
+      rowCount++;
+    }
+
+    private int intern(Object term) {
+      if (term == null) {
+        return NO_TERM;
+      }
+      final Integer existing = termIndex.get(term);
+      if (existing != null) {
+        return existing;
+      }
+      final int id = terms.size();
+      terms.add(term);
+      termIndex.put(term, id);
+      return id;
+    }
+
+    private ColumnarResultSet build() {
+      for (int col = 0; col < termIds.length; col++) {
+        if (termIds[col].length != rowCount) {
+          termIds[col] = Arrays.copyOf(termIds[col], rowCount);
+        }
+      }
+      return new ColumnarResultSet(columns, rowCount, termIds, terms.toArray());
+    }
+  }
+
+}
@@ -0,0 +1,320 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: ColumnarResultSetComparison.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.kb.KbTerm;
+import com.cyc.kb.Variable;
+import com.cyc.kb.exception.KbException;
+import com.cyc.query.InferenceAnswerIdentifier;
+import com.cyc.query.QueryAnswer;
+import com.cyc.query.QueryResultSet;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares the memory footprint and iteration speed of a {@link ColumnarResultSet} with those of
+ * the equivalent {@code List<QueryAnswer>}, for a large, synthetic answer set: each answer binds
+ * two variables, drawn from a much smaller number of distinct terms, as the answers to a query
+ * over a large KB typically do. No Cyc server is needed; the terms are in-process stand-ins, and
+ * each answer holds its bindings in a HashMap, as the Core Client's answers do. It also copies the
+ * same answers via a stand-in {@link QueryResultSet}, whose columns are numbered from one as the
+ * Core Client's are, and checks that both copies hold the same bindings.
+ * <p>
+ * Footprints are measured as the growth of the used heap after garbage collection, excluding the
+ * terms themselves, which both representations share. Like {@link QueryResultCacheExample}, this
+ * is a rough measurement rather than a rigorous benchmark; see {@code AnswerIterationBenchmark} for
+ * JMH measurements of iteration.
+ * <p>
+ * Usage: {@code ColumnarResultSetComparison [rows] [distinct terms]}
+ */
+public class ColumnarResultSetComparison {
+
+  private static final int DEFAULT_ROWS = 1_000_000;
+  private static final int DEFAULT_DISTINCT_TERMS = 10_000;
+  private static final int ITERATION_PASSES = 10;
+
+  public static void main(String[] args) {
+    final String exampleName = ColumnarResultSetComparison.class.getSimpleName();
+    try {
+      System.out.println("Running " + exampleName + "...");
+      final int rows = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+      final int distinct = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_DISTINCT_TERMS;
+      new ColumnarResultSetComparison().run(rows, distinct);
+      System.out.println();
+    } catch (KbException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+      System.exit(1);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(0);
+    }
+  }
+
+  /**
+   * Build {@code rows} answers over {@code distinct} terms, copy them into a ColumnarResultSet, and
+   * print the footprint and iteration time of each.
+   *
+   * @param rows     the number of answers
+   * @param distinct the number of distinct terms
+   *
+   * @throws KbException if a term could not be materialized
+   */
+  public void run(int rows, int distinct) throws KbException {
+    final Variable movie = proxy(Variable.class, "?MOVIE");
+    final Variable actor = proxy(Variable.class, "?ACTOR");
+    final List<Variable> columns = Arrays.asList(movie, actor);
+    final KbTerm[] terms = new KbTerm[distinct];
+    for (int i = 0; i < distinct; i++) {
+      terms[i] = proxy(KbTerm.class, "#$Term" + i);
+    }
+    System.out.println(rows + " answers x " + columns.size() + " variables, over " + distinct
+                               + " distinct terms");
+
+    final long baseline = usedHeap();
+    List<QueryAnswer> answers = new ArrayList<>(rows);
+    for (int i = 0; i < rows; i++) {
+      final Map<Variable, Object> bindings = new HashMap<>();
+      bindings.put(movie, terms[i % distinct]);
+      bindings.put(actor, terms[(i * 31 + 7) % distinct]);
+      answers.add(new MapAnswer(bindings));
+    }
+    final long listBytes = usedHeap() - baseline;
+    final long listNanos = bestOf(answers, list -> {
+      long checksum = 0;
+      for (QueryAnswer answer : list) {
+        checksum += System.identityHashCode(answer.getBinding(movie))
+                + System.identityHashCode(answer.getBinding(actor));
+      }
+      return checksum;
+    });
+
+    final long buildStart = System.nanoTime();
+    final ColumnarResultSet columnar = ColumnarResultSet.from(answers, columns);
+    final long buildNanos = System.nanoTime() - buildStart;
+    final long listChecksum = checksum(answers, movie, actor);
+    if (checksum(ColumnarResultSet.from(resultSet(answers, columns))) != listChecksum) {
+      throw new IllegalStateException("Bindings copied from a QueryResultSet differ from the"
+              + " answers' bindings");
+    }
+    answers = null;
+    final long columnarBytes = usedHeap() - baseline;
+    final long columnarNanos = bestOf(columnar, rs -> {
+      long checksum = 0;
+      final ColumnarResultSet.Cursor cursor = rs.cursor();
+      while (cursor.next()) {
+        checksum += System.identityHashCode(cursor.getKbObject(0, KbTerm.class))
+                + System.identityHashCode(cursor.getKbObject(1, KbTerm.class));
+      }
+      return checksum;
+    });
+    final long termIdNanos = bestOf(columnar, rs -> {
+      long checksum = 0;
+      for (int row = 0; row < rs.getRowCount(); row++) {
+        checksum += rs.getTermId(row, 0) + rs.getTermId(row, 1);
+      }
+      return checksum;
+    });
+    if (checksum(columnar) != listChecksum) {
+      throw new IllegalStateException("Columnar bindings differ from the answers' bindings");
+    }
+
+    System.out.println(columnar);
+    System.out.println(String.format("%-34s %12s %14s", "", "footprint", "full pass"));
+    System.out.println(String.format("%-34s %9.1f MB %11.1f ms", "List<QueryAnswer>",
+            listBytes / 1e6, listNanos / 1e6));
+    System.out.println(String.format("%-34s %9.1f MB %11.1f ms", "ColumnarResultSet, KbObjects",
+            columnarBytes / 1e6, columnarNanos / 1e6));
+    System.out.println(String.format("%-34s %12s %11.1f ms", "ColumnarResultSet, term IDs",
+            "", termIdNanos / 1e6));
+    System.out.println(String.format("Built the ColumnarResultSet in %.1f ms; estimated footprint"
+            + " %.1f MB", buildNanos / 1e6, columnar.estimateFootprint() / 1e6));
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  @FunctionalInterface
+  private static interface Pass<T> {
+
+    long run(T rows) throws KbException;
+  }
+
+  private static <T> long bestOf(T rows, Pass<T> pass) throws KbException {
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < ITERATION_PASSES; i++) {
+      final long start = System.nanoTime();
+      if (pass.run(rows) == 42) {
+        System.out.print(""); // Keep the pass from being optimized away.
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best;
+  }
+
+  private static long checksum(List<QueryAnswer> answers, Variable movie, Variable actor) {
+    long checksum = 0;
+    for (QueryAnswer answer : answers) {
+      checksum = checksum * 31 + answer.getBinding(movie).hashCode();
+      checksum = checksum * 31 + answer.getBinding(actor).hashCode();
+    }
+    return checksum;
+  }
+
+  private static long checksum(ColumnarResultSet columnar) throws KbException {
+    long checksum = 0;
+    for (int row = 0; row < columnar.getRowCount(); row++) {
+      checksum = checksum * 31 + columnar.getKbObject(row, 0, KbTerm.class).hashCode();
+      checksum = checksum * 31 + columnar.getKbObject(row, 1, KbTerm.class).hashCode();
+    }
+    return checksum;
+  }
+
+  private static long usedHeap() {
+    final Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+    }
+    return used;
+  }
+
+  /**
+   * Returns a stand-in KB object, which is equal only to itself.
+   */
+  private static <T> T proxy(Class<T> type, String cycl) {
+    return type.cast(Proxy.newProxyInstance(ColumnarResultSetComparison.class.getClassLoader(),
+            new Class<?>[]{type}, (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "equals":
+                  return proxy == args[0];
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+                case "toString":
+                case "cyclify":
+                  return cycl;
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            }));
+  }
+
+  /**
+   * Returns a stand-in for a QueryResultSet over {@code answers}, which supports just what
+   * {@link ColumnarResultSet#from(QueryResultSet)} needs. Like the Core Client's, it numbers
+   * columns from one, and rejects any other column index.
+   */
+  private static QueryResultSet resultSet(List<QueryAnswer> answers, List<Variable> columns) {
+    final int[] row = {-1};
+    return (QueryResultSet) Proxy.newProxyInstance(
+            ColumnarResultSetComparison.class.getClassLoader(),
+            new Class<?>[]{QueryResultSet.class}, (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "getColumns":
+                  return columns;
+                case "getCurrentRowCount":
+                  return answers.size();
+                case "beforeFirst":
+                  row[0] = -1;
+                  return null;
+                case "next":
+                  if (row[0] < answers.size()) {
+                    row[0]++;
+                  }
+                  return row[0] < answers.size();
+                case "getObject":
+                  if (!(args[0] instanceof Integer)) {
+                    throw new UnsupportedOperationException("getObject by name");
+                  }
+                  final int col = (Integer) args[0];
+                  if (col <= 0 || col > columns.size()) {
+                    throw new IllegalArgumentException("Invalid column index: " + col);
+                  }
+                  return answers.get(row[0]).getBinding(columns.get(col - 1));
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+  /**
+   * An answer which holds its bindings in a map.
+   */
+  private static final class MapAnswer implements QueryAnswer {
+
+    private final Map<Variable, Object> bindings;
+
+    private MapAnswer(Map<Variable, Object> bindings) {
+      this.bindings = bindings;
+    }
+
+    @Override
+    public Set<Variable> getVariables() {
+      return bindings.keySet();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <O> O getBinding(Variable var) {
+      return (O) bindings.get(var);
+    }
+
+    @Override
+    public boolean hasBinding(Variable var) {
+      return bindings.containsKey(var);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <O> O getOnlyBinding() {
+      return (O) bindings.values().iterator().next();
+    }
+
+    @Override
+    public Map<Variable, Object> getBindings() {
+      return bindings;
+    }
+
+    @Override
+    public InferenceAnswerIdentifier getId() {
+      return null;
+    }
+
+    @Override
+    public Set<KbTerm> getSources() {
+      return Collections.emptySet();
+    }
+
+    @Override
+    public List<String> toPrettyBindingsStrings() {
+      final List<String> result = new ArrayList<>(bindings.size());
+      bindings.forEach((var, value) -> result.add(var + " -> " + value));
+      return result;
+    }
+  }
+
+}
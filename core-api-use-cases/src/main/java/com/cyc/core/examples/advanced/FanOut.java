@@ -0,0 +1,389 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: FanOut.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.core.examples.impl.VirtualThreads;
+import com.cyc.session.CycSession;
+import com.cyc.session.SessionManager;
+import com.cyc.session.SessionManagerImpl;
+import com.cyc.session.exception.SessionException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Runs a task, such as validate-then-query, for each of a large number of entities in parallel,
+ * over a bounded number of workers. Work which looks up each entity and then queries about it,
+ * one entity after another, spends nearly all of its time waiting on the Cyc server; with many
+ * entities in flight at once, the server's latency is overlapped rather than added up.
+ * <p>
+ * Entities are read from an Iterable as workers become free, so that a catalog of hundreds of
+ * thousands of entities is never held in memory as tasks or results. Each entity's task succeeds
+ * or fails on its own: whatever it throws is captured in that entity's {@link Result}, and the
+ * other entities carry on. Results are passed to a sink on the calling thread, either in the order
+ * in which the entities were read or in the order in which their tasks complete. Entities may also
+ * be rate-limited, so that a large fan-out does not swamp a shared Cyc server.
+ * <p>
+ * Tasks run on the FanOut's Executor. Since tasks spend most of their time blocked on the
+ * network, the default runs each task on its own virtual thread, {@code workers} at most at once,
+ * where virtual threads are available, and otherwise on a pool of {@code workers} daemon threads;
+ * see {@link VirtualThreads}. Each task runs with the calling thread's current session bound to
+ * its worker thread, so the Core API calls which it makes use the same session as the caller.
+ * Instances may be reused for any number of runs, one at a time, and should be closed once they
+ * are no longer needed.
+ */
+public class FanOut implements AutoCloseable {
+
+  //====|    Task    |============================================================================//
+
+  /**
+   * The work to do for a single entity.
+   *
+   * @param <E> the type of entity
+   * @param <R> the type of result
+   */
+  @FunctionalInterface
+  public static interface Task<E, R> {
+
+    R apply(E entity) throws Exception;
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  private final Executor executor;
+  private final ExecutorService ownedExecutor;
+  private final int workers;
+  private final RateLimiter rateLimiter;
+  private final LongAdder processed = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * Creates a FanOut which runs its tasks on {@code executor}.
+   *
+   * @param executor         runs the tasks; it must be able to run {@code workers} of them at once
+   * @param workers          the maximum number of entities in flight at once
+   * @param permitsPerSecond the maximum number of entities to start per second, or 0 for no limit
+   */
+  public FanOut(Executor executor, int workers, double permitsPerSecond) {
+    this(executor, null, workers, permitsPerSecond);
+  }
+
+  /**
+   * Creates a FanOut with its own executor, of {@code workers} threads at once.
+   *
+   * @param workers          the number of threads, and thus of entities in flight at once
+   * @param permitsPerSecond the maximum number of entities to start per second, or 0 for no limit
+   */
+  public FanOut(int workers, double permitsPerSecond) {
+    this(null, newPool(workers), workers, permitsPerSecond);
+  }
+
+  public FanOut(int workers) {
+    this(workers, 0);
+  }
+
+  private FanOut(Executor executor, ExecutorService ownedExecutor, int workers,
+          double permitsPerSecond) {
+    if (workers <= 0 || permitsPerSecond < 0) {
+      throw new IllegalArgumentException("Invalid workers or rate: " + workers + ", "
+                                                 + permitsPerSecond);
+    }
+    this.executor = (executor != null) ? executor : ownedExecutor;
+    this.ownedExecutor = ownedExecutor;
+    this.workers = workers;
+    this.rateLimiter = (permitsPerSecond > 0) ? new RateLimiter(permitsPerSecond) : null;
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Run {@code task} for every entity, and pass each result to {@code sink}. Returns once every
+   * entity's result has been passed to the sink. The sink is called on the calling thread, and so
+   * need not be thread-safe; a slow sink holds back the fan-out.
+   *
+   * @param <E>      the type of entity
+   * @param <R>      the type of result
+   * @param entities the entities
+   * @param task     the work to do for each entity
+   * @param ordered  whether to pass results to the sink in the same order as {@code entities};
+   *                 if false, each result is passed on as soon as it is complete
+   * @param sink     receives each entity's result
+   *
+   * @return the number of entities processed
+   *
+   * @throws SessionException     if the current session could not be obtained
+   * @throws InterruptedException if interrupted while waiting for results; any tasks which are
+   *                              still running are left to finish, but their results are discarded
+   */
+  public <E, R> long run(Iterable<? extends E> entities, Task<? super E, ? extends R> task,
+          boolean ordered, Consumer<? super Result<E, R>> sink)
+          throws SessionException, InterruptedException {
+    final CycSession session = captureSession();
+    final Iterator<? extends E> iterator = entities.iterator();
+    final BlockingQueue<Result<E, R>> completed = new LinkedBlockingQueue<>();
+    // Completed results which are waiting for earlier entities, when ordered:
+    final Map<Long, Result<E, R>> pending = new HashMap<>();
+    long submitted = 0;
+    long emitted = 0;
+    int inFlight = 0;
+    while (iterator.hasNext() || emitted < submitted) {
+      if (iterator.hasNext() && inFlight < workers) {
+        if (rateLimiter != null) {
+          rateLimiter.acquire();
+        }
+        submit(submitted++, iterator.next(), task, session, completed);
+        inFlight++;
+      }
+      // Wait for a result only when no more entities can be submitted:
+      Result<E, R> result = (iterator.hasNext() && inFlight < workers)
+                                    ? completed.poll()
+                                    : completed.take();
+      while (result != null) {
+        if (!ordered) {
+          emit(result, sink);
+          emitted++;
+          inFlight--;
+        } else {
+          pending.put(result.index, result);
+          for (Result<E, R> next = pending.remove(emitted); next != null;
+                  next = pending.remove(emitted)) {
+            emit(next, sink);
+            emitted++;
+            inFlight--;
+          }
+        }
+        result = completed.poll();
+      }
+    }
+    return emitted;
+  }
+
+  public int getWorkers() {
+    return workers;
+  }
+
+  /**
+   * Returns the number of entities processed, over every run.
+   *
+   * @return the number of entities
+   */
+  public long getEntityCount() {
+    return processed.sum();
+  }
+
+  /**
+   * Returns the number of entities whose tasks failed, over every run.
+   *
+   * @return the number of failures
+   */
+  public long getFailureCount() {
+    return failures.sum();
+  }
+
+  /**
+   * Shut down the FanOut's own executor, if it has one. A supplied Executor is not shut down.
+   */
+  @Override
+  public void close() {
+    if (ownedExecutor != null) {
+      ownedExecutor.shutdown();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[workers=" + workers
+            + ", entities=" + getEntityCount()
+            + ", failures=" + getFailureCount() + "]";
+  }
+
+  //====|    Extension points    |================================================================//
+
+  /**
+   * Returns the session which the worker threads should use on behalf of the calling thread.
+   * Called on the thread which starts a run.
+   *
+   * @return the session
+   *
+   * @throws SessionException if the session could not be obtained
+   */
+  protected CycSession captureSession() throws SessionException {
+    return CycSession.getCurrent();
+  }
+
+  /**
+   * Makes {@code session} the current session of the current worker thread.
+   *
+   * @param session the session returned by {@link #captureSession()}
+   *
+   * @throws SessionException if the session could not be bound
+   */
+  @SuppressWarnings("unchecked")
+  protected void bind(CycSession session) throws SessionException {
+    ((SessionManagerImpl<CycSession>) SessionManager.getInstance()).setCurrentSession(session);
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private <E, R> void submit(long index, E entity, Task<? super E, ? extends R> task,
+          CycSession session, BlockingQueue<Result<E, R>> completed) {
+    final Runnable work = () -> {
+      final long start = System.nanoTime();
+      R value = null;
+      Throwable error = null;
+      try {
+        bind(session);
+        value = task.apply(entity);
+      } catch (Throwable t) {
+        // Even an Error must be posted as a result, or run() would wait for it forever:
+        error = t;
+      }
+      completed.add(new Result<>(index, entity, value, error, System.nanoTime() - start));
+    };
+    try {
+      executor.execute(work);
+    } catch (RejectedExecutionException ex) {
+      completed.add(new Result<>(index, entity, null, ex, 0));
+    }
+  }
+
+  private <E, R> void emit(Result<E, R> result, Consumer<? super Result<E, R>> sink) {
+    processed.increment();
+    if (!result.isSuccessful()) {
+      failures.increment();
+    }
+    sink.accept(result);
+  }
+
+  private static ExecutorService newPool(int workers) {
+    return VirtualThreads.newExecutor(FanOut.class.getSimpleName(), workers);
+  }
+
+  //====|    Result    |==========================================================================//
+
+  /**
+   * The outcome of a single entity's task: either its value, or the exception or error with which
+   * it failed.
+   *
+   * @param <E> the type of entity
+   * @param <R> the type of result
+   */
+  public static final class Result<E, R> {
+
+    private final long index;
+    private final E entity;
+    private final R value;
+    private final Throwable error;
+    private final long elapsedNanos;
+
+    private Result(long index, E entity, R value, Throwable error, long elapsedNanos) {
+      this.index = index;
+      this.entity = entity;
+      this.value = value;
+      this.error = error;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the entity's position among the entities, counting from 0.
+     *
+     * @return the index
+     */
+    public long getIndex() {
+      return index;
+    }
+
+    public E getEntity() {
+      return entity;
+    }
+
+    /**
+     * Returns the task's value, or null if it failed.
+     *
+     * @return the value
+     */
+    public R getValue() {
+      return value;
+    }
+
+    /**
+     * Returns the exception or error with which the task failed, or null if it succeeded.
+     *
+     * @return the exception or error
+     */
+    public Throwable getError() {
+      return error;
+    }
+
+    public boolean isSuccessful() {
+      return error == null;
+    }
+
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return entity + ": " + (isSuccessful() ? String.valueOf(value) : "failed (" + error + ")");
+    }
+  }
+
+  //====|    RateLimiter    |=====================================================================//
+
+  /**
+   * Spaces out permits evenly, with no bursts.
+   */
+  private static final class RateLimiter {
+
+    private final long intervalNanos;
+    private long nextFreeNanos = System.nanoTime();
+
+    private RateLimiter(double permitsPerSecond) {
+      this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+    }
+
+    private void acquire() throws InterruptedException {
+      final long wait;
+      synchronized (this) {
+        final long now = System.nanoTime();
+        final long slot = Math.max(nextFreeNanos, now);
+        nextFreeNanos = slot + intervalNanos;
+        wait = slot - now;
+      }
+      if (wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,259 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: FanOutSimulation.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.kb.exception.KbTypeException;
+import com.cyc.session.CycSession;
+import com.cyc.session.exception.SessionException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the throughput of a {@link FanOut} scales with its number of workers, against a
+ * simulated Cyc server with a fixed latency. As in
+ * {@link AdvancedQuerying#demonstrateTermSubstitution()}, each entity is a species which is first
+ * validated (one round trip) and then queried about (another); one species in every 25 fails
+ * validation. The fan-out is run with 1 to 32 workers, in order, and then once unordered and once
+ * with a rate limit. Finally, it is run with a task which throws an Error for one entity.
+ * <p>
+ * The simulation fails (exiting with status 1) if any run emits the wrong number of results or
+ * failures, loses or duplicates an entity, emits an ordered run out of order, exceeds its rate
+ * limit, or runs a task without the caller's session bound to its worker thread, or if the Error
+ * is not reported as that entity's result.
+ * <p>
+ * Usage: {@code FanOutSimulation [entities] [validation latency ms] [query latency ms]}
+ */
+public class FanOutSimulation {
+
+  private static final int DEFAULT_ENTITIES = 400;
+  private static final int DEFAULT_VALIDATION_LATENCY_MS = 2;
+  private static final int DEFAULT_QUERY_LATENCY_MS = 8;
+  private static final int[] WORKER_COUNTS = {1, 2, 4, 8, 16, 32};
+  private static final double RATE_LIMIT = 500;
+
+  public static void main(String[] args) {
+    final String exampleName = FanOutSimulation.class.getSimpleName();
+    final int entityCount = intArg(args, 0, DEFAULT_ENTITIES);
+    final int validationLatency = intArg(args, 1, DEFAULT_VALIDATION_LATENCY_MS);
+    final int queryLatency = intArg(args, 2, DEFAULT_QUERY_LATENCY_MS);
+    boolean passed = false;
+    try {
+      System.out.println("Running " + exampleName + "...");
+      System.out.println(entityCount + " species; validation takes " + validationLatency
+                                 + "ms and the query " + queryLatency + "ms");
+      final FanOutSimulation simulation
+              = new FanOutSimulation(entityCount, validationLatency, queryLatency);
+      double baseline = 0;
+      for (int workers : WORKER_COUNTS) {
+        try (FanOut fanOut = new SimulatedFanOut(workers)) {
+          final double rate = simulation.run(fanOut, true);
+          baseline = (baseline == 0) ? rate : baseline;
+          System.out.println(String.format("%2d workers, ordered:   %8.1f species/s (%.1fx)",
+                  workers, rate, rate / baseline));
+        }
+      }
+      final int maxWorkers = WORKER_COUNTS[WORKER_COUNTS.length - 1];
+      try (FanOut fanOut = new SimulatedFanOut(maxWorkers)) {
+        final double rate = simulation.run(fanOut, false);
+        System.out.println(String.format("%2d workers, unordered: %8.1f species/s (%.1fx)",
+                maxWorkers, rate, rate / baseline));
+      }
+      try (FanOut fanOut = new SimulatedFanOut(maxWorkers, RATE_LIMIT)) {
+        final double rate = simulation.run(fanOut, false);
+        System.out.println(String.format("%2d workers, limited to %.0f/s: %8.1f species/s",
+                maxWorkers, RATE_LIMIT, rate));
+        if (rate > RATE_LIMIT * 1.05) {
+          simulation.failures.add("rate-limited run reached " + rate + " species/s");
+        }
+      }
+      try (FanOut fanOut = new SimulatedFanOut(maxWorkers)) {
+        simulation.runWithError(fanOut);
+      }
+      passed = simulation.failures.isEmpty();
+      simulation.failures.forEach(failure -> System.out.println("FAILED: " + failure));
+      System.out.println();
+    } catch (SessionException | InterruptedException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(passed ? 0 : 1);
+    }
+  }
+
+  /**
+   * The session of the thread which runs the simulation, as seen by the stand-in SessionManager.
+   */
+  private static final CycSession CALLER_SESSION = (CycSession) Proxy.newProxyInstance(
+          FanOutSimulation.class.getClassLoader(), new Class<?>[]{CycSession.class},
+          (proxy, method, args) -> {
+            if ("toString".equals(method.getName())) {
+              return "simulated session";
+            }
+            throw new UnsupportedOperationException(method.getName());
+          });
+
+  //====|    Fields    |==========================================================================//
+
+  private final List<String> species = new ArrayList<>();
+  private final int validationLatency;
+  private final int queryLatency;
+  private final List<String> failures = new ArrayList<>();
+
+  //====|    Construction    |====================================================================//
+
+  private FanOutSimulation(int entityCount, int validationLatency, int queryLatency) {
+    for (int i = 0; i < entityCount; i++) {
+      species.add("Species-" + i);
+    }
+    this.validationLatency = validationLatency;
+    this.queryLatency = queryLatency;
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  /**
+   * Fan out over every species, check the results, and return the throughput.
+   */
+  private double run(FanOut fanOut, boolean ordered)
+          throws SessionException, InterruptedException {
+    final String run = fanOut.getWorkers() + " workers" + (ordered ? "" : ", unordered");
+    final BitSet seen = new BitSet(species.size());
+    final int[] counts = new int[3]; // emitted, failed, out of order
+    final long start = System.nanoTime();
+    fanOut.run(species, this::validateThenQuery, ordered, result -> {
+      final int index = (int) result.getIndex();
+      if (ordered && index != counts[0]) {
+        counts[2]++;
+      }
+      counts[0]++;
+      if (seen.get(index) || !species.get(index).equals(result.getEntity())) {
+        failures.add(run + ": entity " + index + " was duplicated or mismatched");
+      }
+      seen.set(index);
+      if (result.getError() instanceof IllegalStateException) {
+        failures.add(run + ": " + result.getError().getMessage());
+      } else if (!result.isSuccessful()) {
+        counts[1]++;
+      } else if (result.getValue() != answerCount(index)) {
+        failures.add(run + ": wrong result for " + result.getEntity());
+      }
+    });
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    final int expectedFailures = (species.size() + 24) / 25;
+    if (counts[0] != species.size() || seen.cardinality() != species.size()) {
+      failures.add(run + ": emitted " + counts[0] + " results for " + species.size() + " species");
+    }
+    if (counts[1] != expectedFailures) {
+      failures.add(run + ": " + counts[1] + " failures; expected " + expectedFailures);
+    }
+    if (counts[2] != 0) {
+      failures.add(run + ": " + counts[2] + " results emitted out of order");
+    }
+    return species.size() / seconds;
+  }
+
+  /**
+   * Fan out with a task which throws an Error for one species, and check that the run still
+   * completes, with the Error as that species' result.
+   */
+  private void runWithError(FanOut fanOut) throws SessionException, InterruptedException {
+    final String run = fanOut.getWorkers() + " workers, with an Error";
+    final String doomed = species.get(species.size() / 2);
+    final List<FanOut.Result<String, Integer>> errors = new ArrayList<>();
+    final long emitted = fanOut.run(species, entity -> {
+      if (entity.equals(doomed)) {
+        throw new AssertionError(entity + " is doomed");
+      }
+      return validateThenQuery(entity);
+    }, false, result -> {
+      if (result.getError() instanceof Error) {
+        errors.add(result);
+      }
+    });
+    if (emitted != species.size()) {
+      failures.add(run + ": emitted " + emitted + " results for " + species.size() + " species");
+    }
+    if (errors.size() != 1 || !errors.get(0).getEntity().equals(doomed)) {
+      failures.add(run + ": the Error was reported for " + errors + "; expected " + doomed);
+    }
+    System.out.println(String.format("%2d workers, with an Error: %d results, %d error",
+            fanOut.getWorkers(), emitted, errors.size()));
+  }
+
+  /**
+   * The simulated pipeline: one round trip to check that the species is a species, and another
+   * to query about it.
+   */
+  private Integer validateThenQuery(String entity) throws KbTypeException, InterruptedException {
+    if (SimulatedFanOut.CURRENT_SESSION.get() != CALLER_SESSION) {
+      throw new IllegalStateException("the caller's session is not bound for " + entity);
+    }
+    final int index = Integer.parseInt(entity.substring(entity.indexOf('-') + 1));
+    TimeUnit.MILLISECONDS.sleep(validationLatency);
+    if (index % 25 == 0) {
+      throw new KbTypeException(entity + " is not known to be a species.");
+    }
+    TimeUnit.MILLISECONDS.sleep(queryLatency);
+    return answerCount(index);
+  }
+
+  private static int answerCount(int index) {
+    return index % 7;
+  }
+
+  //====|    SimulatedFanOut    |=================================================================//
+
+  /**
+   * A FanOut whose sessions are bound to a ThreadLocal, in place of the SessionManager, so that no
+   * Cyc server is needed.
+   */
+  private static final class SimulatedFanOut extends FanOut {
+
+    private static final ThreadLocal<CycSession> CURRENT_SESSION = new ThreadLocal<>();
+
+    private SimulatedFanOut(int workers, double permitsPerSecond) {
+      super(workers, permitsPerSecond);
+    }
+
+    private SimulatedFanOut(int workers) {
+      super(workers);
+    }
+
+    @Override
+    protected CycSession captureSession() {
+      return CALLER_SESSION;
+    }
+
+    @Override
+    protected void bind(CycSession session) {
+      CURRENT_SESSION.set(session);
+    }
+  }
+
+  private static int intArg(String[] args, int index, int defaultValue) {
+    return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+}
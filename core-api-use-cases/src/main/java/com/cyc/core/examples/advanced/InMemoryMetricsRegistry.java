@@ -0,0 +1,135 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: InMemoryMetricsRegistry.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A MetricsRegistry which keeps its metrics in memory: counters as {@link LongAdder}s, and
+ * histograms as {@link LogLinearHistogram}s. Its {@link #toString()} is a report of every metric,
+ * in name order. Instances are thread-safe.
+ */
+public class InMemoryMetricsRegistry implements MetricsRegistry {
+
+  //====|    Fields    |==========================================================================//
+
+  private final Map<String, InMemoryCounter> counters = new ConcurrentHashMap<>();
+  private final Map<String, LogLinearHistogram> histograms = new ConcurrentHashMap<>();
+  private final int precisionBits;
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * Creates an empty registry.
+   *
+   * @param precisionBits the precision of each histogram; see {@link LogLinearHistogram}
+   */
+  public InMemoryMetricsRegistry(int precisionBits) {
+    this.precisionBits = precisionBits;
+  }
+
+  public InMemoryMetricsRegistry() {
+    this(LogLinearHistogram.DEFAULT_PRECISION_BITS);
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  @Override
+  public InMemoryCounter counter(String name) {
+    final InMemoryCounter existing = counters.get(name);
+    return (existing != null)
+                   ? existing
+                   : counters.computeIfAbsent(name, key -> new InMemoryCounter());
+  }
+
+  @Override
+  public LogLinearHistogram histogram(String name) {
+    final LogLinearHistogram existing = histograms.get(name);
+    return (existing != null)
+                   ? existing
+                   : histograms.computeIfAbsent(name, key -> new LogLinearHistogram(precisionBits));
+  }
+
+  /**
+   * Returns the current value of every counter, by name.
+   *
+   * @return a snapshot of the counters
+   */
+  public Map<String, Long> getCounts() {
+    final Map<String, Long> results = new TreeMap<>();
+    counters.forEach((name, counter) -> results.put(name, counter.sum()));
+    return results;
+  }
+
+  /**
+   * Returns every histogram, by name. The histograms are live, not snapshots.
+   *
+   * @return the histograms
+   */
+  public Map<String, LogLinearHistogram> getHistograms() {
+    return new TreeMap<>(histograms);
+  }
+
+  /**
+   * Reset every counter and histogram to zero.
+   */
+  public void reset() {
+    counters.values().forEach(InMemoryCounter::reset);
+    histograms.values().forEach(LogLinearHistogram::reset);
+  }
+
+  /**
+   * Returns a report of every metric, one per line. Histograms whose names end in {@code .nanos}
+   * are reported in milliseconds.
+   *
+   * @return the report
+   */
+  @Override
+  public String toString() {
+    final StringBuilder report = new StringBuilder(getClass().getSimpleName()).append(':');
+    getCounts().forEach((name, value) -> report.append("\n  ").append(name).append(" = ")
+            .append(value));
+    getHistograms().forEach((name, histogram) -> {
+      final boolean nanos = name.endsWith(".nanos");
+      final double scale = nanos ? TimeUnit.MILLISECONDS.toNanos(1) : 1;
+      report.append(String.format("\n  %s: count=%d, mean=%.2f, p50=%.2f, p99=%.2f, max=%.2f%s",
+              nanos ? name.substring(0, name.length() - ".nanos".length()) : name,
+              histogram.getCount(), histogram.getMean() / scale,
+              histogram.getValueAtPercentile(50) / scale,
+              histogram.getValueAtPercentile(99) / scale,
+              histogram.getMax() / scale, nanos ? " (ms)" : ""));
+    });
+    return report.toString();
+  }
+
+  //====|    InMemoryCounter    |=================================================================//
+
+  public static final class InMemoryCounter extends LongAdder implements Counter {
+
+    private static final long serialVersionUID = 1L;
+  }
+
+}
@@ -0,0 +1,514 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: InferenceRegistry.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.query.InferenceStatus;
+import com.cyc.query.InferenceSuspendReason;
+import com.cyc.query.Query;
+import com.cyc.query.QueryAnswer;
+import com.cyc.query.QueryListener;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks queries whose inferences are kept on the Cyc server, and closes them once they are no
+ * longer used. A query whose inference is retained (via {@link Query#retainInference()}) or
+ * browsable holds a problem store on the Cyc server until the query is closed; a query which is
+ * never closed leaks it. Where a query cannot simply be closed in a try-with-resources block, as
+ * with the {@link AsyncQuery asynchronous} queries in {@link AdvancedQuerying}, register it here;
+ * {@link AsyncQuery#of(Query, InferenceRegistry)} does so before it starts the inference.
+ * <p>
+ * A registered query is closed:
+ * <ul>
+ * <li>once it has been idle for the registry's idle timeout. A query is idle while its inference
+ * is not running, and has been neither {@link #touch(Query) touched} nor reported any answers or
+ * status changes for that long. Timeouts are enforced by a background sweep, which closes
+ * together every query which will time out before the next sweep; so a query is never closed
+ * later than its timeout (give or take scheduling delays), and at most one sweep interval early.
+ * </li>
+ * <li>once its inference has been running for the registry's maximum run time, whether or not it
+ * is reporting answers; this stops the inference. Without that, an inference which never
+ * terminates, or whose termination is never reported, would never be closed. The run time is
+ * measured from when the registry last saw the inference start or continue, and is enforced by the
+ * same sweeps as the idle timeout.</li>
+ * <li>when registering another query would exceed the registry's maximum number of open
+ * inferences. Idle queries are closed before running ones, and running ones before those which
+ * have not been used at all since they were registered, least recently active first; the query
+ * being registered is never closed to make room for itself.</li>
+ * <li>when it is closed via {@link #close(Query)}, or the registry itself is closed.</li>
+ * </ul>
+ * A query counts against the limit until its close has finished, and {@link #register(Query)}
+ * closes any queries over the limit before it returns, waiting if need be for closes already under
+ * way; so, as long as a query is registered before its inference is started, the number of open
+ * inferences never exceeds the limit. Idle and overrunning queries are closed on the registry's
+ * background thread. The registry reports the number of open inferences, and histograms of their
+ * ages and idle times.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class InferenceRegistry implements Closeable {
+
+  //====|    Fields    |==========================================================================//
+
+  public static final long DEFAULT_IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+  public static final long DEFAULT_MAX_RUN_TIME_MS = TimeUnit.MINUTES.toMillis(30);
+  public static final int DEFAULT_MAX_OPEN = 100;
+  public static final long DEFAULT_SWEEP_INTERVAL_MS = 100;
+
+  /**
+   * The upper bounds of the histogram buckets, in milliseconds; the last bucket is unbounded.
+   */
+  private static final long[] BUCKET_BOUNDS_MS = {
+    1_000, 10_000, 60_000, 600_000, 3_600_000
+  };
+  private static final String[] BUCKET_LABELS = {
+    "<1s", "<10s", "<1m", "<10m", "<1h", ">=1h"
+  };
+
+  private final long idleTimeoutNanos;
+  private final long maxRunNanos;
+  private final int maxOpen;
+  private final long sweepIntervalNanos;
+  private final ScheduledExecutorService closer;
+  /**
+   * Guarded by {@code this}.
+   */
+  private final Map<Query, Tracked> open = new IdentityHashMap<>();
+  /**
+   * The number of queries which have been removed from {@link #open}, but not yet closed. Guarded
+   * by {@code this}.
+   */
+  private int closing = 0;
+  private boolean closed = false;
+
+  private final LongAdder registered = new LongAdder();
+  private final LongAdder closedIdle = new LongAdder();
+  private final LongAdder closedOverrun = new LongAdder();
+  private final LongAdder closedForLimit = new LongAdder();
+  private final LongAdder closedExplicitly = new LongAdder();
+  private final LongAdder closeFailures = new LongAdder();
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * Creates a registry.
+   *
+   * @param idleTimeout   how long a query may be idle before it is closed
+   * @param maxRunTime    how long an inference may run before its query is closed
+   * @param maxOpen       the maximum number of open inferences
+   * @param sweepInterval how often to look for idle and overrunning queries
+   * @param unit          the unit of {@code idleTimeout}, {@code maxRunTime} and
+   *                      {@code sweepInterval}
+   */
+  public InferenceRegistry(long idleTimeout, long maxRunTime, int maxOpen, long sweepInterval,
+          TimeUnit unit) {
+    if (idleTimeout <= 0 || maxRunTime <= 0 || maxOpen <= 0 || sweepInterval <= 0) {
+      throw new IllegalArgumentException("Timeouts, limit and interval must be positive: "
+              + idleTimeout + ", " + maxRunTime + ", " + maxOpen + ", " + sweepInterval);
+    }
+    this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+    this.maxRunNanos = unit.toNanos(maxRunTime);
+    this.maxOpen = maxOpen;
+    this.sweepIntervalNanos = unit.toNanos(sweepInterval);
+    this.closer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, InferenceRegistry.class.getSimpleName());
+      thread.setDaemon(true);
+      return thread;
+    });
+    closer.scheduleWithFixedDelay(this::sweep, sweepIntervalNanos, sweepIntervalNanos,
+            TimeUnit.NANOSECONDS);
+  }
+
+  public InferenceRegistry(long idleTimeout, int maxOpen, long sweepInterval, TimeUnit unit) {
+    this(idleTimeout, unit.convert(DEFAULT_MAX_RUN_TIME_MS, TimeUnit.MILLISECONDS), maxOpen,
+            sweepInterval, unit);
+  }
+
+  public InferenceRegistry(long idleTimeout, int maxOpen, TimeUnit unit) {
+    this(idleTimeout, maxOpen, unit.convert(DEFAULT_SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS),
+            unit);
+  }
+
+  public InferenceRegistry() {
+    this(DEFAULT_IDLE_TIMEOUT_MS, DEFAULT_MAX_OPEN, TimeUnit.MILLISECONDS);
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Track {@code query}, closing it once it has been idle for too long. Registering a query which
+   * is already registered just {@link #touch(Query) touches} it. If the registry is full, this
+   * closes other queries to make room before it returns, and so may block while they close.
+   *
+   * @param query a query whose inference is, or will be, retained or browsable
+   *
+   * @return {@code query}
+   *
+   * @throws IllegalStateException if the registry has been closed
+   */
+  public Query register(Query query) {
+    final List<Query> overLimit;
+    synchronized (this) {
+      Tracked existing = open.get(query);
+      if (existing == null && !closed) {
+        awaitRoom();
+        existing = open.get(query);
+      }
+      if (closed) {
+        throw new IllegalStateException(this + " is closed");
+      }
+      if (existing != null) {
+        existing.touch();
+        return query;
+      }
+      final Tracked tracked = new Tracked(query);
+      open.put(query, tracked);
+      overLimit = takeOverLimit(tracked);
+    }
+    registered.increment();
+    query.addListener(new ActivityListener());
+    overLimit.forEach(evicted -> closeQuery(evicted, closedForLimit));
+    return query;
+  }
+
+  /**
+   * Record that {@code query} is still in use, restarting its idle timeout; e.g., when generating
+   * a proof view for one of its answers. Has no effect if the query is not registered.
+   *
+   * @param query the query
+   *
+   * @return whether the query is registered, and so still open
+   */
+  public boolean touch(Query query) {
+    final Tracked tracked;
+    synchronized (this) {
+      tracked = open.get(query);
+    }
+    if (tracked == null) {
+      return false;
+    }
+    tracked.touch();
+    return true;
+  }
+
+  /**
+   * Stop tracking {@code query}, and close it.
+   *
+   * @param query the query
+   */
+  public void close(Query query) {
+    final boolean wasOpen;
+    synchronized (this) {
+      wasOpen = open.remove(query) != null;
+      if (wasOpen) {
+        closing++;
+      }
+    }
+    if (wasOpen) {
+      closeQuery(query, closedExplicitly);
+    }
+  }
+
+  /**
+   * Returns the number of registered queries which are still open.
+   *
+   * @return the number of open inferences
+   */
+  public synchronized int getOpenCount() {
+    return open.size();
+  }
+
+  /**
+   * Returns a histogram of the ages of the open inferences, since they were registered.
+   *
+   * @return the number of inferences in each bucket, keyed by bucket label, in order of age
+   */
+  public Map<String, Integer> getAgeHistogram() {
+    return histogram(false);
+  }
+
+  /**
+   * Returns a histogram of how long the open inferences have been idle. Running inferences count
+   * as not idle at all.
+   *
+   * @return the number of inferences in each bucket, keyed by bucket label, in order of idle time
+   */
+  public Map<String, Integer> getIdleHistogram() {
+    return histogram(true);
+  }
+
+  public long getRegisteredCount() {
+    return registered.sum();
+  }
+
+  public long getClosedIdleCount() {
+    return closedIdle.sum();
+  }
+
+  /**
+   * Returns the number of queries closed because their inferences ran for too long.
+   *
+   * @return the number of queries
+   */
+  public long getClosedOverrunCount() {
+    return closedOverrun.sum();
+  }
+
+  public long getClosedForLimitCount() {
+    return closedForLimit.sum();
+  }
+
+  public long getClosedExplicitlyCount() {
+    return closedExplicitly.sum();
+  }
+
+  public long getCloseFailureCount() {
+    return closeFailures.sum();
+  }
+
+  /**
+   * Close every registered query, and stop the background thread.
+   */
+  @Override
+  public void close() {
+    final List<Query> remaining;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      remaining = new ArrayList<>(open.keySet());
+      open.clear();
+      closing += remaining.size();
+    }
+    closer.shutdownNow();
+    remaining.forEach(query -> closeQuery(query, closedExplicitly));
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[open=" + getOpenCount()
+            + ", registered=" + registered.sum() + ", closedIdle=" + closedIdle.sum()
+            + ", closedOverrun=" + closedOverrun.sum()
+            + ", closedForLimit=" + closedForLimit.sum()
+            + ", closedExplicitly=" + closedExplicitly.sum()
+            + ", closeFailures=" + closeFailures.sum() + ", ages=" + getAgeHistogram() + "]";
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  /**
+   * Closes, in one batch, every query which will have been idle for the timeout, or running for
+   * the maximum run time, by the time of the next sweep.
+   */
+  private void sweep() {
+    final long horizon = System.nanoTime() + sweepIntervalNanos;
+    final List<Query> expired = new ArrayList<>();
+    final List<Query> overrun = new ArrayList<>();
+    synchronized (this) {
+      for (Tracked tracked : open.values()) {
+        if (!tracked.running && tracked.lastActive + idleTimeoutNanos <= horizon) {
+          expired.add(tracked.query);
+        } else if (tracked.running && tracked.runningSince + maxRunNanos <= horizon) {
+          overrun.add(tracked.query);
+        }
+      }
+      expired.forEach(open::remove);
+      overrun.forEach(open::remove);
+      closing += expired.size() + overrun.size();
+    }
+    expired.forEach(query -> closeQuery(query, closedIdle));
+    overrun.forEach(query -> closeQuery(query, closedOverrun));
+  }
+
+  /**
+   * Waits until the queries being closed leave room for one more, or none are being closed. Must
+   * be called while synchronized.
+   */
+  private void awaitRoom() {
+    boolean interrupted = false;
+    while (closing > 0 && open.size() + closing >= maxOpen) {
+      try {
+        wait();
+      } catch (InterruptedException ex) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Removes and returns the queries which must be closed to get back down to the limit, other
+   * than {@code incoming}, and counts them as closing. Must be called while synchronized.
+   */
+  private List<Query> takeOverLimit(Tracked incoming) {
+    final int excess = open.size() + closing - maxOpen;
+    if (excess <= 0) {
+      return Collections.emptyList();
+    }
+    final List<Tracked> candidates = new ArrayList<>(open.values());
+    candidates.remove(incoming);
+    candidates.sort(Comparator.comparing((Tracked tracked) -> !tracked.used)
+            .thenComparing(tracked -> tracked.running)
+            .thenComparingLong(tracked -> tracked.lastActive));
+    final List<Query> result = new ArrayList<>(excess);
+    for (Tracked tracked : candidates.subList(0, Math.min(excess, candidates.size()))) {
+      open.remove(tracked.query);
+      result.add(tracked.query);
+    }
+    closing += result.size();
+    return result;
+  }
+
+  /**
+   * Closes a query which has been counted as closing, and then stops counting it.
+   */
+  private void closeQuery(Query query, LongAdder reason) {
+    try {
+      query.close();
+      reason.increment();
+    } catch (RuntimeException ex) {
+      closeFailures.increment();
+    } finally {
+      synchronized (this) {
+        closing--;
+        notifyAll();
+      }
+    }
+  }
+
+  private Map<String, Integer> histogram(boolean idle) {
+    final int[] counts = new int[BUCKET_LABELS.length];
+    final long now = System.nanoTime();
+    synchronized (this) {
+      for (Tracked tracked : open.values()) {
+        final long nanos = idle
+                                   ? (tracked.running ? 0 : now - tracked.lastActive)
+                                   : now - tracked.registered;
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MS.length && millis >= BUCKET_BOUNDS_MS[bucket]) {
+          bucket++;
+        }
+        counts[bucket]++;
+      }
+    }
+    final Map<String, Integer> result = new LinkedHashMap<>();
+    for (int i = 0; i < counts.length; i++) {
+      result.put(BUCKET_LABELS[i], counts[i]);
+    }
+    return result;
+  }
+
+  private static boolean isRunning(InferenceStatus status) {
+    return status == InferenceStatus.STARTED || status == InferenceStatus.RUNNING;
+  }
+
+  //====|    Tracked    |=========================================================================//
+
+  private static final class Tracked {
+
+    private final Query query;
+    private final long registered = System.nanoTime();
+    private volatile long lastActive = registered;
+    private volatile boolean running;
+    /**
+     * When the inference last started or continued; meaningful only while it is running.
+     */
+    private volatile long runningSince = registered;
+    /**
+     * Whether there has been any activity since the query was registered.
+     */
+    private volatile boolean used;
+
+    private Tracked(Query query) {
+      this.query = query;
+      this.running = isRunning(query.getStatus());
+      this.used = running;
+    }
+
+    private void touch() {
+      lastActive = System.nanoTime();
+      used = true;
+    }
+
+    private void setRunning(boolean nowRunning) {
+      if (nowRunning && !running) {
+        runningSince = System.nanoTime();
+      }
+      running = nowRunning;
+    }
+  }
+
+  /**
+   * Treats every notification about a query as activity.
+   */
+  private final class ActivityListener implements QueryListener {
+
+    private void active(Query query, Boolean running) {
+      final Tracked tracked;
+      synchronized (InferenceRegistry.this) {
+        tracked = open.get(query);
+      }
+      if (tracked != null) {
+        if (running != null) {
+          tracked.setRunning(running);
+        }
+        tracked.touch();
+      }
+    }
+
+    @Override
+    public void notifyInferenceCreated(Query query) {
+      active(query, null);
+    }
+
+    @Override
+    public void notifyInferenceStatusChanged(InferenceStatus oldStatus,
+            InferenceStatus newStatus, InferenceSuspendReason suspendReason, Query query) {
+      active(query, isRunning(newStatus));
+    }
+
+    @Override
+    public void notifyInferenceAnswersAvailable(Query query, List<QueryAnswer> newAnswers) {
+      active(query, null);
+    }
+
+    @Override
+    public void notifyInferenceTerminated(Query query, Exception e) {
+      active(query, false);
+    }
+  }
+
+}
@@ -0,0 +1,328 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: InferenceRegistrySimulation.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.query.InferenceStatus;
+import com.cyc.query.Query;
+import com.cyc.query.QueryListener;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that the {@link InferenceRegistry} closes every abandoned inference in time, against a
+ * simulated, in-process Cyc server. Several threads each start a series of queries, register them,
+ * use them for a while (running the inference, then touching the query now and then), and then
+ * abandon them without closing them, as a careless client would; some are closed explicitly
+ * instead. Some inferences never terminate, as a runaway inference, or one whose termination is
+ * never reported, would appear; the registry's maximum run time is twice its idle timeout.
+ * <p>
+ * An inference counts as open on the simulated server from when it is first run until its query
+ * is closed. The simulation fails (exiting with status 1) if any inference outlives its idle
+ * timeout, or any runaway inference its maximum run time, by more than a small allowance for
+ * scheduling delays; if any query is closed before it is first used; if any inference is still
+ * open once the clients have finished and the timeouts have passed; or if the number of open
+ * inferences ever exceeds the registry's limit. (With fewer
+ * places than clients, the registry must sometimes close a query which has not yet been used, so
+ * that check is only made when the limit is at least the number of clients.)
+ * <p>
+ * Usage: {@code InferenceRegistrySimulation [clients] [queries per client] [timeout ms] [max open]}
+ */
+public class InferenceRegistrySimulation {
+
+  private static final int DEFAULT_CLIENTS = 16;
+  private static final int DEFAULT_QUERIES_PER_CLIENT = 40;
+  private static final long DEFAULT_TIMEOUT_MS = 500;
+  private static final int DEFAULT_MAX_OPEN = 40;
+  private static final long SWEEP_INTERVAL_MS = 50;
+  /**
+   * How late an inference may be closed, to allow for thread scheduling.
+   */
+  private static final long TOLERANCE_MS = 50;
+
+  public static void main(String[] args) {
+    final String exampleName = InferenceRegistrySimulation.class.getSimpleName();
+    final int clients = intArg(args, 0, DEFAULT_CLIENTS);
+    final int queriesPerClient = intArg(args, 1, DEFAULT_QUERIES_PER_CLIENT);
+    final long timeoutMs = (args.length > 2) ? Long.parseLong(args[2]) : DEFAULT_TIMEOUT_MS;
+    final int maxOpen = intArg(args, 3, DEFAULT_MAX_OPEN);
+    boolean passed = false;
+    try {
+      System.out.println("Running " + exampleName + "...");
+      passed = new InferenceRegistrySimulation().run(clients, queriesPerClient, timeoutMs,
+              maxOpen);
+      System.out.println();
+    } catch (InterruptedException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(passed ? 0 : 1);
+    }
+  }
+
+  private final ConcurrentLinkedQueue<SimulatedInference> inferences
+          = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger openInferences = new AtomicInteger();
+  private final AtomicInteger peakOpenInferences = new AtomicInteger();
+  private final AtomicInteger ids = new AtomicInteger();
+
+  /**
+   * Run the simulation, and report whether the registry kept to its timeout and limit.
+   *
+   * @param clients          the number of concurrent client threads
+   * @param queriesPerClient the number of queries each client starts
+   * @param timeoutMs        the registry's idle timeout
+   * @param maxOpen          the registry's maximum number of open inferences
+   *
+   * @return whether the registry kept to its timeout and its limit
+   *
+   * @throws InterruptedException if interrupted while waiting for the clients
+   */
+  public boolean run(int clients, int queriesPerClient, long timeoutMs, int maxOpen)
+          throws InterruptedException {
+    final long maxRunMs = 2 * timeoutMs;
+    System.out.println(clients + " clients x " + queriesPerClient + " queries; idle timeout "
+            + timeoutMs + "ms, maximum run time " + maxRunMs + "ms, at most " + maxOpen + " open");
+    final ExecutorService executor = Executors.newFixedThreadPool(clients);
+    try (InferenceRegistry registry = new InferenceRegistry(timeoutMs, maxRunMs, maxOpen,
+            SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+      for (int c = 0; c < clients; c++) {
+        executor.execute(() -> runClient(registry, queriesPerClient, timeoutMs));
+      }
+      executor.shutdown();
+      while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+        System.out.println("  " + openInferences.get() + " open; " + registry);
+      }
+      System.out.println("Clients finished; " + registry.getOpenCount() + " inference(s) open");
+      System.out.println("Idle times: " + registry.getIdleHistogram());
+      // Every abandoned inference, and every runaway one, should now time out:
+      Thread.sleep(maxRunMs + SWEEP_INTERVAL_MS + TOLERANCE_MS);
+      System.out.println(registry);
+      return check(registry, timeoutMs, maxRunMs, maxOpen, clients);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private boolean check(InferenceRegistry registry, long timeoutMs, long maxRunMs, int maxOpen,
+          int clients) {
+    boolean passed = true;
+    long maxOverrunMs = Long.MIN_VALUE;
+    for (SimulatedInference inference : inferences) {
+      if (inference.closedBeforeUse && maxOpen >= clients) {
+        System.out.println("FAILED: " + inference + " was closed before it was first used");
+        passed = false;
+      }
+      if (inference.closedAt == 0) {
+        System.out.println("FAILED: " + inference + " is still open");
+        passed = false;
+        continue;
+      }
+      // A runaway inference's last activity was its start:
+      final long overrunMs = TimeUnit.NANOSECONDS.toMillis(
+              inference.closedAt - inference.lastActive)
+                                     - (inference.runaway ? maxRunMs : timeoutMs);
+      maxOverrunMs = Math.max(maxOverrunMs, overrunMs);
+      if (overrunMs > TOLERANCE_MS) {
+        System.out.println("FAILED: " + inference + " outlived its timeout by " + overrunMs
+                + "ms");
+        passed = false;
+      }
+    }
+    System.out.println(inferences.size() + " inferences; latest close relative to timeout: "
+            + maxOverrunMs + "ms; peak open: " + peakOpenInferences.get());
+    if (registry.getOpenCount() != 0 || openInferences.get() != 0) {
+      System.out.println("FAILED: " + openInferences.get() + " inference(s) still open");
+      passed = false;
+    }
+    if (peakOpenInferences.get() > maxOpen) {
+      System.out.println("FAILED: limit of " + maxOpen + " exceeded");
+      passed = false;
+    }
+    System.out.println(passed ? "PASSED" : "FAILED");
+    return passed;
+  }
+
+  /**
+   * Start, use, and abandon (or occasionally close) a series of queries.
+   */
+  private void runClient(InferenceRegistry registry, int queries, long timeoutMs) {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    try {
+      for (int i = 0; i < queries; i++) {
+        final SimulatedInference inference = new SimulatedInference(ids.incrementAndGet());
+        inferences.add(inference);
+        final Query query = registry.register(inference.query);
+        if (random.nextInt(8) == 0) {
+          inference.runForever();
+          Thread.sleep(random.nextLong(5, 50));
+          continue;
+        }
+        inference.run(random.nextLong(10, 100));
+        // Use it for a while, touching it at intervals shorter than the timeout:
+        final int touches = random.nextInt(4);
+        for (int t = 0; t < touches; t++) {
+          Thread.sleep(random.nextLong(timeoutMs / 2));
+          if (registry.touch(query)) {
+            inference.touched();
+          }
+        }
+        if (random.nextInt(5) == 0) {
+          registry.close(query);
+        }
+        Thread.sleep(random.nextLong(5, 50));
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static int intArg(String[] args, int index, int defaultValue) {
+    return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+  //====|    SimulatedInference    |==============================================================//
+
+  /**
+   * An inference held on the simulated server, and the Query which refers to it. Records when the
+   * client last used it, when it was closed, and whether it was closed before it was first run.
+   */
+  private final class SimulatedInference {
+
+    private final int id;
+    private final Query query;
+    private final List<QueryListener> listeners = new ArrayList<>();
+    private volatile InferenceStatus status = InferenceStatus.NOT_STARTED;
+    private volatile long lastActive = System.nanoTime();
+    private volatile long closedAt = 0;
+    private boolean started = false;
+    private volatile boolean closedBeforeUse = false;
+    private volatile boolean runaway = false;
+
+    private SimulatedInference(int id) {
+      this.id = id;
+      this.query = (Query) Proxy.newProxyInstance(getClass().getClassLoader(),
+              new Class<?>[]{Query.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                  case "getStatus":
+                    return status;
+                  case "addListener":
+                    synchronized (listeners) {
+                      listeners.add((QueryListener) args[0]);
+                    }
+                    return proxy;
+                  case "close":
+                    close();
+                    return null;
+                  case "equals":
+                    return proxy == args[0];
+                  case "hashCode":
+                    return id;
+                  case "toString":
+                    return "SimulatedQuery-" + id;
+                  default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+              });
+    }
+
+    /**
+     * Runs the inference for {@code millis}, notifying the listeners as a real query would.
+     */
+    private void run(long millis) throws InterruptedException {
+      if (!open()) {
+        return;
+      }
+      setStatus(InferenceStatus.RUNNING);
+      Thread.sleep(millis);
+      setStatus(InferenceStatus.SUSPENDED);
+      lastActive = System.nanoTime();
+      for (QueryListener listener : listeners()) {
+        listener.notifyInferenceTerminated(query, null);
+      }
+    }
+
+    /**
+     * Starts the inference, which then never terminates.
+     */
+    private void runForever() {
+      if (open()) {
+        runaway = true;
+        setStatus(InferenceStatus.RUNNING);
+      }
+    }
+
+    /**
+     * Opens the inference on the simulated server, unless its query has already been closed.
+     */
+    private synchronized boolean open() {
+      if (closedAt != 0) {
+        closedBeforeUse = true;
+        return false;
+      }
+      started = true;
+      final int open = openInferences.incrementAndGet();
+      peakOpenInferences.accumulateAndGet(open, Math::max);
+      return true;
+    }
+
+    private void setStatus(InferenceStatus newStatus) {
+      final InferenceStatus oldStatus = status;
+      status = newStatus;
+      lastActive = System.nanoTime();
+      for (QueryListener listener : listeners()) {
+        listener.notifyInferenceStatusChanged(oldStatus, newStatus, null, query);
+      }
+    }
+
+    private void touched() {
+      lastActive = System.nanoTime();
+    }
+
+    private synchronized void close() {
+      if (closedAt == 0) {
+        closedAt = System.nanoTime();
+        if (started) {
+          openInferences.decrementAndGet();
+        }
+      }
+    }
+
+    private List<QueryListener> listeners() {
+      synchronized (listeners) {
+        return new ArrayList<>(listeners);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "SimulatedInference-" + id;
+    }
+  }
+
+}
@@ -0,0 +1,177 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: LogLinearHistogram.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size, concurrent histogram of non-negative longs, in the style of HdrHistogram. Values
+ * are counted in buckets whose width grows with their magnitude: below
+ * 2<sup>{@code precisionBits}</sup> each value has its own bucket, and above that each power of
+ * two is divided into 2<sup>{@code precisionBits - 1}</sup> buckets. Every value is therefore
+ * recorded to within a relative error of 2<sup>{@code 1 - precisionBits}</sup>, across the whole
+ * range of longs, in a few thousand counts.
+ * <p>
+ * Recording a value is a bucket calculation and three atomic updates; it never allocates or
+ * locks. The total count is not kept separately, but summed from the buckets when it is read.
+ * Percentiles are read from the counts without stopping writers, so that a histogram read while
+ * values are being recorded may be very slightly inconsistent.
+ */
+public class LogLinearHistogram implements MetricsRegistry.Histogram {
+
+  //====|    Fields    |==========================================================================//
+
+  /**
+   * 7 bits of precision gives a relative error of at most 1/64 (1.6%), in 3,776 buckets.
+   */
+  public static final int DEFAULT_PRECISION_BITS = 7;
+
+  private final int precisionBits;
+  private final int halfBucketCount;
+  private final AtomicLongArray counts;
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * Creates an empty histogram.
+   *
+   * @param precisionBits the number of significant bits with which to record each value, from 2
+   *                      to 16
+   */
+  public LogLinearHistogram(int precisionBits) {
+    if (precisionBits < 2 || precisionBits > 16) {
+      throw new IllegalArgumentException("Precision must be between 2 and 16 bits: "
+                                                 + precisionBits);
+    }
+    this.precisionBits = precisionBits;
+    this.halfBucketCount = 1 << (precisionBits - 1);
+    this.counts = new AtomicLongArray((66 - precisionBits) * halfBucketCount);
+  }
+
+  public LogLinearHistogram() {
+    this(DEFAULT_PRECISION_BITS);
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Record {@code value}. Negative values are recorded as zero.
+   *
+   * @param value the value
+   */
+  @Override
+  public void record(long value) {
+    final long clamped = Math.max(0, value);
+    counts.incrementAndGet(bucketIndex(clamped));
+    sum.add(clamped);
+    max.accumulate(clamped);
+  }
+
+  public long getCount() {
+    long total = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      total += counts.get(i);
+    }
+    return total;
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    final long n = getCount();
+    return (n == 0) ? 0 : (double) sum.sum() / n;
+  }
+
+  /**
+   * Returns the value at {@code percentile}: the smallest recorded value which is greater than or
+   * equal to that percentage of the recorded values, to within the histogram's precision.
+   *
+   * @param percentile a percentage, from 0 to 100
+   *
+   * @return the value, or 0 if the histogram is empty
+   */
+  public long getValueAtPercentile(double percentile) {
+    final long total = getCount();
+    if (total == 0) {
+      return 0;
+    }
+    final double fraction = Math.min(100, Math.max(0, percentile)) / 100;
+    final long target = Math.max(1, (long) Math.ceil(fraction * total));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(highestValueInBucket(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Forget every recorded value.
+   */
+  public void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+    sum.reset();
+    max.reset();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[count=" + getCount()
+            + ", mean=" + String.format("%.1f", getMean())
+            + ", p50=" + getValueAtPercentile(50)
+            + ", p99=" + getValueAtPercentile(99)
+            + ", max=" + getMax() + "]";
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  /**
+   * Values below 2<sup>precisionBits</sup> are their own index. Larger values are shifted right
+   * until they have {@code precisionBits} significant bits, which leaves them in the upper half of
+   * the linear range; each shift selects a further half-range of buckets.
+   */
+  private int bucketIndex(long value) {
+    final int magnitude = 63 - Long.numberOfLeadingZeros(value | 1);
+    final int shift = Math.max(0, magnitude - precisionBits + 1);
+    return shift * halfBucketCount + (int) (value >>> shift);
+  }
+
+  private long highestValueInBucket(int index) {
+    if (index < 2 * halfBucketCount) {
+      return index;
+    }
+    final int shift = (index / halfBucketCount) - 1;
+    final long lowest = (long) (index - shift * halfBucketCount) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+}
@@ -0,0 +1,96 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: MetricsRegistry.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * A source of named counters and histograms, to which instrumentation such as
+ * {@link QueryMetrics} reports. Implementations may keep the metrics in memory (as
+ * {@link InMemoryMetricsRegistry} does) or forward them to a monitoring system.
+ * <p>
+ * Instrumentation looks up each metric once, and then updates it on the hot path, so that
+ * {@link Counter#add(long)} and {@link Histogram#record(long)} should be cheap and should not
+ * allocate. Implementations must be thread-safe, and should return the same metric each time
+ * that a name is requested.
+ */
+public interface MetricsRegistry {
+
+  /**
+   * A registry which discards everything reported to it.
+   */
+  public static final MetricsRegistry NONE = new MetricsRegistry() {
+    private final Counter counter = delta -> {
+    };
+    private final Histogram histogram = value -> {
+    };
+
+    @Override
+    public Counter counter(String name) {
+      return counter;
+    }
+
+    @Override
+    public Histogram histogram(String name) {
+      return histogram;
+    }
+  };
+
+  /**
+   * Returns the counter named {@code name}, creating it if necessary.
+   *
+   * @param name the counter's name
+   *
+   * @return the counter
+   */
+  Counter counter(String name);
+
+  /**
+   * Returns the histogram named {@code name}, creating it if necessary.
+   *
+   * @param name the histogram's name
+   *
+   * @return the histogram
+   */
+  Histogram histogram(String name);
+
+  /**
+   * A monotonically increasing count.
+   */
+  @FunctionalInterface
+  public static interface Counter {
+
+    void add(long delta);
+
+    default void increment() {
+      add(1);
+    }
+  }
+
+  /**
+   * A distribution of non-negative values, such as latencies in nanoseconds.
+   */
+  @FunctionalInterface
+  public static interface Histogram {
+
+    void record(long value);
+  }
+
+}
@@ -0,0 +1,365 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: PreparedQuery.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.baseclient.inference.DefaultInferenceSuspendReason;
+import com.cyc.kb.Context;
+import com.cyc.kb.KbObject;
+import com.cyc.kb.KbPredicate;
+import com.cyc.kb.Sentence;
+import com.cyc.kb.Variable;
+import com.cyc.kb.exception.KbException;
+import com.cyc.query.Query;
+import com.cyc.query.QueryAnswer;
+import com.cyc.query.exception.QueryConstructionException;
+import com.cyc.query.parameters.InferenceParameters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A query template which is parsed and checked once, and may then be run for any number of
+ * bindings of its parameters. This avoids re-parsing the same sentence for every set of bindings,
+ * as {@link AdvancedQuerying#demonstrateTermSubstitution()} once did.
+ * <p>
+ * A PreparedQuery's parameters are terms within its sentence (typically indexicals, like
+ * {@code (TheFn BiologicalSpecies)}) which are replaced by other terms each time that it is run.
+ * Each set of bindings may be run as a separate Query via {@link #bind(Map)} or
+ * {@link #execute(Map)}; alternatively, many sets of bindings may be run together via
+ * {@link #executeBatch(List)}, which asks the Cyc server a single question for each chunk of
+ * bindings rather than one question per set of bindings.
+ * <p>
+ * PreparedQueries are immutable, and may be shared between threads.
+ */
+public class PreparedQuery {
+
+  //====|    Factory methods    |=================================================================//
+
+  /**
+   * Prepare a query template whose parameters are its unresolved indexicals.
+   *
+   * @param template the query sentence
+   * @param ctx      the context in which to run the query
+   * @param params   the inference parameters with which to run it; may be null
+   *
+   * @return the prepared query
+   *
+   * @throws KbException if the template's indexicals could not be determined
+   */
+  public static PreparedQuery prepare(Sentence template, Context ctx, InferenceParameters params)
+          throws KbException {
+    return prepare(template, ctx, params, template.getIndexicals());
+  }
+
+  /**
+   * Prepare a query template with the specified parameters.
+   *
+   * @param template   the query sentence
+   * @param ctx        the context in which to run the query
+   * @param params     the inference parameters with which to run it; may be null
+   * @param parameters the terms within {@code template} which will be bound when it is run
+   *
+   * @return the prepared query
+   *
+   * @throws KbException              if the template could not be prepared
+   * @throws IllegalArgumentException if any of the parameters do not appear in the template
+   */
+  public static PreparedQuery prepare(Sentence template, Context ctx, InferenceParameters params,
+          List<? extends KbObject> parameters) throws KbException {
+    for (KbObject parameter : parameters) {
+      if (template.getArgPositionsForTerm(parameter).isEmpty()) {
+        throw new IllegalArgumentException(parameter + " does not appear in " + template);
+      }
+    }
+    return new PreparedQuery(template, ctx, params, parameters);
+  }
+
+  /**
+   * Parse and prepare a query template whose parameters are its unresolved indexicals.
+   *
+   * @param template the query sentence, as a CycL string
+   * @param ctx      the context in which to run the query
+   *
+   * @return the prepared query
+   *
+   * @throws KbException if the template could not be parsed or prepared
+   */
+  public static PreparedQuery prepare(String template, Context ctx) throws KbException {
+    return prepare(Sentence.get(template), ctx, null);
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  /**
+   * The default number of sets of bindings to run together in a single query.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 100;
+
+  private static final String PARAMETER_VARIABLE_PREFIX = "?PREPARED-PARAM-";
+
+  private final Sentence template;
+  private final Context ctx;
+  private final InferenceParameters params;
+  private final List<KbObject> parameters;
+  private final List<Variable> parameterVars;
+  private final Sentence batchTemplate;
+  private final KbPredicate equals;
+
+  //====|    Construction    |====================================================================//
+
+  private PreparedQuery(Sentence template, Context ctx, InferenceParameters params,
+          List<? extends KbObject> parameters) throws KbException {
+    this.template = template;
+    this.ctx = ctx;
+    this.params = params;
+    this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+    // For batches, each parameter is replaced by a variable which doesn't occur in the template:
+    final Set<String> templateVarNames = new HashSet<>();
+    template.getVariables(false).forEach(var -> templateVarNames.add(var.toString()));
+    final List<Variable> vars = new ArrayList<>();
+    int suffix = 0;
+    while (vars.size() < parameters.size()) {
+      final String varName = PARAMETER_VARIABLE_PREFIX + suffix++;
+      if (!templateVarNames.contains(varName)) {
+        vars.add(Variable.get(varName));
+      }
+    }
+    this.parameterVars = Collections.unmodifiableList(vars);
+    this.batchTemplate = template.replaceTerms(new ArrayList<>(this.parameters),
+            new ArrayList<>(this.parameterVars));
+    this.equals = KbPredicate.get("equals");
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Returns a new Query for the specified bindings. The caller is responsible for closing it.
+   *
+   * @param bindings values for some or all of the parameters
+   *
+   * @return the Query
+   *
+   * @throws QueryConstructionException if the Query could not be constructed
+   * @throws IllegalArgumentException   if {@code bindings} contains anything other than parameters
+   */
+  public Query bind(Map<KbObject, Object> bindings) throws QueryConstructionException {
+    checkParameters(bindings, false);
+    final Query query = newQuery(template);
+    query.setSubstitutions(new HashMap<>(bindings));
+    return query;
+  }
+
+  /**
+   * Run the query for the specified bindings, and return its answers.
+   *
+   * @param bindings values for some or all of the parameters
+   *
+   * @return the answers
+   *
+   * @throws QueryConstructionException if the Query could not be constructed
+   */
+  public List<QueryAnswer> execute(Map<KbObject, Object> bindings)
+          throws QueryConstructionException {
+    try (Query query = bind(bindings)) {
+      return new ArrayList<>(query.getAnswers());
+    }
+  }
+
+  /**
+   * Run the query for each of the specified sets of bindings, {@link #DEFAULT_BATCH_SIZE} sets at a
+   * time.
+   *
+   * @param bindingsList sets of values for every parameter
+   *
+   * @return the answers for each set of bindings, in the same order as {@code bindingsList}
+   *
+   * @throws KbException                if the batch sentence could not be constructed
+   * @throws QueryConstructionException if a batch Query could not be constructed
+   * @see #executeBatch(List, int)
+   */
+  public List<List<QueryAnswer>> executeBatch(List<Map<KbObject, Object>> bindingsList)
+          throws KbException, QueryConstructionException {
+    return executeBatch(bindingsList, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Run the query for each of the specified sets of bindings, asking the Cyc server one question
+   * per {@code batchSize} sets of bindings. Each question conjoins the template (with its
+   * parameters replaced by variables) with a disjunction of the sets of bindings, so its answers
+   * include a binding for each parameter; these are used to attribute each answer to its set of
+   * bindings.
+   * <p>
+   * If the inference parameters specify a maximum number of answers, it is applied to each set of
+   * bindings, rather than to the batch as a whole: each question may find that many answers per set
+   * of bindings in total. Other limits, such as the maximum time, apply to each question as a
+   * whole. If a question stops for any reason other than having been exhausted (because it reached
+   * its maximum number of answers, ran out of time, or otherwise), some sets of bindings may have
+   * been starved of answers by others, so any set with fewer than the maximum number of answers
+   * (or, if there is no maximum, every set) is run again on its own, as by {@link #execute(Map)},
+   * and so with the limits of a single question. Answers which are returned via a batch bind the
+   * parameter variables as well as the template's own variables; answers from such a re-run bind
+   * only the latter.
+   *
+   * @param bindingsList sets of values for every parameter
+   * @param batchSize    the number of sets of bindings to run together
+   *
+   * @return the answers for each set of bindings, in the same order as {@code bindingsList}
+   *
+   * @throws KbException                if a batch sentence could not be constructed
+   * @throws QueryConstructionException if a batch Query could not be constructed
+   * @throws IllegalArgumentException   if any set of bindings does not bind every parameter
+   */
+  public List<List<QueryAnswer>> executeBatch(List<Map<KbObject, Object>> bindingsList,
+          int batchSize) throws KbException, QueryConstructionException {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+    }
+    bindingsList.forEach(bindings -> checkParameters(bindings, true));
+    final List<List<QueryAnswer>> results = new ArrayList<>(bindingsList.size());
+    for (int start = 0; start < bindingsList.size(); start += batchSize) {
+      final List<Map<KbObject, Object>> chunk
+              = bindingsList.subList(start, Math.min(start + batchSize, bindingsList.size()));
+      results.addAll(executeChunk(chunk));
+    }
+    return results;
+  }
+
+  public Sentence getTemplate() {
+    return template;
+  }
+
+  public Context getContext() {
+    return ctx;
+  }
+
+  public List<KbObject> getParameters() {
+    return parameters;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[" + template + " in " + ctx + ", parameters="
+            + parameters + "]";
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private List<List<QueryAnswer>> executeChunk(List<Map<KbObject, Object>> chunk)
+          throws KbException, QueryConstructionException {
+    final List<Sentence> alternatives = new ArrayList<>(chunk.size());
+    final Map<List<String>, Integer> indexByKey = new HashMap<>();
+    final List<List<QueryAnswer>> results = new ArrayList<>(chunk.size());
+    for (int i = 0; i < chunk.size(); i++) {
+      final Map<KbObject, Object> bindings = chunk.get(i);
+      final List<Sentence> equalities = new ArrayList<>(parameters.size());
+      final List<String> key = new ArrayList<>(parameters.size());
+      for (int p = 0; p < parameters.size(); p++) {
+        final Object value = bindings.get(parameters.get(p));
+        equalities.add(Sentence.get(equals, parameterVars.get(p), value));
+        key.add(toKey(value));
+      }
+      alternatives.add(Sentence.and(equalities));
+      indexByKey.putIfAbsent(key, i);
+      results.add(new ArrayList<>());
+    }
+    final Sentence batchSentence = Sentence.and(Sentence.or(alternatives), batchTemplate);
+    final Integer maxAnswerCount;
+    final boolean exhausted;
+    try (Query query = newQuery(batchSentence)) {
+      maxAnswerCount = query.getInferenceParameters().getMaxAnswerCount();
+      final int batchLimit = (maxAnswerCount == null)
+                                     ? Integer.MAX_VALUE
+                                     : (int) Math.min(Integer.MAX_VALUE,
+                                                      (long) maxAnswerCount * chunk.size());
+      if (maxAnswerCount != null) {
+        query.getInferenceParameters().setMaxAnswerCount(batchLimit);
+      }
+      final List<QueryAnswer> answers = query.getAnswers();
+      exhausted = DefaultInferenceSuspendReason.EXHAUST.equals(query.getSuspendReason());
+      for (QueryAnswer answer : answers) {
+        final List<String> key = new ArrayList<>(parameters.size());
+        for (Variable var : parameterVars) {
+          key.add(toKey(answer.getBinding(var)));
+        }
+        final Integer index = indexByKey.get(key);
+        if (index != null) {
+          results.get(index).add(answer);
+        }
+      }
+    }
+    for (int index : new HashSet<>(indexByKey.values())) {
+      final List<QueryAnswer> answers = results.get(index);
+      if (maxAnswerCount != null && answers.size() > maxAnswerCount) {
+        results.set(index, new ArrayList<>(answers.subList(0, maxAnswerCount)));
+      } else if (!exhausted && (maxAnswerCount == null || answers.size() < maxAnswerCount)) {
+        // Others may have used up the batch's answers or time before all of this set's were found:
+        results.set(index, execute(chunk.get(index)));
+      }
+    }
+    // Duplicate sets of bindings share the answers of the first such set:
+    for (int i = 0; i < chunk.size(); i++) {
+      final List<String> key = new ArrayList<>(parameters.size());
+      for (KbObject parameter : parameters) {
+        key.add(toKey(chunk.get(i).get(parameter)));
+      }
+      final int first = indexByKey.get(key);
+      if (first != i) {
+        results.set(i, results.get(first));
+      }
+    }
+    return results;
+  }
+
+  private Query newQuery(Sentence sentence) throws QueryConstructionException {
+    return (params == null)
+                   ? Query.get(sentence, ctx)
+                   : Query.get(sentence, ctx, (InferenceParameters) params.clone());
+  }
+
+  private void checkParameters(Map<KbObject, Object> bindings, boolean requireAll) {
+    for (KbObject term : bindings.keySet()) {
+      if (!parameters.contains(term)) {
+        throw new IllegalArgumentException(term + " is not a parameter of " + this);
+      }
+    }
+    if (requireAll && !bindings.keySet().containsAll(parameters)) {
+      throw new IllegalArgumentException("Bindings " + bindings + " do not bind every parameter of "
+              + this + "; expected " + Arrays.toString(parameters.toArray()));
+    }
+  }
+
+  /**
+   * Normalizes a binding so that the terms which we sent to the Cyc server can be matched with the
+   * terms in its answers.
+   */
+  private static String toKey(Object value) {
+    return (value instanceof KbObject)
+                   ? ((KbObject) value).stringApiValue()
+                   : String.valueOf(value);
+  }
+
+}
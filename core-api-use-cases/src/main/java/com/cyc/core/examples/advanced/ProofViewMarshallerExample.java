@@ -69,7 +69,9 @@ public class ProofViewMarshallerExample {
    * into the original query that generated it, and then run a new query from the fully-bound query
    * sentence. Cyc only needs to prove a single answer, and it can often do so in much less time 
    * than it originally took to find the answer. Just be aware that it may not be the <em>same</em>
-   * proof that Cyc arrived at the first time.
+   * proof that Cyc arrived at the first time. To avoid re-running such queries altogether, see the
+   * ProofViewStore in the impl package, which keeps proof views on disk for as long as the KB
+   * revision is unchanged.
    * <p>
    * Note that we're creating the query in a try-with-resources block: it's important to close the 
    * inference, otherwise its problem store won't be destroyed and you'll have a memory leak.
@@ -91,17 +93,32 @@ public class ProofViewMarshallerExample {
       
       // Marshall the proof view to XML; we can use any OutputStream or Writer.
       // This will cause the generator to create the proofview if it has not done so already.
+      // For large proof views, or many of them, see the StreamingProofViewMarshaller in the
+      // impl package, which writes the XML as it goes rather than building it in memory first.
       proofGen.getMarshaller().marshal(OUT);
     } catch (ProofViewException | QueryConstructionException | SessionCommunicationException ex) {
       ex.printStackTrace(System.err);
     }
   }
   
+  /**
+   * Writes to System.out, but doesn't close it when the marshaller closes the stream.
+   */
   private static final OutputStream OUT = new OutputStream() {
     @Override
     public void write(int b) throws IOException {
       System.out.write(b);
     }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      System.out.write(b, off, len);
+    }
+    
+    @Override
+    public void flush() throws IOException {
+      System.out.flush();
+    }
   };
   
 }
@@ -0,0 +1,219 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: ProofViewRenderer.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.query.ProofViewNode;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.htmlparser.jericho.Source;
+import net.htmlparser.jericho.TextExtractor;
+
+/**
+ * Renders proof views as indented plain text, in the same form as
+ * {@link QueryAnswerJustifying#displayJustificationNode(ProofViewNode)}, but cheaply enough to
+ * re-render large justifications over and over, as a UI might.
+ * <p>
+ * Rendering a node's HTML as text means parsing it, which is by far the most expensive part of
+ * rendering, so the text of each distinct HTML string is cached, and only the least recently used
+ * are evicted once the cache is full. Beyond that, the renderer reuses its line buffer and its
+ * traversal stack, and indents from a preallocated run of spaces, so that once the cache holds a
+ * proof view's text, re-rendering it allocates next to nothing.
+ * <p>
+ * Instances are not thread-safe; use one per thread, or per UI component.
+ */
+public class ProofViewRenderer {
+
+  //====|    Fields    |==========================================================================//
+
+  public static final int DEFAULT_TEXT_CACHE_SIZE = 100_000;
+
+  private static final String LINE_SEPARATOR = System.lineSeparator();
+
+  private final int textCacheSize;
+  private final Map<String, String> textCache;
+  private final StringBuilder line = new StringBuilder(256);
+  private ProofViewNode[] stack = new ProofViewNode[64];
+  private char[] spaces = new char[64];
+  private long nodes = 0;
+  private long cacheHits = 0;
+  private long cacheMisses = 0;
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * Creates a renderer.
+   *
+   * @param textCacheSize the maximum number of distinct HTML strings whose text to cache
+   */
+  public ProofViewRenderer(int textCacheSize) {
+    if (textCacheSize < 0) {
+      throw new IllegalArgumentException("Cache size must not be negative: " + textCacheSize);
+    }
+    this.textCacheSize = textCacheSize;
+    this.textCache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > ProofViewRenderer.this.textCacheSize;
+      }
+    };
+    Arrays.fill(spaces, ' ');
+  }
+
+  public ProofViewRenderer() {
+    this(DEFAULT_TEXT_CACHE_SIZE);
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Render {@code root} and its descendants, depth first, one node per line.
+   *
+   * @param root the root node; typically a {@link com.cyc.query.ProofView ProofView}
+   * @param out  where to write the text
+   *
+   * @throws IOException if {@code out} could not be written to
+   */
+  public void render(ProofViewNode root, Appendable out) throws IOException {
+    int size = 0;
+    stack[size++] = root;
+    while (size > 0) {
+      final ProofViewNode node = stack[--size];
+      stack[size] = null;
+      out.append(renderNode(node)).append(LINE_SEPARATOR);
+      final List<? extends ProofViewNode> children = node.getChildren();
+      if (children != null) {
+        final int childCount = children.size();
+        if (size + childCount > stack.length) {
+          stack = Arrays.copyOf(stack, Math.max(stack.length * 2, size + childCount));
+        }
+        // Pushed in reverse, so that they are rendered in order:
+        for (int i = childCount - 1; i >= 0; i--) {
+          stack[size++] = children.get(i);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the rendering of {@code root} and its descendants as a String.
+   *
+   * @param root the root node
+   *
+   * @return the text
+   */
+  public String renderToString(ProofViewNode root) {
+    final StringBuilder sb = new StringBuilder();
+    try {
+      render(root, sb);
+    } catch (IOException ex) {
+      throw new IllegalStateException("StringBuilder threw an IOException", ex);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the rendering of a single node, without a line separator. The result is the renderer's
+   * own buffer, and is only valid until the renderer is next used.
+   *
+   * @param node the node
+   *
+   * @return the text
+   */
+  public CharSequence renderNode(ProofViewNode node) {
+    nodes++;
+    line.setLength(0);
+    indent(node.getDepth());
+    // Render initially hidden nodes with parens:
+    final boolean expandInitially = node.isExpandInitially();
+    if (!expandInitially) {
+      line.append('(');
+    }
+    // Render the node's HTML as text, or the label:
+    final String html = node.getHTML();
+    if (html == null || html.isEmpty()) {
+      final String label = node.getLabel();
+      if (label != null) {
+        line.append(label);
+      }
+    } else {
+      line.append(toText(html));
+    }
+    if (!expandInitially) {
+      line.append(')');
+    }
+    return line;
+  }
+
+  public long getNodeCount() {
+    return nodes;
+  }
+
+  public long getCacheHitCount() {
+    return cacheHits;
+  }
+
+  public long getCacheMissCount() {
+    return cacheMisses;
+  }
+
+  public int getCachedTextCount() {
+    return textCache.size();
+  }
+
+  public void clearCache() {
+    textCache.clear();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[nodes=" + nodes + ", cacheHits=" + cacheHits
+            + ", cacheMisses=" + cacheMisses + ", cached=" + textCache.size() + "]";
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private void indent(int depth) {
+    if (depth > spaces.length) {
+      spaces = new char[Math.max(spaces.length * 2, depth)];
+      Arrays.fill(spaces, ' ');
+    }
+    line.append(spaces, 0, depth);
+  }
+
+  private String toText(String html) {
+    String text = textCache.get(html);
+    if (text != null) {
+      cacheHits++;
+      return text;
+    }
+    cacheMisses++;
+    text = new TextExtractor(new Source(html)).toString();
+    textCache.put(html, text);
+    return text;
+  }
+
+}
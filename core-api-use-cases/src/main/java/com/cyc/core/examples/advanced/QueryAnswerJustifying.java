@@ -69,7 +69,8 @@ public class QueryAnswerJustifying {
     */
     ProofViewSpecification proofViewSpec = ProofViewSpecification.get();
     /* Get the justification for a particular answer.  In this case, we get the very first answer
-    that came back. */
+    that came back. Each justification is a round trip to the Cyc server; to justify every answer,
+    see the BatchJustifier in the impl package, which generates many proof views concurrently. */
     ProofView proofView = ProofView.getProofView(query.getAnswer(0), proofViewSpec);
     displayJustification(proofView);
   }
@@ -85,8 +86,21 @@ public class QueryAnswerJustifying {
     }
   }
   
+  /* Parsing each node's HTML dominates the cost of the method below. To render large 
+  justifications repeatedly, use a ProofViewRenderer, which caches the text and reuses its buffers:
+  
+    renderer.render(proofView, System.out);
+  */
+  
   public static void displayJustificationNode(final ProofViewNode node) throws IOException {
     final StringBuilder renderer = new StringBuilder();
+    appendJustificationNode(node, renderer);
+    System.out.println(renderer);
+  }
+
+  /* Renders a single node, as displayJustificationNode does, onto the end of renderer. */
+  public static void appendJustificationNode(final ProofViewNode node, final StringBuilder renderer)
+          throws IOException {
     // Indent according to node's depth:
     for (int i = 0; i < node.getDepth(); i++) {
       renderer.append(' ');
@@ -110,7 +124,6 @@ public class QueryAnswerJustifying {
     if (!expandInitially) {
       renderer.append(')');
     }
-    System.out.println(renderer);
   }
 
 
@@ -0,0 +1,281 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: QueryBatch.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.query.Query;
+import com.cyc.query.QueryAnswer;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a set of independent queries together. Running queries one after another, via
+ * {@link Query#getAnswers()} or {@link Query#performInference()}, waits for each inference to
+ * terminate before the next is even started, so the total time is the sum of every query's round
+ * trips and inference time. A QueryBatch starts every query up front, via {@link AsyncQuery}, so
+ * that the Cyc server works on them concurrently, and hands back each query's answers as soon as
+ * its inference terminates; the total time approaches that of the slowest query.
+ * <p>
+ * Results can be consumed in order of completion, via {@link #take()}, or all together, via
+ * {@link #awaitAll()} or {@link #results()}. Closing the batch closes every query in it.
+ * <p>
+ * Every query in a batch runs at once on the Cyc server, so a very large set of queries should be
+ * split into several batches, or run over a bounded number of workers via a {@link FanOut}.
+ */
+public class QueryBatch implements Closeable {
+
+  //====|    Factory methods    |=================================================================//
+
+  /**
+   * Start every query in {@code queries}, none of which may have been started already. A query
+   * whose inference fails to start is reported via its {@link Result}; but if a query cannot be
+   * started at all, the queries which were started before it are closed, and the exception is
+   * rethrown.
+   *
+   * @param queries the queries
+   *
+   * @return the running batch
+   */
+  public static QueryBatch start(Collection<? extends Query> queries) {
+    final QueryBatch batch = new QueryBatch(queries);
+    batch.startAll();
+    return batch;
+  }
+
+  public static QueryBatch start(Query... queries) {
+    return start(Arrays.asList(queries));
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  private final List<Query> queries;
+  private final List<CompletableFuture<Result>> futures;
+  private final BlockingQueue<Result> completed = new LinkedBlockingQueue<>();
+  private long startNanos;
+  private int taken = 0;
+
+  //====|    Construction    |====================================================================//
+
+  protected QueryBatch(Collection<? extends Query> queries) {
+    this.queries = Collections.unmodifiableList(new ArrayList<>(queries));
+    this.futures = new ArrayList<>(queries.size());
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Returns the result of the next query to complete, waiting for one if necessary; or null once
+   * every query's result has been taken.
+   *
+   * @return the next result, or null
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public synchronized Result take() throws InterruptedException {
+    if (taken >= queries.size()) {
+      return null;
+    }
+    final Result result = completed.take();
+    taken++;
+    return result;
+  }
+
+  /**
+   * Returns the result of the next query to complete, waiting up to {@code timeout} for one; or
+   * null if every query's result has been taken, or none completed in time.
+   *
+   * @param timeout how long to wait
+   * @param unit    the unit of {@code timeout}
+   *
+   * @return the next result, or null
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public synchronized Result poll(long timeout, TimeUnit unit) throws InterruptedException {
+    if (taken >= queries.size()) {
+      return null;
+    }
+    final Result result = completed.poll(timeout, unit);
+    if (result != null) {
+      taken++;
+    }
+    return result;
+  }
+
+  /**
+   * Returns a future which will be completed with every query's result, in the order in which the
+   * queries were given, once all of them have completed. This is independent of {@link #take()}.
+   *
+   * @return the results
+   */
+  public CompletableFuture<List<Result>> results() {
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+            .thenApply(ignored -> {
+              final List<Result> results = new ArrayList<>(futures.size());
+              futures.forEach(future -> results.add(future.join()));
+              return results;
+            });
+  }
+
+  /**
+   * Waits for every query to complete, and returns their results in the order in which the queries
+   * were given. This is independent of {@link #take()}.
+   *
+   * @return the results
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public List<Result> awaitAll() throws InterruptedException {
+    final List<Result> results = new ArrayList<>(futures.size());
+    for (CompletableFuture<Result> future : futures) {
+      try {
+        results.add(future.get());
+      } catch (ExecutionException ex) {
+        // Results are always completed normally; failures are recorded within them.
+        throw new IllegalStateException(ex.getCause());
+      }
+    }
+    return results;
+  }
+
+  public List<Query> getQueries() {
+    return queries;
+  }
+
+  /**
+   * Closes every query in the batch.
+   */
+  @Override
+  public void close() {
+    queries.forEach(Query::close);
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[" + queries.size() + " queries, "
+            + completed.size() + " completed and not yet taken]";
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private void startAll() {
+    startNanos = System.nanoTime();
+    for (Query query : queries) {
+      final CompletableFuture<List<QueryAnswer>> answers;
+      try {
+        answers = AsyncQuery.getAnswers(query);
+      } catch (RuntimeException ex) {
+        closeStarted(ex);
+        throw ex;
+      }
+      final CompletableFuture<Result> future = answers
+              .handle((result, error) -> new Result(query, result, error,
+                      System.nanoTime() - startNanos));
+      future.thenAccept(completed::add);
+      futures.add(future);
+    }
+  }
+
+  /**
+   * Closes the queries which have been started, after {@code cause} prevented the next one from
+   * starting. Any failures to close them are added to {@code cause}.
+   */
+  private void closeStarted(RuntimeException cause) {
+    for (Query query : queries.subList(0, futures.size())) {
+      try {
+        query.close();
+      } catch (RuntimeException ex) {
+        cause.addSuppressed(ex);
+      }
+    }
+  }
+
+  //====|    Result    |==========================================================================//
+
+  /**
+   * The outcome of one query in a batch: either its answers, or the error which terminated it.
+   */
+  public static class Result {
+
+    private final Query query;
+    private final List<QueryAnswer> answers;
+    private final Throwable error;
+    private final long elapsedNanos;
+
+    Result(Query query, List<QueryAnswer> answers, Throwable error, long elapsedNanos) {
+      this.query = query;
+      this.answers = (answers != null) ? answers : Collections.emptyList();
+      this.error = error;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    public Query getQuery() {
+      return query;
+    }
+
+    /**
+     * Returns the query's answers; empty if it failed.
+     *
+     * @return the answers
+     */
+    public List<QueryAnswer> getAnswers() {
+      return answers;
+    }
+
+    /**
+     * Returns the error which terminated the query, or null if it succeeded.
+     *
+     * @return the error
+     */
+    public Throwable getError() {
+      return error;
+    }
+
+    public boolean isSuccessful() {
+      return error == null;
+    }
+
+    /**
+     * Returns the time from the start of the batch until this query completed.
+     *
+     * @return the elapsed time, in nanoseconds
+     */
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return query + ": " + (isSuccessful() ? answers.size() + " answer(s)" : "failed: " + error)
+              + " after " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms";
+    }
+  }
+
+}
@@ -0,0 +1,299 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: QueryBatchSimulation.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.query.InferenceStatus;
+import com.cyc.query.Query;
+import com.cyc.query.QueryAnswer;
+import com.cyc.query.QueryAnswers;
+import com.cyc.query.QueryListener;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the wall-clock time of running a set of independent queries one after another with that
+ * of running them together via a {@link QueryBatch}, against a simulated, in-process Cyc server.
+ * Each simulated inference takes a random time between a minimum and a maximum latency, and the
+ * server runs a limited number of inferences at once; queued inferences wait for a free worker.
+ * <p>
+ * It then starts a batch in which one query cannot be started at all. The simulation fails
+ * (exiting with status 1) if any query's answers are missing from either run, if the batch does not
+ * hand back its results in order of completion, or if the failed batch does not close the queries
+ * it had already started, or does not rethrow the failure.
+ * <p>
+ * Usage: {@code QueryBatchSimulation [queries] [min latency ms] [max latency ms] [server workers]}
+ */
+public class QueryBatchSimulation {
+
+  private static final int DEFAULT_QUERIES = 24;
+  private static final int DEFAULT_MIN_LATENCY_MS = 50;
+  private static final int DEFAULT_MAX_LATENCY_MS = 250;
+  private static final int DEFAULT_SERVER_WORKERS = 8;
+
+  public static void main(String[] args) {
+    final String exampleName = QueryBatchSimulation.class.getSimpleName();
+    final int queries = intArg(args, 0, DEFAULT_QUERIES);
+    final int minLatency = intArg(args, 1, DEFAULT_MIN_LATENCY_MS);
+    final int maxLatency = intArg(args, 2, DEFAULT_MAX_LATENCY_MS);
+    final int workers = intArg(args, 3, DEFAULT_SERVER_WORKERS);
+    boolean passed = false;
+    try {
+      System.out.println("Running " + exampleName + "...");
+      System.out.println(queries + " queries of " + minLatency + ".." + maxLatency
+                                 + "ms each, against a server with " + workers + " workers");
+      final QueryBatchSimulation simulation
+              = new QueryBatchSimulation(queries, minLatency, maxLatency, workers);
+      final long sequentialMs = simulation.runSequentially();
+      final long batchMs = simulation.runBatch();
+      System.out.println(String.format("Sequential: %5dms", sequentialMs));
+      System.out.println(String.format("Batch:      %5dms (%.1fx faster; the slowest query alone"
+              + " takes up to %dms)", batchMs, (double) sequentialMs / batchMs, maxLatency));
+      System.out.println("Peak concurrent inferences at the simulated server: "
+                                 + simulation.peakRunningInferences.get());
+      simulation.runFailedStart(queries / 2);
+      passed = simulation.failures.isEmpty();
+      simulation.failures.forEach(failure -> System.out.println("FAILED: " + failure));
+      simulation.server.shutdownNow();
+      System.out.println();
+    } catch (InterruptedException | ExecutionException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(passed ? 0 : 1);
+    }
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  private final int[] latencies;
+  private final ScheduledExecutorService server;
+  private final AtomicInteger runningInferences = new AtomicInteger();
+  private final AtomicInteger peakRunningInferences = new AtomicInteger();
+  private final List<String> failures = new CopyOnWriteArrayList<>();
+  private final Set<Integer> closedQueries = ConcurrentHashMap.newKeySet();
+
+  //====|    Construction    |====================================================================//
+
+  private QueryBatchSimulation(int queries, int minLatency, int maxLatency, int workers) {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    this.latencies = new int[queries];
+    for (int i = 0; i < queries; i++) {
+      latencies[i] = random.nextInt(minLatency, maxLatency + 1);
+    }
+    this.server = Executors.newScheduledThreadPool(workers, runnable -> {
+      final Thread thread = new Thread(runnable, "SimulatedServer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  //====|    Runs    |============================================================================//
+
+  /**
+   * Runs each query in turn, waiting for its answers before starting the next, as a client calling
+   * {@link Query#getAnswers()} would.
+   */
+  private long runSequentially() throws InterruptedException, ExecutionException {
+    final long start = System.nanoTime();
+    for (int i = 0; i < latencies.length; i++) {
+      try (Query query = newQuery(i)) {
+        checkAnswers("sequential", i, AsyncQuery.getAnswers(query).get());
+      }
+    }
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  private long runBatch() throws InterruptedException {
+    final List<Query> queries = new ArrayList<>(latencies.length);
+    for (int i = 0; i < latencies.length; i++) {
+      queries.add(newQuery(i));
+    }
+    final long start = System.nanoTime();
+    try (QueryBatch batch = QueryBatch.start(queries)) {
+      long previousElapsed = 0;
+      int count = 0;
+      for (QueryBatch.Result result = batch.take(); result != null; result = batch.take()) {
+        count++;
+        final int index = queries.indexOf(result.getQuery());
+        if (!result.isSuccessful()) {
+          failures.add("batch query " + index + ": " + result.getError());
+        } else {
+          checkAnswers("batch", index, result.getAnswers());
+        }
+        if (result.getElapsedNanos() < previousElapsed) {
+          failures.add("batch result for query " + index + " was taken out of order");
+        }
+        previousElapsed = result.getElapsedNanos();
+      }
+      if (count != queries.size()) {
+        failures.add("batch returned " + count + " results for " + queries.size() + " queries");
+      }
+    }
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  /**
+   * Starts a batch in which query {@code failing} cannot be started, and checks that the batch
+   * closes the queries before it, leaves the rest alone, and rethrows the failure.
+   */
+  private void runFailedStart(int failing) {
+    final List<Query> queries = new ArrayList<>(latencies.length);
+    for (int i = 0; i < latencies.length; i++) {
+      queries.add((i == failing) ? unstartableQuery(i) : newQuery(i));
+    }
+    closedQueries.clear();
+    try {
+      QueryBatch.start(queries).close();
+      failures.add("failed batch started, despite query " + failing);
+      return;
+    } catch (IllegalStateException ex) {
+      System.out.println("Failed batch: " + ex.getMessage());
+    }
+    for (int i = 0; i < queries.size(); i++) {
+      if (closedQueries.contains(i) != (i < failing)) {
+        failures.add("failed batch " + (closedQueries.contains(i) ? "closed" : "did not close")
+                             + " query " + i);
+      }
+    }
+    queries.forEach(Query::close);
+  }
+
+  private void checkAnswers(String run, int index, List<QueryAnswer> answers) {
+    if (answers.size() != answerCount(index)) {
+      failures.add(run + " query " + index + " returned " + answers.size() + " answers; expected "
+                           + answerCount(index));
+    }
+  }
+
+  private static int answerCount(int index) {
+    return index % 5;
+  }
+
+  private static int intArg(String[] args, int index, int defaultValue) {
+    return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+  //====|    Simulated queries    |===============================================================//
+
+  /**
+   * Returns a stand-in for the {@code index}th query. Starting it submits its inference to the
+   * simulated server, which notifies the query's listeners once the inference has run for its
+   * latency.
+   */
+  private Query newQuery(int index) {
+    final List<QueryListener> listeners = new CopyOnWriteArrayList<>();
+    final List<QueryAnswer> answers = new ArrayList<>();
+    for (int i = 0; i < answerCount(index); i++) {
+      answers.add(null);
+    }
+    final QueryAnswers<?> queryAnswers = (QueryAnswers<?>) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[]{QueryAnswers.class},
+            (proxy, method, args) -> {
+              try {
+                return method.invoke(Collections.unmodifiableList(answers), args);
+              } catch (IllegalArgumentException ex) {
+                throw new UnsupportedOperationException(method.getName());
+              } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+              }
+            });
+    final InferenceStatus[] status = {InferenceStatus.NOT_STARTED};
+    return (Query) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Query.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "addListener":
+                  listeners.add((QueryListener) args[0]);
+                  return proxy;
+                case "start":
+                  status[0] = InferenceStatus.RUNNING;
+                  server.submit(() -> {
+                    peakRunningInferences.accumulateAndGet(
+                            runningInferences.incrementAndGet(), Math::max);
+                    try {
+                      Thread.sleep(latencies[index]);
+                    } catch (InterruptedException ex) {
+                      return;
+                    } finally {
+                      runningInferences.decrementAndGet();
+                    }
+                    status[0] = InferenceStatus.SUSPENDED;
+                    listeners.forEach(listener
+                            -> listener.notifyInferenceTerminated((Query) proxy, null));
+                  });
+                  return null;
+                case "getStatus":
+                  return status[0];
+                case "getAnswers":
+                  return queryAnswers;
+                case "close":
+                  closedQueries.add(index);
+                  return null;
+                case "equals":
+                  return proxy == args[0];
+                case "hashCode":
+                  return index;
+                case "toString":
+                  return "SimulatedQuery-" + index;
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+  /**
+   * Returns a stand-in for the {@code index}th query which cannot be started, because it refuses
+   * any listener; as a query which has already been closed would.
+   */
+  private Query unstartableQuery(int index) {
+    return (Query) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Query.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "addListener":
+                  throw new IllegalStateException("SimulatedQuery-" + index + " is closed");
+                case "close":
+                  closedQueries.add(index);
+                  return null;
+                case "equals":
+                  return proxy == args[0];
+                case "hashCode":
+                  return index;
+                case "toString":
+                  return "SimulatedQuery-" + index;
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+}
@@ -0,0 +1,249 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: QueryMetrics.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.kb.Variable;
+import com.cyc.query.InferenceStatus;
+import com.cyc.query.InferenceSuspendReason;
+import com.cyc.query.Query;
+import com.cyc.query.QueryAnswer;
+import com.cyc.query.QueryListener;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.ToLongFunction;
+
+/**
+ * Instruments queries, via a {@link QueryListener}, and reports their timings and throughput to a
+ * {@link MetricsRegistry}. For each instrumented query, it records:
+ * <ul>
+ * <li>{@value #INFERENCE_CREATED}: the time from instrumentation until Cyc created the
+ * inference;</li>
+ * <li>{@value #FIRST_ANSWER}: the time from instrumentation until the first answer arrived;</li>
+ * <li>{@value #RUN_DURATION} and {@value #ANSWER_RATE}: the length of each run of the inference
+ * (from instrumentation, or from the inference being continued, until it is suspended or
+ * terminates), and the answers per second during that run. Each run is recorded once, whether its
+ * end is reported as a suspension, a termination, or both;</li>
+ * <li>{@value #QUERIES}, {@value #ANSWERS}, {@value #FAILURES}: counts of queries, answers, and
+ * inferences which stopped with an exception;</li>
+ * <li>{@value #SUSPENDED}{@code .<reason>}: a count of suspensions for each
+ * {@link InferenceSuspendReason}, by its status string;</li>
+ * <li>{@value #ANSWER_BYTES}: if an answer size estimator is supplied, the estimated bytes of
+ * answers received.</li>
+ * </ul>
+ * The Core Client does not expose the number of bytes read from its connections, so answer sizes
+ * can only be estimated, from their bindings; {@link #CYCL_LENGTH} estimates them from the length
+ * of their CycL. Estimation is comparatively expensive, so it is off by default.
+ * <p>
+ * A query should be instrumented immediately before it is started, since its timings are measured
+ * from that moment. The metrics are looked up once, when the QueryMetrics is created, so that
+ * instrumentation adds only a few atomic updates to each notification. Instances are thread-safe,
+ * and one instance may instrument any number of queries.
+ */
+public class QueryMetrics {
+
+  //====|    Metric names    |====================================================================//
+
+  public static final String QUERIES = "query.count";
+  public static final String ANSWERS = "query.answers";
+  public static final String FAILURES = "query.failures";
+  public static final String ANSWER_BYTES = "query.answer-bytes";
+  public static final String SUSPENDED = "query.suspended";
+  public static final String INFERENCE_CREATED = "query.inference-created.nanos";
+  public static final String FIRST_ANSWER = "query.first-answer.nanos";
+  public static final String RUN_DURATION = "query.run.nanos";
+  public static final String ANSWER_RATE = "query.answers-per-second";
+
+  //====|    Answer size estimators    |==========================================================//
+
+  /**
+   * Estimates an answer's size as the total length of its variables' names and of its bindings'
+   * string representations, which is roughly the size of its CycL.
+   */
+  public static final ToLongFunction<QueryAnswer> CYCL_LENGTH = answer -> {
+    long size = 0;
+    for (Map.Entry<Variable, Object> binding : answer.getBindings().entrySet()) {
+      size += binding.getKey().toString().length() + String.valueOf(binding.getValue()).length();
+    }
+    return size;
+  };
+
+  //====|    Fields    |==========================================================================//
+
+  private final MetricsRegistry registry;
+  private final ToLongFunction<QueryAnswer> answerSize;
+  private final MetricsRegistry.Counter queries;
+  private final MetricsRegistry.Counter answers;
+  private final MetricsRegistry.Counter failures;
+  private final MetricsRegistry.Counter answerBytes;
+  private final MetricsRegistry.Histogram inferenceCreated;
+  private final MetricsRegistry.Histogram firstAnswer;
+  private final MetricsRegistry.Histogram runDuration;
+  private final MetricsRegistry.Histogram answerRate;
+  private final Map<String, MetricsRegistry.Counter> suspensions = new ConcurrentHashMap<>();
+
+  private static final AtomicIntegerFieldUpdater<Recorder> SAW_FIRST_ANSWER
+          = AtomicIntegerFieldUpdater.newUpdater(Recorder.class, "sawFirstAnswer");
+  private static final AtomicLongFieldUpdater<Recorder> RUN_ANSWERS
+          = AtomicLongFieldUpdater.newUpdater(Recorder.class, "runAnswers");
+  private static final AtomicIntegerFieldUpdater<Recorder> RUN_RECORDED
+          = AtomicIntegerFieldUpdater.newUpdater(Recorder.class, "runRecorded");
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * Creates a QueryMetrics.
+   *
+   * @param registry   the registry to which to report
+   * @param answerSize estimates the size of each answer in bytes; if null, answer sizes are not
+   *                   recorded
+   */
+  public QueryMetrics(MetricsRegistry registry, ToLongFunction<QueryAnswer> answerSize) {
+    this.registry = registry;
+    this.answerSize = answerSize;
+    this.queries = registry.counter(QUERIES);
+    this.answers = registry.counter(ANSWERS);
+    this.failures = registry.counter(FAILURES);
+    this.answerBytes = (answerSize != null) ? registry.counter(ANSWER_BYTES) : null;
+    this.inferenceCreated = registry.histogram(INFERENCE_CREATED);
+    this.firstAnswer = registry.histogram(FIRST_ANSWER);
+    this.runDuration = registry.histogram(RUN_DURATION);
+    this.answerRate = registry.histogram(ANSWER_RATE);
+  }
+
+  public QueryMetrics(MetricsRegistry registry) {
+    this(registry, null);
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Start recording metrics for {@code query}, which should not yet have been started.
+   *
+   * @param query the query
+   *
+   * @return the query
+   */
+  public Query instrument(Query query) {
+    queries.increment();
+    query.addListener(new Recorder());
+    return query;
+  }
+
+  public MetricsRegistry getRegistry() {
+    return registry;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[" + registry + "]";
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private MetricsRegistry.Counter suspensions(InferenceSuspendReason reason) {
+    final String name = (reason != null) ? reason.getInferenceStatusString() : "unknown";
+    final MetricsRegistry.Counter existing = suspensions.get(name);
+    return (existing != null)
+                   ? existing
+                   : suspensions.computeIfAbsent(name,
+                           key -> registry.counter(SUSPENDED + "." + key));
+  }
+
+  //====|    Recorder    |========================================================================//
+
+  /**
+   * Tracks a single query. Its state is held in fields updated via field updaters rather than in
+   * atomic objects, since one Recorder is created for every query.
+   */
+  private final class Recorder implements QueryListener {
+
+    private final long startNanos = System.nanoTime();
+    private volatile long runStartNanos = startNanos;
+    // Not private, so that the field updaters can reach them:
+    volatile long runAnswers = 0;
+    volatile int sawFirstAnswer = 0;
+    volatile int runRecorded = 0;
+
+    @Override
+    public void notifyInferenceCreated(Query query) {
+      inferenceCreated.record(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public void notifyInferenceStatusChanged(InferenceStatus oldStatus, InferenceStatus newStatus,
+            InferenceSuspendReason suspendReason, Query query) {
+      if (newStatus == InferenceStatus.SUSPENDED) {
+        suspensions(suspendReason).increment();
+        endRun();
+      } else if (oldStatus == InferenceStatus.SUSPENDED && newStatus == InferenceStatus.RUNNING) {
+        // The inference has been continued, so a new run begins:
+        runStartNanos = System.nanoTime();
+        runAnswers = 0;
+        runRecorded = 0;
+      }
+    }
+
+    @Override
+    public void notifyInferenceAnswersAvailable(Query query, List<QueryAnswer> newAnswers) {
+      if (sawFirstAnswer == 0 && SAW_FIRST_ANSWER.compareAndSet(this, 0, 1)) {
+        firstAnswer.record(System.nanoTime() - startNanos);
+      }
+      final int count = newAnswers.size();
+      answers.add(count);
+      RUN_ANSWERS.addAndGet(this, count);
+      if (answerSize != null) {
+        long bytes = 0;
+        for (QueryAnswer answer : newAnswers) {
+          bytes += answerSize.applyAsLong(answer);
+        }
+        answerBytes.add(bytes);
+      }
+    }
+
+    @Override
+    public void notifyInferenceTerminated(Query query, Exception exception) {
+      endRun();
+      if (exception != null) {
+        failures.increment();
+      }
+    }
+
+    /**
+     * Records the current run, unless it has already been recorded.
+     */
+    private void endRun() {
+      if (runRecorded != 0 || !RUN_RECORDED.compareAndSet(this, 0, 1)) {
+        return;
+      }
+      final long elapsed = System.nanoTime() - runStartNanos;
+      runDuration.record(elapsed);
+      if (elapsed > 0) {
+        answerRate.record(runAnswers * TimeUnit.SECONDS.toNanos(1) / elapsed);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,400 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: QueryResultCache.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.kb.Context;
+import com.cyc.kb.Fact;
+import com.cyc.kb.KbObject;
+import com.cyc.kb.Sentence;
+import com.cyc.kb.exception.KbException;
+import com.cyc.query.Query;
+import com.cyc.query.QueryAnswer;
+import com.cyc.query.exception.QueryConstructionException;
+import com.cyc.query.parameters.InferenceParameterGetter;
+import com.cyc.query.parameters.InferenceParameters;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An opt-in cache of query answers, keyed by query sentence, context and those inference
+ * parameters which affect the answers. Asking the same question twice (as the
+ * {@link com.cyc.core.examples.basics.BasicWalkthrough BasicWalkthrough} does, once via a Sentence
+ * and once via a String) otherwise runs two full inferences.
+ * <p>
+ * The cache holds the answers to a bounded number of queries, evicting the least recently used.
+ * Cached answers become stale when the KB changes; facts which are asserted or deleted via
+ * {@link #findOrCreateFact(Sentence, Context)} and {@link #delete(Fact)} invalidate every cached
+ * query which mentions the fact's predicate. This only catches direct uses of the predicate: a
+ * query which concludes {@code movieActors} from a {@code movieActors-WithStarringRole} fact via
+ * {@code #$genlPreds} will not be invalidated when that fact changes. KB changes made by any other
+ * means should be reported via {@link #invalidate(KbObject)} or {@link #invalidateAll()}.
+ * <p>
+ * Only {@link Query#getAnswers()} is cached; {@link Query#getResultSet()} is a cursor over a live
+ * inference, and is not.
+ */
+public class QueryResultCache {
+
+  //====|    AnswerSource    |====================================================================//
+
+  /**
+   * Answers queries on behalf of the cache. The default implementation, {@link #CYC_SERVER}, runs
+   * each query on the current Cyc server; other implementations may be supplied for offline use.
+   */
+  @FunctionalInterface
+  public static interface AnswerSource {
+
+    /**
+     * Answer a query.
+     *
+     * @param sentence the query sentence
+     * @param ctx      the context in which to run the query
+     * @param params   the inference parameters; may be null
+     *
+     * @return the answers
+     *
+     * @throws QueryConstructionException if the query could not be constructed
+     */
+    List<QueryAnswer> getAnswers(Sentence sentence, Context ctx, InferenceParameters params)
+            throws QueryConstructionException;
+  }
+
+  /**
+   * Runs each query as a new Query on the current Cyc server, and closes it once its answers have
+   * been retrieved.
+   */
+  public static final AnswerSource CYC_SERVER = (sentence, ctx, params) -> {
+    try (Query query = (params == null)
+                               ? Query.get(sentence, ctx)
+                               : Query.get(sentence, ctx, params)) {
+      return new ArrayList<>(query.getAnswers());
+    }
+  };
+
+  //====|    Fields    |==========================================================================//
+
+  public static final int DEFAULT_MAX_SIZE = 1_000;
+
+  /**
+   * Matches the constants in the CycL representation of a sentence.
+   */
+  private static final Pattern CONSTANT_PATTERN = Pattern.compile("#\\$[^\\s()\"]+");
+
+  private final AnswerSource source;
+  private final int maxSize;
+  private final Map<Key, CachedAnswers> entries;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder invalidations = new LongAdder();
+  /**
+   * Incremented by every invalidation, so that answers which were computed while the KB was
+   * changing are not cached. Guarded by {@code entries}.
+   */
+  private long generation = 0;
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * Creates a cache.
+   *
+   * @param source  how to answer queries which are not in the cache
+   * @param maxSize the maximum number of queries whose answers should be held
+   */
+  public QueryResultCache(AnswerSource source, int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+    }
+    this.source = source;
+    this.maxSize = maxSize;
+    this.entries = new LinkedHashMap<Key, CachedAnswers>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, CachedAnswers> eldest) {
+        if (size() > QueryResultCache.this.maxSize) {
+          evictions.increment();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  public QueryResultCache(int maxSize) {
+    this(CYC_SERVER, maxSize);
+  }
+
+  public QueryResultCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  //====|    Lookup    |==========================================================================//
+
+  /**
+   * Returns the answers to a query, from the cache if possible.
+   *
+   * @param sentence the query sentence
+   * @param ctx      the context in which to run the query
+   * @param params   the inference parameters; may be null
+   *
+   * @return the answers
+   *
+   * @throws QueryConstructionException if the query could not be constructed
+   */
+  public List<QueryAnswer> getAnswers(Sentence sentence, Context ctx, InferenceParameters params)
+          throws QueryConstructionException {
+    final Key key = new Key(sentence, ctx, params);
+    final long generationBefore;
+    synchronized (entries) {
+      final CachedAnswers entry = entries.get(key);
+      if (entry != null) {
+        hits.increment();
+        return entry.answers;
+      }
+      generationBefore = generation;
+    }
+    misses.increment();
+    final List<QueryAnswer> answers = Collections.unmodifiableList(
+            new ArrayList<>(source.getAnswers(sentence, ctx, params)));
+    cache(key, generationBefore, answers, sentence);
+    return answers;
+  }
+
+  /**
+   * Returns the answers to {@code query}, from the cache if possible. The query is only run if its
+   * answers are not cached. Either way, the caller remains responsible for closing it.
+   *
+   * @param query the query
+   *
+   * @return the answers
+   *
+   * @throws KbException if the query's sentence could not be retrieved
+   */
+  public List<QueryAnswer> getAnswers(Query query) throws KbException {
+    final Sentence sentence = query.getQuerySentence();
+    final Key key = new Key(sentence, query.getContext(), query.getInferenceParameters());
+    final long generationBefore;
+    synchronized (entries) {
+      final CachedAnswers entry = entries.get(key);
+      if (entry != null) {
+        hits.increment();
+        return entry.answers;
+      }
+      generationBefore = generation;
+    }
+    misses.increment();
+    final List<QueryAnswer> answers
+            = Collections.unmodifiableList(new ArrayList<>(query.getAnswers()));
+    cache(key, generationBefore, answers, sentence);
+    return answers;
+  }
+
+  //====|    Invalidation    |====================================================================//
+
+  /**
+   * Find or assert a fact via {@link Fact#findOrCreate(Sentence, Context)}, and invalidate every
+   * cached query which mentions its predicate.
+   *
+   * @param sentence the fact's sentence
+   * @param ctx      the fact's context
+   *
+   * @return the fact
+   *
+   * @throws KbException if the fact could not be found or created
+   */
+  public Fact findOrCreateFact(Sentence sentence, Context ctx) throws KbException {
+    try {
+      return Fact.findOrCreate(sentence, ctx);
+    } finally {
+      invalidate((KbObject) sentence.getArgument(0));
+    }
+  }
+
+  /**
+   * Delete a fact, and invalidate every cached query which mentions its predicate.
+   *
+   * @param fact the fact to delete
+   *
+   * @throws KbException if the fact could not be deleted
+   */
+  public void delete(Fact fact) throws KbException {
+    final KbObject predicate = fact.getFormula().getArgument(0);
+    try {
+      fact.delete();
+    } finally {
+      invalidate(predicate);
+    }
+  }
+
+  /**
+   * Invalidate every cached query which mentions {@code term}. This is typically used for
+   * predicates whose extent has changed.
+   *
+   * @param term the term
+   */
+  public void invalidate(KbObject term) {
+    final String constant = term.stringApiValue();
+    synchronized (entries) {
+      generation++;
+      entries.values().removeIf(entry -> {
+        if (entry.constants.contains(constant)) {
+          invalidations.increment();
+          return true;
+        }
+        return false;
+      });
+    }
+  }
+
+  public void invalidateAll() {
+    synchronized (entries) {
+      generation++;
+      invalidations.add(entries.size());
+      entries.clear();
+    }
+  }
+
+  //====|    Statistics    |======================================================================//
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  public long getInvalidationCount() {
+    return invalidations.sum();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[size=" + size() + "/" + maxSize
+            + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+            + ", evictions=" + getEvictionCount() + ", invalidations=" + getInvalidationCount()
+            + "]";
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private void cache(Key key, long generationBefore, List<QueryAnswer> answers, Sentence sentence) {
+    final Set<String> constants = constantsIn(sentence);
+    synchronized (entries) {
+      if (generation == generationBefore) {
+        entries.put(key, new CachedAnswers(answers, constants));
+      }
+    }
+  }
+
+  private static Set<String> constantsIn(Sentence sentence) {
+    final Set<String> constants = new HashSet<>();
+    final Matcher matcher = CONSTANT_PATTERN.matcher(sentence.stringApiValue());
+    while (matcher.find()) {
+      constants.add(matcher.group());
+    }
+    return constants;
+  }
+
+  /**
+   * Collapses runs of whitespace, so that sentences which differ only in formatting share a key.
+   */
+  private static String normalize(String cycl) {
+    return cycl.trim().replaceAll("\\s+", " ");
+  }
+
+  //====|    Key & CachedAnswers    |=============================================================//
+
+  private static final class Key {
+
+    private final String sentence;
+    private final String ctx;
+    private final Integer maxAnswerCount;
+    private final Integer maxTime;
+    private final Integer maxTransformationDepth;
+    private final Object inferenceMode;
+
+    private Key(Sentence sentence, Context ctx, InferenceParameterGetter params) {
+      this.sentence = normalize(sentence.stringApiValue());
+      this.ctx = ctx.stringApiValue();
+      this.maxAnswerCount = (params == null) ? null : params.getMaxAnswerCount();
+      this.maxTime = (params == null) ? null : params.getMaxTime();
+      this.maxTransformationDepth = (params == null) ? null : params.getMaxTransformationDepth();
+      this.inferenceMode = (params == null) ? null : params.getInferenceMode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return sentence.equals(other.sentence)
+                     && ctx.equals(other.ctx)
+                     && Objects.equals(maxAnswerCount, other.maxAnswerCount)
+                     && Objects.equals(maxTime, other.maxTime)
+                     && Objects.equals(maxTransformationDepth, other.maxTransformationDepth)
+                     && Objects.equals(inferenceMode, other.inferenceMode);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(sentence, ctx, maxAnswerCount, maxTime, maxTransformationDepth,
+              inferenceMode);
+    }
+  }
+
+  private static final class CachedAnswers {
+
+    private final List<QueryAnswer> answers;
+    private final Set<String> constants;
+
+    private CachedAnswers(List<QueryAnswer> answers, Set<String> constants) {
+      this.answers = answers;
+      this.constants = constants;
+    }
+  }
+
+}
@@ -0,0 +1,120 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: QueryResultCacheExample.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.kb.Sentence;
+import com.cyc.kb.exception.KbException;
+import com.cyc.query.exception.QueryConstructionException;
+import com.cyc.session.SessionManager;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.cyc.Cyc.Constants.INFERENCE_PSC;
+
+/**
+ * Demonstrates the {@link QueryResultCache} against a live Cyc server, by printing the latency of
+ * answering a query when its answers are not cached (cold) and when they are (warm). By default, it
+ * asks the {@link com.cyc.core.examples.basics.BasicWalkthrough BasicWalkthrough}'s question about
+ * Jack Nicholson's R-rated movies, so run the walkthrough first; a different query sentence may be
+ * given as the first argument, and the number of iterations as the second.
+ * <p>
+ * The latencies are timed with {@link System#nanoTime()} around single-threaded calls, so they are
+ * indicative only: there is no warm-up, nothing controls for JIT compilation or for caching on the
+ * Cyc server, and the cold latencies depend on the server's load and its distance from the client.
+ */
+public class QueryResultCacheExample {
+
+  private static final String DEFAULT_QUERY
+          = "(and (movieActors ?MOVIE JackNicholson)"
+                    + " (movieAdvisoryRating ?MOVIE RestrictedRating))";
+
+  private static final int DEFAULT_ITERATIONS = 20;
+
+  public static void main(String[] args) {
+    final String exampleName = QueryResultCacheExample.class.getSimpleName();
+    try (SessionManager sessionMgr = SessionManager.getInstance()) {
+      System.out.println("Running " + exampleName + "...");
+      final String query = (args.length > 0) ? args[0] : DEFAULT_QUERY;
+      final int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+      new QueryResultCacheExample().run(Sentence.get(query), iterations);
+      System.out.println();
+    } catch (KbException | QueryConstructionException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+      System.exit(1);
+    } catch (IOException ioe) {
+      ioe.printStackTrace(System.err);
+      System.exit(1);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(0);
+    }
+  }
+
+  /**
+   * Answer {@code query} {@code iterations} times with an empty cache, and then
+   * {@code iterations} times with a warm one, and print the latencies.
+   *
+   * @param query      the query sentence
+   * @param iterations the number of times to answer it in each mode
+   *
+   * @throws QueryConstructionException
+   */
+  public void run(Sentence query, int iterations) throws QueryConstructionException {
+    if (iterations <= 0) {
+      throw new IllegalArgumentException("Iterations must be positive: " + iterations);
+    }
+    final QueryResultCache cache = new QueryResultCache();
+    System.out.println("Query: " + query);
+
+    final long[] cold = new long[iterations];
+    for (int i = 0; i < iterations; i++) {
+      cache.invalidateAll();
+      final long start = System.nanoTime();
+      cache.getAnswers(query, INFERENCE_PSC, null);
+      cold[i] = System.nanoTime() - start;
+    }
+    report("Cold", cold);
+
+    final long[] warm = new long[iterations];
+    cache.getAnswers(query, INFERENCE_PSC, null);
+    for (int i = 0; i < iterations; i++) {
+      final long start = System.nanoTime();
+      cache.getAnswers(query, INFERENCE_PSC, null);
+      warm[i] = System.nanoTime() - start;
+    }
+    report("Warm", warm);
+    System.out.println(cache);
+  }
+
+  private static void report(String label, long[] latenciesNanos) {
+    final long[] sorted = latenciesNanos.clone();
+    Arrays.sort(sorted);
+    final double meanMicros = Arrays.stream(sorted).average().orElse(0) / 1_000;
+    System.out.println(String.format("%s: mean %.1fus, median %dus, max %dus (%d iterations)",
+            label, meanMicros,
+            TimeUnit.NANOSECONDS.toMicros(sorted[sorted.length / 2]),
+            TimeUnit.NANOSECONDS.toMicros(sorted[sorted.length - 1]),
+            sorted.length));
+  }
+
+}
@@ -0,0 +1,744 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: SpillingAnswerSink.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.kb.KbObject;
+import com.cyc.kb.KbTerm;
+import com.cyc.kb.Sentence;
+import com.cyc.kb.Variable;
+import com.cyc.kb.exception.KbException;
+import com.cyc.query.InferenceAnswerIdentifier;
+import com.cyc.query.QueryAnswer;
+import com.cyc.query.exception.QueryRuntimeException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Collects a query's answers, holding the first few in memory and spilling the rest to a local,
+ * append-only file, so that exhaustive queries with millions of answers can be collected without a
+ * correspondingly large heap. {@link AdvancedQuerying}'s incremental query caps its answer count
+ * and stops itself early for exactly that reason.
+ * <p>
+ * The sink is an {@link AnswerPublisher.Subscriber}: subscribe it to an
+ * {@link AsyncQuery#answerPublisher(int) AsyncQuery's publisher}, and wait for
+ * {@link #completion()}. Answers may also be added directly via {@link #add(QueryAnswer)}. Either
+ * way, they are read back, in the order in which they were added, by iterating over the sink.
+ * <p>
+ * The first {@code memoryThreshold} answers are held as they are. Each later answer is encoded as
+ * a length-prefixed record of its bindings, collected in a buffer, and appended to the file via a
+ * FileChannel whenever the buffer fills; iteration reads the records back in large blocks, and
+ * decodes each as it is reached, so only one spilled answer at a time is in memory. Spilled
+ * answers keep only their bindings: their {@link QueryAnswer#getId() IDs} are null and their
+ * sources are empty. Strings, booleans, dates, and numbers of the standard types (Integer, Long,
+ * Float, Double, BigInteger and BigDecimal) are stored as they are. Sentences and other KB objects
+ * form a term table within the file: the first record to bind each distinct one stores its CycL,
+ * and later records refer to it by its index in the table. When the first iterator to reach a
+ * term's CycL reads it back, the term is looked up again via {@link #decodeSentence(String)} or
+ * {@link #decodeTerm(String)}; that one lookup serves every later reference, from any iterator.
+ * The sink therefore holds each distinct term, though not each answer, in memory. A binding of
+ * any other type cannot be spilled, and {@link #add(QueryAnswer)} rejects it rather than reading
+ * back something different.
+ * <p>
+ * Note that a Core Client Query also holds every answer it has received until it is closed, so an
+ * exhaustive query should be closed as soon as its answers have been collected.
+ * <p>
+ * Adding is thread-safe; each iterator sees the answers which had been added when it was created,
+ * and iterators may be used while further answers are added. Closing the sink deletes its file.
+ */
+public class SpillingAnswerSink implements AnswerPublisher.Subscriber, Iterable<QueryAnswer>,
+        Closeable {
+
+  //====|    Fields    |==========================================================================//
+
+  public static final int DEFAULT_MEMORY_THRESHOLD = 10_000;
+
+  /**
+   * How many answers to request from a publisher at a time.
+   */
+  private static final int REQUEST_SIZE = 1_000;
+  private static final int BLOCK_SIZE = 64 * 1024;
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte INTEGER = 2;
+  private static final byte LONG = 3;
+  private static final byte DOUBLE = 4;
+  private static final byte BOOLEAN = 5;
+  private static final byte TERM = 6;
+  private static final byte FLOAT = 7;
+  private static final byte BIG_INTEGER = 8;
+  private static final byte BIG_DECIMAL = 9;
+  private static final byte DATE = 10;
+  private static final byte SENTENCE = 11;
+  private static final byte TERM_REFERENCE = 12;
+
+  private final int memoryThreshold;
+  private final Path file;
+  private final FileChannel channel;
+  private final List<QueryAnswer> inMemory = new ArrayList<>();
+  /**
+   * Every variable which a spilled answer binds; records refer to them by index.
+   */
+  private final List<Variable> variables = new ArrayList<>();
+  private final Map<Variable, Integer> variableIndices = new HashMap<>();
+  /**
+   * The index in the term table of each term or sentence which has been spilled, by its CycL.
+   */
+  private final Map<String, Integer> termIndices = new HashMap<>();
+  /**
+   * The terms and sentences of the term table which have been read back, in the order of their
+   * indices.
+   */
+  private final List<Object> decodedTerms = new ArrayList<>();
+  private final CompletableFuture<Long> completion = new CompletableFuture<>();
+  private ByteBuffer record = ByteBuffer.allocate(256);
+  private final ByteBuffer writeBuffer = ByteBuffer.allocate(BLOCK_SIZE);
+  private long spilledCount = 0;
+  /**
+   * The length of the file, including any records still in the write buffer.
+   */
+  private long spilledBytes = 0;
+  /**
+   * The length of the file, excluding any records still in the write buffer. Records are only
+   * ever written at this position, so the file is append-only.
+   */
+  private long writtenBytes = 0;
+  private AnswerPublisher.Subscription subscription;
+  private long outstanding = 0;
+  private volatile boolean closed = false;
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * Creates a sink which spills to a new temporary file in {@code directory}.
+   *
+   * @param memoryThreshold how many answers to hold in memory before spilling
+   * @param directory       where to create the spill file
+   *
+   * @throws IOException if the spill file could not be created
+   */
+  public SpillingAnswerSink(int memoryThreshold, Path directory) throws IOException {
+    if (memoryThreshold < 0) {
+      throw new IllegalArgumentException("Memory threshold must not be negative: "
+              + memoryThreshold);
+    }
+    this.memoryThreshold = memoryThreshold;
+    this.file = Files.createTempFile(directory, "answers-", ".spill");
+    this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.DELETE_ON_CLOSE);
+  }
+
+  public SpillingAnswerSink(int memoryThreshold) throws IOException {
+    this(memoryThreshold, Paths.get(System.getProperty("java.io.tmpdir")));
+  }
+
+  public SpillingAnswerSink() throws IOException {
+    this(DEFAULT_MEMORY_THRESHOLD);
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Add an answer, spilling it to disk if the memory threshold has been reached.
+   *
+   * @param answer the answer
+   *
+   * @throws IllegalArgumentException if the answer must be spilled, but binds a value of a type
+   *                                  which cannot be
+   * @throws UncheckedIOException     if the answer could not be spilled
+   */
+  public synchronized void add(QueryAnswer answer) {
+    if (closed) {
+      throw new IllegalStateException("Sink is closed");
+    }
+    if (inMemory.size() < memoryThreshold) {
+      inMemory.add(answer);
+      return;
+    }
+    encode(answer);
+    try {
+      if (writeBuffer.remaining() < record.remaining()) {
+        drain();
+      }
+      if (record.remaining() > writeBuffer.capacity()) {
+        // Larger than a block, so write it directly:
+        spilledBytes += writeFully(record);
+      } else {
+        spilledBytes += record.remaining();
+        writeBuffer.put(record);
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Could not spill answer to " + file, ex);
+    }
+    spilledCount++;
+  }
+
+  /**
+   * Returns a future which is completed with the number of answers once the publisher to which
+   * the sink is subscribed has delivered all of them, or exceptionally if the inference fails.
+   *
+   * @return the number of answers
+   */
+  public CompletableFuture<Long> completion() {
+    return completion;
+  }
+
+  public synchronized long size() {
+    return inMemory.size() + spilledCount;
+  }
+
+  public synchronized long getSpilledCount() {
+    return spilledCount;
+  }
+
+  public synchronized long getSpilledBytes() {
+    return spilledBytes;
+  }
+
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * Returns an iterator over the answers which have been added so far, in the order in which they
+   * were added. Any buffered spilled answers are first written to the file.
+   *
+   * @return the iterator
+   *
+   * @throws UncheckedIOException if the buffered answers could not be written
+   */
+  @Override
+  public synchronized Iterator<QueryAnswer> iterator() {
+    try {
+      drain();
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Could not spill answers to " + file, ex);
+    }
+    return new AnswerIterator(new ArrayList<>(inMemory), new ArrayList<>(variables), spilledCount,
+            spilledBytes);
+  }
+
+  /**
+   * Deletes the spill file. Cancels the subscription, if the publisher has not yet completed.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (subscription != null && !completion.isDone()) {
+      subscription.cancel();
+    }
+    inMemory.clear();
+    termIndices.clear();
+    synchronized (decodedTerms) {
+      decodedTerms.clear();
+    }
+    channel.close();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[" + size() + " answers, " + getSpilledCount()
+            + " spilled (" + getSpilledBytes() + " bytes) to " + file + "]";
+  }
+
+  //====|    Subscriber methods    |==============================================================//
+
+  @Override
+  public synchronized void onSubscribe(AnswerPublisher.Subscription subscription) {
+    this.subscription = subscription;
+    this.outstanding = REQUEST_SIZE;
+    subscription.request(REQUEST_SIZE);
+  }
+
+  @Override
+  public void onNext(QueryAnswer answer) {
+    try {
+      add(answer);
+    } catch (RuntimeException ex) {
+      completion.completeExceptionally(ex);
+      subscription.cancel();
+      return;
+    }
+    synchronized (this) {
+      if (--outstanding == 0) {
+        outstanding = REQUEST_SIZE;
+        subscription.request(REQUEST_SIZE);
+      }
+    }
+  }
+
+  @Override
+  public void onError(Throwable error) {
+    completion.completeExceptionally(error);
+  }
+
+  @Override
+  public void onComplete() {
+    try {
+      synchronized (this) {
+        drain();
+      }
+      completion.complete(size());
+    } catch (IOException ex) {
+      completion.completeExceptionally(ex);
+    }
+  }
+
+  //====|    Protected methods    |===============================================================//
+
+  /**
+   * Returns the KB term whose CycL is {@code cycl}, as a spilled answer is read back.
+   *
+   * @param cycl the term's CycL, as returned by its {@code toString()} method
+   *
+   * @return the term
+   *
+   * @throws KbException if the term could not be found
+   */
+  protected Object decodeTerm(String cycl) throws KbException {
+    return KbObject.get(cycl);
+  }
+
+  /**
+   * Returns the sentence whose CycL is {@code cycl}, as a spilled answer is read back.
+   *
+   * @param cycl the sentence's CycL, as returned by its {@code toString()} method
+   *
+   * @return the sentence
+   *
+   * @throws KbException if the sentence could not be built
+   */
+  protected Object decodeSentence(String cycl) throws KbException {
+    return Sentence.get(cycl);
+  }
+
+  //====|    Encoding    |========================================================================//
+
+  /**
+   * Encodes {@code answer} into {@code record}, as a length-prefixed record, ready to be written.
+   *
+   * @throws IllegalArgumentException if a binding is of a type which cannot be encoded
+   */
+  private void encode(QueryAnswer answer) {
+    final int termCount = termIndices.size();
+    try {
+      encodeBindings(answer.getBindings());
+    } catch (RuntimeException ex) {
+      // The record will not be written, so neither will the terms which it added to the table:
+      termIndices.values().removeIf(index -> index >= termCount);
+      throw ex;
+    }
+  }
+
+  private void encodeBindings(Map<Variable, Object> bindings) {
+    record.clear();
+    record.putInt(0); // The length, filled in below.
+    ensureCapacity(2);
+    record.putShort((short) bindings.size());
+    for (Map.Entry<Variable, Object> binding : bindings.entrySet()) {
+      ensureCapacity(3);
+      record.putShort((short) variableIndex(binding.getKey()));
+      final Object value = binding.getValue();
+      if (value == null) {
+        record.put(NULL);
+      } else if (value instanceof String) {
+        record.put(STRING);
+        putString((String) value);
+      } else if (value instanceof Integer) {
+        ensureCapacity(5);
+        record.put(INTEGER).putInt((Integer) value);
+      } else if (value instanceof Long) {
+        ensureCapacity(9);
+        record.put(LONG).putLong((Long) value);
+      } else if (value instanceof Double) {
+        ensureCapacity(9);
+        record.put(DOUBLE).putDouble((Double) value);
+      } else if (value instanceof Boolean) {
+        ensureCapacity(2);
+        record.put(BOOLEAN).put((byte) ((Boolean) value ? 1 : 0));
+      } else if (value instanceof Float) {
+        ensureCapacity(5);
+        record.put(FLOAT).putFloat((Float) value);
+      } else if (value.getClass() == BigInteger.class) {
+        record.put(BIG_INTEGER);
+        putBytes(((BigInteger) value).toByteArray());
+      } else if (value.getClass() == BigDecimal.class) {
+        final BigDecimal decimal = (BigDecimal) value;
+        ensureCapacity(5);
+        record.put(BIG_DECIMAL).putInt(decimal.scale());
+        putBytes(decimal.unscaledValue().toByteArray());
+      } else if (value.getClass() == Date.class) {
+        ensureCapacity(9);
+        record.put(DATE).putLong(((Date) value).getTime());
+      } else if (value instanceof Sentence) {
+        putTerm(value.toString(), SENTENCE);
+      } else if (value instanceof KbObject) {
+        putTerm(value.toString(), TERM);
+      } else {
+        throw new IllegalArgumentException("Cannot spill " + binding.getKey() + ", bound to a "
+                + value.getClass().getName() + ": " + value);
+      }
+    }
+    record.putInt(0, record.position() - 4);
+    record.flip();
+  }
+
+  private int variableIndex(Variable var) {
+    final Integer existing = variableIndices.get(var);
+    if (existing != null) {
+      return existing;
+    }
+    final int index = variables.size();
+    variables.add(var);
+    variableIndices.put(var, index);
+    return index;
+  }
+
+  /**
+   * Puts a reference to the term table's entry for {@code cycl}, or if it has none, adds one and
+   * puts the term's CycL.
+   */
+  private void putTerm(String cycl, byte tag) {
+    final Integer index = termIndices.get(cycl);
+    if (index != null) {
+      ensureCapacity(5);
+      record.put(TERM_REFERENCE).putInt(index);
+    } else {
+      termIndices.put(cycl, termIndices.size());
+      record.put(tag);
+      putString(cycl);
+    }
+  }
+
+  private void putString(String string) {
+    putBytes(string.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void putBytes(byte[] bytes) {
+    ensureCapacity(4 + bytes.length);
+    record.putInt(bytes.length).put(bytes);
+  }
+
+  private void ensureCapacity(int bytes) {
+    if (record.remaining() < bytes) {
+      final ByteBuffer larger
+              = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + bytes));
+      record.flip();
+      larger.put(record);
+      record = larger;
+    }
+  }
+
+  private void drain() throws IOException {
+    writeBuffer.flip();
+    writeFully(writeBuffer);
+    writeBuffer.clear();
+  }
+
+  private int writeFully(ByteBuffer buffer) throws IOException {
+    final int length = buffer.remaining();
+    while (buffer.hasRemaining()) {
+      writtenBytes += channel.write(buffer, writtenBytes);
+    }
+    return length;
+  }
+
+  //====|    Decoding    |========================================================================//
+
+  /**
+   * Iterates over a snapshot of the sink: the answers held in memory, then the spilled answers,
+   * read from the file in blocks.
+   */
+  private final class AnswerIterator implements Iterator<QueryAnswer> {
+
+    private final Iterator<QueryAnswer> inMemoryAnswers;
+    private final List<Variable> variables;
+    private final long spilledEnd;
+    private long remainingSpilled;
+    private ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+    private long blockPosition = 0;
+    /**
+     * The number of entries of the term table which this iterator has read.
+     */
+    private int termCount = 0;
+
+    private AnswerIterator(List<QueryAnswer> inMemoryAnswers, List<Variable> variables,
+            long spilledCount, long spilledEnd) {
+      this.inMemoryAnswers = inMemoryAnswers.iterator();
+      this.variables = variables;
+      this.remainingSpilled = spilledCount;
+      this.spilledEnd = spilledEnd;
+      block.flip();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return inMemoryAnswers.hasNext() || remainingSpilled > 0;
+    }
+
+    @Override
+    public QueryAnswer next() {
+      if (inMemoryAnswers.hasNext()) {
+        return inMemoryAnswers.next();
+      }
+      if (remainingSpilled == 0) {
+        throw new NoSuchElementException();
+      }
+      try {
+        fill(4);
+        final int length = block.getInt();
+        fill(length);
+        final QueryAnswer answer = decode();
+        remainingSpilled--;
+        return answer;
+      } catch (IOException ex) {
+        throw new UncheckedIOException("Could not read spilled answers from " + file, ex);
+      }
+    }
+
+    /**
+     * Ensures that at least {@code bytes} unread bytes are in the block, reading more of the file
+     * if necessary.
+     */
+    private void fill(int bytes) throws IOException {
+      if (block.remaining() >= bytes) {
+        return;
+      }
+      if (block.capacity() < bytes) {
+        final ByteBuffer larger = ByteBuffer.allocate(bytes);
+        larger.put(block);
+        block = larger;
+      } else {
+        block.compact();
+      }
+      while (block.position() < bytes) {
+        final int limit = (int) Math.min(block.limit(),
+                block.position() + (spilledEnd - blockPosition));
+        block.limit(limit);
+        final int read = channel.read(block, blockPosition);
+        if (read <= 0) {
+          throw new IOException("Spill file ends " + (bytes - block.position())
+                  + " bytes early");
+        }
+        blockPosition += read;
+        block.limit(block.capacity());
+      }
+      block.flip();
+    }
+
+    private QueryAnswer decode() throws IOException {
+      final int count = block.getShort();
+      final Map<Variable, Object> bindings = new LinkedHashMap<>(count * 2);
+      for (int i = 0; i < count; i++) {
+        final Variable var = variables.get(block.getShort());
+        final byte tag = block.get();
+        switch (tag) {
+          case NULL:
+            bindings.put(var, null);
+            break;
+          case STRING:
+            bindings.put(var, getString());
+            break;
+          case INTEGER:
+            bindings.put(var, block.getInt());
+            break;
+          case LONG:
+            bindings.put(var, block.getLong());
+            break;
+          case DOUBLE:
+            bindings.put(var, block.getDouble());
+            break;
+          case BOOLEAN:
+            bindings.put(var, block.get() != 0);
+            break;
+          case TERM:
+          case SENTENCE:
+            bindings.put(var, term(getString(), tag == SENTENCE));
+            break;
+          case TERM_REFERENCE:
+            bindings.put(var, term(block.getInt()));
+            break;
+          case FLOAT:
+            bindings.put(var, block.getFloat());
+            break;
+          case BIG_INTEGER:
+            bindings.put(var, new BigInteger(getBytes()));
+            break;
+          case BIG_DECIMAL:
+            final int scale = block.getInt();
+            bindings.put(var, new BigDecimal(new BigInteger(getBytes()), scale));
+            break;
+          case DATE:
+            bindings.put(var, new Date(block.getLong()));
+            break;
+          default:
+            throw new IOException("Unknown binding type " + tag + " in " + file);
+        }
+      }
+      return new SpilledAnswer(bindings);
+    }
+
+    private String getString() {
+      final int length = block.getInt();
+      final String string = new String(block.array(), block.arrayOffset() + block.position(),
+              length, StandardCharsets.UTF_8);
+      block.position(block.position() + length);
+      return string;
+    }
+
+    private byte[] getBytes() {
+      final byte[] bytes = new byte[block.getInt()];
+      block.get(bytes);
+      return bytes;
+    }
+
+    /**
+     * Returns the term or sentence of the next entry of the term table, whose CycL is
+     * {@code cycl}. It is looked up only if no other iterator has yet read this entry.
+     */
+    private Object term(String cycl, boolean sentence) throws IOException {
+      final int index = termCount++;
+      synchronized (decodedTerms) {
+        if (index < decodedTerms.size()) {
+          return decodedTerms.get(index);
+        }
+      }
+      final Object term;
+      try {
+        term = sentence ? decodeSentence(cycl) : decodeTerm(cycl);
+      } catch (KbException ex) {
+        throw new IOException("Could not find spilled " + (sentence ? "sentence " : "term ")
+                + cycl, ex);
+      }
+      synchronized (decodedTerms) {
+        // Any iterator which reaches this entry has read every earlier one:
+        if (index == decodedTerms.size()) {
+          decodedTerms.add(term);
+        }
+        return decodedTerms.get(index);
+      }
+    }
+
+    /**
+     * Returns the term or sentence of an entry of the term table which this iterator has read.
+     */
+    private Object term(int index) throws IOException {
+      if (index < 0 || index >= termCount) {
+        throw new IOException("Term " + index + " used before it was defined in " + file);
+      }
+      synchronized (decodedTerms) {
+        return decodedTerms.get(index);
+      }
+    }
+  }
+
+  //====|    SpilledAnswer    |===================================================================//
+
+  /**
+   * An answer read back from the spill file, which has its bindings but no ID or sources.
+   */
+  private static final class SpilledAnswer implements QueryAnswer {
+
+    private final Map<Variable, Object> bindings;
+
+    private SpilledAnswer(Map<Variable, Object> bindings) {
+      this.bindings = Collections.unmodifiableMap(bindings);
+    }
+
+    @Override
+    public Set<Variable> getVariables() {
+      return bindings.keySet();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <O> O getBinding(Variable var) {
+      return (O) bindings.get(var);
+    }
+
+    @Override
+    public boolean hasBinding(Variable var) {
+      return bindings.containsKey(var);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <O> O getOnlyBinding() {
+      if (bindings.size() != 1) {
+        throw new QueryRuntimeException("Expected one binding, but found " + bindings.size());
+      }
+      return (O) bindings.values().iterator().next();
+    }
+
+    @Override
+    public Map<Variable, Object> getBindings() {
+      return bindings;
+    }
+
+    @Override
+    public InferenceAnswerIdentifier getId() {
+      return null;
+    }
+
+    @Override
+    public Set<KbTerm> getSources() {
+      return Collections.emptySet();
+    }
+
+    @Override
+    public List<String> toPrettyBindingsStrings() {
+      final List<String> result = new ArrayList<>(bindings.size());
+      bindings.forEach((var, value) -> result.add(var + " -> " + value));
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "SpilledAnswer" + bindings;
+    }
+  }
+
+}
@@ -0,0 +1,374 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: SpillingAnswerSinkLoadTest.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.kb.KbTerm;
+import com.cyc.kb.Sentence;
+import com.cyc.kb.Variable;
+import com.cyc.kb.exception.KbException;
+import com.cyc.query.InferenceAnswerIdentifier;
+import com.cyc.query.QueryAnswer;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams a large number of synthetic answers through a {@link SpillingAnswerSink}, as a
+ * publisher would, then reads them all back and checks every binding. No Cyc server is needed:
+ * each answer binds an integer, a string, one of a few stand-in KB terms, and a value of one of
+ * the other types which the sink can spill: a float, a BigInteger, a BigDecimal, a date, or one
+ * of a few stand-in sentences. It then checks that the sink rejects a binding of any other type.
+ * <p>
+ * Run it with a small heap, to show that the answers are not held in memory; e.g., with
+ * {@code -Xmx32m}, five million answers (several hundred megabytes as QueryAnswer objects) are
+ * collected and read back. The test fails (exiting with status 1) if any answer is missing, out
+ * of order, or has the wrong bindings, if any spilled term or sentence is looked up more than
+ * once, if the heap is exhausted, or if a binding which cannot be spilled is accepted.
+ * <p>
+ * Usage: {@code SpillingAnswerSinkLoadTest [answers] [memory threshold]}
+ */
+public class SpillingAnswerSinkLoadTest {
+
+  private static final int DEFAULT_ANSWERS = 5_000_000;
+  private static final int TERMS = 16;
+
+  public static void main(String[] args) {
+    final String exampleName = SpillingAnswerSinkLoadTest.class.getSimpleName();
+    final int answers = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_ANSWERS;
+    final int threshold = (args.length > 1)
+                                  ? Integer.parseInt(args[1])
+                                  : SpillingAnswerSink.DEFAULT_MEMORY_THRESHOLD;
+    boolean passed = false;
+    try {
+      System.out.println("Running " + exampleName + "...");
+      System.out.println(answers + " answers, " + threshold + " held in memory; max heap "
+                                 + Runtime.getRuntime().maxMemory() / (1024 * 1024) + " MB");
+      passed = new SpillingAnswerSinkLoadTest().run(answers, threshold);
+      System.out.println();
+    } catch (IOException | RuntimeException | OutOfMemoryError ex) {
+      ex.printStackTrace(System.err);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(passed ? 0 : 1);
+    }
+  }
+
+  private final Variable n = proxy(Variable.class, "?N");
+  private final Variable name = proxy(Variable.class, "?NAME");
+  private final Variable type = proxy(Variable.class, "?TYPE");
+  private final Variable value = proxy(Variable.class, "?VALUE");
+  private final Map<String, KbTerm> terms = new HashMap<>();
+  private final Map<String, Sentence> sentences = new HashMap<>();
+  private final AtomicLong termLookups = new AtomicLong();
+
+  private SpillingAnswerSinkLoadTest() {
+    for (int i = 0; i < TERMS; i++) {
+      terms.put("#$Type" + i, proxy(KbTerm.class, "#$Type" + i));
+      final String sentence = "(#$isa #$Thing" + i + " #$Type" + i + ")";
+      sentences.put(sentence, proxy(Sentence.class, sentence));
+    }
+  }
+
+  /**
+   * Publish {@code count} answers to a sink, read them back, and check them.
+   *
+   * @param count     the number of answers
+   * @param threshold the sink's memory threshold
+   *
+   * @return whether every answer was read back intact
+   *
+   * @throws IOException if the sink could not be created
+   */
+  public boolean run(int count, int threshold) throws IOException {
+    resetPeakHeap();
+    try (SpillingAnswerSink sink = new SpillingAnswerSink(threshold) {
+      @Override
+      protected Object decodeTerm(String cycl) throws KbException {
+        termLookups.incrementAndGet();
+        return terms.get(cycl);
+      }
+
+      @Override
+      protected Object decodeSentence(String cycl) throws KbException {
+        termLookups.incrementAndGet();
+        return sentences.get(cycl);
+      }
+    }) {
+      final long start = System.nanoTime();
+      publish(sink, count);
+      final long published = System.nanoTime();
+      System.out.println(String.format("Collected %d answers in %.2fs; %d spilled, %.1f MB on disk",
+              sink.completion().join(), (published - start) / 1e9, sink.getSpilledCount(),
+              sink.getSpilledBytes() / 1e6));
+      long index = 0;
+      long failures = 0;
+      for (QueryAnswer answer : sink) {
+        if (!check(answer, index++) && ++failures <= 10) {
+          System.out.println("FAILED: answer " + (index - 1) + " is " + answer);
+        }
+      }
+      final long read = System.nanoTime();
+      System.out.println(String.format("Read back %d answers in %.2fs; %d term lookups", index,
+              (read - published) / 1e9, termLookups.get()));
+      System.out.println(String.format("Peak heap: %.1f MB", peakHeap() / 1e6));
+      if (index != count) {
+        System.out.println("FAILED: read back " + index + " answers; expected " + count);
+        return false;
+      }
+      final long distinctTerms = distinctSpilledTerms(count, threshold);
+      if (termLookups.get() != distinctTerms) {
+        System.out.println("FAILED: " + termLookups.get() + " term lookups for " + distinctTerms
+                + " distinct spilled terms");
+        return false;
+      }
+      return failures == 0 && checkRejected();
+    }
+  }
+
+  /**
+   * Checks that a sink which must spill rejects an answer binding a value of an unsupported type,
+   * and that a term which the rejected answer also bound is spilled in full by the next answer to
+   * bind it.
+   */
+  private boolean checkRejected() throws IOException {
+    try (SpillingAnswerSink sink = new SpillingAnswerSink(0) {
+      @Override
+      protected Object decodeTerm(String cycl) throws KbException {
+        return terms.get(cycl);
+      }
+
+      @Override
+      protected Object decodeSentence(String cycl) throws KbException {
+        return sentences.get(cycl);
+      }
+    }) {
+      final Map<Variable, Object> bindings = new HashMap<>();
+      bindings.put(type, terms.get("#$Type0"));
+      bindings.put(value, new StringBuilder("unsupported"));
+      try {
+        sink.add(new MapAnswer(bindings));
+        System.out.println("FAILED: spilled a binding of an unsupported type");
+        return false;
+      } catch (IllegalArgumentException ex) {
+        System.out.println("Rejected: " + ex.getMessage());
+      }
+      sink.add(answer(0));
+      final Iterator<QueryAnswer> answers = sink.iterator();
+      if (sink.size() != 1 || !check(answers.next(), 0)) {
+        System.out.println("FAILED: the answer after a rejected one was not read back intact");
+        return false;
+      }
+      return true;
+    }
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  /**
+   * Delivers {@code count} answers to {@code sink}, no faster than it requests them.
+   */
+  private void publish(SpillingAnswerSink sink, int count) {
+    final AtomicLong demand = new AtomicLong();
+    sink.onSubscribe(new AnswerPublisher.Subscription() {
+      @Override
+      public void request(long n) {
+        demand.addAndGet(n);
+      }
+
+      @Override
+      public void cancel() {
+        demand.set(-1);
+      }
+    });
+    for (int i = 0; i < count; i++) {
+      if (demand.get() < 0) {
+        throw new IllegalStateException("Sink cancelled its subscription");
+      }
+      if (demand.getAndDecrement() <= 0) {
+        throw new IllegalStateException("Sink stopped requesting answers at " + i);
+      }
+      sink.onNext(answer(i));
+    }
+    sink.onComplete();
+  }
+
+  private QueryAnswer answer(int i) {
+    final Map<Variable, Object> bindings = new HashMap<>();
+    bindings.put(n, i);
+    bindings.put(name, "Answer-" + i);
+    bindings.put(type, terms.get("#$Type" + (i % TERMS)));
+    bindings.put(value, value(i));
+    return new MapAnswer(bindings);
+  }
+
+  /**
+   * Returns the {@code ?VALUE} binding of answer {@code i}: each of the other types in turn.
+   */
+  private Object value(long i) {
+    switch ((int) (i % 5)) {
+      case 0:
+        return i / 4f;
+      case 1:
+        return BigInteger.valueOf(i).shiftLeft(70).negate();
+      case 2:
+        return BigDecimal.valueOf(i, 3);
+      case 3:
+        return new Date(i * 1_000);
+      default:
+        return sentences.get("(#$isa #$Thing" + (i % TERMS) + " #$Type" + (i % TERMS) + ")");
+    }
+  }
+
+  /**
+   * Returns the number of distinct terms and sentences bound by the answers which are spilled.
+   * The bindings repeat every 80 answers.
+   */
+  private long distinctSpilledTerms(int count, int threshold) {
+    final Set<Object> distinct = new HashSet<>();
+    for (int i = threshold; i < Math.min(count, threshold + 80); i++) {
+      for (Object binding : answer(i).getBindings().values()) {
+        if (binding instanceof KbTerm || binding instanceof Sentence) {
+          distinct.add(binding);
+        }
+      }
+    }
+    return distinct.size();
+  }
+
+  private boolean check(QueryAnswer answer, long i) {
+    final Object expected = value(i);
+    final Object actual = answer.getBinding(value);
+    return answer.getBindings().size() == 4
+            && Integer.valueOf((int) i).equals(answer.getBinding(n))
+            && ("Answer-" + i).equals(answer.getBinding(name))
+            && terms.get("#$Type" + (i % TERMS)) == answer.getBinding(type)
+            && expected.equals(actual) && expected.getClass() == actual.getClass();
+  }
+
+  private static void resetPeakHeap() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  private static long peakHeap() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+
+  /**
+   * Returns a stand-in KB object, which is equal only to itself.
+   */
+  private static <T> T proxy(Class<T> type, String cycl) {
+    return type.cast(Proxy.newProxyInstance(SpillingAnswerSinkLoadTest.class.getClassLoader(),
+            new Class<?>[]{type}, (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "equals":
+                  return proxy == args[0];
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+                case "toString":
+                  return cycl;
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            }));
+  }
+
+  /**
+   * An answer which holds its bindings in a map.
+   */
+  private static final class MapAnswer implements QueryAnswer {
+
+    private final Map<Variable, Object> bindings;
+
+    private MapAnswer(Map<Variable, Object> bindings) {
+      this.bindings = bindings;
+    }
+
+    @Override
+    public Set<Variable> getVariables() {
+      return bindings.keySet();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <O> O getBinding(Variable var) {
+      return (O) bindings.get(var);
+    }
+
+    @Override
+    public boolean hasBinding(Variable var) {
+      return bindings.containsKey(var);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <O> O getOnlyBinding() {
+      return (O) bindings.values().iterator().next();
+    }
+
+    @Override
+    public Map<Variable, Object> getBindings() {
+      return bindings;
+    }
+
+    @Override
+    public InferenceAnswerIdentifier getId() {
+      return null;
+    }
+
+    @Override
+    public Set<KbTerm> getSources() {
+      return Collections.emptySet();
+    }
+
+    @Override
+    public List<String> toPrettyBindingsStrings() {
+      final List<String> result = new ArrayList<>(bindings.size());
+      bindings.forEach((var, value) -> result.add(var + " -> " + value));
+      return result;
+    }
+  }
+
+}
@@ -0,0 +1,617 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: TaxonomyIndex.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.base.CycAccess;
+import com.cyc.base.cycobject.CycObject;
+import com.cyc.base.exception.CycApiException;
+import com.cyc.base.exception.CycConnectionException;
+import com.cyc.kb.Context;
+import com.cyc.kb.KbCollection;
+import com.cyc.kb.KbObject;
+import com.cyc.kb.KbTerm;
+import com.cyc.kb.client.KbObjectImpl;
+import com.cyc.kb.exception.CreateException;
+import com.cyc.kb.exception.KbRuntimeException;
+import com.cyc.kb.exception.KbTypeException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A client-side index of the KB's taxonomy, which answers genls and isa checks locally. Calls like
+ * {@link KbTerm#isInstanceOf(KbCollection, Context)} and
+ * {@link KbCollection#isGeneralizationOf(KbCollection, Context)} each cost a round trip and an
+ * inference, which is fine for the {@link com.cyc.core.examples.basics.BasicWalkthrough
+ * BasicWalkthrough}, but not for a classifier which makes millions of such checks against a
+ * taxonomy which rarely changes.
+ * <p>
+ * The index asks its {@link TaxonomySource} for each collection's generalizations, and each
+ * term's types, the first time it needs them, and holds them as arrays of integer term IDs. The
+ * first check against a collection computes the closure of its generalizations, as a BitSet of
+ * term IDs: by walking those arrays, if the source supplies only direct generalizations, or from
+ * the source's own answer if it is {@link TaxonomySource#isClosed() closed}. Every later check
+ * which reaches that collection is a single bit test. Each Context has its own arrays and
+ * closures, since what is visible
+ * differs from one context to another; the source is asked about each context separately, and
+ * the Cyc server decides which microtheories are visible from it. Checks made without a Context
+ * use the KB API's default context.
+ * <p>
+ * The index answers only as well as its source. The default source, {@link #CYC_SERVER}, supplies
+ * the server's all-genls and all-isa, so the index agrees with
+ * {@link KbTerm#isInstanceOf(KbCollection, Context)} and
+ * {@link KbCollection#isGeneralizationOf(KbCollection, Context)} wherever the server's taxonomy
+ * graph does, rather than only where a chain of asserted genls does. It does not agree where those
+ * calls need inference from rules: a type or generalization which follows only from a rule, and
+ * not from any genls or isa assertion, is not seen by the index.
+ * <p>
+ * Taxonomy changes made via {@link #addGeneralization(KbCollection, KbCollection, Context)} and
+ * {@link #instantiates(KbTerm, KbCollection, Context)} update the index: a new generalization
+ * discards every context's closures, since it may be visible from any of them, and a new type
+ * discards only that term's types. Changes made by any other means should be reported via
+ * {@link #invalidate(KbTerm)} or {@link #invalidateAll()}.
+ * <p>
+ * Checks are lock-free once the index has been populated, and are safe from any number of
+ * threads.
+ */
+public class TaxonomyIndex {
+
+  //====|    TaxonomySource    |==================================================================//
+
+  /**
+   * Supplies the taxonomy on behalf of the index. The default implementation, {@link #CYC_SERVER},
+   * asks the current Cyc server; other implementations may be supplied for offline use.
+   */
+  public static interface TaxonomySource {
+
+    /**
+     * Returns the direct generalizations of {@code col}, or, if the source is closed, all of them.
+     *
+     * @param col the collection
+     * @param ctx the context, or null for the default context
+     *
+     * @return the generalizations
+     */
+    Collection<? extends KbCollection> getGeneralizations(KbCollection col, Context ctx);
+
+    /**
+     * Returns the direct specializations of {@code col}.
+     *
+     * @param col the collection
+     * @param ctx the context, or null for the default context
+     *
+     * @return the specializations
+     */
+    Collection<? extends KbCollection> getSpecializations(KbCollection col, Context ctx);
+
+    /**
+     * Returns the collections of which {@code term} is an instance. Unless the source is closed,
+     * these need not be only the most specific ones, but the index adds nothing by being given
+     * more.
+     *
+     * @param term the term
+     * @param ctx  the context, or null for the default context
+     *
+     * @return the term's types
+     */
+    Collection<? extends KbCollection> getTypes(KbTerm term, Context ctx);
+
+    /**
+     * Returns whether the source is closed: whether {@link #getGeneralizations(KbCollection,
+     * Context)} and {@link #getTypes(KbTerm, Context)} return every generalization and type which
+     * the source knows of, rather than only the direct ones. The index then uses them as they
+     * are, rather than walking them. The default implementation returns false.
+     *
+     * @return whether the source is closed
+     */
+    default boolean isClosed() {
+      return false;
+    }
+  }
+
+  /**
+   * Asks the current Cyc server for each collection's all-genls and each term's all-isa, in a
+   * single call apiece, so it is closed. The server computes these from its taxonomy graph of
+   * genls and isa assertions, without inference from rules. Specializations are the direct ones,
+   * via the KB API.
+   */
+  public static final TaxonomySource CYC_SERVER = new TaxonomySource() {
+    @Override
+    public Collection<? extends KbCollection> getGeneralizations(KbCollection col, Context ctx) {
+      return (ctx == null) ? col.allGeneralizations() : col.allGeneralizations(ctx);
+    }
+
+    @Override
+    public Collection<? extends KbCollection> getSpecializations(KbCollection col, Context ctx) {
+      return (ctx == null) ? col.getSpecializations() : col.getSpecializations(ctx);
+    }
+
+    @Override
+    public Collection<? extends KbCollection> getTypes(KbTerm term, Context ctx) {
+      final CycObject cycTerm = (CycObject) term.getCore();
+      try {
+        final List<?> cycTypes = (ctx == null)
+                ? CycAccess.getCurrent().getLookupTool().getAllIsa(cycTerm)
+                : CycAccess.getCurrent().getLookupTool().getAllIsa(cycTerm,
+                        (CycObject) ctx.getCore());
+        final List<KbCollection> types = new ArrayList<>(cycTypes.size());
+        for (Object cycType : cycTypes) {
+          final KbObject type = KbObjectImpl.get((CycObject) cycType);
+          if (type instanceof KbCollection) {
+            types.add((KbCollection) type);
+          }
+        }
+        return types;
+      } catch (CycConnectionException | CycApiException | KbTypeException | CreateException ex) {
+        throw KbRuntimeException.fromThrowable("Could not look up the types of " + term, ex);
+      }
+    }
+
+    @Override
+    public boolean isClosed() {
+      return true;
+    }
+  };
+
+  //====|    Fields    |==========================================================================//
+
+  private static final int[] NO_IDS = new int[0];
+
+  /**
+   * Stands in for the default context, since ConcurrentHashMap does not permit null keys.
+   */
+  private static final Object DEFAULT_CONTEXT = new Object();
+
+  private final TaxonomySource source;
+  private final boolean closed;
+  private final Map<KbTerm, Integer> termIds = new ConcurrentHashMap<>();
+  /**
+   * Every term which has been given an ID, indexed by ID. Guarded by {@code termIds}.
+   */
+  private final List<KbTerm> terms = new ArrayList<>();
+  private final Map<Object, ContextIndex> contexts = new ConcurrentHashMap<>();
+  private final LongAdder checks = new LongAdder();
+  private final LongAdder sourceCalls = new LongAdder();
+  private final LongAdder closureCount = new LongAdder();
+  private final LongAdder invalidations = new LongAdder();
+
+  //====|    Construction    |====================================================================//
+
+  public TaxonomyIndex(TaxonomySource source) {
+    this.source = source;
+    this.closed = source.isClosed();
+  }
+
+  public TaxonomyIndex() {
+    this(CYC_SERVER);
+  }
+
+  //====|    Checks    |==========================================================================//
+
+  /**
+   * Returns whether {@code term} is an instance of {@code col} in {@code ctx}: whether it is an
+   * instance of {@code col}, or of any specialization of it.
+   *
+   * @param term the term
+   * @param col  the collection
+   * @param ctx  the context, or null for the default context
+   *
+   * @return whether {@code (#$isa term col)} holds
+   */
+  public boolean isInstanceOf(KbTerm term, KbCollection col, Context ctx) {
+    checks.increment();
+    final ContextIndex index = index(ctx);
+    final int colId = id(col);
+    for (int type : index.types(id(term))) {
+      // A closed source's types already include every generalization of each type:
+      if (closed ? type == colId : index.closure(type).get(colId)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public boolean isInstanceOf(KbTerm term, KbCollection col) {
+    return isInstanceOf(term, col, null);
+  }
+
+  /**
+   * Returns whether {@code moreGeneral} is a generalization of {@code moreSpecific} in
+   * {@code ctx}. Every collection is a generalization of itself.
+   *
+   * @param moreGeneral  the possibly more general collection
+   * @param moreSpecific the possibly more specific collection
+   * @param ctx          the context, or null for the default context
+   *
+   * @return whether {@code (#$genls moreSpecific moreGeneral)} holds
+   */
+  public boolean isGeneralizationOf(KbCollection moreGeneral, KbCollection moreSpecific,
+          Context ctx) {
+    checks.increment();
+    return index(ctx).closure(id(moreSpecific)).get(id(moreGeneral));
+  }
+
+  public boolean isGeneralizationOf(KbCollection moreGeneral, KbCollection moreSpecific) {
+    return isGeneralizationOf(moreGeneral, moreSpecific, null);
+  }
+
+  //====|    Lookups    |=========================================================================//
+
+  /**
+   * Returns the generalizations of {@code col} in {@code ctx}, as supplied by the source: the
+   * direct ones, or, if the source is closed, all of them.
+   *
+   * @param col the collection
+   * @param ctx the context, or null for the default context
+   *
+   * @return the generalizations
+   */
+  public List<KbCollection> getGeneralizations(KbCollection col, Context ctx) {
+    return collections(index(ctx).generalizations(id(col)));
+  }
+
+  /**
+   * Returns every generalization of {@code col} in {@code ctx}, including {@code col} itself.
+   *
+   * @param col the collection
+   * @param ctx the context, or null for the default context
+   *
+   * @return the generalizations
+   */
+  public List<KbCollection> allGeneralizations(KbCollection col, Context ctx) {
+    return collections(index(ctx).closure(id(col)).stream().toArray());
+  }
+
+  /**
+   * Returns the direct specializations of {@code col} in {@code ctx}.
+   *
+   * @param col the collection
+   * @param ctx the context, or null for the default context
+   *
+   * @return the specializations
+   */
+  public List<KbCollection> getSpecializations(KbCollection col, Context ctx) {
+    return collections(index(ctx).specializations(id(col)));
+  }
+
+  public List<KbCollection> getSpecializations(KbCollection col) {
+    return getSpecializations(col, null);
+  }
+
+  /**
+   * Returns the collections of which {@code term} is an instance in {@code ctx}, as supplied by
+   * the source.
+   *
+   * @param term the term
+   * @param ctx  the context, or null for the default context
+   *
+   * @return the term's types
+   */
+  public List<KbCollection> instanceOf(KbTerm term, Context ctx) {
+    return collections(index(ctx).types(id(term)));
+  }
+
+  //====|    Changes    |=========================================================================//
+
+  /**
+   * Assert that {@code moreGeneral} is a generalization of {@code moreSpecific} in {@code ctx},
+   * via {@link KbCollection#addGeneralization(KbCollection, Context)}, and discard every context's
+   * closures.
+   *
+   * @param moreSpecific the more specific collection
+   * @param moreGeneral  the more general collection
+   * @param ctx          the context in which to assert it
+   *
+   * @throws KbTypeException if the assertion could not be made
+   * @throws CreateException if the assertion could not be made
+   */
+  public void addGeneralization(KbCollection moreSpecific, KbCollection moreGeneral, Context ctx)
+          throws KbTypeException, CreateException {
+    try {
+      moreSpecific.addGeneralization(moreGeneral, ctx);
+    } finally {
+      invalidateAll();
+    }
+  }
+
+  /**
+   * Assert that {@code term} is an instance of {@code col} in {@code ctx}, via
+   * {@link KbTerm#instantiates(KbCollection, Context)}, and discard the term's types in every
+   * context.
+   *
+   * @param term the term
+   * @param col  the collection
+   * @param ctx  the context in which to assert it
+   *
+   * @throws KbTypeException if the assertion could not be made
+   * @throws CreateException if the assertion could not be made
+   */
+  public void instantiates(KbTerm term, KbCollection col, Context ctx)
+          throws KbTypeException, CreateException {
+    try {
+      term.instantiates(col, ctx);
+    } finally {
+      forgetTypes(term);
+    }
+  }
+
+  /**
+   * Discard everything which the index holds about {@code term}. If it is a collection, any of its
+   * specializations' closures may include it, so the whole taxonomy is discarded; otherwise, only
+   * its types are.
+   *
+   * @param term the term
+   */
+  public void invalidate(KbTerm term) {
+    if (term instanceof KbCollection) {
+      invalidateAll();
+    } else {
+      forgetTypes(term);
+    }
+  }
+
+  /**
+   * Discard everything which the index holds about the taxonomy. Terms keep their IDs.
+   */
+  public void invalidateAll() {
+    invalidations.increment();
+    contexts.clear();
+  }
+
+  //====|    Statistics    |======================================================================//
+
+  public long getCheckCount() {
+    return checks.sum();
+  }
+
+  /**
+   * Returns the number of times that the index has asked its source about the taxonomy.
+   *
+   * @return the number of calls
+   */
+  public long getSourceCallCount() {
+    return sourceCalls.sum();
+  }
+
+  public long getClosureCount() {
+    return closureCount.sum();
+  }
+
+  public int getTermCount() {
+    return termIds.size();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[terms=" + getTermCount()
+            + ", contexts=" + contexts.size()
+            + ", checks=" + getCheckCount()
+            + ", sourceCalls=" + getSourceCallCount()
+            + ", closures=" + getClosureCount()
+            + ", invalidations=" + invalidations.sum() + "]";
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private ContextIndex index(Context ctx) {
+    final Object key = (ctx == null) ? DEFAULT_CONTEXT : ctx;
+    final ContextIndex index = contexts.get(key);
+    // Java 8's computeIfAbsent locks even when the key is present, so only call it when it isn't:
+    return (index != null) ? index : contexts.computeIfAbsent(key, absent -> new ContextIndex(ctx));
+  }
+
+  private void forgetTypes(KbTerm term) {
+    invalidations.increment();
+    final Integer id = termIds.get(term);
+    if (id != null) {
+      contexts.values().forEach(index -> index.forgetTypes(id));
+    }
+  }
+
+  private int id(KbTerm term) {
+    final Integer existing = termIds.get(term);
+    if (existing != null) {
+      return existing;
+    }
+    synchronized (termIds) {
+      return termIds.computeIfAbsent(term, key -> {
+        terms.add(key);
+        return terms.size() - 1;
+      });
+    }
+  }
+
+  private int[] ids(Collection<? extends KbTerm> terms) {
+    if (terms.isEmpty()) {
+      return NO_IDS;
+    }
+    final int[] ids = new int[terms.size()];
+    int i = 0;
+    for (KbTerm term : terms) {
+      ids[i++] = id(term);
+    }
+    return ids;
+  }
+
+  private List<KbCollection> collections(int[] ids) {
+    final List<KbCollection> result = new ArrayList<>(ids.length);
+    synchronized (termIds) {
+      for (int id : ids) {
+        result.add((KbCollection) terms.get(id));
+      }
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  private KbTerm term(int id) {
+    synchronized (termIds) {
+      return terms.get(id);
+    }
+  }
+
+  //====|    ContextIndex    |====================================================================//
+
+  /**
+   * The taxonomy as seen from one context. Each table is indexed by term ID, and each entry is
+   * loaded or computed on first use; a null entry has not been loaded yet. Tables grow by being
+   * copied, under the index's lock, so reads need no lock.
+   */
+  private final class ContextIndex {
+
+    private final Context ctx;
+    private volatile AtomicReferenceArray<int[]> generalizations = new AtomicReferenceArray<>(0);
+    private volatile AtomicReferenceArray<int[]> specializations = new AtomicReferenceArray<>(0);
+    private volatile AtomicReferenceArray<int[]> types = new AtomicReferenceArray<>(0);
+    private volatile AtomicReferenceArray<BitSet> closures = new AtomicReferenceArray<>(0);
+
+    private ContextIndex(Context ctx) {
+      this.ctx = ctx;
+    }
+
+    private int[] generalizations(int colId) {
+      final int[] cached = get(generalizations, colId);
+      if (cached != null) {
+        return cached;
+      }
+      sourceCalls.increment();
+      final int[] ids = ids(source.getGeneralizations((KbCollection) term(colId), ctx));
+      synchronized (this) {
+        generalizations = set(generalizations, colId, ids);
+      }
+      return ids;
+    }
+
+    private int[] specializations(int colId) {
+      final int[] cached = get(specializations, colId);
+      if (cached != null) {
+        return cached;
+      }
+      sourceCalls.increment();
+      final int[] ids = ids(source.getSpecializations((KbCollection) term(colId), ctx));
+      synchronized (this) {
+        specializations = set(specializations, colId, ids);
+      }
+      return ids;
+    }
+
+    private int[] types(int termId) {
+      final int[] cached = get(types, termId);
+      if (cached != null) {
+        return cached;
+      }
+      sourceCalls.increment();
+      final int[] ids = ids(source.getTypes(term(termId), ctx));
+      synchronized (this) {
+        types = set(types, termId, ids);
+      }
+      return ids;
+    }
+
+    private synchronized void forgetTypes(int termId) {
+      if (termId < types.length()) {
+        types.set(termId, null);
+      }
+    }
+
+    /**
+     * Returns the IDs of every generalization of a collection, including itself. Unless the
+     * source is closed, walks the generalizations iteratively, reusing the closure of any
+     * collection which already has one.
+     */
+    private BitSet closure(int colId) {
+      final BitSet cached = get(closures, colId);
+      if (cached != null) {
+        return cached;
+      }
+      final BitSet closure = closed ? closedClosure(colId) : walkedClosure(colId);
+      synchronized (this) {
+        closures = set(closures, colId, closure);
+      }
+      closureCount.increment();
+      return closure;
+    }
+
+    private BitSet closedClosure(int colId) {
+      final BitSet closure = new BitSet();
+      closure.set(colId);
+      for (int general : generalizations(colId)) {
+        closure.set(general);
+      }
+      return closure;
+    }
+
+    private BitSet walkedClosure(int colId) {
+      // Every collection reached so far; each is pushed onto the stack once.
+      final BitSet closure = new BitSet();
+      int[] stack = new int[64];
+      int depth = 0;
+      stack[depth++] = colId;
+      closure.set(colId);
+      while (depth > 0) {
+        final int id = stack[--depth];
+        final BitSet known = (id == colId) ? null : get(closures, id);
+        if (known != null) {
+          closure.or(known);
+          continue;
+        }
+        for (int general : generalizations(id)) {
+          if (!closure.get(general)) {
+            closure.set(general);
+            if (depth == stack.length) {
+              stack = Arrays.copyOf(stack, depth * 2);
+            }
+            stack[depth++] = general;
+          }
+        }
+      }
+      return closure;
+    }
+  }
+
+  private static <T> T get(AtomicReferenceArray<T> table, int id) {
+    return (id < table.length()) ? table.get(id) : null;
+  }
+
+  /**
+   * Sets an entry of a table, first copying it into a larger table if necessary. Must be called
+   * under the lock of the table's owner.
+   */
+  private static <T> AtomicReferenceArray<T> set(AtomicReferenceArray<T> table, int id, T value) {
+    AtomicReferenceArray<T> result = table;
+    if (id >= table.length()) {
+      result = new AtomicReferenceArray<>(Math.max(id + 1, table.length() * 2));
+      for (int i = 0; i < table.length(); i++) {
+        result.set(i, table.get(i));
+      }
+    }
+    result.set(id, value);
+    return result;
+  }
+
+}
@@ -0,0 +1,430 @@
+package com.cyc.core.examples.advanced;
+
+/*
+ * #%L
+ * File: TaxonomyIndexSimulation.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.kb.Context;
+import com.cyc.kb.KbCollection;
+import com.cyc.kb.KbIndividual;
+import com.cyc.kb.KbTerm;
+import com.cyc.kb.exception.CreateException;
+import com.cyc.kb.exception.KbTypeException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks the {@link TaxonomyIndex} against a synthetic taxonomy, and measures its throughput. No
+ * Cyc server is needed: the collections and individuals are in-process stand-ins, arranged in a
+ * random genls hierarchy, and two contexts see different parts of it.
+ * <p>
+ * Several threads each make a series of random isa and genls checks via the index twice: first
+ * while it is being populated, and then once it has been. This is done once with a source which
+ * supplies only direct generalizations and types, for the index to walk, and once with a closed
+ * source which, like {@link TaxonomyIndex#CYC_SERVER}, supplies all of them. A sample of the checks
+ * is compared with the answers found by searching the synthetic taxonomy directly. A generalization
+ * and a type are then added via the index, and checks which depend on them are repeated. The
+ * simulation fails (exiting with status 1) if any check is answered wrongly.
+ * <p>
+ * Usage: {@code TaxonomyIndexSimulation [collections] [individuals] [threads] [checks per thread]}
+ */
+public class TaxonomyIndexSimulation {
+
+  private static final int DEFAULT_COLLECTIONS = 20_000;
+  private static final int DEFAULT_INDIVIDUALS = 50_000;
+  private static final int DEFAULT_THREADS = 8;
+  private static final int DEFAULT_CHECKS_PER_THREAD = 1_000_000;
+  private static final int VERIFIED_CHECKS_PER_THREAD = 20_000;
+
+  public static void main(String[] args) {
+    final String exampleName = TaxonomyIndexSimulation.class.getSimpleName();
+    final int collections = intArg(args, 0, DEFAULT_COLLECTIONS);
+    final int individuals = intArg(args, 1, DEFAULT_INDIVIDUALS);
+    final int threads = intArg(args, 2, DEFAULT_THREADS);
+    final int checks = intArg(args, 3, DEFAULT_CHECKS_PER_THREAD);
+    boolean passed = false;
+    try {
+      System.out.println("Running " + exampleName + "...");
+      System.out.println(collections + " collections, " + individuals + " individuals; "
+                                 + threads + " threads x " + checks + " checks");
+      final TaxonomyIndexSimulation simulation
+              = new TaxonomyIndexSimulation(collections, individuals);
+      simulation.run(threads, checks, false);
+      simulation.run(threads, checks, true);
+      passed = simulation.failures.isEmpty();
+      simulation.failures.stream().limit(10)
+              .forEach(failure -> System.out.println("FAILED: " + failure));
+      System.out.println();
+    } catch (KbTypeException | CreateException | InterruptedException | ExecutionException
+            | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(passed ? 0 : 1);
+    }
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  private final KbCollection[] collections;
+  private final KbIndividual[] individuals;
+  private final Map<Object, Integer> ids = new IdentityHashMap<>();
+  /**
+   * The direct generalizations of each collection, by ID, and the direct types of each individual.
+   */
+  private final List<List<Integer>> genls = new ArrayList<>();
+  private final List<List<Integer>> isa = new ArrayList<>();
+  private final Context wideCtx;
+  private final Context narrowCtx;
+  private final LongAdder sourceCalls = new LongAdder();
+  /**
+   * The collection which is added to the taxonomy by {@link #checkChanges(TaxonomyIndex)}.
+   */
+  private KbCollection newCollection;
+  private final List<String> failures = new CopyOnWriteArrayList<>();
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * Builds a random taxonomy. Collection 0 is the root; every other collection has between one
+   * and three generalizations among the collections before it, and every individual has one or two
+   * types.
+   */
+  private TaxonomyIndexSimulation(int collectionCount, int individualCount) {
+    final Random random = new Random(42);
+    this.collections = new KbCollection[collectionCount];
+    for (int i = 0; i < collectionCount; i++) {
+      collections[i] = proxy(KbCollection.class, "#$Collection" + i, i);
+      final List<Integer> generals = new CopyOnWriteArrayList<>();
+      for (int j = (i == 0) ? 3 : random.nextInt(3); j < 3; j++) {
+        generals.add(random.nextInt(i));
+      }
+      genls.add(generals);
+    }
+    this.individuals = new KbIndividual[individualCount];
+    for (int i = 0; i < individualCount; i++) {
+      individuals[i] = proxy(KbIndividual.class, "#$Individual" + i, i);
+      final List<Integer> types = new CopyOnWriteArrayList<>();
+      for (int j = random.nextInt(2); j < 2; j++) {
+        types.add(random.nextInt(collectionCount));
+      }
+      isa.add(types);
+    }
+    this.wideCtx = proxy(Context.class, "#$WideMt", 0);
+    this.narrowCtx = proxy(Context.class, "#$NarrowMt", 1);
+  }
+
+  //====|    Simulation    |======================================================================//
+
+  private void run(int threads, int checksPerThread, boolean closed)
+          throws KbTypeException, CreateException, InterruptedException, ExecutionException {
+    System.out.println(closed ? "Closed source:" : "Direct source:");
+    sourceCalls.reset();
+    final TaxonomyIndex index = new TaxonomyIndex(new SyntheticSource(closed));
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final LongAdder positives = new LongAdder();
+    final LongAdder coldNanos = new LongAdder();
+    final LongAdder warmNanos = new LongAdder();
+    try {
+      final List<Future<?>> workers = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        workers.add(executor.submit(() -> {
+          final Check[] checks = new Check[checksPerThread];
+          for (int i = 0; i < checks.length; i++) {
+            checks[i] = new Check(ThreadLocalRandom.current());
+          }
+          final boolean[] results = new boolean[checks.length];
+          long start = System.nanoTime();
+          for (int i = 0; i < checks.length; i++) {
+            results[i] = checks[i].runOn(index);
+          }
+          coldNanos.add(System.nanoTime() - start);
+          // Again, now that the index has been populated:
+          start = System.nanoTime();
+          for (int i = 0; i < checks.length; i++) {
+            results[i] = checks[i].runOn(index);
+          }
+          warmNanos.add(System.nanoTime() - start);
+          // Searching the synthetic taxonomy is slow, so verify only a sample:
+          for (int i = 0; i < checks.length; i++) {
+            if (results[i]) {
+              positives.increment();
+            }
+            if (i < VERIFIED_CHECKS_PER_THREAD && results[i] != checks[i].expected()) {
+              failures.add(checks[i] + " returned " + results[i]);
+            }
+          }
+        }));
+      }
+      for (Future<?> worker : workers) {
+        worker.get();
+      }
+      final long total = (long) threads * checksPerThread;
+      final double coldSeconds = coldNanos.sum() / 1e9 / threads;
+      final double warmSeconds = warmNanos.sum() / 1e9 / threads;
+      System.out.println(String.format("%d checks (%d true), %d calls to the source", total,
+              positives.sum(), sourceCalls.sum()));
+      System.out.println(String.format("  Populating: %.2fs, %.0f checks/s", coldSeconds,
+              total / coldSeconds));
+      System.out.println(String.format("  Populated:  %.2fs, %.0f checks/s", warmSeconds,
+              total / warmSeconds));
+      System.out.println(index);
+    } finally {
+      executor.shutdownNow();
+    }
+    checkChanges(index);
+  }
+
+  /**
+   * A random isa or genls check.
+   */
+  private final class Check {
+
+    private final boolean isa;
+    private final Context ctx;
+    private final int col;
+    private final int other;
+
+    private Check(Random random) {
+      this.isa = random.nextBoolean();
+      this.ctx = random.nextBoolean() ? wideCtx : narrowCtx;
+      // Bias the collections towards the root, so that some checks succeed:
+      this.col = (int) (collections.length * Math.pow(random.nextDouble(), 4));
+      this.other = random.nextInt(isa ? individuals.length : collections.length);
+    }
+
+    private boolean runOn(TaxonomyIndex index) {
+      return isa
+                     ? index.isInstanceOf(individuals[other], collections[col], ctx)
+                     : index.isGeneralizationOf(collections[col], collections[other], ctx);
+    }
+
+    private boolean expected() {
+      return isa ? isInstance(other, col, ctx) : isGeneralization(col, other, ctx);
+    }
+
+    @Override
+    public String toString() {
+      return isa
+                     ? "(isa " + individuals[other] + " " + collections[col] + ") in " + ctx
+                     : "(genls " + collections[other] + " " + collections[col] + ") in " + ctx;
+    }
+  }
+
+  /**
+   * Adds a generalization and a type via the index, and checks that it sees them. The taxonomy is
+   * restored afterwards.
+   */
+  private void checkChanges(TaxonomyIndex index) throws KbTypeException, CreateException {
+    final int leaf = collections.length - 1;
+    final int individual = individuals.length - 1;
+    genls.add(new CopyOnWriteArrayList<>());
+    final KbCollection newGeneral
+            = proxy(KbCollection.class, "#$NewCollection", genls.size() - 1);
+    if (index.isGeneralizationOf(newGeneral, collections[leaf], wideCtx)
+                || index.isInstanceOf(individuals[individual], newGeneral, wideCtx)) {
+      failures.add(newGeneral + " is known before it has been linked to the taxonomy");
+    }
+    index.addGeneralization(collections[leaf], newGeneral, wideCtx);
+    if (!index.isGeneralizationOf(newGeneral, collections[leaf], wideCtx)) {
+      failures.add("the new generalization of " + collections[leaf] + " was not seen");
+    }
+    index.instantiates(individuals[individual], collections[leaf], wideCtx);
+    if (!index.isInstanceOf(individuals[individual], newGeneral, wideCtx)) {
+      failures.add("the new type of " + individuals[individual] + " was not seen");
+    }
+    System.out.println("After adding a generalization and a type: " + index);
+    genls.remove(genls.size() - 1);
+    genls.get(leaf).remove(genls.get(leaf).size() - 1);
+    isa.get(individual).remove(isa.get(individual).size() - 1);
+  }
+
+  //====|    The synthetic taxonomy    |==========================================================//
+
+  /**
+   * Returns whether a genls link is visible from {@code ctx}. The narrow context sees only four
+   * in five of them.
+   */
+  private boolean visible(int spec, int general, Context ctx) {
+    return ctx == wideCtx || (spec + general) % 5 != 0;
+  }
+
+  private List<Integer> generalizations(int col, Context ctx) {
+    final List<Integer> result = new ArrayList<>();
+    for (int general : genls.get(col)) {
+      if (visible(col, general, ctx)) {
+        result.add(general);
+      }
+    }
+    return result;
+  }
+
+  private boolean isGeneralization(int general, int spec, Context ctx) {
+    return allGeneralizations(spec, ctx).contains(general);
+  }
+
+  /**
+   * Returns every generalization of {@code col}, including itself, by searching the taxonomy.
+   */
+  private List<Integer> allGeneralizations(int col, Context ctx) {
+    final boolean[] seen = new boolean[genls.size()];
+    final List<Integer> result = new ArrayList<>();
+    final Deque<Integer> queue = new ArrayDeque<>();
+    queue.add(col);
+    seen[col] = true;
+    while (!queue.isEmpty()) {
+      final int next = queue.poll();
+      result.add(next);
+      for (int general : generalizations(next, ctx)) {
+        if (!seen[general]) {
+          seen[general] = true;
+          queue.add(general);
+        }
+      }
+    }
+    return result;
+  }
+
+  private boolean isInstance(int individual, int col, Context ctx) {
+    for (int type : isa.get(individual)) {
+      if (isGeneralization(col, type, ctx)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Supplies the synthetic taxonomy: either the direct generalizations and types, or, if it is
+   * closed, every one of them.
+   */
+  private final class SyntheticSource implements TaxonomyIndex.TaxonomySource {
+
+    private final boolean closed;
+
+    private SyntheticSource(boolean closed) {
+      this.closed = closed;
+    }
+
+    @Override
+    public Collection<? extends KbCollection> getGeneralizations(KbCollection col, Context ctx) {
+      sourceCalls.increment();
+      final int id = ids.get(col);
+      final List<KbCollection> result = new ArrayList<>();
+      (closed ? allGeneralizations(id, ctx) : generalizations(id, ctx))
+              .forEach(general -> result.add(collection(general)));
+      return result;
+    }
+
+    @Override
+    public Collection<? extends KbCollection> getSpecializations(KbCollection col, Context ctx) {
+      sourceCalls.increment();
+      final int id = ids.get(col);
+      final List<KbCollection> result = new ArrayList<>();
+      for (int spec = 0; spec < genls.size(); spec++) {
+        if (generalizations(spec, ctx).contains(id)) {
+          result.add(collection(spec));
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public Collection<? extends KbCollection> getTypes(KbTerm term, Context ctx) {
+      sourceCalls.increment();
+      final Set<Integer> types = new LinkedHashSet<>();
+      for (int type : isa.get(ids.get(term))) {
+        types.addAll(closed ? allGeneralizations(type, ctx) : Collections.singleton(type));
+      }
+      final List<KbCollection> result = new ArrayList<>();
+      types.forEach(id -> result.add(collection(id)));
+      return result;
+    }
+
+    @Override
+    public boolean isClosed() {
+      return closed;
+    }
+
+    private KbCollection collection(int id) {
+      return (id < collections.length) ? collections[id] : newCollection;
+    }
+  }
+
+  //====|    Stand-ins    |=======================================================================//
+
+  /**
+   * Returns a stand-in KB object with the specified ID. Collections support
+   * {@code addGeneralization}, and individuals {@code instantiates}, which change the synthetic
+   * taxonomy.
+   */
+  private <T> T proxy(Class<T> type, String cycl, int id) {
+    final T proxy = type.cast(Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{type}, (self, method, args) -> {
+              switch (method.getName()) {
+                case "addGeneralization":
+                  genls.get(id).add(ids.get(args[0]));
+                  return self;
+                case "instantiates":
+                  isa.get(id).add(ids.get(args[0]));
+                  return self;
+                case "equals":
+                  return self == args[0];
+                case "hashCode":
+                  return System.identityHashCode(self);
+                case "toString":
+                  return cycl;
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            }));
+    if (type == KbCollection.class) {
+      ids.put(proxy, id);
+      if (id >= collections.length) {
+        newCollection = (KbCollection) proxy;
+      }
+    } else if (type == KbIndividual.class) {
+      ids.put(proxy, id);
+    }
+    return proxy;
+  }
+
+  private static int intArg(String[] args, int index, int defaultValue) {
+    return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+}
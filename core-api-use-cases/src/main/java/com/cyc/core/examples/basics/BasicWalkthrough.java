@@ -1,6 +1,8 @@
 package com.cyc.core.examples.basics;
 
 import com.cyc.Cyc;
+import com.cyc.core.examples.advanced.AsyncQuery;
+import com.cyc.core.examples.advanced.InferenceRegistry;
 import com.cyc.kb.BinaryPredicate;
 import com.cyc.kb.Context;
 import com.cyc.kb.Fact;
@@ -16,10 +18,8 @@ import com.cyc.kb.exception.KbException;
 import com.cyc.kb.exception.KbObjectNotFoundException;
 import com.cyc.kb.exception.KbTypeException;
 import com.cyc.query.InferenceStatus;
-import com.cyc.query.InferenceSuspendReason;
 import com.cyc.query.Query;
 import com.cyc.query.QueryAnswer;
-import com.cyc.query.QueryListener;
 import com.cyc.query.QueryResultSet;
 import com.cyc.query.exception.QueryConstructionException;
 import com.cyc.query.exception.QueryException;
@@ -35,6 +35,10 @@ import com.cyc.session.exception.SessionInitializationException;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -645,6 +649,11 @@ public class BasicWalkthrough {
       System.out.println("Is inference suspended? "
               + InferenceStatus.SUSPENDED.equals(query.getStatus()));
       System.out.println("Number of results: " + results.getCurrentRowCount());
+      /*
+       Each call to getKbObject converts the binding to a KbObject afresh. That's fine for ten
+       answers; for very large answer sets, see com.cyc.core.examples.advanced.ColumnarResultSet,
+       which converts each distinct term only once.
+       */
       while (results.next()) {
         KbIndividual binding = results.getKbObject("?MOVIE", KbIndividual.class);
         System.out.println(" - " + binding);
@@ -655,7 +664,7 @@ public class BasicWalkthrough {
   }
   
   /**
-   * Run a query asynchronously and receive answers via listeners.
+   * Run a query asynchronously and receive answers as they are found.
    * 
    * @throws KbTypeException
    * @throws CreateException
@@ -669,68 +678,58 @@ public class BasicWalkthrough {
     Sentence querySentence = Sentence.and(
             Sentence.get(movieActors, movieVar, nicholson),
             Sentence.get(movieAdvisoryRating, movieVar, restrictedRating));
-    Query query = null;
     
     /*
      Note that we are not wrapping this query in a try-with-resource statement. We'll explain that
-     below.
+     below. We do wrap an InferenceRegistry, which will close the query for us: once it has been
+     idle for 30 seconds, once it has run for the registry's maximum run time, or, at the latest,
+     when the registry itself is closed.
      */
+    final InferenceRegistry inferences = new InferenceRegistry(30, 10, TimeUnit.SECONDS);
     try {
-      query = Query.get(querySentence, Cyc.Constants.INFERENCE_PSC);
+      final Query query = Query.get(querySentence, Cyc.Constants.INFERENCE_PSC);
       query.getInferenceParameters()
               .setMaxAnswerCount(10)
               .setMaxTime(2)
               .setBrowsable(true);
-      query.addListener(new QueryListener() {
-        @Override
-        public void notifyInferenceCreated(Query query) {
-          System.out.println("... Created inference for " + query);
-        }
-        @Override
-        public void notifyInferenceStatusChanged(InferenceStatus oldStatus, 
-                                                 InferenceStatus newStatus, 
-                                                 InferenceSuspendReason suspendReason,
-                                                 Query query) {
-          System.out.println("... Inference status changed from " + oldStatus + " to " + newStatus);
-        }
-        @Override
-        public void notifyInferenceAnswersAvailable(Query query, List<QueryAnswer> newAnswers) {
-          newAnswers.forEach(answer
-                  -> System.out.println("New answer: " + answer.<KbIndividual>getBinding(movieVar)));
-        }
-        @Override
-        public void notifyInferenceTerminated(Query query, Exception exception) {
-          if (exception == null) {
-            System.out.println("... Inference terminated!");
-          } else {
-            System.err.println("... Inference terminated with exception!");
-            exception.printStackTrace(System.err);
-          }
-        }
-      });
-      System.out.println("Retrieving query answers asynchronously via listeners...");
-      query.performInference();
+      
+      /*
+       Query#performInference() won't return until the inference terminates. An AsyncQuery instead
+       starts the inference and returns immediately, calling us back as each answer is found. Under
+       the hood, it's simply a QueryListener.
+       */
+      System.out.println("Retrieving query answers asynchronously...");
+      CompletableFuture<Void> inference = AsyncQuery.of(query, inferences).forEachAnswer(answer
+              -> System.out.println("New answer: " + answer.<KbIndividual>getBinding(movieVar)));
+      System.out.println("... Inference started; this thread is free to do other work.");
       
       /*
        Wait a couple of seconds for the purpose of this example. This is an asynchronous query, so
        we want to give it a chance to return results. 
        */
       try {
-        Thread.sleep(2000);
+        inference.get(2, TimeUnit.SECONDS);
+        System.out.println("... Inference terminated!");
+      } catch (TimeoutException ex) {
+        System.out.println("... Inference is still running.");
+      } catch (ExecutionException ex) {
+        System.err.println("... Inference terminated with exception!");
+        ex.getCause().printStackTrace(System.err);
       } catch (InterruptedException ex) {
         Thread.currentThread().interrupt();
       }
+      System.out.println("Open inferences: " + inferences.getOpenCount());
     } finally {
       /*
-       We're closing this query manually to illustrate a point: because this query is asynchronous, 
-       we need to be a little more careful about when (and how) we close it. For example, in a web 
-       service, a client might repeatedly poll the server to pick up new results; the server would 
-       need to be at least mildly intelligent about when to close the query.
+       Because this query is asynchronous, we need to be a little more careful about when (and 
+       how) we close it. For example, in a web service, a client might repeatedly poll the server 
+       to pick up new results; the server would need to be at least mildly intelligent about when 
+       to close the query. That is what the registry is for: in a web service, it would live as 
+       long as the service, closing each client's query once the client stopped polling for it. 
+       This example is finished, so we close the registry, which closes any query still open.
        */
-      if (query != null) {
-        System.out.println("Closing query...");
-        query.close();
-      }
+      System.out.println("Closing inference registry...");
+      inferences.close();
       System.out.println("Done with asynchronous query!");
     }
   }
@@ -0,0 +1,86 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: BatchJustificationExample.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.core.examples.impl.BatchJustifier.Batch;
+import com.cyc.core.examples.impl.BatchJustifier.Justification;
+import com.cyc.query.ProofViewSpecification;
+import com.cyc.query.Query;
+import com.cyc.query.exception.QueryConstructionException;
+import com.cyc.session.SessionManager;
+import com.cyc.session.exception.SessionException;
+import java.io.IOException;
+
+/**
+ * This class provides an example of justifying every answer to a query via the
+ * {@link BatchJustifier}, rather than only the first, as
+ * {@link com.cyc.core.examples.advanced.QueryAnswerJustifying QueryAnswerJustifying} does. It asks
+ * the same question, and prints the latency percentiles of the proof views.
+ */
+public class BatchJustificationExample {
+
+  public static void main(String[] args) {
+    final String exampleName = BatchJustificationExample.class.getSimpleName();
+    try (SessionManager sessionMgr = SessionManager.getInstance()) {
+      System.out.println("Running " + exampleName + "...");
+      BatchJustificationExample example = new BatchJustificationExample();
+      example.runExample(BatchJustifier.DEFAULT_PARALLELISM);
+      System.out.println();
+    } catch (QueryConstructionException | SessionException | InterruptedException
+                     | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+      System.exit(1);
+    } catch (IOException ioe) {
+      ioe.printStackTrace(System.err);
+      System.exit(1);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(0);
+    }
+  }
+
+  /**
+   * Justify every publicly held corporation's stock ticker symbol, {@code parallelism} at a time.
+   *
+   * @param parallelism the maximum number of proof views to generate at once
+   *
+   * @throws QueryConstructionException
+   * @throws SessionException
+   * @throws InterruptedException
+   */
+  public void runExample(int parallelism)
+          throws QueryConstructionException, SessionException, InterruptedException {
+    final Query query = Query.get(
+            "(and (isa ?X PubliclyHeldCorporation) (stockTickerSymbol ?X ?Y))", "InferencePSC");
+    // Proof views can only be generated while the inference is retained. The justifier closes the
+    // query, releasing the inference, once it has generated them all.
+    query.retainInference();
+    try (BatchJustifier justifier = new BatchJustifier(parallelism)) {
+      final Batch batch = justifier.justifyAll(query, ProofViewSpecification.get());
+      for (Justification justification : batch.getFailures()) {
+        System.out.println("- " + justification);
+      }
+      System.out.println(batch);
+    }
+  }
+
+}
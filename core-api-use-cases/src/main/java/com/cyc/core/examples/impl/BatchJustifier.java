@@ -0,0 +1,462 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: BatchJustifier.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.query.ProofView;
+import com.cyc.query.ProofViewSpecification;
+import com.cyc.query.Query;
+import com.cyc.query.QueryAnswer;
+import com.cyc.session.CycSession;
+import com.cyc.session.SessionManager;
+import com.cyc.session.SessionManagerImpl;
+import com.cyc.session.exception.SessionException;
+import com.cyc.session.internal.CurrentObjectCache;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Generates the proof views for many query answers at once. Each
+ * {@link ProofView#getProofView(QueryAnswer, ProofViewSpecification)} call is a separate round
+ * trip to the Cyc server, so justifying every answer of a query one at a time, as
+ * {@link com.cyc.core.examples.advanced.QueryAnswerJustifying QueryAnswerJustifying} justifies the
+ * first, takes as many round trips end to end. A BatchJustifier instead makes up to
+ * {@code parallelism} of those calls concurrently, on worker threads which use the calling
+ * thread's session.
+ * <p>
+ * Proof views can only be generated while the query's inference is retained on the Cyc server
+ * (see {@link Query#retainInference()}). {@link #justifyAll(Query, ProofViewSpecification)}
+ * closes the query once every proof view has been generated, releasing the inference.
+ * <p>
+ * Instances are thread-safe. Concurrent batches share the same worker threads, and so the same
+ * bound on parallelism.
+ */
+public class BatchJustifier implements Closeable {
+
+  //====|    Fields    |==========================================================================//
+
+  public static final int DEFAULT_PARALLELISM = 4;
+
+  private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+  private final int parallelism;
+  private final ExecutorService executor;
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * Creates a justifier.
+   *
+   * @param parallelism the maximum number of proof views to generate at once
+   */
+  public BatchJustifier(int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+    }
+    this.parallelism = parallelism;
+    this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+      final Thread thread = new Thread(runnable,
+              getClass().getSimpleName() + "-" + THREAD_IDS.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public BatchJustifier() {
+    this(DEFAULT_PARALLELISM);
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Generate the proof views for all of {@code query}'s answers, and then close the query. The
+   * query must have been told to {@link Query#retainInference() retain its inference} before it
+   * was run; if it has not yet been run, it will be.
+   *
+   * @param query the query
+   * @param spec  the proof view specification to use for every answer
+   *
+   * @return the batch's proof views, and any failures, in the order of the query's answers
+   *
+   * @throws SessionException     if the query's answers could not be retrieved, or the current
+   *                              session could not be obtained
+   * @throws InterruptedException if interrupted while waiting for the proof views, in which case
+   *                              the query is only closed once no worker is still using it
+   */
+  public Batch justifyAll(Query query, ProofViewSpecification spec)
+          throws SessionException, InterruptedException {
+    try {
+      return justify(query.getAnswers(), spec);
+    } finally {
+      query.close();
+    }
+  }
+
+  /**
+   * Generate the proof views for {@code answers}. Their queries' inferences must still be retained
+   * on the Cyc server, and are not released.
+   *
+   * @param answers the answers
+   * @param spec    the proof view specification to use for every answer
+   *
+   * @return the batch's proof views, and any failures, in the order of {@code answers}
+   *
+   * @throws SessionException     if the current session could not be obtained
+   * @throws InterruptedException if interrupted while waiting for the proof views, in which case
+   *                              any which have not yet been generated are cancelled, and this
+   *                              waits for those already being generated to stop
+   */
+  public Batch justify(List<? extends QueryAnswer> answers, ProofViewSpecification spec)
+          throws SessionException, InterruptedException {
+    final CycSession session = captureSession();
+    final long start = System.nanoTime();
+    final Workers workers = new Workers();
+    final List<Future<Justification>> futures = new ArrayList<>(answers.size());
+    for (QueryAnswer answer : answers) {
+      futures.add(executor.submit(() -> {
+        if (!workers.start()) {
+          return null;
+        }
+        try {
+          bind(session);
+          final long proofStart = System.nanoTime();
+          try {
+            final ProofView proofView = generate(answer, spec);
+            return new Justification(answer, proofView, null, System.nanoTime() - proofStart);
+          } catch (RuntimeException ex) {
+            return new Justification(answer, null, ex, System.nanoTime() - proofStart);
+          }
+        } finally {
+          try {
+            unbind();
+          } finally {
+            workers.finish();
+          }
+        }
+      }));
+    }
+    final List<Justification> justifications = new ArrayList<>(answers.size());
+    try {
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          justifications.add(futures.get(i).get());
+        } catch (ExecutionException ex) {
+          justifications.add(new Justification(answers.get(i), null, ex.getCause(), 0));
+        }
+      }
+    } catch (InterruptedException ex) {
+      workers.abandon();
+      futures.forEach(future -> future.cancel(true));
+      // The answers' inferences may be released as soon as this returns, so nothing may still be
+      // generating a proof view from them:
+      workers.awaitFinished();
+      throw ex;
+    }
+    return new Batch(justifications, System.nanoTime() - start);
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Stops the worker threads. Batches which are in progress are interrupted.
+   */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[parallelism=" + parallelism + "]";
+  }
+
+  //====|    Extension points    |================================================================//
+
+  /**
+   * Returns the session which the worker threads should use on behalf of the calling thread.
+   * Called on the thread which submits a batch.
+   *
+   * @return the session
+   *
+   * @throws SessionException if the session could not be obtained
+   */
+  protected CycSession captureSession() throws SessionException {
+    return CycSession.getCurrent();
+  }
+
+  /**
+   * Makes {@code session} the current session of the current worker thread.
+   *
+   * @param session the session returned by {@link #captureSession()}
+   *
+   * @throws SessionException if the session could not be bound
+   */
+  @SuppressWarnings("unchecked")
+  protected void bind(CycSession session) throws SessionException {
+    ((SessionManagerImpl<CycSession>) SessionManager.getInstance()).setCurrentSession(session);
+  }
+
+  /**
+   * Clears the current session of the current worker thread, once it has generated a proof view,
+   * so that an idle worker does not keep a batch's session reachable.
+   */
+  protected void unbind() {
+    new CurrentObjectCache<CycSession>().clearCurrentSession();
+  }
+
+  /**
+   * Generates a single proof view. Called on a worker thread.
+   *
+   * @param answer the answer to justify
+   * @param spec   the proof view specification
+   *
+   * @return the proof view
+   */
+  protected ProofView generate(QueryAnswer answer, ProofViewSpecification spec) {
+    return ProofView.getProofView(answer, spec);
+  }
+
+  //====|    Workers    |=========================================================================//
+
+  /**
+   * Tracks a batch's running workers, so that an interrupted batch can wait for them to stop.
+   */
+  private static final class Workers {
+
+    private int running = 0;
+    private boolean abandoned = false;
+
+    /**
+     * Returns false, without starting, if the batch has been abandoned.
+     */
+    private synchronized boolean start() {
+      if (abandoned) {
+        return false;
+      }
+      running++;
+      return true;
+    }
+
+    private synchronized void finish() {
+      running--;
+      notifyAll();
+    }
+
+    private synchronized void abandon() {
+      abandoned = true;
+    }
+
+    /**
+     * Waits, uninterruptibly, until no worker is running.
+     */
+    private synchronized void awaitFinished() {
+      boolean interrupted = false;
+      while (running > 0) {
+        try {
+          wait();
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  //====|    Justification    |===================================================================//
+
+  /**
+   * The outcome of justifying a single answer: either its proof view, or the error which
+   * prevented it from being generated.
+   */
+  public static class Justification {
+
+    private final QueryAnswer answer;
+    private final ProofView proofView;
+    private final Throwable error;
+    private final long latencyNanos;
+
+    Justification(QueryAnswer answer, ProofView proofView, Throwable error, long latencyNanos) {
+      this.answer = answer;
+      this.proofView = proofView;
+      this.error = error;
+      this.latencyNanos = latencyNanos;
+    }
+
+    public QueryAnswer getAnswer() {
+      return answer;
+    }
+
+    /**
+     * Returns the proof view, or null if it could not be generated.
+     *
+     * @return the proof view
+     */
+    public ProofView getProofView() {
+      return proofView;
+    }
+
+    /**
+     * Returns the error which prevented the proof view from being generated, or null if it was
+     * generated.
+     *
+     * @return the error
+     */
+    public Throwable getError() {
+      return error;
+    }
+
+    public boolean isSuccessful() {
+      return proofView != null;
+    }
+
+    /**
+     * Returns how long the proof view took to generate, not counting any time spent waiting for a
+     * worker thread.
+     *
+     * @return the latency, in nanoseconds
+     */
+    public long getLatencyNanos() {
+      return latencyNanos;
+    }
+
+    @Override
+    public String toString() {
+      return (isSuccessful() ? "Justified " : "Failed to justify (" + error + ") ")
+              + answer.getBindings() + " in "
+              + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + "ms";
+    }
+  }
+
+  //====|    Batch    |===========================================================================//
+
+  /**
+   * The outcome of justifying a batch of answers, with latency statistics.
+   */
+  public static class Batch {
+
+    private final List<Justification> justifications;
+    private final long elapsedNanos;
+    private final long[] sortedLatencies;
+
+    Batch(List<Justification> justifications, long elapsedNanos) {
+      this.justifications = Collections.unmodifiableList(justifications);
+      this.elapsedNanos = elapsedNanos;
+      this.sortedLatencies = justifications.stream()
+              .filter(Justification::isSuccessful)
+              .mapToLong(Justification::getLatencyNanos)
+              .sorted()
+              .toArray();
+    }
+
+    /**
+     * Returns the justifications, in the order of the answers which were justified.
+     *
+     * @return the justifications
+     */
+    public List<Justification> getJustifications() {
+      return justifications;
+    }
+
+    /**
+     * Returns the proof views which were generated, in the order of the answers which they
+     * justify.
+     *
+     * @return the proof views
+     */
+    public List<ProofView> getProofViews() {
+      return justifications.stream()
+              .filter(Justification::isSuccessful)
+              .map(Justification::getProofView)
+              .collect(Collectors.toList());
+    }
+
+    public List<Justification> getFailures() {
+      return justifications.stream()
+              .filter(justification -> !justification.isSuccessful())
+              .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns how long the whole batch took, from submission until the last proof view was
+     * generated.
+     *
+     * @return the elapsed time, in nanoseconds
+     */
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    /**
+     * Returns the given percentile of the latencies of the proof views which were generated, by the
+     * nearest-rank method; e.g., {@code getLatencyPercentileNanos(50)} is the median latency.
+     *
+     * @param percentile a percentile, greater than 0 and at most 100
+     *
+     * @return the latency, in nanoseconds, or 0 if no proof views were generated
+     */
+    public long getLatencyPercentileNanos(double percentile) {
+      if (percentile <= 0 || percentile > 100) {
+        throw new IllegalArgumentException("Percentile must be in (0, 100]: " + percentile);
+      }
+      if (sortedLatencies.length == 0) {
+        return 0;
+      }
+      final int rank = (int) Math.ceil(percentile / 100 * sortedLatencies.length);
+      return sortedLatencies[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Returns the sum of the latencies of the proof views, which is roughly how long they would
+     * have taken to generate one at a time.
+     *
+     * @return the total latency, in nanoseconds
+     */
+    public long getTotalLatencyNanos() {
+      return Arrays.stream(sortedLatencies).sum();
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d proof views (%d failed) in %.1fms; latency p50=%.1fms "
+              + "p90=%.1fms p99=%.1fms max=%.1fms; sequential total=%.1fms",
+              justifications.size() - getFailures().size(), getFailures().size(),
+              elapsedNanos / 1e6,
+              getLatencyPercentileNanos(50) / 1e6, getLatencyPercentileNanos(90) / 1e6,
+              getLatencyPercentileNanos(99) / 1e6, getLatencyPercentileNanos(100) / 1e6,
+              getTotalLatencyNanos() / 1e6);
+    }
+  }
+
+}
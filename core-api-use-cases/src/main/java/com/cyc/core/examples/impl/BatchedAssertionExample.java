@@ -0,0 +1,126 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: BatchedAssertionExample.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.core.examples.basics.BasicWalkthrough;
+import com.cyc.core.examples.impl.BatchedFactWriter.Result;
+import com.cyc.core.examples.impl.BatchedFactWriter.TranscriptMode;
+import com.cyc.kb.BinaryPredicate;
+import com.cyc.kb.Context;
+import com.cyc.kb.KbCollection;
+import com.cyc.kb.KbIndividual;
+import com.cyc.kb.Sentence;
+import com.cyc.kb.exception.KbException;
+import com.cyc.session.CycSession;
+import com.cyc.session.SessionManager;
+import com.cyc.session.exception.SessionException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * This class provides an example of asserting knowledge in batches via the
+ * {@link BatchedFactWriter}. It asserts the same background knowledge as the
+ * {@link BasicWalkthrough}, but where the walkthrough makes a round trip to the Cyc server for
+ * every fact, this example sends all of the facts in a single round trip.
+ * <p>
+ * Terms still need to exist before facts can be asserted about them, so term creation is not
+ * batched.
+ */
+public class BatchedAssertionExample {
+
+  public static void main(String[] args) {
+    final String exampleName = BatchedAssertionExample.class.getSimpleName();
+    try (SessionManager sessionMgr = SessionManager.getInstance()) {
+      System.out.println("Running " + exampleName + "...");
+      BatchedAssertionExample example = new BatchedAssertionExample();
+      example.runExample(Paths.get("target/batched-assertions.transcript"));
+      System.out.println();
+    } catch (KbException | SessionException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+      System.exit(1);
+    } catch (IOException ioe) {
+      ioe.printStackTrace(System.err);
+      System.exit(1);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(0);
+    }
+  }
+
+  /**
+   * Elaborate on _The King of Marvin Gardens_ and Jack Nicholson, as in the
+   * {@link BasicWalkthrough}, asserting all of the facts in one batch. Rather than writing each
+   * assertion to the Cyc server's transcript, we'll write a single consolidated transcript chunk
+   * to {@code transcriptFile} once the batch has been flushed.
+   *
+   * @param transcriptFile where to write the consolidated transcript
+   *
+   * @throws KbException
+   * @throws SessionException
+   * @throws IOException
+   */
+  public void runExample(Path transcriptFile) throws KbException, SessionException, IOException {
+    CycSession.getCurrent().getOptions().setCyclistName("CycAdministrator");
+    final Context massMediaDataMt = Context.get("MassMediaDataMt");
+    final Context peopleDataMt = Context.get("PeopleDataMt");
+    final Context uvMt = Context.get("UniversalVocabularyMt");
+
+    final KbCollection movieCw = KbCollection.get("Movie-CW");
+    final KbCollection actorInMovies = KbCollection.findOrCreate("ActorInMovies");
+    final KbIndividual kingOfMarvinGardens
+            = KbIndividual.findOrCreate("TheKingOfMarvinGardens-TheMovie");
+    final KbIndividual nicholson = KbIndividual.findOrCreate("JackNicholson");
+    final BinaryPredicate movieActors = BinaryPredicate.findOrCreate("movieActors");
+    final BinaryPredicate movieActorsWithStarringRole
+            = BinaryPredicate.findOrCreate("movieActors-WithStarringRole");
+
+    try (BatchedFactWriter writer = new BatchedFactWriter(BatchedFactWriter.DEFAULT_BATCH_SIZE,
+            BatchedFactWriter.DEFAULT_MAX_DELAY_MS, TranscriptMode.CONSOLIDATED, transcriptFile)) {
+      writer.add(kingOfMarvinGardens.instantiatesSentence(KbCollection.get("DramaticMovie")),
+              massMediaDataMt);
+      writer.add(Sentence.get(BinaryPredicate.get("movieAdvisoryRating"),
+              kingOfMarvinGardens, KbCollection.get("RestrictedRating")),
+              massMediaDataMt);
+      writer.add(actorInMovies.addGeneralizationSentence(KbCollection.get("Person")),
+              massMediaDataMt);
+      writer.add(movieActors.addArgIsaSentence(1, movieCw), massMediaDataMt);
+      writer.add(movieActors.addArgIsaSentence(2, actorInMovies), massMediaDataMt);
+      writer.add(movieActorsWithStarringRole.addArgIsaSentence(1, movieCw), massMediaDataMt);
+      writer.add(movieActorsWithStarringRole.addArgIsaSentence(2, actorInMovies), massMediaDataMt);
+      writer.add(movieActorsWithStarringRole.getGeneralizationSentence(movieActors), uvMt);
+      writer.add(nicholson.instantiatesSentence(actorInMovies), peopleDataMt);
+      writer.add(Sentence.get(movieActorsWithStarringRole, kingOfMarvinGardens, nicholson),
+              massMediaDataMt);
+
+      System.out.println("Asserting " + writer.getPendingCount() + " facts in one batch...");
+      final List<Result> results = writer.flush();
+      results.forEach(result -> System.out.println("- " + result));
+      System.out.println("Asserted " + writer.getAssertedCount() + " facts in "
+              + writer.getFlushCount() + " round trip(s); " + writer.getFailures().size()
+              + " failed.");
+      System.out.println("Consolidated transcript written to " + transcriptFile);
+    }
+  }
+
+}
@@ -0,0 +1,372 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: BatchedFactWriter.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.base.CommandTool;
+import com.cyc.base.CycAccess;
+import com.cyc.base.cycobject.CycList;
+import com.cyc.base.exception.CycApiException;
+import com.cyc.base.exception.CycConnectionException;
+import com.cyc.kb.Context;
+import com.cyc.kb.Sentence;
+import com.cyc.kb.exception.KbException;
+import com.cyc.session.CycSession;
+import com.cyc.session.exception.SessionException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulates facts and asserts them in groups, with one round trip to the Cyc server per group,
+ * rather than one round trip per {@link com.cyc.kb.Fact#findOrCreate(Sentence, Context)}. This is
+ * intended for bulk ingest, where the per-call latency of the KB API dominates.
+ * <p>
+ * Facts are supplied as Sentences; the KB API provides sentence forms of its most common
+ * assertion methods, such as
+ * {@link com.cyc.kb.KbTerm#instantiatesSentence(com.cyc.kb.KbCollection)},
+ * {@link com.cyc.kb.KbCollection#addGeneralizationSentence(com.cyc.kb.KbCollection)} and
+ * {@link com.cyc.kb.Relation#addArgIsaSentence(int, com.cyc.kb.KbCollection)}. Pending facts are
+ * flushed when the batch reaches its maximum size, when the oldest pending fact has waited longer
+ * than the maximum delay (checked whenever a fact is added), or when {@link #flush()} or
+ * {@link #close()} is called. Each flush returns a {@link Result} for every fact in the batch.
+ * <p>
+ * How the batch is transcripted is governed by its {@link TranscriptMode}. Note that the writer
+ * must be used from a single thread, as the Cyc APIs maintain a separate CycSession per thread.
+ * <p>
+ * Unlike the KB API, this writer does not return {@link com.cyc.kb.Fact} objects; retrieve them
+ * afterwards if necessary. It relies upon the Core Client implementation.
+ */
+public class BatchedFactWriter implements Closeable {
+
+  //====|    Transcripts    |=====================================================================//
+
+  /**
+   * Specifies how the operations in a batch are transcripted.
+   */
+  public static enum TranscriptMode {
+    /**
+     * Transcript each assertion individually on the Cyc server, iff the current session
+     * {@link com.cyc.session.SessionOptions#getShouldTranscriptOperations() should transcript
+     * operations}. This matches the behavior of the KB API.
+     */
+    PER_ASSERTION,
+    /**
+     * Do not transcript individual assertions. Instead, after each flush, the successful
+     * assertions are appended to the consolidated transcript file as a single chunk, which may be
+     * loaded into a clean image to replay them.
+     */
+    CONSOLIDATED,
+    /**
+     * Do not transcript the batch at all.
+     */
+    NONE
+  }
+
+  //====|    BatchAsserter    |===================================================================//
+
+  /**
+   * Asserts a batch of facts in a single operation. The default implementation,
+   * {@link #CYC_SERVER}, sends the whole batch to the current Cyc server as one command; other
+   * implementations may be supplied for offline use.
+   */
+  @FunctionalInterface
+  public static interface BatchAsserter {
+
+    /**
+     * Assert each of the facts.
+     *
+     * @param facts      the facts to assert
+     * @param transcript whether the Cyc server should transcript each assertion
+     *
+     * @return whether each fact was successfully asserted, in the same order as {@code facts}
+     *
+     * @throws KbException if the batch as a whole could not be asserted
+     */
+    List<Boolean> assertAll(List<PendingFact> facts, boolean transcript) throws KbException;
+  }
+
+  /**
+   * Asserts each batch via a single SubL command on the current Cyc server, with the bookkeeping
+   * information for the current cyclist. Each assertion is isolated from the others: one which
+   * signals an error fails on its own, and the rest of the batch is still asserted.
+   */
+  public static final BatchAsserter CYC_SERVER = (facts, transcript) -> {
+    final String assertFn = transcript ? "ke-assert-now" : "cyc-assert";
+    final StringBuilder command = new StringBuilder("(list");
+    for (PendingFact fact : facts) {
+      command.append("\n (sublisp-boolean (ignore-errors (").append(assertFn)
+              .append(' ').append(fact.getSentence().stringApiValue())
+              .append(' ').append(fact.getContext().stringApiValue())
+              .append(")))");
+    }
+    command.append(')');
+    try {
+      final CommandTool converse = CycAccess.getCurrent().converse();
+      final CycList<?> response = converse.converseList(
+              converse.wrapBookkeeping(converse.wrapCyclistAndPurpose(command.toString())));
+      final List<Boolean> results = new ArrayList<>(response.size());
+      for (Object result : response) {
+        results.add(!"NIL".equalsIgnoreCase(String.valueOf(result)));
+      }
+      return results;
+    } catch (CycConnectionException | CycApiException ex) {
+      throw KbException.fromThrowable("Could not assert batch of " + facts.size() + " facts", ex);
+    }
+  };
+
+  //====|    Fields    |==========================================================================//
+
+  public static final int DEFAULT_BATCH_SIZE = 200;
+
+  public static final long DEFAULT_MAX_DELAY_MS = TimeUnit.SECONDS.toMillis(5);
+
+  private final BatchAsserter asserter;
+  private final int batchSize;
+  private final long maxDelayNanos;
+  private final TranscriptMode transcriptMode;
+  private final Path transcriptFile;
+  private final List<PendingFact> pending = new ArrayList<>();
+  private final List<Result> failures = new ArrayList<>();
+  private long oldestPendingNanos;
+  private long flushCount = 0;
+  private long assertedCount = 0;
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * @param asserter       how to assert each batch
+   * @param batchSize      the maximum number of facts to send per round trip
+   * @param maxDelayMs     the maximum time (in milliseconds) that a fact should remain pending
+   * @param transcriptMode how assertions should be transcripted
+   * @param transcriptFile where to append consolidated transcript chunks; only required for
+   *                       {@link TranscriptMode#CONSOLIDATED}
+   */
+  public BatchedFactWriter(BatchAsserter asserter, int batchSize, long maxDelayMs,
+          TranscriptMode transcriptMode, Path transcriptFile) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be positive, but was " + batchSize);
+    }
+    if (transcriptMode == TranscriptMode.CONSOLIDATED && transcriptFile == null) {
+      throw new IllegalArgumentException("A transcript file is required for " + transcriptMode);
+    }
+    this.asserter = asserter;
+    this.batchSize = batchSize;
+    this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+    this.transcriptMode = transcriptMode;
+    this.transcriptFile = transcriptFile;
+  }
+
+  public BatchedFactWriter(int batchSize, long maxDelayMs, TranscriptMode transcriptMode,
+          Path transcriptFile) {
+    this(CYC_SERVER, batchSize, maxDelayMs, transcriptMode, transcriptFile);
+  }
+
+  public BatchedFactWriter() {
+    this(CYC_SERVER, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY_MS, TranscriptMode.PER_ASSERTION, null);
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Add a fact to the current batch, flushing the batch if it is full or if it has been pending
+   * for too long.
+   *
+   * @param sentence the fact to assert
+   * @param ctx      the Context in which to assert it
+   *
+   * @return the results of the flush, if the batch was flushed; otherwise, an empty list
+   *
+   * @throws KbException      if a flushed batch could not be asserted; its facts, including this
+   *                          one, remain pending
+   * @throws SessionException if the current session could not be retrieved
+   * @throws IOException      if the consolidated transcript could not be written
+   */
+  public List<Result> add(Sentence sentence, Context ctx)
+          throws KbException, SessionException, IOException {
+    if (pending.isEmpty()) {
+      oldestPendingNanos = System.nanoTime();
+    }
+    pending.add(new PendingFact(sentence, ctx));
+    if (pending.size() >= batchSize || System.nanoTime() - oldestPendingNanos >= maxDelayNanos) {
+      return flush();
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * Assert all pending facts in a single round trip. If the batch as a whole could not be asserted,
+   * its facts remain pending, so that the flush may be retried; as asserting a fact which is
+   * already in the KB has no effect, a retry is safe even if the server asserted some of them.
+   *
+   * @return the result for each fact, in the order in which the facts were added
+   *
+   * @throws KbException      if the batch could not be asserted; its facts remain pending
+   * @throws SessionException if the current session could not be retrieved
+   * @throws IOException      if the consolidated transcript could not be written
+   */
+  public List<Result> flush() throws KbException, SessionException, IOException {
+    if (pending.isEmpty()) {
+      return Collections.emptyList();
+    }
+    final List<PendingFact> batch = new ArrayList<>(pending);
+    final List<Boolean> outcomes = asserter.assertAll(batch, shouldServerTranscript());
+    if (outcomes.size() != batch.size()) {
+      throw new KbException("Expected " + batch.size() + " results for batch, but got "
+              + outcomes.size());
+    }
+    pending.clear();
+    final List<Result> results = new ArrayList<>(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      final Result result = new Result(batch.get(i), outcomes.get(i));
+      results.add(result);
+      if (result.isSuccessful()) {
+        assertedCount++;
+      } else {
+        failures.add(result);
+      }
+    }
+    flushCount++;
+    if (transcriptMode == TranscriptMode.CONSOLIDATED) {
+      appendTranscriptChunk(results);
+    }
+    return results;
+  }
+
+  /**
+   * Flushes any pending facts.
+   *
+   * @throws IOException if the final batch could not be asserted; its facts remain pending
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } catch (KbException | SessionException ex) {
+      throw new IOException("Could not flush final batch", ex);
+    }
+  }
+
+  /**
+   * @return every fact which the Cyc server failed to assert, across all flushes
+   */
+  public List<Result> getFailures() {
+    return Collections.unmodifiableList(failures);
+  }
+
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  public long getAssertedCount() {
+    return assertedCount;
+  }
+
+  public long getFlushCount() {
+    return flushCount;
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private boolean shouldServerTranscript() throws SessionException {
+    return transcriptMode == TranscriptMode.PER_ASSERTION
+            && CycSession.getCurrent().getOptions().getShouldTranscriptOperations();
+  }
+
+  private void appendTranscriptChunk(List<Result> results) throws IOException {
+    final StringBuilder chunk = new StringBuilder();
+    chunk.append(";; Batch of ").append(results.size()).append(" facts\n");
+    for (Result result : results) {
+      if (result.isSuccessful()) {
+        chunk.append("(fi-assert ")
+                .append(result.getSentence().stringApiValue()).append(' ')
+                .append(result.getContext().stringApiValue()).append(")\n");
+      }
+    }
+    try (FileChannel channel = FileChannel.open(transcriptFile,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      final ByteBuffer bytes = ByteBuffer.wrap(chunk.toString().getBytes(StandardCharsets.UTF_8));
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+    }
+  }
+
+  //====|    Inner classes    |===================================================================//
+
+  /**
+   * A fact which has been added to the writer but not yet asserted.
+   */
+  public static class PendingFact {
+
+    private final Sentence sentence;
+    private final Context ctx;
+
+    PendingFact(Sentence sentence, Context ctx) {
+      this.sentence = sentence;
+      this.ctx = ctx;
+    }
+
+    public Sentence getSentence() {
+      return sentence;
+    }
+
+    public Context getContext() {
+      return ctx;
+    }
+
+    @Override
+    public String toString() {
+      return sentence + " in " + ctx;
+    }
+  }
+
+  /**
+   * The outcome of asserting a single fact.
+   */
+  public static class Result extends PendingFact {
+
+    private final boolean successful;
+
+    Result(PendingFact fact, boolean successful) {
+      super(fact.getSentence(), fact.getContext());
+      this.successful = successful;
+    }
+
+    public boolean isSuccessful() {
+      return successful;
+    }
+
+    @Override
+    public String toString() {
+      return (successful ? "Asserted " : "Failed to assert ") + super.toString();
+    }
+  }
+
+}
@@ -0,0 +1,407 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: BinaryProofViewCodec.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.baseclient.xml.cycml.Paraphrase;
+import com.cyc.query.exception.ProofViewException;
+import com.cyc.xml.query.Content;
+import com.cyc.xml.query.ProofView;
+import com.cyc.xml.query.ProofViewEntry;
+import com.cyc.xml.query.SubEntries;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.xml.bind.JAXBException;
+
+/**
+ * Writes and reads proof views in a compact binary format. Proof views repeat the same labels and
+ * CycL many times over, so each distinct string is written once, and thereafter referred to by
+ * its index in a string table which both the writer and the reader build as they go.
+ * <p>
+ * A document is the magic bytes {@code CPV}, a version byte, and the proof view. Entries are
+ * written depth first, each as:
+ * <ul>
+ * <li>a flags byte, recording which of the id and the boolean attributes are present, their
+ * values, whether the paraphrase is plain text, and whether the entry has a sub-entries element
+ * (which may be empty);</li>
+ * <li>the id, as a zigzag-encoded variable-length integer;</li>
+ * <li>the label, object type, paraphrase, CycL, SILK and content, as string references;</li>
+ * <li>if it has a sub-entries element, the number of sub-entries, followed by the sub-entries
+ * themselves.</li>
+ * </ul>
+ * A string reference is a variable-length integer: 0 for null, 1 for a new string (followed by its
+ * length and UTF-8 bytes, and added to the table), or 2 + <i>n</i> for the <i>n</i>th string in
+ * the table. Paraphrases which are plain text are carried as such, and are flagged as such in the
+ * flags byte; other paraphrases, and content, are carried as their CycML XML.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class BinaryProofViewCodec implements ProofViewWriter {
+
+  //====|    Fields    |==========================================================================//
+
+  public static final int VERSION = 1;
+
+  private static final byte[] MAGIC = {'C', 'P', 'V'};
+
+  private static final int HAS_ID = 1;
+  private static final int HAS_ABDUCED_SUPPORT = 1 << 1;
+  private static final int ABDUCED_SUPPORT = 1 << 2;
+  private static final int HAS_EXPAND_INITIALLY = 1 << 3;
+  private static final int EXPAND_INITIALLY = 1 << 4;
+  private static final int HAS_SUB_ENTRIES = 1 << 5;
+  private static final int PLAIN_PARAPHRASE = 1 << 6;
+  private static final int HAS_ENTRY = 1 << 1;
+
+  private static final int NULL_STRING = 0;
+  private static final int NEW_STRING = 1;
+  private static final int FIRST_STRING_REF = 2;
+
+  private final LongAdder proofViews = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+
+  //====|    Writing    |=========================================================================//
+
+  @Override
+  public long marshal(ProofView proofView, WritableByteChannel channel)
+          throws ProofViewException {
+    try (PooledChannelOutputStream out = new PooledChannelOutputStream(channel)) {
+      final Encoder encoder = new Encoder(out);
+      out.write(MAGIC);
+      out.write(VERSION);
+      final ProofViewEntry root = proofView.getProofViewEntry();
+      out.write(((proofView.getId() != null) ? HAS_ID : 0) | ((root != null) ? HAS_ENTRY : 0));
+      if (proofView.getId() != null) {
+        encoder.writeId(proofView.getId());
+      }
+      if (root != null) {
+        writeEntries(root, encoder);
+      }
+      out.flush();
+      proofViews.increment();
+      bytes.add(out.getByteCount());
+      return out.getByteCount();
+    } catch (IOException | JAXBException | RuntimeException ex) {
+      throw ProofViewException.fromThrowable("Could not write proof view " + proofView.getId(),
+              ex);
+    }
+  }
+
+  /**
+   * Writes an entry and its descendants, depth first, without recursion.
+   */
+  private void writeEntries(ProofViewEntry root, Encoder encoder)
+          throws IOException, JAXBException {
+    final Deque<Iterator<ProofViewEntry>> stack = new ArrayDeque<>();
+    writeEntry(root, encoder, stack);
+    while (!stack.isEmpty()) {
+      final Iterator<ProofViewEntry> subEntries = stack.peek();
+      if (subEntries.hasNext()) {
+        writeEntry(subEntries.next(), encoder, stack);
+      } else {
+        stack.pop();
+      }
+    }
+  }
+
+  private void writeEntry(ProofViewEntry entry, Encoder encoder,
+          Deque<Iterator<ProofViewEntry>> stack) throws IOException, JAXBException {
+    final SubEntries subEntries = entry.getSubEntries();
+    final List<ProofViewEntry> children = (subEntries != null)
+                                                  ? subEntries.getProofViewEntry()
+                                                  : null;
+    final boolean hasSubEntries = children != null;
+    int flags = 0;
+    if (entry.getId() != null) {
+      flags |= HAS_ID;
+    }
+    if (entry.isAbducedSupport() != null) {
+      flags |= HAS_ABDUCED_SUPPORT | (entry.isAbducedSupport() ? ABDUCED_SUPPORT : 0);
+    }
+    if (entry.isExpandInitially() != null) {
+      flags |= HAS_EXPAND_INITIALLY | (entry.isExpandInitially() ? EXPAND_INITIALLY : 0);
+    }
+    if (hasSubEntries) {
+      flags |= HAS_SUB_ENTRIES;
+    }
+    String paraphrase = CycmlFragments.toPlainText(entry.getParaphrase());
+    if (paraphrase != null) {
+      flags |= PLAIN_PARAPHRASE;
+    } else {
+      paraphrase = CycmlFragments.toXml(entry.getParaphrase());
+    }
+    encoder.out.write(flags);
+    if (entry.getId() != null) {
+      encoder.writeId(entry.getId());
+    }
+    encoder.writeString(entry.getLabel());
+    encoder.writeString(entry.getObjectType());
+    encoder.writeString(paraphrase);
+    encoder.writeString(entry.getCycl());
+    encoder.writeString(entry.getSilk());
+    encoder.writeString(CycmlFragments.toXml(entry.getContent()));
+    if (hasSubEntries) {
+      encoder.writeVarLong(children.size());
+      stack.push(children.iterator());
+    }
+  }
+
+  private static final class Encoder {
+
+    private final OutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    private Encoder(OutputStream out) {
+      this.out = out;
+    }
+
+    private void writeId(BigInteger id) throws IOException {
+      final long value = id.longValueExact();
+      writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    private void writeString(String string) throws IOException {
+      if (string == null) {
+        writeVarLong(NULL_STRING);
+        return;
+      }
+      final Integer index = strings.get(string);
+      if (index != null) {
+        writeVarLong(FIRST_STRING_REF + index);
+        return;
+      }
+      strings.put(string, strings.size());
+      final byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+      writeVarLong(NEW_STRING);
+      writeVarLong(utf8.length);
+      out.write(utf8);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+      while ((value & ~0x7FL) != 0) {
+        out.write((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      out.write((int) value);
+    }
+  }
+
+  //====|    Reading    |=========================================================================//
+
+  /**
+   * Read a proof view written by {@link #marshal(ProofView, WritableByteChannel)}. The channel is
+   * read only as far as the end of the proof view, and is not closed.
+   *
+   * @param channel the channel from which to read
+   *
+   * @return the proof view
+   *
+   * @throws ProofViewException if the proof view could not be read
+   */
+  public ProofView read(ReadableByteChannel channel) throws ProofViewException {
+    return read(Channels.newInputStream(channel));
+  }
+
+  /**
+   * Read a proof view written by {@link #marshal(ProofView, WritableByteChannel)}. The stream is
+   * not closed.
+   *
+   * @param in the stream from which to read
+   *
+   * @return the proof view
+   *
+   * @throws ProofViewException if the proof view could not be read
+   */
+  public ProofView read(InputStream in) throws ProofViewException {
+    try {
+      final Decoder decoder = new Decoder(new BufferedInputStream(in));
+      for (byte b : MAGIC) {
+        if (decoder.readByte() != b) {
+          throw new IOException("Not a binary proof view");
+        }
+      }
+      final int version = decoder.readByte();
+      if (version != VERSION) {
+        throw new IOException("Unsupported binary proof view version: " + version);
+      }
+      final int flags = decoder.readByte();
+      final ProofView proofView = new ProofView();
+      if ((flags & HAS_ID) != 0) {
+        proofView.setId(decoder.readId());
+      }
+      if ((flags & HAS_ENTRY) != 0) {
+        proofView.setProofViewEntry(readEntries(decoder));
+      }
+      return proofView;
+    } catch (IOException | JAXBException | RuntimeException ex) {
+      throw ProofViewException.fromThrowable("Could not read proof view", ex);
+    }
+  }
+
+  /**
+   * Reads an entry and its descendants, depth first, without recursion.
+   */
+  private ProofViewEntry readEntries(Decoder decoder) throws IOException, JAXBException {
+    final Deque<PendingSubEntries> stack = new ArrayDeque<>();
+    final ProofViewEntry root = readEntry(decoder, stack);
+    while (!stack.isEmpty()) {
+      final PendingSubEntries pending = stack.peek();
+      if (pending.remaining == 0) {
+        stack.pop();
+      } else {
+        pending.remaining--;
+        pending.entries.add(readEntry(decoder, stack));
+      }
+    }
+    return root;
+  }
+
+  private ProofViewEntry readEntry(Decoder decoder, Deque<PendingSubEntries> stack)
+          throws IOException, JAXBException {
+    final int flags = decoder.readByte();
+    final ProofViewEntry entry = new ProofViewEntry();
+    if ((flags & HAS_ID) != 0) {
+      entry.setId(decoder.readId());
+    }
+    if ((flags & HAS_ABDUCED_SUPPORT) != 0) {
+      entry.setAbducedSupport((flags & ABDUCED_SUPPORT) != 0);
+    }
+    if ((flags & HAS_EXPAND_INITIALLY) != 0) {
+      entry.setExpandInitially((flags & EXPAND_INITIALLY) != 0);
+    }
+    entry.setLabel(decoder.readString());
+    entry.setObjectType(decoder.readString());
+    final String paraphrase = decoder.readString();
+    entry.setParaphrase(((flags & PLAIN_PARAPHRASE) != 0)
+                                ? CycmlFragments.fromPlainText(paraphrase)
+                                : CycmlFragments.fromXml(paraphrase, Paraphrase.class));
+    entry.setCycl(decoder.readString());
+    entry.setSilk(decoder.readString());
+    entry.setContent(CycmlFragments.fromXml(decoder.readString(), Content.class));
+    if ((flags & HAS_SUB_ENTRIES) != 0) {
+      final SubEntries subEntries = new SubEntries();
+      entry.setSubEntries(subEntries);
+      stack.push(new PendingSubEntries(subEntries.getProofViewEntry(), decoder.readVarLong()));
+    }
+    return entry;
+  }
+
+  private static final class PendingSubEntries {
+
+    private final List<ProofViewEntry> entries;
+    private long remaining;
+
+    private PendingSubEntries(List<ProofViewEntry> entries, long remaining) {
+      this.entries = entries;
+      this.remaining = remaining;
+    }
+  }
+
+  private static final class Decoder {
+
+    private final InputStream in;
+    private final List<String> strings = new ArrayList<>();
+
+    private Decoder(InputStream in) {
+      this.in = in;
+    }
+
+    private int readByte() throws IOException {
+      final int b = in.read();
+      if (b < 0) {
+        throw new EOFException("Unexpected end of binary proof view");
+      }
+      return b;
+    }
+
+    private BigInteger readId() throws IOException {
+      final long zigzag = readVarLong();
+      return BigInteger.valueOf((zigzag >>> 1) ^ -(zigzag & 1));
+    }
+
+    private String readString() throws IOException {
+      final long ref = readVarLong();
+      if (ref == NULL_STRING) {
+        return null;
+      }
+      if (ref != NEW_STRING) {
+        return strings.get((int) (ref - FIRST_STRING_REF));
+      }
+      final byte[] utf8 = new byte[(int) readVarLong()];
+      int read = 0;
+      while (read < utf8.length) {
+        final int n = in.read(utf8, read, utf8.length - read);
+        if (n < 0) {
+          throw new EOFException("Unexpected end of binary proof view");
+        }
+        read += n;
+      }
+      final String string = new String(utf8, StandardCharsets.UTF_8);
+      strings.add(string);
+      return string;
+    }
+
+    private long readVarLong() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        final int b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Malformed variable-length integer");
+    }
+  }
+
+  //====|    Statistics    |======================================================================//
+
+  public long getProofViewCount() {
+    return proofViews.sum();
+  }
+
+  public long getByteCount() {
+    return bytes.sum();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[proofViews=" + getProofViewCount()
+            + ", bytes=" + getByteCount() + "]";
+  }
+
+}
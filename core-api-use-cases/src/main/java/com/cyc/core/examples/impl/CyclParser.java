@@ -0,0 +1,649 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: CyclParser.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.base.CycAccess;
+import com.cyc.base.cycobject.CycConstant;
+import com.cyc.base.cycobject.CycList;
+import com.cyc.base.cycobject.CycVariable;
+import com.cyc.base.cycobject.FormulaSentence;
+import com.cyc.base.exception.CycApiException;
+import com.cyc.base.exception.CycConnectionException;
+import com.cyc.baseclient.cycobject.CycVariableImpl;
+import com.cyc.baseclient.cycobject.FormulaSentenceImpl;
+import com.cyc.baseclient.cycobject.NautImpl;
+import com.cyc.kb.Sentence;
+import com.cyc.kb.Variable;
+import com.cyc.kb.client.SentenceImpl;
+import com.cyc.kb.client.VariableImpl;
+import com.cyc.kb.exception.KbException;
+import com.cyc.kb.exception.KbObjectNotFoundException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A client-side CycL parser, which builds Sentences without asking the Cyc server to parse them.
+ * {@link Sentence#get(String)} sends the string to the server, which parses and checks it, so that
+ * every sentence built from a string (as most of these examples build them) costs a round trip
+ * before the query or assertion which uses it has even been sent.
+ * <p>
+ * This parser tokenizes each string once, on the client, into a {@link ParsedSentence}. Constant
+ * names and variables are interned: each distinct constant name is looked up on the server only
+ * once, however many sentences mention it, and the constants which are not yet known are looked
+ * up together, in a single request, by {@link #resolve(Collection)}. Once every constant in a
+ * sentence is known, it is built as a Core Client formula, via {@link #formula(String)} or
+ * {@link #toFormula(ParsedSentence)}, without contacting the server.
+ * <p>
+ * Wrapping a formula as a {@link Sentence}, via {@link #sentence(String)} or
+ * {@link #toSentence(ParsedSentence)}, is not free, however: the Core Client converts each of the
+ * formula's arguments to a KB object, looking every constant up in its own cache of KB objects,
+ * and each constant which is not yet in that cache costs a round trip. This is the same cost which
+ * {@link Sentence#get(String)} pays after the server has parsed the string, so building Sentences
+ * here saves the parsing round trip, but not the lookups; the savings are greatest where a small
+ * vocabulary of constants is used over and over. Callers which can use a formula directly, e.g.
+ * via the base client's {@link CycAccess}, avoid the lookups altogether.
+ * <p>
+ * Nested formulas whose operator is a function (an instance of {@code #$Function-Denotational})
+ * become non-atomic terms; all others become sentences. The parser accepts constants (with or
+ * without {@code #$}), variables, strings, integers and decimal numbers; it does not accept
+ * keywords, quoted terms, or the other less common parts of CycL, and it checks only syntax, not
+ * arity or argument types. Use {@link Sentence#get(String)} for sentences which need the server's
+ * full parser and checks.
+ * <p>
+ * Resolved constants are held for the lifetime of the parser; a constant which is renamed or
+ * killed on the server must be {@link #invalidate(String) invalidated}. Instances are thread-safe.
+ */
+public class CyclParser {
+
+  //====|    ConstantResolver    |================================================================//
+
+  /**
+   * Looks up constants by name on behalf of the parser. The default implementation,
+   * {@link #CYC_SERVER}, asks the current Cyc server; other implementations may be supplied for
+   * offline use.
+   */
+  @FunctionalInterface
+  public static interface ConstantResolver {
+
+    /**
+     * Look up each of the names.
+     *
+     * @param names constant names, without {@code #$}
+     *
+     * @return the constants, keyed by name. Names which do not exist are omitted.
+     *
+     * @throws KbException if the names could not be looked up
+     */
+    Map<String, ResolvedConstant> resolveAll(Collection<String> names) throws KbException;
+  }
+
+  /**
+   * Looks up every name, and whether each constant is a function, in a single SubL command.
+   */
+  public static final ConstantResolver CYC_SERVER = names -> {
+    final List<String> nameList = new ArrayList<>(names);
+    final StringBuilder command = new StringBuilder("(list");
+    for (String name : nameList) {
+      command.append("\n (clet ((c (find-constant \"")
+              .append(TermCache.escapeSublString(name))
+              .append("\"))) (pcond ((null c) nil)")
+              .append(" ((isa-in-any-mt? c #$Function-Denotational) (list c 1))")
+              .append(" (t (list c 0))))");
+    }
+    command.append(')');
+    try {
+      final CycList<?> response = CycAccess.getCurrent().converse()
+              .converseList(command.toString());
+      final Map<String, ResolvedConstant> results = new ConcurrentHashMap<>();
+      for (int i = 0; i < nameList.size(); i++) {
+        if (response.get(i) instanceof CycList) {
+          final CycList<?> entry = (CycList<?>) response.get(i);
+          results.put(nameList.get(i), new ResolvedConstant((CycConstant) entry.get(0),
+                  Integer.valueOf(1).equals(entry.get(1))));
+        }
+      }
+      return results;
+    } catch (CycConnectionException | CycApiException ex) {
+      throw KbException.fromThrowable("Could not resolve " + nameList.size() + " constants", ex);
+    }
+  };
+
+  /**
+   * A constant, and whether it denotes a function.
+   */
+  public static final class ResolvedConstant {
+
+    private final CycConstant constant;
+    private final boolean function;
+
+    public ResolvedConstant(CycConstant constant, boolean function) {
+      this.constant = constant;
+      this.function = function;
+    }
+
+    public CycConstant getConstant() {
+      return constant;
+    }
+
+    public boolean isFunction() {
+      return function;
+    }
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  private final ConstantResolver resolver;
+  private final Map<String, Constant> constants = new ConcurrentHashMap<>();
+  private final Map<String, CycVariable> variables = new ConcurrentHashMap<>();
+  private final Map<String, Variable> kbVariables = new ConcurrentHashMap<>();
+  private final LongAdder parses = new LongAdder();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder lookups = new LongAdder();
+
+  //====|    Construction    |====================================================================//
+
+  public CyclParser(ConstantResolver resolver) {
+    this.resolver = resolver;
+  }
+
+  public CyclParser() {
+    this(CYC_SERVER);
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Parse {@code cycl}, without contacting the server.
+   *
+   * @param cycl a CycL sentence
+   *
+   * @return the parsed sentence
+   *
+   * @throws IllegalArgumentException if {@code cycl} is not a syntactically valid sentence
+   */
+  public ParsedSentence parse(String cycl) {
+    parses.increment();
+    final Tokenizer tokenizer = new Tokenizer(cycl);
+    final Object tree = tokenizer.readTerm();
+    if (!(tree instanceof Object[])) {
+      throw tokenizer.error("A sentence must be a formula");
+    }
+    tokenizer.expectEnd();
+    return new ParsedSentence(cycl, (Object[]) tree, tokenizer.constants);
+  }
+
+  /**
+   * Look up every constant in {@code sentences} which is not yet known, in a single request.
+   *
+   * @param sentences the parsed sentences
+   *
+   * @throws KbObjectNotFoundException if any of the constants does not exist
+   * @throws KbException               if the constants could not be looked up
+   */
+  public void resolve(Collection<ParsedSentence> sentences) throws KbException {
+    final Set<String> unresolved = new LinkedHashSet<>();
+    for (ParsedSentence sentence : sentences) {
+      for (Constant constant : sentence.constants) {
+        if (constant.resolved == null) {
+          unresolved.add(constant.name);
+        }
+      }
+    }
+    if (unresolved.isEmpty()) {
+      return;
+    }
+    requests.increment();
+    lookups.add(unresolved.size());
+    final Map<String, ResolvedConstant> resolved = resolver.resolveAll(unresolved);
+    final List<String> missing = new ArrayList<>();
+    for (String name : unresolved) {
+      final ResolvedConstant constant = resolved.get(name);
+      if (constant == null) {
+        missing.add(name);
+      } else {
+        constants.get(name).resolved = constant;
+      }
+    }
+    if (!missing.isEmpty()) {
+      throw new KbObjectNotFoundException("No such constant(s): " + missing);
+    }
+  }
+
+  /**
+   * Build {@code sentence} as a Core Client formula. Every constant in it must already have been
+   * resolved. Formulas are mutable, so each call builds a new one.
+   *
+   * @param sentence the parsed sentence
+   *
+   * @return the formula
+   *
+   * @throws IllegalStateException if any of the sentence's constants has not been resolved
+   */
+  public FormulaSentence toFormula(ParsedSentence sentence) {
+    return FormulaSentenceImpl.makeFormulaSentence(args(sentence.tree));
+  }
+
+  /**
+   * Parse {@code cycl} and build it as a formula, contacting the server only if it mentions
+   * constants which the parser has not seen before.
+   *
+   * @param cycl a CycL sentence
+   *
+   * @return the formula
+   *
+   * @throws KbException if a constant could not be resolved
+   */
+  public FormulaSentence formula(String cycl) throws KbException {
+    final ParsedSentence sentence = parse(cycl);
+    resolve(Collections.singleton(sentence));
+    return toFormula(sentence);
+  }
+
+  /**
+   * Resolve {@code sentence}'s constants, if necessary, and build it as a Sentence. Building the
+   * Sentence converts each constant to a KB object, which costs a round trip for each constant
+   * not already in the Core Client's cache.
+   *
+   * @param sentence the parsed sentence
+   *
+   * @return the Sentence
+   *
+   * @throws KbException if a constant could not be resolved, or the Sentence could not be built
+   */
+  public Sentence toSentence(ParsedSentence sentence) throws KbException {
+    resolve(Collections.singleton(sentence));
+    return new SentenceImpl(toFormula(sentence));
+  }
+
+  /**
+   * Parse {@code cycl} and build it as a Sentence, without asking the server to parse it. As with
+   * {@link #toSentence(ParsedSentence)}, building the Sentence costs a round trip for each constant
+   * not already in the Core Client's cache.
+   *
+   * @param cycl a CycL sentence
+   *
+   * @return the Sentence
+   *
+   * @throws KbException if a constant could not be resolved, or the Sentence could not be built
+   */
+  public Sentence sentence(String cycl) throws KbException {
+    return toSentence(parse(cycl));
+  }
+
+  /**
+   * Parse each of {@code cycls} and build them as Sentences, resolving every unknown constant in
+   * a single request. As with {@link #toSentence(ParsedSentence)}, building each Sentence costs a
+   * round trip for each constant not already in the Core Client's cache.
+   *
+   * @param cycls CycL sentences
+   *
+   * @return the Sentences, in the same order
+   *
+   * @throws KbException if a constant could not be resolved, or a Sentence could not be built
+   */
+  public List<Sentence> sentences(List<String> cycls) throws KbException {
+    final List<ParsedSentence> parsed = new ArrayList<>(cycls.size());
+    for (String cycl : cycls) {
+      parsed.add(parse(cycl));
+    }
+    resolve(parsed);
+    final List<Sentence> results = new ArrayList<>(parsed.size());
+    for (ParsedSentence sentence : parsed) {
+      results.add(new SentenceImpl(toFormula(sentence)));
+    }
+    return results;
+  }
+
+  /**
+   * Returns the Variable named {@code name}, which must start with {@code ?}. Variables are
+   * interned.
+   *
+   * @param name the variable's name
+   *
+   * @return the Variable
+   *
+   * @throws KbException if the Variable could not be built
+   */
+  public Variable variable(String name) throws KbException {
+    final Variable existing = kbVariables.get(name);
+    if (existing != null) {
+      return existing;
+    }
+    final Variable var = new VariableImpl(name);
+    final Variable raced = kbVariables.putIfAbsent(name, var);
+    return (raced != null) ? raced : var;
+  }
+
+  /**
+   * Forget the constant named {@code name}, so that it will be looked up again the next time that
+   * a sentence mentions it.
+   *
+   * @param name the constant's name, without {@code #$}
+   */
+  public void invalidate(String name) {
+    final Constant constant = constants.get(name.startsWith("#$") ? name.substring(2) : name);
+    if (constant != null) {
+      constant.resolved = null;
+    }
+  }
+
+  public long getParseCount() {
+    return parses.sum();
+  }
+
+  /**
+   * Returns the number of requests made to the resolver.
+   *
+   * @return the number of requests
+   */
+  public long getRequestCount() {
+    return requests.sum();
+  }
+
+  /**
+   * Returns the number of constant names which have been looked up, over all requests.
+   *
+   * @return the number of names
+   */
+  public long getLookupCount() {
+    return lookups.sum();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[parses=" + getParseCount()
+            + ", constants=" + constants.size()
+            + ", variables=" + variables.size()
+            + ", requests=" + getRequestCount()
+            + ", lookups=" + getLookupCount() + "]";
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private Constant constant(String name) {
+    final Constant existing = constants.get(name);
+    return (existing != null) ? existing : constants.computeIfAbsent(name, Constant::new);
+  }
+
+  private CycVariable cycVariable(String name) {
+    final CycVariable existing = variables.get(name);
+    return (existing != null)
+                   ? existing
+                   : variables.computeIfAbsent(name, CycVariableImpl::new);
+  }
+
+  private List<Object> args(Object[] formula) {
+    final List<Object> args = new ArrayList<>(formula.length);
+    for (Object arg : formula) {
+      args.add(build(arg));
+    }
+    return args;
+  }
+
+  private Object build(Object term) {
+    if (term instanceof Constant) {
+      return ((Constant) term).get().constant;
+    } else if (term instanceof Object[]) {
+      final Object[] formula = (Object[]) term;
+      if (formula.length > 0 && formula[0] instanceof Constant
+                  && ((Constant) formula[0]).get().function) {
+        return new NautImpl(args(formula));
+      }
+      return FormulaSentenceImpl.makeFormulaSentence(args(formula));
+    }
+    return term;
+  }
+
+  //====|    ParsedSentence    |==================================================================//
+
+  /**
+   * A CycL sentence which has been tokenized, and whose constants and variables have been
+   * interned. Instances are immutable, and may be built into formulas any number of times.
+   */
+  public static final class ParsedSentence {
+
+    private final String cycl;
+    /**
+     * Formulas are Object[]s of their terms; constants are {@link Constant}s; variables are
+     * CycVariables; strings and numbers are themselves.
+     */
+    private final Object[] tree;
+    private final Constant[] constants;
+
+    private ParsedSentence(String cycl, Object[] tree, Collection<Constant> constants) {
+      this.cycl = cycl;
+      this.tree = tree;
+      this.constants = constants.toArray(new Constant[constants.size()]);
+    }
+
+    /**
+     * Returns the names of the distinct constants in the sentence, without {@code #$}.
+     *
+     * @return the names
+     */
+    public List<String> getConstantNames() {
+      final List<String> names = new ArrayList<>(constants.length);
+      for (Constant constant : constants) {
+        names.add(constant.name);
+      }
+      return names;
+    }
+
+    /**
+     * Returns whether every constant in the sentence has been resolved.
+     *
+     * @return whether the sentence can be built without contacting the server
+     */
+    public boolean isResolved() {
+      for (Constant constant : constants) {
+        if (constant.resolved == null) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      return cycl;
+    }
+  }
+
+  /**
+   * An interned constant name, and the constant itself once it has been resolved.
+   */
+  private static final class Constant {
+
+    private final String name;
+    private volatile ResolvedConstant resolved;
+
+    private Constant(String name) {
+      this.name = name;
+    }
+
+    private ResolvedConstant get() {
+      final ResolvedConstant result = resolved;
+      if (result == null) {
+        throw new IllegalStateException("Constant #$" + name + " has not been resolved");
+      }
+      return result;
+    }
+  }
+
+  //====|    Tokenizer    |=======================================================================//
+
+  /**
+   * Reads terms from a string in a single pass, interning constants and variables as it goes.
+   */
+  private final class Tokenizer {
+
+    private final String cycl;
+    private final Set<Constant> constants = new LinkedHashSet<>();
+    private int pos = 0;
+
+    private Tokenizer(String cycl) {
+      this.cycl = cycl;
+    }
+
+    private Object readTerm() {
+      skipWhitespace();
+      if (pos >= cycl.length()) {
+        throw error("Unexpected end of input");
+      }
+      final char c = cycl.charAt(pos);
+      switch (c) {
+        case '(':
+          return readFormula();
+        case ')':
+          throw error("Unexpected ')'");
+        case '"':
+          return readString();
+        case '?':
+          return cycVariable(readAtom());
+        default:
+          if (isDigit(c) || ((c == '-' || c == '+') && pos + 1 < cycl.length()
+                                     && isDigit(cycl.charAt(pos + 1)))) {
+            return readNumber();
+          }
+          if (cycl.startsWith("#$", pos)) {
+            pos += 2;
+          } else if (c == ':' || c == '#' || c == '\'' || c == '`') {
+            throw error("Unsupported CycL syntax");
+          }
+          final int start = pos;
+          final String name = readAtom();
+          if (name.isEmpty()) {
+            pos = start;
+            throw error("Expected a constant name");
+          }
+          final Constant constant = constant(name);
+          constants.add(constant);
+          return constant;
+      }
+    }
+
+    private Object[] readFormula() {
+      pos++; // (
+      final List<Object> terms = new ArrayList<>();
+      while (true) {
+        skipWhitespace();
+        if (pos >= cycl.length()) {
+          throw error("Unbalanced parentheses");
+        }
+        if (cycl.charAt(pos) == ')') {
+          pos++;
+          if (terms.isEmpty()) {
+            throw error("Empty formula");
+          }
+          return terms.toArray();
+        }
+        terms.add(readTerm());
+      }
+    }
+
+    private String readString() {
+      final int start = ++pos;
+      StringBuilder builder = null;
+      while (pos < cycl.length()) {
+        final char c = cycl.charAt(pos);
+        if (c == '"') {
+          final String result = (builder == null)
+                                        ? cycl.substring(start, pos)
+                                        : builder.toString();
+          pos++;
+          return result;
+        }
+        if (c == '\\' && pos + 1 < cycl.length()) {
+          if (builder == null) {
+            builder = new StringBuilder(cycl.substring(start, pos));
+          }
+          builder.append(cycl.charAt(pos + 1));
+          pos += 2;
+          continue;
+        }
+        if (builder != null) {
+          builder.append(c);
+        }
+        pos++;
+      }
+      throw error("Unterminated string");
+    }
+
+    private Number readNumber() {
+      final String token = readAtom();
+      try {
+        if (token.indexOf('.') >= 0 || token.indexOf('e') >= 0 || token.indexOf('E') >= 0) {
+          return Double.valueOf(token);
+        }
+        final long value = Long.parseLong(token.charAt(0) == '+' ? token.substring(1) : token);
+        return (value == (int) value) ? (Number) (int) value : (Number) value;
+      } catch (NumberFormatException ex) {
+        pos -= token.length();
+        throw error("Invalid number '" + token + "'");
+      }
+    }
+
+    /**
+     * Reads up to the next delimiter: whitespace, a parenthesis, or a quote.
+     */
+    private String readAtom() {
+      final int start = pos;
+      while (pos < cycl.length()) {
+        final char c = cycl.charAt(pos);
+        if (c == '(' || c == ')' || c == '"' || Character.isWhitespace(c)) {
+          break;
+        }
+        pos++;
+      }
+      return cycl.substring(start, pos);
+    }
+
+    private void skipWhitespace() {
+      while (pos < cycl.length() && Character.isWhitespace(cycl.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    private void expectEnd() {
+      skipWhitespace();
+      if (pos < cycl.length()) {
+        throw error("Unexpected input after the sentence");
+      }
+    }
+
+    private boolean isDigit(char c) {
+      return c >= '0' && c <= '9';
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at position " + pos + " of: " + cycl);
+    }
+  }
+
+}
@@ -0,0 +1,216 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: CyclParserBenchmark.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.base.cycobject.FormulaSentence;
+import com.cyc.baseclient.cycobject.CycConstantImpl;
+import com.cyc.baseclient.cycobject.GuidImpl;
+import com.cyc.kb.exception.KbException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * A simple benchmark of the {@link CyclParser}'s client-side throughput. It generates a corpus of
+ * random sentences (a million, by default) over a vocabulary of a few hundred constants, and times
+ * parsing them, resolving their constants, and building them into formulas.
+ * <p>
+ * The constants are resolved by an offline, in-process stand-in rather than by a Cyc server, so
+ * no server is needed; the stand-in counts its requests, to show that the whole corpus is resolved
+ * in one. The time to resolve is therefore only the parser's own bookkeeping, not the round trip
+ * which {@link CyclParser#CYC_SERVER} would make. Nor does it build Sentences, which need a server
+ * and look up each constant not already cached; so the figures are an upper bound on what the
+ * parser can do, not a comparison with {@link com.cyc.kb.Sentence#get(String) Sentence.get}.
+ * As with the other benchmarks here, this is a rough, single-threaded measurement which makes no
+ * attempt to control for JIT compilation.
+ * <p>
+ * Usage: {@code CyclParserBenchmark [sentences] [vocabulary size]}
+ */
+public class CyclParserBenchmark {
+
+  private static final int DEFAULT_SENTENCES = 1_000_000;
+  private static final int DEFAULT_VOCABULARY = 500;
+
+  public static void main(String[] args) {
+    final String exampleName = CyclParserBenchmark.class.getSimpleName();
+    final int sentences = intArg(args, 0, DEFAULT_SENTENCES);
+    final int vocabulary = intArg(args, 1, DEFAULT_VOCABULARY);
+    boolean passed = false;
+    try {
+      System.out.println("Running " + exampleName + "...");
+      passed = new CyclParserBenchmark().run(sentences, vocabulary);
+      System.out.println();
+    } catch (KbException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(passed ? 0 : 1);
+    }
+  }
+
+  /**
+   * Generate {@code sentenceCount} sentences over {@code vocabularySize} constants, and parse,
+   * resolve, and build them, printing the throughput of each step.
+   *
+   * @param sentenceCount  the number of sentences
+   * @param vocabularySize the number of distinct predicates, functions and individuals
+   *
+   * @return whether every sentence was built, with a single resolver request
+   *
+   * @throws KbException if the constants could not be resolved
+   */
+  public boolean run(int sentenceCount, int vocabularySize) throws KbException {
+    final List<String> corpus = generate(sentenceCount, vocabularySize, new Random(42));
+    long chars = 0;
+    for (String cycl : corpus) {
+      chars += cycl.length();
+    }
+    System.out.println(String.format("Corpus: %,d sentences, %,d characters; e.g. %s",
+            corpus.size(), chars, corpus.get(0)));
+    final CountingResolver resolver = new CountingResolver();
+    final CyclParser parser = new CyclParser(resolver);
+
+    long start = System.nanoTime();
+    final List<CyclParser.ParsedSentence> parsed = new ArrayList<>(corpus.size());
+    for (String cycl : corpus) {
+      parsed.add(parser.parse(cycl));
+    }
+    report("Parsed", corpus.size(), System.nanoTime() - start);
+
+    start = System.nanoTime();
+    parser.resolve(parsed);
+    report("Resolved (offline stand-in)", corpus.size(), System.nanoTime() - start);
+
+    start = System.nanoTime();
+    int built = 0;
+    for (CyclParser.ParsedSentence sentence : parsed) {
+      final FormulaSentence formula = parser.toFormula(sentence);
+      if (formula.getArity() > 0) {
+        built++;
+      }
+    }
+    report("Built", built, System.nanoTime() - start);
+
+    // Everything is now interned and resolved, so a second pass never reaches the resolver:
+    start = System.nanoTime();
+    for (String cycl : corpus) {
+      parser.toFormula(parser.parse(cycl));
+    }
+    report("Parsed and built (warm)", corpus.size(), System.nanoTime() - start);
+
+    System.out.println(parser);
+    System.out.println("Resolver requests: " + resolver.requests);
+    return built == corpus.size() && resolver.requests == 1;
+  }
+
+  private static void report(String label, int count, long nanos) {
+    final double seconds = nanos / 1e9;
+    System.out.println(String.format("%s %,d sentences in %.2fs: %,.0f/s",
+            label, count, seconds, count / seconds));
+  }
+
+  /**
+   * Generates sentences of the forms {@code (pred ARG ARG)} and
+   * {@code (and (pred ARG ARG) (not (pred ARG ARG)))}, where each ARG is a constant, a variable,
+   * a string, a number, or a function term.
+   */
+  static List<String> generate(int count, int vocabularySize, Random random) {
+    final int predicates = Math.max(1, vocabularySize / 10);
+    final int functions = Math.max(1, vocabularySize / 20);
+    final int individuals = Math.max(1, vocabularySize - predicates - functions);
+    final List<String> corpus = new ArrayList<>(count);
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      builder.setLength(0);
+      if (random.nextInt(4) == 0) {
+        builder.append("(#$and ");
+        appendLiteral(builder, random, predicates, functions, individuals);
+        builder.append(" (#$not ");
+        appendLiteral(builder, random, predicates, functions, individuals);
+        builder.append("))");
+      } else {
+        appendLiteral(builder, random, predicates, functions, individuals);
+      }
+      corpus.add(builder.toString());
+    }
+    return corpus;
+  }
+
+  private static void appendLiteral(StringBuilder builder, Random random, int predicates,
+          int functions, int individuals) {
+    builder.append("(#$pred").append(random.nextInt(predicates));
+    for (int arg = 0; arg < 2; arg++) {
+      builder.append(' ');
+      switch (random.nextInt(6)) {
+        case 0:
+          builder.append("?VAR").append(random.nextInt(4));
+          break;
+        case 1:
+          builder.append('"').append("string ").append(random.nextInt(1000)).append('"');
+          break;
+        case 2:
+          builder.append(random.nextInt(100_000));
+          break;
+        case 3:
+          builder.append("(#$term").append(random.nextInt(functions)).append("Fn #$individual")
+                  .append(random.nextInt(individuals)).append(')');
+          break;
+        default:
+          builder.append("#$individual").append(random.nextInt(individuals));
+      }
+    }
+    builder.append(')');
+  }
+
+  private static int intArg(String[] args, int index, int defaultValue) {
+    return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+  //====|    CountingResolver    |================================================================//
+
+  /**
+   * Resolves every name to a new constant, with a GUID derived from its name; names ending in
+   * {@code Fn} are functions.
+   */
+  static class CountingResolver implements CyclParser.ConstantResolver {
+
+    private int requests = 0;
+
+    @Override
+    public Map<String, CyclParser.ResolvedConstant> resolveAll(Collection<String> names) {
+      requests++;
+      final Map<String, CyclParser.ResolvedConstant> results = new HashMap<>();
+      for (String name : names) {
+        final UUID guid = UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8));
+        results.put(name, new CyclParser.ResolvedConstant(
+                new CycConstantImpl(name, new GuidImpl(guid)), name.endsWith("Fn")));
+      }
+      return results;
+    }
+  }
+
+}
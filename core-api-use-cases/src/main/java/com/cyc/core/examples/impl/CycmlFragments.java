@@ -0,0 +1,133 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: CycmlFragments.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.baseclient.xml.cycml.Paraphrase;
+import com.cyc.xml.query.ProofView;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * Converts the CycML parts of proof view entries (paraphrases and content) to and from standalone
+ * XML strings, for formats which carry them opaquely rather than translating CycML.
+ */
+final class CycmlFragments {
+
+  private static final JAXBContext CONTEXT;
+
+  static {
+    try {
+      CONTEXT = JAXBContext.newInstance(ProofView.class);
+    } catch (JAXBException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+
+  private static final ThreadLocal<Marshaller> MARSHALLER = ThreadLocal.withInitial(() -> {
+    try {
+      final Marshaller marshaller = CONTEXT.createMarshaller();
+      marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+      return marshaller;
+    } catch (JAXBException ex) {
+      throw new IllegalStateException("Could not create CycML fragment marshaller", ex);
+    }
+  });
+
+  private static final ThreadLocal<Unmarshaller> UNMARSHALLER = ThreadLocal.withInitial(() -> {
+    try {
+      return CONTEXT.createUnmarshaller();
+    } catch (JAXBException ex) {
+      throw new IllegalStateException("Could not create CycML fragment unmarshaller", ex);
+    }
+  });
+
+  private CycmlFragments() {
+  }
+
+  /**
+   * Returns the XML for {@code fragment}, which must be a JAXB root element such as a
+   * {@link com.cyc.baseclient.xml.cycml.Paraphrase Paraphrase} or
+   * {@link com.cyc.xml.query.Content Content}; or null if {@code fragment} is null.
+   */
+  static String toXml(Object fragment) throws JAXBException {
+    if (fragment == null) {
+      return null;
+    }
+    final StringWriter writer = new StringWriter();
+    MARSHALLER.get().marshal(fragment, writer);
+    return writer.toString();
+  }
+
+  /**
+   * Returns the text of {@code paraphrase} if it is plain text, without any CycML markup; or null
+   * if it is null or contains markup. Most paraphrases are plain text, and are far cheaper to
+   * carry as such than as XML.
+   */
+  static String toPlainText(Paraphrase paraphrase) {
+    if (paraphrase == null) {
+      return null;
+    }
+    final List<Object> content = paraphrase.getContent();
+    if (content.size() == 1 && content.get(0) instanceof String) {
+      return (String) content.get(0);
+    }
+    final StringBuilder text = new StringBuilder();
+    for (Object item : content) {
+      if (!(item instanceof String)) {
+        return null;
+      }
+      text.append((String) item);
+    }
+    return text.toString();
+  }
+
+  /**
+   * Returns a paraphrase of plain {@code text}, as returned by {@link #toPlainText(Paraphrase)};
+   * or null if {@code text} is null.
+   */
+  static Paraphrase fromPlainText(String text) {
+    if (text == null) {
+      return null;
+    }
+    final Paraphrase paraphrase = new Paraphrase();
+    if (!text.isEmpty()) {
+      paraphrase.getContent().add(text);
+    }
+    return paraphrase;
+  }
+
+  /**
+   * Returns the object represented by {@code xml}, or null if {@code xml} is null.
+   */
+  static <T> T fromXml(String xml, Class<T> type) throws JAXBException {
+    if (xml == null) {
+      return null;
+    }
+    return type.cast(UNMARSHALLER.get().unmarshal(new StringReader(xml)));
+  }
+
+}
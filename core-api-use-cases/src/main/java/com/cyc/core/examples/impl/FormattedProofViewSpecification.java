@@ -0,0 +1,152 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: FormattedProofViewSpecification.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.kb.Context;
+import com.cyc.query.ProofView;
+import com.cyc.query.ProofViewSpecification;
+import java.util.Objects;
+
+/**
+ * A {@link ProofViewSpecification} which also specifies the {@link ProofViewFormat} in which the
+ * proof view should be written. All other options are delegated to a standard specification, as
+ * returned by {@link ProofViewSpecification#get()}, so instances may be passed wherever a
+ * ProofViewSpecification is expected.
+ */
+public class FormattedProofViewSpecification implements ProofViewSpecification {
+
+  //====|    Fields    |==========================================================================//
+
+  private final ProofViewSpecification delegate;
+  private ProofViewFormat format = ProofViewFormat.XML;
+
+  //====|    Construction    |====================================================================//
+
+  public FormattedProofViewSpecification(ProofViewSpecification delegate) {
+    this.delegate = Objects.requireNonNull(delegate, "delegate");
+  }
+
+  public static FormattedProofViewSpecification get() {
+    return new FormattedProofViewSpecification(ProofViewSpecification.get());
+  }
+
+  //====|    Format    |==========================================================================//
+
+  public ProofViewFormat getFormat() {
+    return format;
+  }
+
+  public FormattedProofViewSpecification setFormat(ProofViewFormat format) {
+    this.format = Objects.requireNonNull(format, "format");
+    return this;
+  }
+
+  //====|    ProofViewSpecification    |==========================================================//
+
+  @Override
+  public Class<ProofView> forExplanationType() {
+    return delegate.forExplanationType();
+  }
+
+  @Override
+  public FormattedProofViewSpecification setIncludeDetails(boolean includeDetails) {
+    delegate.setIncludeDetails(includeDetails);
+    return this;
+  }
+
+  @Override
+  public Boolean isIncludeDetails() {
+    return delegate.isIncludeDetails();
+  }
+
+  @Override
+  public FormattedProofViewSpecification setIncludeLinear(boolean includeLinear) {
+    delegate.setIncludeLinear(includeLinear);
+    return this;
+  }
+
+  @Override
+  public Boolean isIncludeLinear() {
+    return delegate.isIncludeLinear();
+  }
+
+  @Override
+  public FormattedProofViewSpecification setIncludeSummary(boolean includeSummary) {
+    delegate.setIncludeSummary(includeSummary);
+    return this;
+  }
+
+  @Override
+  public Boolean isIncludeSummary() {
+    return delegate.isIncludeSummary();
+  }
+
+  @Override
+  public FormattedProofViewSpecification setDomainContext(Context domainContext) {
+    delegate.setDomainContext(domainContext);
+    return this;
+  }
+
+  @Override
+  public Context getDomainContext() {
+    return delegate.getDomainContext();
+  }
+
+  @Override
+  public FormattedProofViewSpecification setLanguageContext(Context languageContext) {
+    delegate.setLanguageContext(languageContext);
+    return this;
+  }
+
+  @Override
+  public Context getLanguageContext() {
+    return delegate.getLanguageContext();
+  }
+
+  @Override
+  public FormattedProofViewSpecification setIncludeAssertionBookkeeping(boolean include) {
+    delegate.setIncludeAssertionBookkeeping(include);
+    return this;
+  }
+
+  @Override
+  public Boolean isIncludeAssertionBookkeeping() {
+    return delegate.isIncludeAssertionBookkeeping();
+  }
+
+  @Override
+  public FormattedProofViewSpecification setIncludeAssertionCyclists(boolean include) {
+    delegate.setIncludeAssertionCyclists(include);
+    return this;
+  }
+
+  @Override
+  public Boolean isIncludeAssertionCyclists() {
+    return delegate.isIncludeAssertionCyclists();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[format=" + format + ", " + delegate + "]";
+  }
+
+}
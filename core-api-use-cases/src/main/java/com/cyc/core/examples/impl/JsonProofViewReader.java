@@ -0,0 +1,413 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: JsonProofViewReader.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.baseclient.xml.cycml.Paraphrase;
+import com.cyc.query.exception.ProofViewException;
+import com.cyc.xml.query.Content;
+import com.cyc.xml.query.ProofView;
+import com.cyc.xml.query.ProofViewEntry;
+import com.cyc.xml.query.SubEntries;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.bind.JAXBException;
+
+/**
+ * Reads proof views written by {@link JsonProofViewWriter}. The JSON is parsed strictly: any
+ * syntax error, any key which the writer does not write, or anything other than whitespace after
+ * the proof view, is reported as a ProofViewException.
+ * <p>
+ * JSON omits absent values, including empty sub-entries, so an entry whose sub-entries element
+ * was empty is read back without one. Paraphrases which were written as plain text are rebuilt
+ * from it; other paraphrases, and content, are unmarshalled from their CycML XML.
+ * <p>
+ * Values are parsed recursively, so a deeply nested proof view needs a correspondingly deep
+ * stack. Instances are thread-safe.
+ */
+public class JsonProofViewReader {
+
+  private static final Set<String> PROOF_VIEW_KEYS = new HashSet<>(Arrays.asList("id", "entry"));
+  private static final Set<String> ENTRY_KEYS = new HashSet<>(Arrays.asList("id",
+          "abducedSupport", "expandInitially", "label", "objectType", "paraphrase",
+          "paraphraseXml", "cycl", "silk", "contentXml", "subEntries"));
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Read a proof view written by {@link JsonProofViewWriter}. The channel is read to its end, and
+   * is not closed.
+   *
+   * @param channel the channel from which to read
+   *
+   * @return the proof view
+   *
+   * @throws ProofViewException if the proof view could not be read
+   */
+  public ProofView read(ReadableByteChannel channel) throws ProofViewException {
+    return read(Channels.newInputStream(channel));
+  }
+
+  /**
+   * Read a proof view written by {@link JsonProofViewWriter}. The stream is read to its end, and is
+   * not closed.
+   *
+   * @param in the stream from which to read
+   *
+   * @return the proof view
+   *
+   * @throws ProofViewException if the proof view could not be read
+   */
+  public ProofView read(InputStream in) throws ProofViewException {
+    final String json;
+    try {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[8192];
+      for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+        bytes.write(buffer, 0, n);
+      }
+      json = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    } catch (IOException ex) {
+      throw ProofViewException.fromThrowable("Could not read proof view", ex);
+    }
+    return read(json);
+  }
+
+  /**
+   * Read a proof view from its JSON.
+   *
+   * @param json the JSON, as written by {@link JsonProofViewWriter}
+   *
+   * @return the proof view
+   *
+   * @throws ProofViewException if the JSON is malformed, or is not a proof view
+   */
+  public ProofView read(String json) throws ProofViewException {
+    try {
+      final Map<String, Object> document = object(parse(json), PROOF_VIEW_KEYS);
+      final ProofView proofView = new ProofView();
+      proofView.setId(integer(document.get("id")));
+      if (document.containsKey("entry")) {
+        proofView.setProofViewEntry(readEntries(object(document.get("entry"), ENTRY_KEYS)));
+      }
+      return proofView;
+    } catch (JAXBException | RuntimeException ex) {
+      throw ProofViewException.fromThrowable("Could not read proof view", ex);
+    }
+  }
+
+  /**
+   * Parse a single JSON value: objects become LinkedHashMaps, arrays ArrayLists, integers
+   * BigIntegers, other numbers BigDecimals, and {@code true}, {@code false} and {@code null} their
+   * Java equivalents.
+   *
+   * @param json the JSON
+   *
+   * @return the value
+   *
+   * @throws ProofViewException if the JSON is malformed, or has anything other than whitespace
+   *                            after the value
+   */
+  public static Object parse(String json) throws ProofViewException {
+    return JsonParser.parse(json);
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  /**
+   * Reads an entry and its descendants, depth first, without recursion.
+   */
+  private ProofViewEntry readEntries(Map<String, Object> root) throws JAXBException {
+    final ProofViewEntry rootEntry = new ProofViewEntry();
+    // Each element is an entry's JSON object, and the entry to be filled in from it:
+    final Deque<Object[]> stack = new ArrayDeque<>();
+    stack.push(new Object[]{root, rootEntry});
+    while (!stack.isEmpty()) {
+      final Object[] pending = stack.pop();
+      @SuppressWarnings("unchecked")
+      final Map<String, Object> object = (Map<String, Object>) pending[0];
+      final ProofViewEntry entry = (ProofViewEntry) pending[1];
+      readEntry(object, entry);
+      final List<?> subEntries = (List<?>) object.getOrDefault("subEntries",
+              Collections.emptyList());
+      if (!subEntries.isEmpty()) {
+        entry.setSubEntries(new SubEntries());
+        for (Object subEntry : subEntries) {
+          final ProofViewEntry child = new ProofViewEntry();
+          entry.getSubEntries().getProofViewEntry().add(child);
+          stack.push(new Object[]{object(subEntry, ENTRY_KEYS), child});
+        }
+      }
+    }
+    return rootEntry;
+  }
+
+  private void readEntry(Map<String, Object> object, ProofViewEntry entry) throws JAXBException {
+    entry.setId(integer(object.get("id")));
+    entry.setAbducedSupport((Boolean) object.get("abducedSupport"));
+    entry.setExpandInitially((Boolean) object.get("expandInitially"));
+    entry.setLabel((String) object.get("label"));
+    entry.setObjectType((String) object.get("objectType"));
+    entry.setParaphrase(object.containsKey("paraphrase")
+                                ? CycmlFragments.fromPlainText((String) object.get("paraphrase"))
+                                : CycmlFragments.fromXml((String) object.get("paraphraseXml"),
+                                        Paraphrase.class));
+    entry.setCycl((String) object.get("cycl"));
+    entry.setSilk((String) object.get("silk"));
+    entry.setContent(CycmlFragments.fromXml((String) object.get("contentXml"), Content.class));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> object(Object value, Set<String> keys) {
+    if (!(value instanceof Map)) {
+      throw new IllegalArgumentException("Expected a JSON object, not " + value);
+    }
+    final Map<String, Object> object = (Map<String, Object>) value;
+    for (String key : object.keySet()) {
+      if (!keys.contains(key)) {
+        throw new IllegalArgumentException("Unexpected key \"" + key + "\"");
+      }
+    }
+    return object;
+  }
+
+  private static BigInteger integer(Object value) {
+    if (value != null && !(value instanceof BigInteger)) {
+      throw new IllegalArgumentException("Expected an integer id, not " + value);
+    }
+    return (BigInteger) value;
+  }
+
+  //====|    JsonParser    |======================================================================//
+
+  /**
+   * Parses a single JSON value, recursively.
+   */
+  private static final class JsonParser {
+
+    private final String text;
+    private int pos = 0;
+
+    private JsonParser(String text) {
+      this.text = text;
+    }
+
+    static Object parse(String text) throws ProofViewException {
+      final JsonParser parser = new JsonParser(text);
+      final Object value = parser.value();
+      parser.skipWhitespace();
+      if (parser.pos != text.length()) {
+        throw parser.error("Unexpected content after JSON value");
+      }
+      return value;
+    }
+
+    private Object value() throws ProofViewException {
+      skipWhitespace();
+      if (pos >= text.length()) {
+        throw error("Unexpected end of JSON");
+      }
+      final char c = text.charAt(pos);
+      switch (c) {
+        case '{':
+          return object();
+        case '[':
+          return array();
+        case '"':
+          return string();
+        case 't':
+          return literal("true", Boolean.TRUE);
+        case 'f':
+          return literal("false", Boolean.FALSE);
+        case 'n':
+          return literal("null", null);
+        default:
+          if (c == '-' || (c >= '0' && c <= '9')) {
+            return number();
+          }
+          throw error("Unexpected character '" + c + "'");
+      }
+    }
+
+    private Map<String, Object> object() throws ProofViewException {
+      final Map<String, Object> object = new LinkedHashMap<>();
+      expect('{');
+      skipWhitespace();
+      if (peek() == '}') {
+        pos++;
+        return object;
+      }
+      do {
+        skipWhitespace();
+        final String key = string();
+        skipWhitespace();
+        expect(':');
+        if (object.containsKey(key)) {
+          throw error("Duplicate key \"" + key + "\"");
+        }
+        object.put(key, value());
+        skipWhitespace();
+      } while (consume(','));
+      expect('}');
+      return object;
+    }
+
+    private List<Object> array() throws ProofViewException {
+      final List<Object> array = new ArrayList<>();
+      expect('[');
+      skipWhitespace();
+      if (peek() == ']') {
+        pos++;
+        return array;
+      }
+      do {
+        array.add(value());
+        skipWhitespace();
+      } while (consume(','));
+      expect(']');
+      return array;
+    }
+
+    private String string() throws ProofViewException {
+      expect('"');
+      final StringBuilder result = new StringBuilder();
+      while (true) {
+        if (pos >= text.length()) {
+          throw error("Unterminated string");
+        }
+        final char c = text.charAt(pos++);
+        if (c == '"') {
+          return result.toString();
+        } else if (c < 0x20) {
+          throw error("Unescaped control character in string");
+        } else if (c != '\\') {
+          result.append(c);
+        } else if (pos >= text.length()) {
+          throw error("Unterminated string");
+        } else {
+          final char escaped = text.charAt(pos++);
+          switch (escaped) {
+            case '"':
+            case '\\':
+            case '/':
+              result.append(escaped);
+              break;
+            case 'b':
+              result.append('\b');
+              break;
+            case 'f':
+              result.append('\f');
+              break;
+            case 'n':
+              result.append('\n');
+              break;
+            case 'r':
+              result.append('\r');
+              break;
+            case 't':
+              result.append('\t');
+              break;
+            case 'u':
+              if (pos + 4 > text.length()) {
+                throw error("Truncated \\u escape");
+              }
+              try {
+                result.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+              } catch (NumberFormatException ex) {
+                throw error("Malformed \\u escape");
+              }
+              pos += 4;
+              break;
+            default:
+              throw error("Unknown escape \\" + escaped);
+          }
+        }
+      }
+    }
+
+    private Object number() throws ProofViewException {
+      final int start = pos;
+      consume('-');
+      while (pos < text.length() && "0123456789.eE+-".indexOf(text.charAt(pos)) >= 0) {
+        pos++;
+      }
+      try {
+        final BigDecimal number = new BigDecimal(text.substring(start, pos));
+        return (number.scale() <= 0) ? number.toBigIntegerExact() : number;
+      } catch (NumberFormatException | ArithmeticException ex) {
+        throw error("Malformed number");
+      }
+    }
+
+    private Object literal(String word, Object value) throws ProofViewException {
+      if (!text.startsWith(word, pos)) {
+        throw error("Unexpected literal");
+      }
+      pos += word.length();
+      return value;
+    }
+
+    private void skipWhitespace() {
+      while (pos < text.length() && " \t\r\n".indexOf(text.charAt(pos)) >= 0) {
+        pos++;
+      }
+    }
+
+    private char peek() {
+      return (pos < text.length()) ? text.charAt(pos) : 0;
+    }
+
+    private boolean consume(char c) {
+      if (peek() == c) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(char c) throws ProofViewException {
+      if (!consume(c)) {
+        throw error("Expected '" + c + "'");
+      }
+    }
+
+    private ProofViewException error(String message) {
+      return new ProofViewException(message + " at offset " + pos + " of JSON");
+    }
+  }
+
+}
@@ -0,0 +1,201 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: JsonProofViewWriter.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.query.exception.ProofViewException;
+import com.cyc.xml.query.ProofView;
+import com.cyc.xml.query.ProofViewEntry;
+import com.cyc.xml.query.SubEntries;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.xml.bind.JAXBException;
+
+/**
+ * Writes proof views as JSON, incrementally, in UTF-8. Each entry is an object whose keys mirror
+ * the attributes and elements of the XML format:
+ * <pre>{@code
+ * {"id": 1, "entry": {"id": 0, "expandInitially": true, "label": "...", "cycl": "...",
+ *                     "subEntries": [{"id": 1, ...}, ...]}}
+ * }</pre>
+ * Absent values are omitted. Paraphrases which are plain text are written as such, under
+ * {@code "paraphrase"}; otherwise paraphrases and content, which are CycML structures, are carried
+ * as strings containing their CycML XML, under {@code "paraphraseXml"} and {@code "contentXml"}.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class JsonProofViewWriter implements ProofViewWriter {
+
+  private final LongAdder proofViews = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+
+  @Override
+  public long marshal(ProofView proofView, WritableByteChannel channel)
+          throws ProofViewException {
+    try (PooledChannelOutputStream out = new PooledChannelOutputStream(channel)) {
+      final Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+      writer.write("{\"id\":");
+      writer.write(String.valueOf(proofView.getId()));
+      if (proofView.getProofViewEntry() != null) {
+        writer.write(",\"entry\":");
+        writeEntries(proofView.getProofViewEntry(), writer);
+      }
+      writer.write("}\n");
+      writer.flush();
+      proofViews.increment();
+      bytes.add(out.getByteCount());
+      return out.getByteCount();
+    } catch (IOException | JAXBException | RuntimeException ex) {
+      throw ProofViewException.fromThrowable("Could not write proof view " + proofView.getId(),
+              ex);
+    }
+  }
+
+  public long getProofViewCount() {
+    return proofViews.sum();
+  }
+
+  public long getByteCount() {
+    return bytes.sum();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[proofViews=" + getProofViewCount()
+            + ", bytes=" + getByteCount() + "]";
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  /**
+   * Writes an entry and its descendants, depth first, without recursion.
+   */
+  private void writeEntries(ProofViewEntry root, Writer writer)
+          throws IOException, JAXBException {
+    // Each element is the remaining sub-entries of an entry whose subEntries array is open:
+    final Deque<SubEntryCursor> stack = new ArrayDeque<>();
+    writeEntry(root, writer, stack);
+    while (!stack.isEmpty()) {
+      final SubEntryCursor cursor = stack.peek();
+      if (cursor.remaining.hasNext()) {
+        if (cursor.started) {
+          writer.write(',');
+        }
+        cursor.started = true;
+        writeEntry(cursor.remaining.next(), writer, stack);
+      } else {
+        stack.pop();
+        writer.write("]}");
+      }
+    }
+  }
+
+  /**
+   * Writes an entry, up to and including the opening bracket of its sub-entries, which are pushed
+   * onto {@code stack}. Entries without sub-entries are written in full.
+   */
+  private void writeEntry(ProofViewEntry entry, Writer writer, Deque<SubEntryCursor> stack)
+          throws IOException, JAXBException {
+    writer.write("{\"id\":");
+    writer.write(String.valueOf(entry.getId()));
+    writeBoolean("abducedSupport", entry.isAbducedSupport(), writer);
+    writeBoolean("expandInitially", entry.isExpandInitially(), writer);
+    writeString("label", entry.getLabel(), writer);
+    writeString("objectType", entry.getObjectType(), writer);
+    final String paraphrase = CycmlFragments.toPlainText(entry.getParaphrase());
+    if (paraphrase != null) {
+      writeString("paraphrase", paraphrase, writer);
+    } else {
+      writeString("paraphraseXml", CycmlFragments.toXml(entry.getParaphrase()), writer);
+    }
+    writeString("cycl", entry.getCycl(), writer);
+    writeString("silk", entry.getSilk(), writer);
+    writeString("contentXml", CycmlFragments.toXml(entry.getContent()), writer);
+    final SubEntries subEntries = entry.getSubEntries();
+    if (subEntries != null && !subEntries.getProofViewEntry().isEmpty()) {
+      writer.write(",\"subEntries\":[");
+      stack.push(new SubEntryCursor(subEntries.getProofViewEntry().iterator()));
+    } else {
+      writer.write('}');
+    }
+  }
+
+  private static void writeBoolean(String key, Boolean value, Writer writer) throws IOException {
+    if (value != null) {
+      writer.write(",\"");
+      writer.write(key);
+      writer.write("\":");
+      writer.write(value.toString());
+    }
+  }
+
+  private static void writeString(String key, String value, Writer writer) throws IOException {
+    if (value == null) {
+      return;
+    }
+    writer.write(",\"");
+    writer.write(key);
+    writer.write("\":\"");
+    int start = 0;
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      final String escape;
+      if (c == '"') {
+        escape = "\\\"";
+      } else if (c == '\\') {
+        escape = "\\\\";
+      } else if (c == '\n') {
+        escape = "\\n";
+      } else if (c == '\r') {
+        escape = "\\r";
+      } else if (c == '\t') {
+        escape = "\\t";
+      } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+        escape = String.format("\\u%04x", (int) c);
+      } else {
+        continue;
+      }
+      writer.write(value, start, i - start);
+      writer.write(escape);
+      start = i + 1;
+    }
+    writer.write(value, start, value.length() - start);
+    writer.write('"');
+  }
+
+  private static final class SubEntryCursor {
+
+    private final Iterator<ProofViewEntry> remaining;
+    private boolean started = false;
+
+    private SubEntryCursor(Iterator<ProofViewEntry> remaining) {
+      this.remaining = remaining;
+    }
+  }
+
+}
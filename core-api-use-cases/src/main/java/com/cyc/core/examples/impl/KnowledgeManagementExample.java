@@ -67,6 +67,8 @@ public class KnowledgeManagementExample {
       KnowledgeManagementExample example = new KnowledgeManagementExample();
       example.viewMicrotheoryContents();
       System.out.println();
+      example.streamMicrotheoryContents();
+      System.out.println();
     } catch (KbException | RuntimeException kbe) {
       kbe.printStackTrace(System.err);
       System.exit(1);
@@ -133,4 +135,45 @@ public class KnowledgeManagementExample {
     }
   }
   
+  /**
+   * Walk the assertions which are directly asserted within an Mt, one page at a time. Unlike
+   * {@link #viewMicrotheoryContents()}, this never holds more than a single page of assertions in
+   * memory, and the number of assertions in the Mt is a by-product of the walk rather than a
+   * separate round trip.
+   * <p>
+   * Because memory use is bounded, this approach may also be used against broad Mts like
+   * {@code #$UniversalVocabularyMt}. It doesn't make them any cheaper for the Cyc server to index,
+   * though, so we'll only walk a few pages here. Note how the walk can be suspended and later 
+   * resumed from a continuation token.
+   * 
+   * @throws KbTypeException
+   * @throws CreateException 
+   */
+  protected void streamMicrotheoryContents() throws KbTypeException, CreateException {
+    final Context ctx = Context.get("CurrentWorldDataCollectorMt-NonHomocentric");
+    final MtContentsCursor cursor = new MtContentsCursor(ctx);
+    System.out.println("Streaming assertions in " + ctx + ": ");
+    cursor.stream()
+            .forEach(assertion -> System.out.println("- " + assertion));
+    System.out.println("Number of assertions in " + ctx + ": " + cursor.getCount());
+    
+    // These walks stop early, so close them, to release the rest of the walk on the Cyc server:
+    final int pageSize = 10;
+    final long token;
+    try (MtContentsCursor uvCursor = new MtContentsCursor(UV_MT, pageSize, 0)) {
+      System.out.println("First " + pageSize + " assertions in " + UV_MT + ": ");
+      uvCursor.stream()
+              .limit(pageSize)
+              .forEach(assertion -> System.out.println("- " + assertion));
+      token = uvCursor.getContinuationToken();
+      System.out.println("Suspended walk of " + UV_MT + " (" + uvCursor.getTotalCount() 
+              + " assertions) at " + token + "; resuming...");
+    }
+    try (MtContentsCursor resumed = new MtContentsCursor(UV_MT, pageSize, token)) {
+      resumed.stream()
+              .limit(pageSize)
+              .forEach(assertion -> System.out.println("- " + assertion));
+    }
+  }
+  
 }
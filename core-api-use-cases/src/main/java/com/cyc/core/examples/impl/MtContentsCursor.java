@@ -0,0 +1,438 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: MtContentsCursor.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.base.CycAccess;
+import com.cyc.base.cycobject.CycList;
+import com.cyc.base.cycobject.CycObject;
+import com.cyc.base.exception.CycApiException;
+import com.cyc.base.exception.CycConnectionException;
+import com.cyc.kb.Assertion;
+import com.cyc.kb.Context;
+import com.cyc.kb.KbObject;
+import com.cyc.kb.client.KbObjectImpl;
+import com.cyc.kb.client.services.AssertionServiceImpl;
+import com.cyc.kb.exception.CreateException;
+import com.cyc.kb.exception.KbException;
+import com.cyc.kb.exception.KbRuntimeException;
+import com.cyc.kb.exception.KbTypeException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A paged, forward-only cursor over the assertions which are directly asserted in a Context. This
+ * is a streaming alternative to {@link AssertionServiceImpl#getAllAssertedInContext(Context)},
+ * which materializes every assertion in the Mt as a single List.
+ * <p>
+ * Assertions are retrieved from the Cyc server one page at a time, so at most one page of
+ * Assertions is held by the cursor at any moment. The total number of assertions in the Context is
+ * reported by the server along with the first page, so there is no need for a separate call to
+ * {@link AssertionServiceImpl#getCountOfAllAssertedInContext(Context)}.
+ * <p>
+ * A cursor's position is described by its {@link #getContinuationToken() continuation token}. A
+ * walk which was interrupted (say, by a dropped connection) may be resumed by constructing a new
+ * cursor from the last token which was successfully processed.
+ * <p>
+ * Note that paging bounds <em>client-side</em> memory; it does not make a broad Mt like
+ * {@code #$UniversalVocabularyMt} cheap for the Cyc server to index. Walk such Mts sparingly. The
+ * Cyc server may also hold state for a walk between pages (see {@link #CYC_SERVER}), so a cursor
+ * which is not walked to the end should be {@link #close() closed}.
+ */
+public class MtContentsCursor implements Iterator<Assertion>, AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MtContentsCursor.class);
+
+  //====|    PageSource    |======================================================================//
+
+  /**
+   * Retrieves a single page of the assertions in a Context. The default implementation,
+   * {@link #CYC_SERVER}, asks the current Cyc server; other implementations may be supplied for
+   * offline use.
+   * <p>
+   * Each cursor identifies its walk by a walk id which is unique to that cursor, so that a source
+   * may keep per-walk state between pages. Such state should be dropped once the walk's last page
+   * has been fetched, or once the walk is {@link #release(Context, String) released}.
+   */
+  @FunctionalInterface
+  public static interface PageSource {
+
+    /**
+     * Retrieve up to {@code pageSize} assertions from {@code ctx}, starting at {@code offset}.
+     *
+     * @param ctx      the Context whose contents are being walked
+     * @param walkId   identifies the cursor which is walking {@code ctx}
+     * @param offset   the index of the first assertion to retrieve
+     * @param pageSize the maximum number of assertions to retrieve
+     *
+     * @return the page
+     *
+     * @throws KbException if the page could not be retrieved
+     */
+    Page fetchPage(Context ctx, String walkId, long offset, int pageSize) throws KbException;
+
+    /**
+     * Drop any state held for a walk which will fetch no more pages. The default implementation
+     * does nothing.
+     *
+     * @param ctx    the Context which was being walked
+     * @param walkId identifies the cursor which was walking {@code ctx}
+     *
+     * @throws KbException if the state could not be dropped
+     */
+    default void release(Context ctx, String walkId) throws KbException {
+    }
+  }
+
+  /**
+   * A single page of assertions, along with the total number of assertions in the Context. A page
+   * covers a slice of the Context's assertions; if any of them could not be retrieved, the page
+   * holds fewer assertions than the slice, and records where in the slice each of the rest lies.
+   */
+  public static class Page {
+
+    private final long totalCount;
+    private final List<Assertion> assertions;
+    private final int size;
+    private final int[] indices;
+
+    public Page(long totalCount, List<Assertion> assertions) {
+      this(totalCount, assertions, assertions.size(), null);
+    }
+
+    /**
+     * Creates a page which holds some, but not all, of the assertions in its slice.
+     *
+     * @param totalCount the total number of assertions in the Context
+     * @param assertions the assertions which were retrieved
+     * @param size       the number of assertions in the slice which this page covers
+     * @param indices    the index within the slice of each of {@code assertions}, in ascending
+     *                   order; null if they are the whole slice
+     */
+    public Page(long totalCount, List<Assertion> assertions, int size, int[] indices) {
+      if (indices == null ? assertions.size() != size : indices.length != assertions.size()) {
+        throw new IllegalArgumentException("Page of " + size + " assertions has "
+                                                   + assertions.size() + " assertions");
+      }
+      this.totalCount = totalCount;
+      this.assertions = assertions;
+      this.size = size;
+      this.indices = indices;
+    }
+
+    public long getTotalCount() {
+      return totalCount;
+    }
+
+    public List<Assertion> getAssertions() {
+      return assertions;
+    }
+
+    /**
+     * Returns the number of assertions in the slice which this page covers, including any which
+     * could not be retrieved.
+     */
+    public int getSize() {
+      return size;
+    }
+
+    /**
+     * Returns the index within this page's slice of the {@code i}th of its assertions.
+     */
+    public int getIndex(int i) {
+      return (indices == null) ? i : indices[i];
+    }
+  }
+
+  /**
+   * Retrieves pages directly from the current Cyc server. This relies upon the Core Client
+   * implementation, and uses the same server-side index as
+   * {@link AssertionServiceImpl#getAllAssertedInContext(Context)}, but only the requested slice of
+   * it is sent over the wire.
+   * <p>
+   * The index is gathered once per walk, rather than once per page: between pages, the Cyc server
+   * keeps the rest of the walk's index, in a symbol of its own, so that the next page costs only
+   * the page itself. A walk which is resumed from a continuation token gathers the index again. A
+   * walk thus sees the Mt's contents as of its first page.
+   * <p>
+   * The rest of the index costs the Cyc server a list cell per assertion which has yet to be
+   * walked, so a walk of a broad Mt which is abandoned near its start pins nearly the whole of
+   * that Mt's index. The server drops it once the walk's last page has been fetched, or when the
+   * cursor is {@link MtContentsCursor#close() closed}; nothing else expires it. (The walk's symbol
+   * itself remains interned, unbound.)
+   */
+  public static final PageSource CYC_SERVER = new PageSource() {
+
+    @Override
+    public Page fetchPage(Context ctx, String walkId, long offset, int pageSize)
+            throws KbException {
+      final String mt = ctx.stringApiValue();
+      final String walk = walkSymbol(walkId);
+      // The walk's symbol is bound to (offset size tail), where tail is the index from offset:
+      final String command = "(clet ((walk (fif (boundp " + walk + ") (symbol-value " + walk + ")"
+              + " nil)) (size nil) (tail nil) (page nil))"
+              + " (pif (cand walk (= (first walk) " + offset + "))"
+              + "  (progn (csetq size (second walk)) (csetq tail (third walk)))"
+              + "  (clet ((index (gather-mt-index " + mt + ")))"
+              + "   (csetq size (length index))"
+              + "   (csetq tail (nthcdr " + offset + " index))))"
+              + " (cdotimes (i " + pageSize + ")"
+              + "  (pwhen tail (cpush (first tail) page) (csetq tail (rest tail))))"
+              + " (pif tail"
+              + "  (set " + walk + " (list " + (offset + pageSize) + " size tail))"
+              + "  (pwhen (boundp " + walk + ") (makunbound " + walk + ")))"
+              + " (list size (nreverse page)))";
+      try {
+        final CycList<?> response = CycAccess.getCurrent().converse().converseList(command);
+        final long totalCount = ((Number) response.get(0)).longValue();
+        final List<?> cycAssertions = (List<?>) response.get(1);
+        final List<Assertion> results = new ArrayList<>(cycAssertions.size());
+        final int[] indices = new int[cycAssertions.size()];
+        for (int i = 0; i < cycAssertions.size(); i++) {
+          final Object cycAssertion = cycAssertions.get(i);
+          try {
+            // Categorized as a Fact or a Rule on the client, without a round trip:
+            final KbObject assertion = KbObjectImpl.get((CycObject) cycAssertion);
+            if (assertion instanceof Assertion) {
+              results.add((Assertion) assertion);
+              indices[results.size() - 1] = i;
+              continue;
+            }
+          } catch (KbTypeException | CreateException ex) {
+            LOG.debug("Could not convert to Assertion: {}", cycAssertion, ex);
+          }
+          LOG.error("Could not convert to Assertion: {}", cycAssertion);
+        }
+        return new Page(totalCount, results, cycAssertions.size(),
+                Arrays.copyOf(indices, results.size()));
+      } catch (CycConnectionException | CycApiException ex) {
+        throw KbRuntimeException.fromThrowable("Could not retrieve contents of " + ctx, ex);
+      }
+    }
+
+    @Override
+    public void release(Context ctx, String walkId) {
+      final String walk = walkSymbol(walkId);
+      try {
+        CycAccess.getCurrent().converse()
+                .converseVoid("(pwhen (boundp " + walk + ") (makunbound " + walk + "))");
+      } catch (CycConnectionException | CycApiException ex) {
+        throw KbRuntimeException.fromThrowable("Could not release walk of " + ctx, ex);
+      }
+    }
+
+    private String walkSymbol(String walkId) {
+      return "'MT-CONTENTS-CURSOR-WALK-" + walkId;
+    }
+  };
+
+  //====|    Fields    |==========================================================================//
+
+  /**
+   * The default number of assertions to retrieve per round trip.
+   */
+  public static final int DEFAULT_PAGE_SIZE = 500;
+
+  private final PageSource source;
+  private final Context ctx;
+  private final int pageSize;
+  private final String walkId = UUID.randomUUID().toString().replace("-", "").toUpperCase();
+  private Page page = new Page(-1, Collections.emptyList());
+  private List<Assertion> pageAssertions = Collections.emptyList();
+  private int pageIdx = 0;
+  private long pageOffset;
+  private long nextOffset;
+  private long position;
+  private long totalCount = -1;
+  private boolean exhausted = false;
+  private boolean started = false;
+  private boolean closed = false;
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * Create a cursor which starts at {@code continuationToken}.
+   *
+   * @param source            where to retrieve pages from
+   * @param ctx               the Context whose contents should be walked
+   * @param pageSize          the maximum number of assertions to retrieve per round trip
+   * @param continuationToken the position at which to start, as returned by
+   *                          {@link #getContinuationToken()}; 0 to start from the beginning
+   */
+  public MtContentsCursor(PageSource source, Context ctx, int pageSize, long continuationToken) {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("Page size must be positive, but was " + pageSize);
+    }
+    if (continuationToken < 0) {
+      throw new IllegalArgumentException("Invalid continuation token: " + continuationToken);
+    }
+    this.source = source;
+    this.ctx = ctx;
+    this.pageSize = pageSize;
+    this.nextOffset = continuationToken;
+    this.position = continuationToken;
+  }
+
+  public MtContentsCursor(Context ctx, int pageSize, long continuationToken) {
+    this(CYC_SERVER, ctx, pageSize, continuationToken);
+  }
+
+  public MtContentsCursor(Context ctx) {
+    this(CYC_SERVER, ctx, DEFAULT_PAGE_SIZE, 0);
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  @Override
+  public boolean hasNext() {
+    while (pageIdx >= pageAssertions.size()) {
+      if (exhausted) {
+        return false;
+      }
+      fetchNextPage();
+    }
+    return true;
+  }
+
+  @Override
+  public Assertion next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    final Assertion result = pageAssertions.get(pageIdx);
+    // Release our reference so that consumed assertions can be collected mid-page:
+    pageAssertions.set(pageIdx, null);
+    // Skip past any assertions which could not be retrieved, so they aren't fetched again:
+    position = (++pageIdx < pageAssertions.size())
+                       ? pageOffset + page.getIndex(pageIdx)
+                       : nextOffset;
+    return result;
+  }
+
+  /**
+   * Returns a sequential Stream over the remaining assertions. Consuming the stream advances this
+   * cursor, and closing it closes this cursor.
+   *
+   * @return a Stream of assertions
+   */
+  public Stream<Assertion> stream() {
+    return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL),
+            false)
+            .onClose(this::close);
+  }
+
+  /**
+   * Ends the walk, and has the page source drop any state it holds for it. The cursor returns no
+   * more assertions, but its continuation token may still be used to resume the walk. Closing a
+   * cursor which has been walked to the end, or which is already closed, has no effect.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    final boolean walkInProgress = started && !exhausted;
+    exhausted = true;
+    pageAssertions = Collections.emptyList();
+    pageIdx = 0;
+    if (walkInProgress) {
+      try {
+        source.release(ctx, walkId);
+      } catch (KbException ex) {
+        throw KbRuntimeException.fromThrowable("Could not release walk of " + ctx, ex);
+      }
+    }
+  }
+
+  /**
+   * Returns a token from which a new cursor may resume the walk, starting with the assertion which
+   * would next be returned by {@link #next()}.
+   *
+   * @return the continuation token
+   */
+  public long getContinuationToken() {
+    return position;
+  }
+
+  /**
+   * Returns the total number of assertions in the Context, as reported by the Cyc server when the
+   * first page was retrieved.
+   *
+   * @return the number of assertions, or -1 if no page has been retrieved yet
+   */
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  /**
+   * Returns the number of assertions which this cursor has walked past: those it has returned,
+   * any which were skipped via the continuation token, and any which could not be retrieved.
+   *
+   * @return the number of assertions walked so far
+   */
+  public long getCount() {
+    return position;
+  }
+
+  public Context getContext() {
+    return ctx;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private void fetchNextPage() {
+    final Page next;
+    try {
+      next = source.fetchPage(ctx, walkId, nextOffset, pageSize);
+    } catch (KbException ex) {
+      throw KbRuntimeException.fromThrowable(
+              "Could not retrieve page at " + nextOffset + " of " + ctx, ex);
+    }
+    started = true;
+    totalCount = next.getTotalCount();
+    page = next;
+    pageAssertions = new ArrayList<>(next.getAssertions());
+    pageIdx = 0;
+    pageOffset = nextOffset;
+    // Advance by the slice which the server covered, whether or not every assertion was retrieved:
+    nextOffset += next.getSize();
+    exhausted = next.getSize() < pageSize || nextOffset >= totalCount;
+    position = pageAssertions.isEmpty() ? nextOffset : pageOffset + next.getIndex(0);
+  }
+
+}
@@ -0,0 +1,246 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: MtContentsCursorSimulation.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.core.examples.impl.MtContentsCursor.Page;
+import com.cyc.core.examples.impl.MtContentsCursor.PageSource;
+import com.cyc.kb.Assertion;
+import com.cyc.kb.Context;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Walks a large simulated Mt with an {@link MtContentsCursor}, against an in-process page source
+ * which, like {@link MtContentsCursor#CYC_SERVER}, keeps state for each walk between pages. No Cyc
+ * server is needed.
+ * <p>
+ * The simulation fails (exiting with status 1) if the cursor's client heap grows with the size of
+ * the Mt rather than staying flat, if the walk returns the wrong assertions, if a walk resumed
+ * from a continuation token does not start where the first one stopped, or if any walk is left
+ * open at the page source: whether it was walked to the end, closed part-way through, or
+ * abandoned via a closed stream.
+ * <p>
+ * Usage: {@code MtContentsCursorSimulation [assertions] [page size]}
+ */
+public class MtContentsCursorSimulation {
+
+  private static final int DEFAULT_ASSERTIONS = 2_000_000;
+  private static final int DEFAULT_PAGE_SIZE = MtContentsCursor.DEFAULT_PAGE_SIZE;
+  private static final int HEAP_SAMPLES = 10;
+  private static final long HEAP_ALLOWANCE_BYTES = 16L << 20;
+
+  public static void main(String[] args) {
+    final String exampleName = MtContentsCursorSimulation.class.getSimpleName();
+    final int assertionCount = intArg(args, 0, DEFAULT_ASSERTIONS);
+    final int pageSize = intArg(args, 1, DEFAULT_PAGE_SIZE);
+    boolean passed = false;
+    try {
+      System.out.println("Running " + exampleName + "...");
+      System.out.println(assertionCount + " assertions, " + pageSize + " per page");
+      final MtContentsCursorSimulation simulation = new MtContentsCursorSimulation(assertionCount);
+      simulation.walkWholeMt(pageSize);
+      simulation.walkPartWay(pageSize);
+      passed = simulation.failures.isEmpty();
+      simulation.failures.forEach(failure -> System.out.println("FAILED: " + failure));
+      System.out.println();
+    } catch (RuntimeException ex) {
+      ex.printStackTrace(System.err);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(passed ? 0 : 1);
+    }
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  private final int assertionCount;
+  private final Context mt;
+  private final SimulatedPageSource source;
+  private final List<String> failures = new ArrayList<>();
+
+  //====|    Construction    |====================================================================//
+
+  private MtContentsCursorSimulation(int assertionCount) {
+    this.assertionCount = assertionCount;
+    this.source = new SimulatedPageSource(assertionCount);
+    this.mt = (Context) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{Context.class}, (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "toString":
+                  return "SimulatedMt";
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+                case "equals":
+                  return proxy == args[0];
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  /**
+   * Walk every assertion, sampling the used heap as the walk proceeds.
+   */
+  private void walkWholeMt(int pageSize) {
+    final long sampleInterval = Math.max(1, assertionCount / HEAP_SAMPLES);
+    final long startNanos = System.nanoTime();
+    long baseline = -1;
+    long peak = 0;
+    long walked = 0;
+    try (MtContentsCursor cursor = new MtContentsCursor(source, mt, pageSize, 0)) {
+      while (cursor.hasNext()) {
+        final Assertion assertion = cursor.next();
+        if (!assertion.toString().equals(SimulatedPageSource.name(walked))) {
+          failures.add("assertion " + walked + " was " + assertion);
+          return;
+        }
+        walked++;
+        if (walked % sampleInterval == 0) {
+          final long used = usedHeap();
+          baseline = (baseline < 0) ? used : baseline;
+          peak = Math.max(peak, used);
+        }
+      }
+      if (walked != assertionCount || cursor.getTotalCount() != assertionCount) {
+        failures.add("walked " + walked + " of " + cursor.getTotalCount() + " assertions; expected "
+                + assertionCount);
+      }
+      if (source.openWalks.size() != 0) {
+        failures.add("a finished walk was left open at the page source");
+      }
+    }
+    final double seconds = (System.nanoTime() - startNanos) / 1e9;
+    final long growth = Math.max(0, peak - baseline);
+    System.out.println(String.format("Walked %,d assertions in %.1fs; client heap grew by %,d KB"
+            + " over the walk (allowance %,d KB)", walked, seconds, growth >> 10,
+            HEAP_ALLOWANCE_BYTES >> 10));
+    if (growth > HEAP_ALLOWANCE_BYTES) {
+      failures.add("client heap grew by " + growth + " bytes over the walk");
+    }
+  }
+
+  /**
+   * Walk part of the Mt, close the cursor, resume from its continuation token, and abandon that
+   * walk via a stream.
+   */
+  private void walkPartWay(int pageSize) {
+    final int firstWalk = pageSize + pageSize / 2;
+    final long token;
+    try (MtContentsCursor cursor = new MtContentsCursor(source, mt, pageSize, 0)) {
+      for (int i = 0; i < firstWalk && cursor.hasNext(); i++) {
+        cursor.next();
+      }
+      if (source.openWalks.size() != 1) {
+        failures.add(source.openWalks.size() + " walks open part-way through a walk; expected 1");
+      }
+      token = cursor.getContinuationToken();
+    }
+    if (source.openWalks.size() != 0) {
+      failures.add("closing a cursor part-way through did not release its walk");
+    }
+    final List<Assertion> resumed = new ArrayList<>();
+    try (MtContentsCursor cursor = new MtContentsCursor(source, mt, pageSize, token)) {
+      cursor.stream()
+              .limit(pageSize)
+              .forEach(resumed::add);
+    }
+    if (resumed.isEmpty() || !resumed.get(0).toString().equals(SimulatedPageSource.name(token))) {
+      failures.add("the resumed walk started at " + (resumed.isEmpty() ? "nothing" : resumed.get(0))
+              + "; expected " + SimulatedPageSource.name(token));
+    }
+    if (source.openWalks.size() != 0) {
+      failures.add("closing an abandoned stream did not release its walk");
+    }
+    System.out.println("Stopped a walk at " + token + ", resumed it, and abandoned it; "
+            + source.releases + " walk(s) released, " + source.openWalks.size() + " left open");
+  }
+
+  private static long usedHeap() {
+    final Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static int intArg(String[] args, int index, int defaultValue) {
+    return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+  //====|    SimulatedPageSource    |=============================================================//
+
+  /**
+   * Makes up each page as it is asked for, and tracks which walks it holds state for.
+   */
+  private static final class SimulatedPageSource implements PageSource {
+
+    private final int assertionCount;
+    private final Map<String, Long> openWalks = new ConcurrentHashMap<>();
+    private volatile int releases = 0;
+
+    private SimulatedPageSource(int assertionCount) {
+      this.assertionCount = assertionCount;
+    }
+
+    @Override
+    public Page fetchPage(Context ctx, String walkId, long offset, int pageSize) {
+      final List<Assertion> assertions = new ArrayList<>(pageSize);
+      for (long i = offset; i < assertionCount && assertions.size() < pageSize; i++) {
+        assertions.add(assertion(i));
+      }
+      final long next = offset + assertions.size();
+      if (next < assertionCount) {
+        openWalks.put(walkId, next);
+      } else {
+        openWalks.remove(walkId);
+      }
+      return new Page(assertionCount, assertions);
+    }
+
+    @Override
+    public void release(Context ctx, String walkId) {
+      if (openWalks.remove(walkId) != null) {
+        releases++;
+      }
+    }
+
+    private Assertion assertion(long index) {
+      final String name = name(index);
+      return (Assertion) Proxy.newProxyInstance(getClass().getClassLoader(),
+              new Class<?>[]{Assertion.class}, (proxy, method, args) -> {
+                if ("toString".equals(method.getName())) {
+                  return name;
+                }
+                throw new UnsupportedOperationException(method.getName());
+              });
+    }
+
+    private static String name(long index) {
+      return "(simulatedAssertion " + index + ")";
+    }
+  }
+
+}
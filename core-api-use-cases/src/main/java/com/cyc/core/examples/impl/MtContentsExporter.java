@@ -0,0 +1,501 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: MtContentsExporter.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.kb.Context;
+import com.cyc.kb.exception.KbException;
+import com.cyc.session.CycSession;
+import com.cyc.session.SessionManager;
+import com.cyc.session.SessionManagerImpl;
+import com.cyc.session.exception.SessionException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports the contents of several Mts to a single compact binary file. This is a bulk alternative
+ * to walking each Mt in turn and printing every assertion, as in
+ * {@link KnowledgeManagementExample#viewMicrotheoryContents()}.
+ * <p>
+ * Mts are retrieved concurrently on a bounded number of worker threads, each Mt by a single
+ * {@link MtContentsCursor}. The workers are virtual threads where available; see
+ * {@link VirtualThreads}. An Mt is not split between workers: the Cyc server gathers an Mt's
+ * index afresh for every walk which does not start at its beginning, so splitting a big Mt into
+ * partitions would multiply the server's work by the number of partitions. Workers hand pages of
+ * assertions to a single writer (the calling thread) through a bounded queue, so a slow disk
+ * applies backpressure to the workers rather than letting pages pile up in memory.
+ * <p>
+ * The file format is a sequence of length-prefixed records following a short header:
+ * <pre>
+ *   file   := "CYCA" version:u8 record*
+ *   record := type:u8 length:varint payload
+ *   SYMBOL    (type 1) payload := utf-8 bytes; symbol ids are assigned sequentially from 0
+ *   ASSERTION (type 2) payload := mt:varint tokenCount:varint token:varint*
+ * </pre>
+ * Every token of an assertion's CycL (constants, variables, literals and parentheses) is interned
+ * in the symbol table, and the SYMBOL record for a token is always written before its first use.
+ * As CycL is highly repetitive, this is typically a fraction of the size of the equivalent text.
+ * An exported file may be read back via {@link MtContentsReader}.
+ * <p>
+ * Each worker thread walks its Mts with the session of the thread which called
+ * {@link #export(List, Path)} bound to it.
+ */
+public class MtContentsExporter {
+
+  public static void main(String[] args) {
+    final String exampleName = MtContentsExporter.class.getSimpleName();
+    final Path outputFile = Paths.get(args.length > 0 ? args[0] : "target/mt-contents.bin");
+    final List<String> mtNames = args.length > 1
+            ? Arrays.asList(args).subList(1, args.length)
+            : Arrays.asList("CurrentWorldDataCollectorMt-NonHomocentric",
+                    "MassMediaDataMt",
+                    "PeopleDataMt");
+    try (SessionManager sessionMgr = SessionManager.getInstance()) {
+      System.out.println("Running " + exampleName + "...");
+      final List<Context> mts = new ArrayList<>();
+      for (String mtName : mtNames) {
+        mts.add(Context.get(mtName));
+      }
+      final MtContentsExporter exporter = new MtContentsExporter(DEFAULT_PARALLELISM,
+              MtContentsCursor.DEFAULT_PAGE_SIZE);
+      final Report report = exporter.export(mts, outputFile);
+      System.out.println("Exported " + mts + " to " + outputFile);
+      System.out.println(report);
+    } catch (KbException | SessionException | IOException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+      System.exit(1);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(0);
+    }
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  public static final int DEFAULT_PARALLELISM = 4;
+
+  static final byte[] MAGIC = "CYCA".getBytes(StandardCharsets.US_ASCII);
+  static final byte FORMAT_VERSION = 1;
+  static final byte SYMBOL_RECORD = 1;
+  static final byte ASSERTION_RECORD = 2;
+
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+  private final MtContentsCursor.PageSource source;
+  private final int parallelism;
+  private final int pageSize;
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * @param source      where to retrieve pages of assertions from
+   * @param parallelism the number of worker threads, and thus of Mts walked at once
+   * @param pageSize    the number of assertions to retrieve per round trip
+   */
+  public MtContentsExporter(MtContentsCursor.PageSource source, int parallelism, int pageSize) {
+    if (parallelism < 1 || pageSize < 1) {
+      throw new IllegalArgumentException("Parallelism and page size must be positive");
+    }
+    this.source = source;
+    this.parallelism = parallelism;
+    this.pageSize = pageSize;
+  }
+
+  public MtContentsExporter(int parallelism, int pageSize) {
+    this(MtContentsCursor.CYC_SERVER, parallelism, pageSize);
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Export the contents of {@code mts} to {@code outputFile}, replacing any existing file.
+   *
+   * @param mts        the Contexts whose contents should be exported
+   * @param outputFile the file to write
+   *
+   * @return statistics about the export
+   *
+   * @throws KbException      if the contents of an Mt could not be retrieved
+   * @throws SessionException if the current session could not be obtained
+   * @throws IOException      if the file could not be written
+   */
+  public Report export(List<Context> mts, Path outputFile)
+          throws KbException, SessionException, IOException {
+    final CycSession session = captureSession();
+    final long startNanos = System.nanoTime();
+    final ExecutorService pool = VirtualThreads.newExecutor(getClass().getSimpleName(),
+            parallelism);
+    final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(parallelism * 2);
+    final List<Future<?>> tasks = new ArrayList<>();
+    try (FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (Context mt : mts) {
+        tasks.add(pool.submit(() -> {
+          bind(session);
+          walkMt(mt, queue);
+          return null;
+        }));
+      }
+      final ChunkWriter writer = new ChunkWriter(channel);
+      int remainingTasks = tasks.size();
+      while (remainingTasks > 0) {
+        final Chunk chunk = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (chunk == null) {
+          rethrowFailures(tasks);
+        } else if (chunk == Chunk.MT_DONE) {
+          remainingTasks--;
+        } else {
+          writer.write(chunk);
+        }
+      }
+      rethrowFailures(tasks);
+      writer.flush();
+      return new Report(writer.assertionCount, writer.symbols.size(), channel.size(),
+              writer.textBytes, System.nanoTime() - startNanos);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while exporting to " + outputFile, ex);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  //====|    Extension points    |================================================================//
+
+  /**
+   * Returns the session which the worker threads should use on behalf of the calling thread.
+   * Called on the thread which starts an export.
+   *
+   * @return the session
+   *
+   * @throws SessionException if the session could not be obtained
+   */
+  protected CycSession captureSession() throws SessionException {
+    return CycSession.getCurrent();
+  }
+
+  /**
+   * Makes {@code session} the current session of the current worker thread.
+   *
+   * @param session the session returned by {@link #captureSession()}
+   *
+   * @throws SessionException if the session could not be bound
+   */
+  @SuppressWarnings("unchecked")
+  protected void bind(CycSession session) throws SessionException {
+    ((SessionManagerImpl<CycSession>) SessionManager.getInstance()).setCurrentSession(session);
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private void walkMt(Context mt, BlockingQueue<Chunk> queue) throws InterruptedException {
+    final String mtName = mt.toString();
+    List<String> page = new ArrayList<>(pageSize);
+    try (MtContentsCursor cursor = new MtContentsCursor(source, mt, pageSize, 0)) {
+      while (cursor.hasNext()) {
+        page.add(cursor.next().toString());
+        if (page.size() == pageSize) {
+          queue.put(new Chunk(mtName, page));
+          page = new ArrayList<>(pageSize);
+        }
+      }
+    }
+    if (!page.isEmpty()) {
+      queue.put(new Chunk(mtName, page));
+    }
+    queue.put(Chunk.MT_DONE);
+  }
+
+  private static void rethrowFailures(List<Future<?>> tasks) throws KbException, IOException {
+    for (Future<?> task : tasks) {
+      if (task.isDone()) {
+        try {
+          task.get();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new IOException(ex);
+        } catch (ExecutionException ex) {
+          final Throwable cause = ex.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          throw KbException.fromThrowable(cause);
+        }
+      }
+    }
+  }
+
+  /**
+   * Splits a CycL string into tokens: parentheses, string literals (with their quotes), and runs
+   * of any other non-whitespace characters.
+   */
+  static List<String> tokenize(String cycl) {
+    final List<String> tokens = new ArrayList<>();
+    final int len = cycl.length();
+    int i = 0;
+    while (i < len) {
+      final char c = cycl.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '(' || c == ')') {
+        tokens.add(c == '(' ? "(" : ")");
+        i++;
+      } else if (c == '"') {
+        int j = i + 1;
+        while (j < len && cycl.charAt(j) != '"') {
+          j += (cycl.charAt(j) == '\\') ? 2 : 1;
+        }
+        j = Math.min(j + 1, len);
+        tokens.add(cycl.substring(i, j));
+        i = j;
+      } else {
+        int j = i + 1;
+        while (j < len) {
+          final char d = cycl.charAt(j);
+          if (Character.isWhitespace(d) || d == '(' || d == ')' || d == '"') {
+            break;
+          }
+          j++;
+        }
+        tokens.add(cycl.substring(i, j));
+        i = j;
+      }
+    }
+    return tokens;
+  }
+
+  //====|    Inner classes    |===================================================================//
+
+  /**
+   * A page of assertions from a single Mt, rendered as CycL.
+   */
+  private static class Chunk {
+
+    static final Chunk MT_DONE = new Chunk(null, null);
+
+    final String mtName;
+    final List<String> assertions;
+
+    Chunk(String mtName, List<String> assertions) {
+      this.mtName = mtName;
+      this.assertions = assertions;
+    }
+  }
+
+  /**
+   * Encodes chunks into the binary format and writes them through a FileChannel. The symbol table
+   * is only ever touched by the writer, so symbol definitions are guaranteed to precede their use.
+   */
+  private static class ChunkWriter {
+
+    final FileChannel channel;
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    final Map<String, Integer> symbols = new HashMap<>();
+    final VarintBuffer payload = new VarintBuffer();
+    long assertionCount = 0;
+    long textBytes = 0;
+
+    ChunkWriter(FileChannel channel) {
+      this.channel = channel;
+      buffer.put(MAGIC).put(FORMAT_VERSION);
+    }
+
+    void write(Chunk chunk) throws IOException {
+      final int mtId = intern(chunk.mtName);
+      for (String cycl : chunk.assertions) {
+        final List<String> tokens = tokenize(cycl);
+        final int[] ids = new int[tokens.size()];
+        for (int i = 0; i < ids.length; i++) {
+          ids[i] = intern(tokens.get(i));
+        }
+        payload.reset();
+        payload.writeVarint(mtId);
+        payload.writeVarint(ids.length);
+        for (int id : ids) {
+          payload.writeVarint(id);
+        }
+        writeRecord(ASSERTION_RECORD, payload);
+        assertionCount++;
+        // What the equivalent "- " + assertion + newline text dump would have cost:
+        textBytes += cycl.getBytes(StandardCharsets.UTF_8).length + 3;
+      }
+    }
+
+    int intern(String symbol) throws IOException {
+      final Integer existing = symbols.get(symbol);
+      if (existing != null) {
+        return existing;
+      }
+      final int id = symbols.size();
+      symbols.put(symbol, id);
+      payload.reset();
+      payload.write(symbol.getBytes(StandardCharsets.UTF_8));
+      writeRecord(SYMBOL_RECORD, payload);
+      return id;
+    }
+
+    void writeRecord(byte type, VarintBuffer record) throws IOException {
+      ensureRemaining(1 + 5);
+      buffer.put(type);
+      VarintBuffer.putVarint(buffer, record.size());
+      int offset = 0;
+      while (offset < record.size()) {
+        ensureRemaining(1);
+        final int len = Math.min(buffer.remaining(), record.size() - offset);
+        buffer.put(record.bytes(), offset, len);
+        offset += len;
+      }
+    }
+
+    void ensureRemaining(int bytes) throws IOException {
+      if (buffer.remaining() < bytes) {
+        flush();
+      }
+    }
+
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+  }
+
+  /**
+   * A growable byte array with varint encoding.
+   */
+  static class VarintBuffer {
+
+    private byte[] bytes = new byte[256];
+    private int size = 0;
+
+    void reset() {
+      size = 0;
+    }
+
+    int size() {
+      return size;
+    }
+
+    byte[] bytes() {
+      return bytes;
+    }
+
+    void write(byte[] src) {
+      ensureCapacity(size + src.length);
+      System.arraycopy(src, 0, bytes, size, src.length);
+      size += src.length;
+    }
+
+    void writeVarint(int value) {
+      ensureCapacity(size + 5);
+      while ((value & ~0x7F) != 0) {
+        bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      bytes[size++] = (byte) value;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+      }
+    }
+
+    static void putVarint(ByteBuffer buffer, int value) {
+      while ((value & ~0x7F) != 0) {
+        buffer.put((byte) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      buffer.put((byte) value);
+    }
+  }
+
+  /**
+   * Statistics about a completed export.
+   */
+  public static class Report {
+
+    private final long assertionCount;
+    private final int symbolCount;
+    private final long fileBytes;
+    private final long textBytes;
+    private final long elapsedNanos;
+
+    Report(long assertionCount, int symbolCount, long fileBytes, long textBytes,
+            long elapsedNanos) {
+      this.assertionCount = assertionCount;
+      this.symbolCount = symbolCount;
+      this.fileBytes = fileBytes;
+      this.textBytes = textBytes;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getAssertionCount() {
+      return assertionCount;
+    }
+
+    public int getSymbolCount() {
+      return symbolCount;
+    }
+
+    public long getFileBytes() {
+      return fileBytes;
+    }
+
+    /**
+     * @return the size, in bytes, of the equivalent one-assertion-per-line text dump
+     */
+    public long getTextBytes() {
+      return textBytes;
+    }
+
+    public double getAssertionsPerSecond() {
+      return elapsedNanos == 0 ? 0 : assertionCount * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Exported %,d assertions (%,d symbols) in %.2f s: %,.0f assertions/sec;"
+              + " %,d bytes vs. %,d bytes as text (%.1f%%)",
+              assertionCount, symbolCount, elapsedNanos / 1e9, getAssertionsPerSecond(),
+              fileBytes, textBytes, textBytes == 0 ? 0 : 100.0 * fileBytes / textBytes);
+    }
+  }
+
+}
@@ -0,0 +1,269 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: MtContentsExporterSimulation.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.core.examples.impl.MtContentsCursor.Page;
+import com.cyc.core.examples.impl.MtContentsCursor.PageSource;
+import com.cyc.kb.Assertion;
+import com.cyc.kb.Context;
+import com.cyc.kb.exception.KbException;
+import com.cyc.session.CycSession;
+import com.cyc.session.exception.SessionException;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports several simulated Mts with an {@link MtContentsExporter}, against an in-process page
+ * source, and reads the file back with an {@link MtContentsReader}. No Cyc server is needed. The
+ * simulated assertions include string literals with spaces and escaped quotes, variables, and
+ * nested formulas.
+ * <p>
+ * The simulation fails (exiting with status 1) if the file read back differs from what was
+ * exported, in any assertion or in the order of any Mt's assertions; if the page source is asked
+ * to gather any Mt's index more than once; if any walk is left open at the page source; or if any
+ * page is fetched without the exporting thread's session bound to the worker thread.
+ * <p>
+ * Usage: {@code MtContentsExporterSimulation [assertions in the largest Mt] [parallelism]}
+ */
+public class MtContentsExporterSimulation {
+
+  private static final int DEFAULT_LARGEST_MT = 40_000;
+  private static final int DEFAULT_PARALLELISM = MtContentsExporter.DEFAULT_PARALLELISM;
+  private static final int PAGE_SIZE = MtContentsCursor.DEFAULT_PAGE_SIZE;
+
+  /**
+   * The session of the thread which runs the export, as seen by the stand-in SessionManager.
+   */
+  private static final CycSession CALLER_SESSION = (CycSession) Proxy.newProxyInstance(
+          MtContentsExporterSimulation.class.getClassLoader(), new Class<?>[]{CycSession.class},
+          (proxy, method, args) -> {
+            if ("toString".equals(method.getName())) {
+              return "simulated session";
+            }
+            throw new UnsupportedOperationException(method.getName());
+          });
+
+  private static final ThreadLocal<CycSession> CURRENT_SESSION = new ThreadLocal<>();
+
+  public static void main(String[] args) {
+    final String exampleName = MtContentsExporterSimulation.class.getSimpleName();
+    final int largestMt = intArg(args, 0, DEFAULT_LARGEST_MT);
+    final int parallelism = intArg(args, 1, DEFAULT_PARALLELISM);
+    boolean passed = false;
+    try {
+      System.out.println("Running " + exampleName + "...");
+      final MtContentsExporterSimulation simulation = new MtContentsExporterSimulation(
+              new int[]{largestMt, largestMt / 8, largestMt / 100, 0});
+      final Path file = Files.createTempFile("mt-contents", ".bin");
+      try {
+        final MtContentsExporter.Report report = simulation.export(file, parallelism);
+        System.out.println(report);
+        simulation.readBack(file);
+      } finally {
+        Files.delete(file);
+      }
+      passed = simulation.failures.isEmpty();
+      simulation.failures.forEach(failure -> System.out.println("FAILED: " + failure));
+      System.out.println();
+    } catch (IOException | KbException | SessionException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(passed ? 0 : 1);
+    }
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  private final Map<Context, Integer> mts = new LinkedHashMap<>();
+  private final SimulatedPageSource source = new SimulatedPageSource();
+  private final List<String> failures = new CopyOnWriteArrayList<>();
+
+  //====|    Construction    |====================================================================//
+
+  private MtContentsExporterSimulation(int[] mtSizes) {
+    for (int i = 0; i < mtSizes.length; i++) {
+      mts.put(context("SimulatedMt-" + i), mtSizes[i]);
+    }
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private MtContentsExporter.Report export(Path file, int parallelism)
+          throws KbException, SessionException, IOException {
+    final MtContentsExporter exporter = new MtContentsExporter(source, parallelism, PAGE_SIZE) {
+      @Override
+      protected CycSession captureSession() {
+        return CALLER_SESSION;
+      }
+
+      @Override
+      protected void bind(CycSession session) {
+        CURRENT_SESSION.set(session);
+      }
+    };
+    final MtContentsExporter.Report report = exporter.export(new ArrayList<>(mts.keySet()), file);
+    final long expected = mts.values().stream().mapToLong(Integer::longValue).sum();
+    if (report.getAssertionCount() != expected) {
+      failures.add("exported " + report.getAssertionCount() + " assertions; expected " + expected);
+    }
+    if (source.gathers.get() != mts.size()) {
+      failures.add("the page source gathered " + source.gathers.get() + " Mt indexes for "
+              + mts.size() + " Mts");
+    }
+    if (!source.openWalks.isEmpty()) {
+      failures.add(source.openWalks.size() + " walks were left open at the page source");
+    }
+    return report;
+  }
+
+  /**
+   * Read the file back, and compare each Mt's assertions with what the page source supplied.
+   */
+  private void readBack(Path file) throws IOException {
+    final Map<String, List<List<String>>> read = new LinkedHashMap<>();
+    long rebuiltMismatches = 0;
+    try (MtContentsReader reader = new MtContentsReader(file)) {
+      while (reader.next()) {
+        read.computeIfAbsent(reader.getMtName(), mt -> new ArrayList<>()).add(reader.getTokens());
+        if (!MtContentsExporter.tokenize(reader.getCycl()).equals(reader.getTokens())) {
+          rebuiltMismatches++;
+        }
+      }
+    }
+    int checked = 0;
+    for (Map.Entry<Context, Integer> mt : mts.entrySet()) {
+      final List<List<String>> assertions = read.getOrDefault(mt.getKey().toString(),
+              new ArrayList<>());
+      if (assertions.size() != mt.getValue()) {
+        failures.add("read " + assertions.size() + " assertions of " + mt.getKey() + "; expected "
+                + mt.getValue());
+        continue;
+      }
+      for (int i = 0; i < assertions.size(); i++) {
+        final List<String> expected = MtContentsExporter.tokenize(cycl(mt.getKey(), i));
+        if (!assertions.get(i).equals(expected)) {
+          failures.add("assertion " + i + " of " + mt.getKey() + " was read back as "
+                  + assertions.get(i) + "; expected " + expected);
+          break;
+        }
+        checked++;
+      }
+    }
+    if (rebuiltMismatches != 0) {
+      failures.add(rebuiltMismatches + " assertions' CycL did not re-tokenize to their tokens");
+    }
+    System.out.println(String.format("Read back and checked %,d assertions of %d Mts", checked,
+            mts.size()));
+  }
+
+  private static String cycl(Context mt, int index) {
+    final String term = "#$" + mt + "-Thing-" + (index % 997);
+    switch (index % 4) {
+      case 0:
+        return "(#$isa " + term + " #$Collection-" + (index % 13) + ")";
+      case 1:
+        return "(#$comment " + term + " \"a \\\"quoted\\\" (comment) " + index + "\")";
+      case 2:
+        return "(#$implies (#$isa ?X " + term + ")\n  (#$genls ?X #$Thing))";
+      default:
+        return "(#$numberOfParts " + term + " " + index + ")";
+    }
+  }
+
+  private static Context context(String name) {
+    return (Context) Proxy.newProxyInstance(MtContentsExporterSimulation.class.getClassLoader(),
+            new Class<?>[]{Context.class}, (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "toString":
+                  return name;
+                case "hashCode":
+                  return name.hashCode();
+                case "equals":
+                  return proxy == args[0];
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+  private static int intArg(String[] args, int index, int defaultValue) {
+    return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+  //====|    SimulatedPageSource    |=============================================================//
+
+  /**
+   * Serves each Mt's made-up assertions, and counts how often it would have had to gather an Mt's
+   * index: for every page which does not continue a walk.
+   */
+  private final class SimulatedPageSource implements PageSource {
+
+    private final Map<String, Long> openWalks = new ConcurrentHashMap<>();
+    private final AtomicInteger gathers = new AtomicInteger();
+
+    @Override
+    public Page fetchPage(Context ctx, String walkId, long offset, int pageSize) {
+      if (CURRENT_SESSION.get() != CALLER_SESSION) {
+        failures.add("a page of " + ctx + " was fetched without the caller's session");
+      }
+      final Long walkOffset = openWalks.get(walkId);
+      if (walkOffset == null || walkOffset != offset) {
+        gathers.incrementAndGet();
+      }
+      final int size = mts.get(ctx);
+      final List<Assertion> assertions = new ArrayList<>(pageSize);
+      for (int i = (int) offset; i < size && assertions.size() < pageSize; i++) {
+        final String cycl = cycl(ctx, i);
+        assertions.add((Assertion) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{Assertion.class}, (proxy, method, args) -> {
+                  if ("toString".equals(method.getName())) {
+                    return cycl;
+                  }
+                  throw new UnsupportedOperationException(method.getName());
+                }));
+      }
+      final long next = offset + assertions.size();
+      if (next < size) {
+        openWalks.put(walkId, next);
+      } else {
+        openWalks.remove(walkId);
+      }
+      return new Page(size, assertions);
+    }
+
+    @Override
+    public void release(Context ctx, String walkId) {
+      openWalks.remove(walkId);
+    }
+  }
+
+}
@@ -0,0 +1,193 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: MtContentsReader.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads back a file written by {@link MtContentsExporter}, one assertion at a time. Only the
+ * symbol table is held in memory, so a file of any size may be read.
+ * <p>
+ * Each assertion is returned as the Mt's name and the tokens of the assertion's CycL, from which
+ * {@link #getCycl()} rebuilds the CycL with normalized whitespace.
+ */
+public class MtContentsReader implements Closeable {
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  private final DataInputStream in;
+  private final List<String> symbols = new ArrayList<>();
+  private String mtName;
+  private List<String> tokens = Collections.emptyList();
+  private long assertionCount = 0;
+
+  /**
+   * Opens {@code file}, and checks its header.
+   *
+   * @param file the file to read
+   *
+   * @throws IOException if the file could not be opened, or is not an exported file of a
+   *                     supported version
+   */
+  public MtContentsReader(Path file) throws IOException {
+    this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file),
+            READ_BUFFER_SIZE));
+    try {
+      final byte[] magic = new byte[MtContentsExporter.MAGIC.length];
+      in.readFully(magic);
+      final byte version = in.readByte();
+      if (!Arrays.equals(magic, MtContentsExporter.MAGIC)
+                  || version != MtContentsExporter.FORMAT_VERSION) {
+        throw new IOException(file + " is not an Mt contents file of version "
+                + MtContentsExporter.FORMAT_VERSION);
+      }
+    } catch (IOException ex) {
+      in.close();
+      throw ex;
+    }
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Advances to the next assertion.
+   *
+   * @return false if there are no more assertions
+   *
+   * @throws IOException if the file could not be read, or is malformed
+   */
+  public boolean next() throws IOException {
+    while (true) {
+      final int type = in.read();
+      if (type < 0) {
+        return false;
+      }
+      final int length = readVarint();
+      if (type == MtContentsExporter.SYMBOL_RECORD) {
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        symbols.add(new String(bytes, StandardCharsets.UTF_8));
+      } else if (type == MtContentsExporter.ASSERTION_RECORD) {
+        mtName = symbol(readVarint());
+        final int tokenCount = readVarint();
+        final List<String> assertionTokens = new ArrayList<>(tokenCount);
+        for (int i = 0; i < tokenCount; i++) {
+          assertionTokens.add(symbol(readVarint()));
+        }
+        tokens = assertionTokens;
+        assertionCount++;
+        return true;
+      } else {
+        throw new IOException("Unknown record type " + type + " after " + assertionCount
+                + " assertions");
+      }
+    }
+  }
+
+  /**
+   * Returns the name of the current assertion's Mt.
+   *
+   * @return the Mt's name
+   */
+  public String getMtName() {
+    return mtName;
+  }
+
+  /**
+   * Returns the tokens of the current assertion's CycL, as split by
+   * {@link MtContentsExporter#tokenize(String)}.
+   *
+   * @return the tokens
+   */
+  public List<String> getTokens() {
+    return Collections.unmodifiableList(tokens);
+  }
+
+  /**
+   * Returns the current assertion's CycL, rebuilt from its tokens with a single space between
+   * tokens, other than just inside parentheses.
+   *
+   * @return the CycL
+   */
+  public String getCycl() {
+    final StringBuilder cycl = new StringBuilder();
+    String previous = "(";
+    for (String token : tokens) {
+      if (!previous.equals("(") && !token.equals(")")) {
+        cycl.append(' ');
+      }
+      cycl.append(token);
+      previous = token;
+    }
+    return cycl.toString();
+  }
+
+  /**
+   * Returns the number of assertions read so far.
+   *
+   * @return the number of assertions
+   */
+  public long getAssertionCount() {
+    return assertionCount;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private String symbol(int id) throws IOException {
+    if (id < 0 || id >= symbols.size()) {
+      throw new IOException("Symbol " + id + " used before it was defined");
+    }
+    return symbols.get(id);
+  }
+
+  private int readVarint() throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      final int b = in.read();
+      if (b < 0) {
+        throw new EOFException("Truncated record after " + assertionCount + " assertions");
+      }
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint after " + assertionCount + " assertions");
+  }
+
+}
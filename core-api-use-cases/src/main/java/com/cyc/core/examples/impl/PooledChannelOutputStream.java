@@ -0,0 +1,109 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: PooledChannelOutputStream.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * An OutputStream which collects bytes in a buffer borrowed from a shared pool, and writes the
+ * buffer to a channel whenever it fills. Closing the stream flushes it and returns the buffer to
+ * the pool, but does not close the channel. Instances are not thread-safe.
+ */
+final class PooledChannelOutputStream extends OutputStream {
+
+  static final int BUFFER_SIZE = 16 * 1024;
+
+  private static final ConcurrentLinkedQueue<ByteBuffer> BUFFER_POOL
+          = new ConcurrentLinkedQueue<>();
+
+  private final WritableByteChannel channel;
+  private ByteBuffer buffer;
+  private long byteCount = 0;
+
+  PooledChannelOutputStream(WritableByteChannel channel) {
+    this.channel = channel;
+    final ByteBuffer pooled = BUFFER_POOL.poll();
+    this.buffer = (pooled != null) ? pooled : ByteBuffer.allocate(BUFFER_SIZE);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (!buffer.hasRemaining()) {
+      drain();
+    }
+    buffer.put((byte) b);
+    byteCount++;
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    while (length > 0) {
+      if (!buffer.hasRemaining()) {
+        drain();
+      }
+      final int chunk = Math.min(length, buffer.remaining());
+      buffer.put(bytes, offset, chunk);
+      offset += chunk;
+      length -= chunk;
+      byteCount += chunk;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    drain();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (buffer == null) {
+      return;
+    }
+    try {
+      drain();
+    } finally {
+      buffer.clear();
+      BUFFER_POOL.offer(buffer);
+      buffer = null;
+    }
+  }
+
+  /**
+   * Returns the number of bytes written to the stream so far.
+   */
+  long getByteCount() {
+    return byteCount;
+  }
+
+  private void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+}
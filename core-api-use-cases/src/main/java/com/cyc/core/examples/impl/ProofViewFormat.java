@@ -0,0 +1,130 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: ProofViewFormat.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.query.ProofViewSpecification;
+import com.cyc.query.exception.ProofViewException;
+import javax.xml.bind.JAXBException;
+
+/**
+ * The formats in which proof views may be written. XML is the Core Client's format, and the only
+ * one which the Cyc APIs themselves can read; JSON is convenient for browser and service clients;
+ * binary is the most compact, and the cheapest to write and to read back, for proof views which are
+ * stored or passed between JVMs.
+ * <p>
+ * The format may be chosen along with the other proof view options via a
+ * {@link FormattedProofViewSpecification}:
+ * <pre>{@code
+ * FormattedProofViewSpecification spec = FormattedProofViewSpecification.get()
+ *         .setFormat(ProofViewFormat.BINARY)
+ *         .setIncludeDetails(true);
+ * ProofViewGenerator generator = ProofViewGenerator.get(answer, spec);
+ * ProofViewFormat.of(spec).getWriter().marshal(generator, channel);
+ * }</pre>
+ */
+public enum ProofViewFormat {
+
+  /**
+   * XML, as written by {@link StreamingProofViewMarshaller}.
+   */
+  XML("application/xml", ".xml"),
+  /**
+   * JSON, as written by {@link JsonProofViewWriter}.
+   */
+  JSON("application/json", ".json"),
+  /**
+   * Compact binary, as written and read by {@link BinaryProofViewCodec}.
+   */
+  BINARY("application/octet-stream", ".cpv");
+
+  private final String mediaType;
+  private final String fileExtension;
+  private volatile ProofViewWriter writer;
+
+  private ProofViewFormat(String mediaType, String fileExtension) {
+    this.mediaType = mediaType;
+    this.fileExtension = fileExtension;
+  }
+
+  /**
+   * Returns the format requested by {@code spec}: its
+   * {@link FormattedProofViewSpecification#getFormat() format} if it is a
+   * FormattedProofViewSpecification, and otherwise {@link #XML}.
+   *
+   * @param spec a proof view specification
+   *
+   * @return the format
+   */
+  public static ProofViewFormat of(ProofViewSpecification spec) {
+    if (spec instanceof FormattedProofViewSpecification) {
+      return ((FormattedProofViewSpecification) spec).getFormat();
+    }
+    return XML;
+  }
+
+  public String getMediaType() {
+    return mediaType;
+  }
+
+  public String getFileExtension() {
+    return fileExtension;
+  }
+
+  /**
+   * Returns a shared, thread-safe writer for this format.
+   *
+   * @return the writer
+   *
+   * @throws ProofViewException if the writer could not be created
+   */
+  public ProofViewWriter getWriter() throws ProofViewException {
+    ProofViewWriter result = writer;
+    if (result == null) {
+      synchronized (this) {
+        result = writer;
+        if (result == null) {
+          result = createWriter();
+          writer = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  private ProofViewWriter createWriter() throws ProofViewException {
+    switch (this) {
+      case XML:
+        try {
+          return new StreamingProofViewMarshaller();
+        } catch (JAXBException ex) {
+          throw ProofViewException.fromThrowable("Could not create XML proof view writer", ex);
+        }
+      case JSON:
+        return new JsonProofViewWriter();
+      case BINARY:
+        return new BinaryProofViewCodec();
+      default:
+        throw new IllegalStateException("Unknown proof view format: " + this);
+    }
+  }
+
+}
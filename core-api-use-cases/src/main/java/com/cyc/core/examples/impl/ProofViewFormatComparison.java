@@ -0,0 +1,372 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: ProofViewFormatComparison.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.baseclient.xml.cycml.Paraphrase;
+import com.cyc.query.exception.ProofViewException;
+import com.cyc.xml.query.ProofView;
+import com.cyc.xml.query.ProofViewEntry;
+import com.cyc.xml.query.SubEntries;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * Compares the proof view formats: checks that each proof view survives a round trip through the
+ * binary format, and that its JSON reads back, via {@link JsonProofViewReader}, to the same
+ * entries, and then prints the size of each encoding and how long each takes to write and to read
+ * back. Both checks compare the proof views entry by entry, field by field.
+ * <p>
+ * The proof views are synthetic, so no Cyc server is needed. They are shaped like the proof of
+ * {@code (genls Emu Bird)} from the
+ * {@link com.cyc.core.examples.advanced.ProofViewMarshallerExample ProofViewMarshallerExample},
+ * scaled up, both broad and deep: each entry justifies a genls link via a chain of
+ * intermediate collections, with the same labels and much of the same CycL recurring throughout,
+ * as in real proofs. Some of the leaves have an empty sub-entries element, which the binary format
+ * must preserve.
+ * <p>
+ * Usage: {@code ProofViewFormatComparison [max depth] [fan-out] [iterations]}
+ */
+public class ProofViewFormatComparison {
+
+  private static final int DEFAULT_MAX_DEPTH = 10;
+  private static final int DEFAULT_FAN_OUT = 3;
+  private static final int DEFAULT_ITERATIONS = 20;
+  private static final int DEEP_CHAIN_DEPTH = 5_000;
+  private static final long COMPARISON_STACK_SIZE = 256L * 1024 * 1024;
+
+  private static final List<String> COLLECTIONS = Arrays.asList(
+          "Emu", "Ratite", "FlightlessBird", "Bird", "Vertebrate", "Animal", "Organism-Whole",
+          "BiologicalLivingObject", "PartiallyTangible", "SpatialThing-Localized");
+  private static final List<String> LABELS = Arrays.asList(
+          "Because:", "by transitivity of genls", "KB assertion", "in BiologyMt");
+
+  public static void main(String[] args) {
+    final String exampleName = ProofViewFormatComparison.class.getSimpleName();
+    final int maxDepth = intArg(args, 0, DEFAULT_MAX_DEPTH);
+    final int fanOut = intArg(args, 1, DEFAULT_FAN_OUT);
+    final int iterations = intArg(args, 2, DEFAULT_ITERATIONS);
+    try {
+      System.out.println("Running " + exampleName + "...");
+      // The JAXB unmarshaller and the JSON reader's parser are recursive, so the deepest proof
+      // views need a deep stack:
+      final FutureTask<Void> comparisons = new FutureTask<>(() -> {
+        final ProofViewFormatComparison comparison = new ProofViewFormatComparison();
+        for (int depth = 2; depth <= maxDepth; depth += 4) {
+          comparison.compare(syntheticProofView(depth, fanOut), iterations);
+        }
+        // A long, thin chain of justifications, as a deep genls hierarchy would produce. (The
+        // JDK's StAX writer cannot nest elements much more than 16,000 deep, which limits the XML.)
+        comparison.compare(syntheticProofView(DEEP_CHAIN_DEPTH, 1), iterations);
+        return null;
+      });
+      new Thread(null, comparisons, exampleName, COMPARISON_STACK_SIZE).start();
+      comparisons.get();
+      System.out.println();
+    } catch (ExecutionException ex) {
+      ex.getCause().printStackTrace(System.err);
+      System.exit(1);
+    } catch (InterruptedException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+      System.exit(1);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(0);
+    }
+  }
+
+  private final StreamingProofViewMarshaller xml;
+  private final JsonProofViewWriter json = new JsonProofViewWriter();
+  private final JsonProofViewReader jsonReader = new JsonProofViewReader();
+  private final BinaryProofViewCodec binary = new BinaryProofViewCodec();
+  private final Unmarshaller xmlUnmarshaller;
+
+  public ProofViewFormatComparison() throws JAXBException {
+    this.xml = new StreamingProofViewMarshaller();
+    this.xmlUnmarshaller = JAXBContext.newInstance(ProofView.class).createUnmarshaller();
+  }
+
+  /**
+   * Check and time each format on {@code proofView}, printing the results.
+   *
+   * @param proofView  the proof view
+   * @param iterations the number of times to write and read each format
+   *
+   * @throws ProofViewException if a proof view could not be written or read, or did not survive a
+   *                            round trip, or if its JSON is malformed or differs from it
+   * @throws JAXBException      if the XML could not be read, or a CycML fragment could not be
+   *                            compared
+   */
+  public void compare(ProofView proofView, int iterations)
+          throws ProofViewException, JAXBException {
+    final int entries = countEntries(proofView);
+    final byte[] xmlBytes = write(xml, proofView);
+    final byte[] jsonBytes = write(json, proofView);
+    final byte[] binaryBytes = write(binary, proofView);
+    checkBinaryRoundTrip(proofView, binaryBytes);
+    checkJson(proofView, jsonBytes);
+
+    System.out.println();
+    System.out.println(String.format("%,d entries:", entries));
+    System.out.println(String.format("  %-7s %12s %12s %12s",
+            "format", "bytes", "write ms", "read ms"));
+    final double xmlRead = time(iterations, () -> {
+      xmlUnmarshaller.unmarshal(new ByteArrayInputStream(xmlBytes));
+    });
+    final double jsonRead = time(iterations, () -> {
+      jsonReader.read(new ByteArrayInputStream(jsonBytes));
+    });
+    final double binaryRead = time(iterations, () -> {
+      binary.read(new ByteArrayInputStream(binaryBytes));
+    });
+    report("XML", xmlBytes.length, timeWrite(xml, proofView, iterations), xmlRead);
+    report("JSON", jsonBytes.length, timeWrite(json, proofView, iterations), jsonRead);
+    report("binary", binaryBytes.length, timeWrite(binary, proofView, iterations), binaryRead);
+  }
+
+  //====|    Checks    |==========================================================================//
+
+  /**
+   * Checks that a proof view decoded from the binary format has the same entries as the original,
+   * with the same fields, and that the same entries have sub-entries elements, even empty ones.
+   */
+  private void checkBinaryRoundTrip(ProofView proofView, byte[] binaryBytes)
+          throws ProofViewException, JAXBException {
+    final ProofView decoded = binary.read(new ByteArrayInputStream(binaryBytes));
+    final String failure = "Proof view " + proofView.getId()
+                                   + " changed in a round trip through the binary format";
+    if (!Objects.equals(proofView.getId(), decoded.getId())
+                || (proofView.getProofViewEntry() == null)
+                           != (decoded.getProofViewEntry() == null)) {
+      throw new ProofViewException(failure);
+    }
+    final Deque<ProofViewEntry[]> stack = new ArrayDeque<>();
+    if (proofView.getProofViewEntry() != null) {
+      stack.push(new ProofViewEntry[]{proofView.getProofViewEntry(), decoded.getProofViewEntry()});
+    }
+    while (!stack.isEmpty()) {
+      final ProofViewEntry[] pair = stack.pop();
+      if (!fields(pair[0]).equals(fields(pair[1]))
+                  || (pair[0].getSubEntries() == null) != (pair[1].getSubEntries() == null)) {
+        throw new ProofViewException(failure + ", at entry " + pair[0].getId());
+      }
+      if (pair[0].getSubEntries() != null) {
+        final List<ProofViewEntry> expected = pair[0].getSubEntries().getProofViewEntry();
+        final List<ProofViewEntry> actual = pair[1].getSubEntries().getProofViewEntry();
+        if (expected.size() != actual.size()) {
+          throw new ProofViewException(failure + ", at entry " + pair[0].getId());
+        }
+        for (int i = 0; i < expected.size(); i++) {
+          stack.push(new ProofViewEntry[]{expected.get(i), actual.get(i)});
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the JSON back, and checks that it has the same entries as the proof view, with the same
+   * fields. The JSON omits empty sub-entries, as it does other absent values.
+   */
+  private void checkJson(ProofView proofView, byte[] jsonBytes)
+          throws ProofViewException, JAXBException {
+    final ProofView decoded = jsonReader.read(new ByteArrayInputStream(jsonBytes));
+    final String failure = "JSON for proof view " + proofView.getId() + " differs from it";
+    if (!Objects.equals(proofView.getId(), decoded.getId())
+                || (proofView.getProofViewEntry() == null)
+                           != (decoded.getProofViewEntry() == null)) {
+      throw new ProofViewException(failure);
+    }
+    final Deque<ProofViewEntry[]> stack = new ArrayDeque<>();
+    if (proofView.getProofViewEntry() != null) {
+      stack.push(new ProofViewEntry[]{proofView.getProofViewEntry(), decoded.getProofViewEntry()});
+    }
+    while (!stack.isEmpty()) {
+      final ProofViewEntry[] pair = stack.pop();
+      final List<ProofViewEntry> expected = subEntries(pair[0]);
+      final List<ProofViewEntry> actual = subEntries(pair[1]);
+      if (!fields(pair[0]).equals(fields(pair[1])) || expected.size() != actual.size()) {
+        throw new ProofViewException(failure + ", at entry " + pair[0].getId());
+      }
+      for (int i = 0; i < expected.size(); i++) {
+        stack.push(new ProofViewEntry[]{expected.get(i), actual.get(i)});
+      }
+    }
+  }
+
+  /**
+   * Returns the fields of an entry other than its sub-entries, with CycML fragments as XML.
+   */
+  private static List<Object> fields(ProofViewEntry entry) throws JAXBException {
+    final String plainParaphrase = CycmlFragments.toPlainText(entry.getParaphrase());
+    return Arrays.asList(entry.getId(), entry.isAbducedSupport(), entry.isExpandInitially(),
+            entry.getLabel(), entry.getObjectType(), plainParaphrase,
+            (plainParaphrase == null) ? CycmlFragments.toXml(entry.getParaphrase()) : null,
+            entry.getCycl(), entry.getSilk(), CycmlFragments.toXml(entry.getContent()));
+  }
+
+  private static List<ProofViewEntry> subEntries(ProofViewEntry entry) {
+    return (entry.getSubEntries() == null)
+                   ? Collections.emptyList()
+                   : entry.getSubEntries().getProofViewEntry();
+  }
+
+  //====|    Timing    |==========================================================================//
+
+  @FunctionalInterface
+  private static interface Task {
+
+    void run() throws ProofViewException, JAXBException;
+  }
+
+  private static double time(int iterations, Task task) throws ProofViewException, JAXBException {
+    for (int i = 0; i < iterations; i++) {
+      task.run();
+    }
+    final long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      task.run();
+    }
+    return (System.nanoTime() - start) / 1e6 / iterations;
+  }
+
+  private static double timeWrite(ProofViewWriter writer, ProofView proofView, int iterations)
+          throws ProofViewException, JAXBException {
+    return time(iterations, () -> writer.marshal(proofView, NULL_CHANNEL));
+  }
+
+  private static void report(String format, int bytes, double writeMillis, double readMillis) {
+    System.out.println(String.format("  %-7s %,12d %12.2f %12.2f", format, bytes, writeMillis,
+            readMillis));
+  }
+
+  private static byte[] write(ProofViewWriter writer, ProofView proofView)
+          throws ProofViewException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.marshal(proofView, Channels.newChannel(out));
+    return out.toByteArray();
+  }
+
+  private static final WritableByteChannel NULL_CHANNEL = new WritableByteChannel() {
+    @Override
+    public int write(ByteBuffer src) {
+      final int remaining = src.remaining();
+      src.position(src.limit());
+      return remaining;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+
+  //====|    Synthetic proof views    |===========================================================//
+
+  /**
+   * Returns a proof view of {@code (genls Emu Bird)}, {@code depth} levels deep, in which each
+   * entry has {@code fanOut} sub-entries. Leaves with odd ids have an empty sub-entries element.
+   */
+  static ProofView syntheticProofView(int depth, int fanOut) {
+    final ProofView proofView = new ProofView();
+    proofView.setId(BigInteger.valueOf(depth));
+    final ProofViewEntry root = entry(0, 0, 0);
+    proofView.setProofViewEntry(root);
+    // Built breadth first, without recursion, since the point is to try deep trees:
+    final Deque<ProofViewEntry> frontier = new ArrayDeque<>();
+    final Deque<Integer> levels = new ArrayDeque<>();
+    frontier.add(root);
+    levels.add(0);
+    int nextId = 1;
+    while (!frontier.isEmpty()) {
+      final ProofViewEntry parent = frontier.poll();
+      final int level = levels.poll();
+      if (level < depth) {
+        final SubEntries subEntries = new SubEntries();
+        for (int i = 0; i < fanOut; i++) {
+          final ProofViewEntry child = entry(nextId++, level + 1, i);
+          subEntries.getProofViewEntry().add(child);
+          frontier.add(child);
+          levels.add(level + 1);
+        }
+        parent.setSubEntries(subEntries);
+      } else if (parent.getId().testBit(0)) {
+        parent.setSubEntries(new SubEntries());
+      }
+    }
+    return proofView;
+  }
+
+  private static ProofViewEntry entry(int id, int level, int index) {
+    final int size = COLLECTIONS.size();
+    final String spec = COLLECTIONS.get((level + index) % size);
+    final String genl = (id == 0) ? "Bird" : COLLECTIONS.get((level + index + 1) % size);
+    final ProofViewEntry entry = new ProofViewEntry();
+    entry.setId(BigInteger.valueOf(id));
+    entry.setLabel(LABELS.get((level + index) % LABELS.size()));
+    entry.setObjectType((index == 0) ? "Justification" : "Assertion");
+    entry.setExpandInitially(level < 2);
+    entry.setCycl("(#$genls #$" + spec + " #$" + genl + ")");
+    final Paraphrase paraphrase = new Paraphrase();
+    paraphrase.getContent().add("every " + spec + " is a kind of " + genl);
+    entry.setParaphrase(paraphrase);
+    return entry;
+  }
+
+  private static int countEntries(ProofView proofView) {
+    int count = 0;
+    final Deque<ProofViewEntry> stack = new ArrayDeque<>();
+    if (proofView.getProofViewEntry() != null) {
+      stack.push(proofView.getProofViewEntry());
+    }
+    while (!stack.isEmpty()) {
+      final ProofViewEntry entry = stack.pop();
+      count++;
+      if (entry.getSubEntries() != null) {
+        entry.getSubEntries().getProofViewEntry().forEach(stack::push);
+      }
+    }
+    return count;
+  }
+
+  private static int intArg(String[] args, int index, int defaultValue) {
+    return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+}
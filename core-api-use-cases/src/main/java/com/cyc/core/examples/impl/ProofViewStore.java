@@ -0,0 +1,718 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: ProofViewStore.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.kb.Context;
+import com.cyc.kb.Sentence;
+import com.cyc.query.exception.ProofViewException;
+import com.cyc.session.CycServerInfo;
+import com.cyc.xml.query.ProofView;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent, local store of proof views, so that answers from days or weeks ago can be
+ * justified again without re-running their inferences (as described in
+ * {@link com.cyc.core.examples.advanced.ProofViewMarshallerExample ProofViewMarshallerExample}).
+ * Proof views are keyed by the fully-bound sentence they justify, the Mt in which it was proved,
+ * and the revision of the KB. A proof view is only served for the KB revision it was generated
+ * against, so a changed KB is never mistaken for an unchanged one; {@link #retainRevision(String)}
+ * discards the proof views of other revisions.
+ * <p>
+ * Proof views are stored in the {@link BinaryProofViewCodec binary format}, appended to segment
+ * files in a directory, and read back via memory-mapped views of those files. An in-memory index
+ * of every key is rebuilt when the store is opened, by scanning the segments; a partly written
+ * record at the end of a segment, as left by a crash, is truncated away. Each segment is a
+ * sequence of records:
+ * <pre>
+ *   record := type:i32 sentence mt revision valueLength:i32 value crc32:i32
+ *   sentence, mt, revision := length:i32 utf-8 bytes
+ *   PUT    (type 0x50565331) value := a binary proof view
+ *   REMOVE (type 0x50565330) value := empty
+ * </pre>
+ * Later records supersede earlier ones. The store holds no more than {@code maxBytes} of live
+ * records; beyond that, the least recently used proof views are evicted. Once superseded, removed
+ * and evicted records take up more space than live ones, the store is compacted: live records are
+ * copied, least recently used first, into new segments, and the old segments are deleted. Because
+ * of that ordering, recency survives compaction and reopening approximately; reads alone are not
+ * persisted.
+ * <p>
+ * Instances are thread-safe, but a directory should only be opened by one store at a time.
+ */
+public class ProofViewStore implements Closeable {
+
+  //====|    Fields    |==========================================================================//
+
+  public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+  public static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+
+  /**
+   * Compaction is not worth its while until there is at least this much dead space.
+   */
+  private static final long MIN_COMPACTION_BYTES = 1024 * 1024;
+
+  private static final int PUT = 0x50565331;
+  private static final int REMOVE = 0x50565330;
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".pvs";
+
+  private final Path directory;
+  private final long maxBytes;
+  private final int segmentBytes;
+  private final BinaryProofViewCodec codec = new BinaryProofViewCodec();
+  /**
+   * Every live proof view, least recently used first.
+   */
+  private final LinkedHashMap<Key, Location> index = new LinkedHashMap<>(16, 0.75f, true);
+  private final List<Segment> segments = new ArrayList<>();
+  private long nextSegmentId = 0;
+  private long liveBytes = 0;
+  private long fileBytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+  private long compactions = 0;
+  private long truncatedBytes = 0;
+  private boolean closed = false;
+
+  //====|    Construction    |====================================================================//
+
+  private ProofViewStore(Path directory, long maxBytes, int segmentBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.segmentBytes = segmentBytes;
+  }
+
+  /**
+   * Open the store in {@code directory}, creating it if necessary.
+   *
+   * @param directory    the directory in which to keep the segment files
+   * @param maxBytes     the maximum size of the live proof views
+   * @param segmentBytes the size at which to start a new segment file
+   *
+   * @return the store
+   *
+   * @throws IOException if the directory or its segments could not be read
+   */
+  public static ProofViewStore open(Path directory, long maxBytes, int segmentBytes)
+          throws IOException {
+    if (maxBytes <= 0 || segmentBytes <= 0) {
+      throw new IllegalArgumentException(
+              "Sizes must be positive: maxBytes=" + maxBytes + ", segmentBytes=" + segmentBytes);
+    }
+    Files.createDirectories(directory);
+    final ProofViewStore store = new ProofViewStore(directory, maxBytes, segmentBytes);
+    try {
+      store.load();
+      store.evictWhileTooBig();
+    } catch (IOException | RuntimeException ex) {
+      store.close();
+      throw ex;
+    }
+    return store;
+  }
+
+  public static ProofViewStore open(Path directory, long maxBytes) throws IOException {
+    return open(directory, maxBytes, DEFAULT_SEGMENT_BYTES);
+  }
+
+  public static ProofViewStore open(Path directory) throws IOException {
+    return open(directory, DEFAULT_MAX_BYTES);
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Returns the proof view stored under {@code key}, or null if there is none.
+   *
+   * @param key the key
+   *
+   * @return the proof view, or null
+   *
+   * @throws ProofViewException if the stored proof view could not be read
+   */
+  public synchronized ProofView get(Key key) throws ProofViewException {
+    ensureOpen();
+    final Location location = index.get(key);
+    if (location == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    try {
+      return codec.read(new ByteBufferInputStream(location.readValue()));
+    } catch (IOException ex) {
+      throw ProofViewException.fromThrowable("Could not read stored proof view for " + key, ex);
+    }
+  }
+
+  /**
+   * Returns the proof view stored under {@code key}; if there is none, generates it via
+   * {@code generator}, stores it, and returns it.
+   *
+   * @param key       the key
+   * @param generator generates the proof view; typically by re-running the query, and generating
+   *                  the proof view for its single answer
+   *
+   * @return the proof view
+   *
+   * @throws ProofViewException if the proof view could not be read, generated or stored
+   */
+  public ProofView getOrGenerate(Key key, Generator generator) throws ProofViewException {
+    final ProofView stored = get(key);
+    if (stored != null) {
+      return stored;
+    }
+    // Generated outside the lock, as it will usually take a round trip to the Cyc server:
+    final ProofView generated = generator.generate();
+    try {
+      put(key, generated);
+    } catch (IOException ex) {
+      throw ProofViewException.fromThrowable("Could not store proof view for " + key, ex);
+    }
+    return generated;
+  }
+
+  /**
+   * Store {@code proofView} under {@code key}, replacing any proof view already stored there.
+   *
+   * @param key       the key
+   * @param proofView the proof view
+   *
+   * @throws ProofViewException if the proof view could not be encoded
+   * @throws IOException        if the proof view could not be written
+   */
+  public synchronized void put(Key key, ProofView proofView)
+          throws ProofViewException, IOException {
+    ensureOpen();
+    final ByteArrayOutputStream value = new ByteArrayOutputStream();
+    codec.marshal(proofView, Channels.newChannel(value));
+    final Location location = append(PUT, key, value.toByteArray());
+    forget(index.put(key, location));
+    liveBytes += location.length;
+    evictWhileTooBig();
+    compactIfWorthwhile();
+  }
+
+  /**
+   * Remove the proof view stored under {@code key}, if any.
+   *
+   * @param key the key
+   *
+   * @return whether there was a proof view to remove
+   *
+   * @throws IOException if the removal could not be written
+   */
+  public synchronized boolean remove(Key key) throws IOException {
+    ensureOpen();
+    final Location location = index.remove(key);
+    if (location == null) {
+      return false;
+    }
+    forget(location);
+    append(REMOVE, key, new byte[0]);
+    compactIfWorthwhile();
+    return true;
+  }
+
+  /**
+   * Remove every proof view which was not generated against {@code kbRevision}. Such proof views
+   * can never be served while the KB is at {@code kbRevision}.
+   *
+   * @param kbRevision the current KB revision
+   *
+   * @return the number of proof views removed
+   *
+   * @throws IOException if the removals could not be written
+   */
+  public synchronized int retainRevision(String kbRevision) throws IOException {
+    ensureOpen();
+    final List<Key> stale = new ArrayList<>();
+    for (Key key : index.keySet()) {
+      if (!key.getKbRevision().equals(kbRevision)) {
+        stale.add(key);
+      }
+    }
+    for (Key key : stale) {
+      forget(index.remove(key));
+      append(REMOVE, key, new byte[0]);
+    }
+    compactIfWorthwhile();
+    return stale.size();
+  }
+
+  /**
+   * Rewrite the live proof views into new segments, least recently used first, force them to disk,
+   * and delete the old segments. If the process dies part-way through, the store still opens: the
+   * copies are in segments newer than the originals, so they merely supersede them.
+   *
+   * @throws IOException if the new segments could not be written, or the old ones deleted
+   */
+  public synchronized void compact() throws IOException {
+    ensureOpen();
+    final List<Segment> oldSegments = new ArrayList<>(segments);
+    segments.clear();
+    fileBytes = 0;
+    startSegment();
+    for (Map.Entry<Key, Location> entry : index.entrySet()) {
+      final Location old = entry.getValue();
+      final byte[] value = new byte[old.valueLength];
+      old.readValue().get(value);
+      // Replacing values does not count as an access, so the iteration order is unaffected:
+      entry.setValue(append(PUT, entry.getKey(), value));
+    }
+    // The copies must be durable before the only other copies are deleted:
+    for (Segment segment : segments) {
+      segment.channel.force(false);
+    }
+    for (Segment segment : oldSegments) {
+      segment.close();
+      Files.delete(segment.path);
+    }
+    compactions++;
+  }
+
+  public synchronized int size() {
+    return index.size();
+  }
+
+  /**
+   * Returns the total size of the live records.
+   *
+   * @return the size, in bytes
+   */
+  public synchronized long getLiveBytes() {
+    return liveBytes;
+  }
+
+  /**
+   * Returns the total size of the segment files, including superseded and removed records.
+   *
+   * @return the size, in bytes
+   */
+  public synchronized long getFileBytes() {
+    return fileBytes;
+  }
+
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictions;
+  }
+
+  public synchronized long getCompactionCount() {
+    return compactions;
+  }
+
+  /**
+   * Returns the number of bytes of partly written records which were truncated from the ends of
+   * segments when the store was opened.
+   *
+   * @return the size, in bytes
+   */
+  public synchronized long getTruncatedBytes() {
+    return truncatedBytes;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    IOException failure = null;
+    for (Segment segment : segments) {
+      try {
+        segment.channel.force(false);
+        segment.close();
+      } catch (IOException ex) {
+        failure = (failure == null) ? ex : failure;
+      }
+    }
+    index.clear();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return getClass().getSimpleName() + "[" + directory + ": entries=" + index.size()
+            + ", liveBytes=" + liveBytes + ", fileBytes=" + fileBytes + ", segments="
+            + segments.size() + ", hits=" + hits + ", misses=" + misses + ", evictions="
+            + evictions + ", compactions=" + compactions + "]";
+  }
+
+  //====|    Generator    |=======================================================================//
+
+  /**
+   * Generates a proof view which is not in the store.
+   */
+  @FunctionalInterface
+  public static interface Generator {
+
+    ProofView generate() throws ProofViewException;
+  }
+
+  //====|    Key    |=============================================================================//
+
+  /**
+   * Identifies a proof view: the fully-bound sentence which it justifies, the Mt in which the
+   * sentence was proved, and the KB revision against which it was proved.
+   */
+  public static final class Key {
+
+    private final String sentence;
+    private final String mt;
+    private final String kbRevision;
+
+    public Key(String sentence, String mt, String kbRevision) {
+      this.sentence = Objects.requireNonNull(sentence, "sentence");
+      this.mt = Objects.requireNonNull(mt, "mt");
+      this.kbRevision = Objects.requireNonNull(kbRevision, "kbRevision");
+    }
+
+    public static Key of(Sentence sentence, Context mt, String kbRevision) {
+      return new Key(sentence.stringApiValue(), mt.stringApiValue(), kbRevision);
+    }
+
+    /**
+     * Returns the key for a proof view of {@code sentence} in {@code mt}, proved against the KB
+     * revision of the server described by {@code serverInfo}.
+     *
+     * @param sentence   a fully-bound sentence
+     * @param mt         the Mt in which the sentence is proved
+     * @param serverInfo the server against whose KB it is proved
+     *
+     * @return the key
+     */
+    public static Key of(Sentence sentence, Context mt, CycServerInfo serverInfo) {
+      return of(sentence, mt, serverInfo.getCycRevisionString());
+    }
+
+    public String getSentence() {
+      return sentence;
+    }
+
+    public String getMt() {
+      return mt;
+    }
+
+    public String getKbRevision() {
+      return kbRevision;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return sentence.equals(other.sentence) && mt.equals(other.mt)
+                     && kbRevision.equals(other.kbRevision);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(sentence, mt, kbRevision);
+    }
+
+    @Override
+    public String toString() {
+      return sentence + " in " + mt + " @ " + kbRevision;
+    }
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private void ensureOpen() {
+    if (closed) {
+      throw new IllegalStateException(this + " is closed");
+    }
+  }
+
+  private void forget(Location location) {
+    if (location != null) {
+      liveBytes -= location.length;
+    }
+  }
+
+  private void evictWhileTooBig() throws IOException {
+    final Iterator<Map.Entry<Key, Location>> eldest = index.entrySet().iterator();
+    while (liveBytes > maxBytes && eldest.hasNext()) {
+      final Map.Entry<Key, Location> entry = eldest.next();
+      eldest.remove();
+      forget(entry.getValue());
+      append(REMOVE, entry.getKey(), new byte[0]);
+      evictions++;
+    }
+  }
+
+  private void compactIfWorthwhile() throws IOException {
+    final long deadBytes = fileBytes - liveBytes;
+    if (deadBytes > Math.max(liveBytes, MIN_COMPACTION_BYTES)) {
+      compact();
+    }
+  }
+
+  private Location append(int type, Key key, byte[] value) throws IOException {
+    final byte[] sentence = key.sentence.getBytes(StandardCharsets.UTF_8);
+    final byte[] mt = key.mt.getBytes(StandardCharsets.UTF_8);
+    final byte[] revision = key.kbRevision.getBytes(StandardCharsets.UTF_8);
+    final int length = 4 + (4 + sentence.length) + (4 + mt.length) + (4 + revision.length)
+                               + (4 + value.length) + 4;
+    final ByteBuffer record = ByteBuffer.allocate(length);
+    record.putInt(type);
+    record.putInt(sentence.length).put(sentence);
+    record.putInt(mt.length).put(mt);
+    record.putInt(revision.length).put(revision);
+    record.putInt(value.length);
+    final int valueOffset = record.position();
+    record.put(value);
+    final CRC32 crc = new CRC32();
+    crc.update(record.array(), 0, record.position());
+    record.putInt((int) crc.getValue());
+    record.flip();
+
+    Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    if (segment == null || (segment.size > 0 && segment.size + length > segmentBytes)) {
+      segment = startSegment();
+    }
+    final long offset = segment.size;
+    while (record.hasRemaining()) {
+      segment.channel.write(record, segment.size + record.position());
+    }
+    segment.size += length;
+    fileBytes += length;
+    return new Location(segment, offset, length, valueOffset, value.length);
+  }
+
+  private Segment startSegment() throws IOException {
+    final Path path = directory.resolve(String.format("%s%012d%s",
+            SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+    final Segment segment = new Segment(path, FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ, StandardOpenOption.WRITE));
+    segments.add(segment);
+    return segment;
+  }
+
+  /**
+   * Rebuilds the index from the segment files, oldest first.
+   */
+  private void load() throws IOException {
+    final List<Path> paths = new ArrayList<>();
+    try (DirectoryStream<Path> stream
+            = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      stream.forEach(paths::add);
+    }
+    paths.sort(null);
+    for (Path path : paths) {
+      final String name = path.getFileName().toString();
+      final long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+              name.length() - SEGMENT_SUFFIX.length()));
+      nextSegmentId = Math.max(nextSegmentId, id + 1);
+      final Segment segment = new Segment(path, FileChannel.open(path,
+              StandardOpenOption.READ, StandardOpenOption.WRITE));
+      segments.add(segment);
+      scan(segment);
+    }
+  }
+
+  private void scan(Segment segment) throws IOException {
+    final long fileSize = segment.channel.size();
+    final ByteBuffer buffer = segment.map(fileSize);
+    final CRC32 crc = new CRC32();
+    int offset = 0;
+    while (offset < fileSize) {
+      buffer.position(offset);
+      final int type = (buffer.remaining() >= 4) ? buffer.getInt() : 0;
+      if (type != PUT && type != REMOVE) {
+        break;
+      }
+      final String sentence = readString(buffer);
+      final String mt = readString(buffer);
+      final String revision = readString(buffer);
+      if (revision == null || buffer.remaining() < 4) {
+        break;
+      }
+      final int valueLength = buffer.getInt();
+      if (valueLength < 0 || buffer.remaining() < valueLength + 4) {
+        break;
+      }
+      final int valueOffset = buffer.position() - offset;
+      buffer.position(buffer.position() + valueLength);
+      final int length = buffer.position() + 4 - offset;
+      crc.reset();
+      final ByteBuffer covered = buffer.duplicate();
+      covered.position(offset).limit(offset + length - 4);
+      crc.update(covered);
+      if (buffer.getInt() != (int) crc.getValue()) {
+        break;
+      }
+      final Key key = new Key(sentence, mt, revision);
+      final Location previous = (type == PUT)
+                                        ? index.put(key,
+                                                new Location(segment, offset, length,
+                                                        valueOffset, valueLength))
+                                        : index.remove(key);
+      forget(previous);
+      if (type == PUT) {
+        liveBytes += length;
+      }
+      offset += length;
+    }
+    if (offset < fileSize) {
+      // A record was only partly written; the rest of the segment is unusable:
+      truncatedBytes += fileSize - offset;
+      segment.channel.truncate(offset);
+    }
+    segment.size = offset;
+    fileBytes += offset;
+  }
+
+  /**
+   * Reads a length-prefixed UTF-8 string, or returns null if the buffer is too short to hold it.
+   */
+  private static String readString(ByteBuffer buffer) {
+    if (buffer.remaining() < 4) {
+      return null;
+    }
+    final int length = buffer.getInt();
+    if (length < 0 || buffer.remaining() < length) {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  //====|    Segments    |========================================================================//
+
+  private static final class Segment {
+
+    private final Path path;
+    private final FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long size = 0;
+
+    private Segment(Path path, FileChannel channel) {
+      this.path = path;
+      this.channel = channel;
+    }
+
+    /**
+     * Returns a read-only mapping of at least the first {@code minSize} bytes of the segment,
+     * remapping it if it has grown since it was last mapped.
+     */
+    private MappedByteBuffer map(long minSize) throws IOException {
+      if (mapped == null || mapped.capacity() < minSize) {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.max(minSize, size));
+      }
+      return mapped;
+    }
+
+    private void close() throws IOException {
+      mapped = null;
+      channel.close();
+    }
+  }
+
+  private static final class Location {
+
+    private final Segment segment;
+    private final long offset;
+    private final int length;
+    private final int valueOffset;
+    private final int valueLength;
+
+    private Location(Segment segment, long offset, int length, int valueOffset,
+            int valueLength) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.valueOffset = valueOffset;
+      this.valueLength = valueLength;
+    }
+
+    /**
+     * Returns a view of the record's value in the segment's mapping.
+     */
+    private ByteBuffer readValue() throws IOException {
+      final ByteBuffer value = segment.map(offset + length).duplicate();
+      final int start = (int) (offset + valueOffset);
+      value.position(start).limit(start + valueLength);
+      return value.slice();
+    }
+  }
+
+  private static final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      final int n = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, n);
+      return n;
+    }
+  }
+
+}
@@ -0,0 +1,120 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: ProofViewStoreExample.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.kb.Context;
+import com.cyc.kb.Sentence;
+import com.cyc.kb.exception.KbException;
+import com.cyc.query.ProofViewGenerator;
+import com.cyc.query.ProofViewSpecification;
+import com.cyc.query.Query;
+import com.cyc.query.client.explanations.ProofViewGeneratorImpl;
+import com.cyc.query.exception.ProofViewException;
+import com.cyc.query.exception.QueryConstructionException;
+import com.cyc.session.CycSession;
+import com.cyc.session.SessionManager;
+import com.cyc.session.exception.OpenCycUnsupportedFeatureException;
+import com.cyc.session.exception.SessionException;
+import com.cyc.xml.query.ProofView;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import javax.xml.bind.JAXBException;
+
+import static com.cyc.Cyc.Constants.INFERENCE_PSC;
+
+/**
+ * This class provides an example of keeping proof views in a {@link ProofViewStore}. The first
+ * time it is run, it proves {@code (genls Emu Bird)} and stores the proof view, as in the
+ * {@link com.cyc.core.examples.advanced.ProofViewMarshallerExample ProofViewMarshallerExample};
+ * on later runs, for as long as the KB revision is unchanged, the proof view is read from the store
+ * instead, without running an inference.
+ */
+public class ProofViewStoreExample {
+
+  public static void main(String[] args) {
+    final String exampleName = ProofViewStoreExample.class.getSimpleName();
+    try (SessionManager sessionMgr = SessionManager.getInstance()) {
+      System.out.println("Running " + exampleName + "...");
+      ProofViewStoreExample example = new ProofViewStoreExample();
+      example.runExample(Paths.get(args.length > 0 ? args[0] : "target/proof-view-store"));
+      System.out.println();
+    } catch (KbException | SessionException | ProofViewException | JAXBException
+                     | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+      System.exit(1);
+    } catch (IOException ioe) {
+      ioe.printStackTrace(System.err);
+      System.exit(1);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(0);
+    }
+  }
+
+  /**
+   * Fetch the proof view of {@code (genls Emu Bird)} from the store in {@code directory},
+   * generating it if necessary, and print it as XML.
+   *
+   * @param directory the store's directory
+   *
+   * @throws KbException
+   * @throws SessionException
+   * @throws ProofViewException
+   * @throws JAXBException
+   * @throws IOException
+   */
+  public void runExample(Path directory)
+          throws KbException, SessionException, ProofViewException, JAXBException, IOException {
+    final Sentence sentence = Sentence.get("(genls Emu Bird)");
+    final String kbRevision = CycSession.getCurrent().getServerInfo().getCycRevisionString();
+    try (ProofViewStore store = ProofViewStore.open(directory)) {
+      // Proof views for older KB revisions can never be served again, so discard them:
+      final int discarded = store.retainRevision(kbRevision);
+      if (discarded > 0) {
+        System.out.println("Discarded " + discarded + " proof view(s) from other KB revisions.");
+      }
+      final ProofViewStore.Key key = ProofViewStore.Key.of(sentence, INFERENCE_PSC, kbRevision);
+      final ProofView proofView = store.getOrGenerate(key, () -> prove(sentence, INFERENCE_PSC));
+      System.out.println((store.getHitCount() > 0 ? "Read" : "Generated") + " proof view for "
+              + key);
+      new StreamingProofViewMarshaller().marshal(proofView, System.out);
+      System.out.println();
+      System.out.println(store);
+    }
+  }
+
+  /**
+   * Prove {@code sentence} in {@code mt}, and return the proof view of its single answer.
+   */
+  private ProofView prove(Sentence sentence, Context mt) throws ProofViewException {
+    try (Query query = sentence.toQuery(mt)) {
+      query.retainInference();
+      final ProofViewGenerator generator
+              = ProofViewGenerator.get(query.getAnswer(0), ProofViewSpecification.get());
+      return ((ProofViewGeneratorImpl) generator).getProofViewJaxb();
+    } catch (QueryConstructionException | OpenCycUnsupportedFeatureException ex) {
+      throw ProofViewException.fromThrowable("Could not prove " + sentence, ex);
+    }
+  }
+
+}
@@ -0,0 +1,306 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: ProofViewStoreSimulation.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.query.exception.ProofViewException;
+import com.cyc.xml.query.ProofView;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exercises a {@link ProofViewStore} in temporary directories, with synthetic proof views. No Cyc
+ * server is needed. Three scenarios are run:
+ * <ul>
+ * <li>compaction: every key is overwritten many times, so that the store compacts itself;</li>
+ * <li>eviction: many more proof views are stored than fit, while one is kept in use;</li>
+ * <li>torn tail: the last record of a closed store is cut short, or followed by garbage, as a
+ * crash part-way through a write would leave it.</li>
+ * </ul>
+ * <p>
+ * The simulation fails (exiting with status 1) if compaction never happens or leaves more dead
+ * space than live space (beyond the minimum worth compacting), or leaves old segments behind; if
+ * the store holds more than its maximum, or evicts a proof view in use rather than an unused one;
+ * if a torn record is not truncated away on reopening, or takes any intact record with it; or if
+ * any reopened store serves other than the latest proof view stored under a key.
+ * <p>
+ * Usage: {@code ProofViewStoreSimulation [keys] [overwrites of each key]}
+ */
+public class ProofViewStoreSimulation {
+
+  private static final int DEFAULT_KEYS = 200;
+  private static final int DEFAULT_OVERWRITES = 20;
+  private static final int SEGMENT_BYTES = 256 * 1024;
+  private static final long MIN_COMPACTION_BYTES = 1024 * 1024;
+  private static final String KB_REVISION = "simulated-revision";
+
+  public static void main(String[] args) {
+    final String exampleName = ProofViewStoreSimulation.class.getSimpleName();
+    final int keys = intArg(args, 0, DEFAULT_KEYS);
+    final int overwrites = intArg(args, 1, DEFAULT_OVERWRITES);
+    boolean passed = false;
+    try {
+      System.out.println("Running " + exampleName + "...");
+      final ProofViewStoreSimulation simulation = new ProofViewStoreSimulation();
+      simulation.compaction(keys, overwrites);
+      simulation.eviction(keys);
+      simulation.tornTail(Math.min(keys, 10));
+      passed = simulation.failures.isEmpty();
+      simulation.failures.forEach(failure -> System.out.println("FAILED: " + failure));
+      System.out.println();
+    } catch (IOException | ProofViewException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(passed ? 0 : 1);
+    }
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  private final List<String> failures = new ArrayList<>();
+
+  //====|    Scenarios    |=======================================================================//
+
+  /**
+   * Overwrite every key {@code overwrites} times, checking the dead space after each write; then
+   * reopen the store, and check that it serves the last version of each key.
+   */
+  private void compaction(int keys, int overwrites) throws IOException, ProofViewException {
+    final String scenario = "compaction";
+    final Path directory = Files.createTempDirectory("proof-view-store");
+    try {
+      long maxDeadBytes = 0;
+      try (ProofViewStore store = ProofViewStore.open(directory, Long.MAX_VALUE, SEGMENT_BYTES)) {
+        for (int version = 0; version <= overwrites; version++) {
+          for (int i = 0; i < keys; i++) {
+            store.put(key(i), proofView(i, version));
+            final long deadBytes = store.getFileBytes() - store.getLiveBytes();
+            maxDeadBytes = Math.max(maxDeadBytes, deadBytes);
+            if (deadBytes > Math.max(store.getLiveBytes(), MIN_COMPACTION_BYTES)) {
+              check(scenario, false, deadBytes + " dead bytes were left beside "
+                      + store.getLiveBytes() + " live bytes");
+              return;
+            }
+          }
+        }
+        check(scenario, store.getCompactionCount() > 0, "the store never compacted");
+        check(scenario, segmentBytes(directory) == store.getFileBytes(), "the segments hold "
+                + segmentBytes(directory) + " bytes; the store counts " + store.getFileBytes());
+        check(scenario, segmentCount(directory) <= store.getFileBytes() / SEGMENT_BYTES + 1,
+                segmentCount(directory) + " segments were left for " + store.getFileBytes()
+                + " bytes");
+        System.out.println(String.format("%s: %,d puts of %d keys; %d compactions; at most %,d"
+                + " dead bytes; %s", scenario, keys * (overwrites + 1), keys,
+                store.getCompactionCount(), maxDeadBytes, store));
+      }
+      try (ProofViewStore store = ProofViewStore.open(directory, Long.MAX_VALUE, SEGMENT_BYTES)) {
+        check(scenario, store.size() == keys, "reopened with " + store.size() + " of " + keys
+                + " keys");
+        for (int i = 0; i < keys; i++) {
+          checkServes(scenario, store, i, overwrites);
+        }
+      }
+    } finally {
+      deleteDirectory(directory);
+    }
+  }
+
+  /**
+   * Store {@code keys} proof views in a store with room for a quarter of them, reading the first
+   * after every write; it should never be evicted, while the other early ones should be.
+   */
+  private void eviction(int keys) throws IOException, ProofViewException {
+    final String scenario = "eviction";
+    final Path directory = Files.createTempDirectory("proof-view-store");
+    try {
+      final long maxBytes = keys / 4 * recordBytes(directory.resolve("probe"));
+      int size;
+      try (ProofViewStore store = ProofViewStore.open(directory, maxBytes, SEGMENT_BYTES)) {
+        for (int i = 0; i < keys; i++) {
+          store.put(key(i), proofView(i, 0));
+          check(scenario, store.getLiveBytes() <= maxBytes, "holding " + store.getLiveBytes()
+                  + " live bytes, over the maximum of " + maxBytes);
+          checkServes(scenario, store, 0, 0);
+        }
+        size = store.size();
+        check(scenario, store.getEvictionCount() == keys - size, store.getEvictionCount()
+                + " evictions for " + keys + " keys, of which " + size + " remain");
+        check(scenario, store.get(key(1)) == null, "the least recently used key was not evicted");
+        checkServes(scenario, store, keys - 1, 0);
+        System.out.println(String.format("%s: %d keys into %,d bytes; %d evictions; %s",
+                scenario, keys, maxBytes, store.getEvictionCount(), store));
+      }
+      try (ProofViewStore store = ProofViewStore.open(directory, maxBytes, SEGMENT_BYTES)) {
+        check(scenario, store.size() == size, "reopened with " + store.size() + " of " + size
+                + " keys");
+        checkServes(scenario, store, 0, 0);
+      }
+    } finally {
+      deleteDirectory(directory);
+    }
+  }
+
+  /**
+   * Cut the last record short, and then follow it with garbage, reopening the store each time.
+   */
+  private void tornTail(int keys) throws IOException, ProofViewException {
+    final String scenario = "torn tail";
+    final Path directory = Files.createTempDirectory("proof-view-store");
+    try {
+      try (ProofViewStore store = ProofViewStore.open(directory, Long.MAX_VALUE, SEGMENT_BYTES)) {
+        for (int i = 0; i < keys; i++) {
+          store.put(key(i), proofView(i, 0));
+        }
+      }
+      final Path last = lastSegment(directory);
+      final long intactBytes = Files.size(last);
+      try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+        channel.truncate(intactBytes - 7);
+      }
+      try (ProofViewStore store = ProofViewStore.open(directory, Long.MAX_VALUE, SEGMENT_BYTES)) {
+        check(scenario, store.getTruncatedBytes() > 0, "a cut-short record was not truncated");
+        check(scenario, store.size() == keys - 1, "reopened with " + store.size() + " keys after"
+                + " cutting short the last of " + keys);
+        for (int i = 0; i < keys - 1; i++) {
+          checkServes(scenario, store, i, 0);
+        }
+        check(scenario, store.get(key(keys - 1)) == null, "the cut-short record was served");
+        System.out.println(String.format("%s: truncated %d bytes of a cut-short record",
+                scenario, store.getTruncatedBytes()));
+        store.put(key(keys - 1), proofView(keys - 1, 1));
+      }
+      try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE,
+              StandardOpenOption.APPEND)) {
+        channel.write(ByteBuffer.wrap(new byte[]{0x50, 0x56, 0x53, 0x31, 0x7F, 0x7F, 0x7F}));
+      }
+      try (ProofViewStore store = ProofViewStore.open(directory, Long.MAX_VALUE, SEGMENT_BYTES)) {
+        check(scenario, store.getTruncatedBytes() == 7, "truncated " + store.getTruncatedBytes()
+                + " bytes of 7 bytes of garbage");
+        check(scenario, store.size() == keys, "reopened with " + store.size() + " of " + keys
+                + " keys after appending garbage");
+        checkServes(scenario, store, keys - 1, 1);
+        System.out.println(String.format("%s: truncated %d bytes of garbage", scenario,
+                store.getTruncatedBytes()));
+      }
+      try (ProofViewStore store = ProofViewStore.open(directory, Long.MAX_VALUE, SEGMENT_BYTES)) {
+        check(scenario, store.getTruncatedBytes() == 0, "truncated " + store.getTruncatedBytes()
+                + " bytes after a clean close");
+      }
+    } finally {
+      deleteDirectory(directory);
+    }
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private void checkServes(String scenario, ProofViewStore store, int key, int version)
+          throws ProofViewException {
+    final ProofView proofView = store.get(key(key));
+    final BigInteger expected = proofView(key, version).getId();
+    if (proofView == null || !expected.equals(proofView.getId())) {
+      failures.add(scenario + ": " + key(key) + " served "
+              + ((proofView == null) ? "nothing" : "proof view " + proofView.getId())
+              + "; expected proof view " + expected);
+    }
+  }
+
+  private void check(String scenario, boolean condition, String message) {
+    if (!condition) {
+      failures.add(scenario + ": " + message);
+    }
+  }
+
+  private static ProofViewStore.Key key(int i) {
+    return new ProofViewStore.Key("(#$genls #$SimulatedSpecies-" + i + " #$Bird)",
+            "#$InferencePSC", KB_REVISION);
+  }
+
+  /**
+   * Returns a small synthetic proof view, whose id identifies both the key and the version.
+   */
+  private static ProofView proofView(int key, int version) {
+    final ProofView proofView = ProofViewFormatComparison.syntheticProofView(2, 3);
+    proofView.setId(BigInteger.valueOf(key).shiftLeft(16).add(BigInteger.valueOf(version)));
+    return proofView;
+  }
+
+  /**
+   * Returns the size of the record of a single proof view, as stored in a scratch store.
+   */
+  private static long recordBytes(Path directory) throws IOException, ProofViewException {
+    try (ProofViewStore store = ProofViewStore.open(directory)) {
+      store.put(key(0), proofView(0, 0));
+      return store.getLiveBytes();
+    } finally {
+      deleteDirectory(directory);
+    }
+  }
+
+  private static List<Path> segments(Path directory) throws IOException {
+    final List<Path> segments = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.pvs")) {
+      stream.forEach(segments::add);
+    }
+    segments.sort(null);
+    return segments;
+  }
+
+  private static Path lastSegment(Path directory) throws IOException {
+    final List<Path> segments = segments(directory);
+    return segments.get(segments.size() - 1);
+  }
+
+  private static int segmentCount(Path directory) throws IOException {
+    return segments(directory).size();
+  }
+
+  private static long segmentBytes(Path directory) throws IOException {
+    long bytes = 0;
+    for (Path segment : segments(directory)) {
+      bytes += Files.size(segment);
+    }
+    return bytes;
+  }
+
+  private static void deleteDirectory(Path directory) throws IOException {
+    if (!Files.exists(directory)) {
+      return;
+    }
+    for (Path segment : segments(directory)) {
+      Files.delete(segment);
+    }
+    Files.delete(directory);
+  }
+
+  private static int intArg(String[] args, int index, int defaultValue) {
+    return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+}
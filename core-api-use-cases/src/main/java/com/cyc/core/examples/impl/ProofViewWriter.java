@@ -0,0 +1,76 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: ProofViewWriter.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.query.ProofViewGenerator;
+import com.cyc.query.client.explanations.ProofViewGeneratorImpl;
+import com.cyc.query.exception.ProofViewException;
+import com.cyc.xml.query.ProofView;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes proof views to a channel in some format. See {@link ProofViewFormat} for the available
+ * formats.
+ */
+@FunctionalInterface
+public interface ProofViewWriter {
+
+  /**
+   * Write {@code proofView}. The channel is not closed.
+   *
+   * @param proofView the proof view
+   * @param channel   the channel to which to write
+   *
+   * @return the number of bytes written
+   *
+   * @throws ProofViewException if the proof view could not be written
+   */
+  long marshal(ProofView proofView, WritableByteChannel channel) throws ProofViewException;
+
+  /**
+   * Generate, if necessary, and write the proof view of {@code generator}. The channel is not
+   * closed.
+   *
+   * @param generator a proof view generator, as returned by
+   *                  {@link ProofViewGenerator#get(com.cyc.query.QueryAnswer,
+   *                  com.cyc.query.ProofViewSpecification)}
+   * @param channel   the channel to which to write
+   *
+   * @return the number of bytes written
+   *
+   * @throws ProofViewException if the proof view could not be generated or written
+   */
+  default long marshal(ProofViewGenerator generator, WritableByteChannel channel)
+          throws ProofViewException {
+    final ProofView proofView;
+    try {
+      proofView = ((ProofViewGeneratorImpl) generator).getProofViewJaxb();
+    } catch (ClassCastException | UnsupportedOperationException ex) {
+      throw ProofViewException.fromThrowable(
+              "Could not retrieve proof view from " + generator.getClass().getName(), ex);
+    } catch (Exception ex) {
+      throw ProofViewException.fromThrowable("Could not generate proof view", ex);
+    }
+    return marshal(proofView, channel);
+  }
+
+}
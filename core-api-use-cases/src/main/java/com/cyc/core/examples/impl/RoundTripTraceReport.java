@@ -0,0 +1,289 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: RoundTripTraceReport.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.base.connection.Timer;
+import com.cyc.base.connection.Worker;
+import com.cyc.base.cycobject.CycConstant;
+import com.cyc.base.cycobject.CycList;
+import com.cyc.base.exception.CycApiException;
+import com.cyc.base.exception.CycConnectionException;
+import com.cyc.base.kbtool.InspectorTool;
+import com.cyc.base.kbtool.LookupTool;
+import com.cyc.baseclient.CycClient;
+import com.cyc.baseclient.comm.Comm;
+import com.cyc.baseclient.connection.CycConnectionImpl;
+import com.cyc.baseclient.cycobject.CycConstantImpl;
+import com.cyc.baseclient.cycobject.CycSymbolImpl;
+import com.cyc.baseclient.cycobject.GuidImpl;
+import com.cyc.core.examples.basics.BasicWalkthrough;
+import com.cyc.kb.exception.KbException;
+import com.cyc.query.exception.QueryConstructionException;
+import com.cyc.session.CycSession;
+import com.cyc.session.SessionManager;
+import com.cyc.session.exception.SessionException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Prints a breakdown, by API method, of the round trips made by the {@link BasicWalkthrough}, as
+ * recorded by a {@link RoundTripTracer}.
+ * <p>
+ * With the {@code --live} flag, this runs the BasicWalkthrough against the Cyc server configured
+ * via the {@code cyc.session.*} system properties, and traces the Core Client's actual commands.
+ * That is the only way to learn how many round trips the whole walkthrough makes.
+ * <p>
+ * Without it, the tracer is installed, just as for a live run, on a CycClient whose connection is
+ * a scripted stand-in for a Cyc server. The KB API cannot be used without a server, since its
+ * sessions always open a socket of their own, so this looks up the walkthrough's terms and checks
+ * their types via the Core Client's base client instead, as the KB API's factory methods do. The
+ * commands traced are the Core Client's own, but the stand-in answers each from a table of those
+ * terms in a millisecond or two, so the latencies say nothing about a Cyc server.
+ * <p>
+ * Usage: {@code RoundTripTraceReport [--live] [sample every]}
+ */
+public class RoundTripTraceReport {
+
+  private static final int DEFAULT_SAMPLE_EVERY = 1;
+
+  /**
+   * The terms which the BasicWalkthrough finds or creates, and the type of each.
+   */
+  private static final Map<String, String> WALKTHROUGH_TERMS = new LinkedHashMap<>();
+
+  static {
+    WALKTHROUGH_TERMS.put("PeopleDataMt", "Microtheory");
+    WALKTHROUGH_TERMS.put("MassMediaDataMt", "Microtheory");
+    WALKTHROUGH_TERMS.put("JackNicholson", "Individual");
+    WALKTHROUGH_TERMS.put("TheKingOfMarvinGardens-TheMovie", "Individual");
+    WALKTHROUGH_TERMS.put("DramaticMovie", "Collection");
+    WALKTHROUGH_TERMS.put("RestrictedRating", "Collection");
+    WALKTHROUGH_TERMS.put("ActorInMovies", "Collection");
+    WALKTHROUGH_TERMS.put("Person", "Collection");
+    WALKTHROUGH_TERMS.put("Movie-CW", "Collection");
+    WALKTHROUGH_TERMS.put("movieAdvisoryRating", "BinaryPredicate");
+    WALKTHROUGH_TERMS.put("movieActors", "BinaryPredicate");
+    WALKTHROUGH_TERMS.put("movieActors-WithStarringRole", "BinaryPredicate");
+  }
+
+  public static void main(String[] args) {
+    final String exampleName = RoundTripTraceReport.class.getSimpleName();
+    final boolean live = args.length > 0 && "--live".equals(args[0]);
+    final int sampleEvery = intArg(args, live ? 1 : 0, DEFAULT_SAMPLE_EVERY);
+    try {
+      System.out.println("Running " + exampleName + "...");
+      final RoundTripTracer tracer = new RoundTripTracer(sampleEvery);
+      if (live) {
+        runLive(tracer);
+      } else {
+        runScripted(tracer);
+      }
+      System.out.println();
+      System.out.println("Last round trips:");
+      tracer.getSpans().stream()
+              .skip(Math.max(0, tracer.getSpans().size() - 5))
+              .forEach(span -> System.out.println("  " + span));
+      System.out.println();
+      if (!live) {
+        System.out.println("SCRIPTED: the Core Client's commands, answered by a stand-in rather"
+                + " than a Cyc server;");
+        System.out.println("run with --live to trace the whole BasicWalkthrough against a Cyc"
+                + " server.");
+      }
+      System.out.print(tracer.report());
+      System.out.println();
+    } catch (KbException | QueryConstructionException | SessionException | CycConnectionException
+            | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+      System.exit(1);
+    } catch (IOException ioe) {
+      ioe.printStackTrace(System.err);
+      System.exit(1);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(0);
+    }
+  }
+
+  /**
+   * Run the BasicWalkthrough against the configured Cyc server, tracing the current CycClient.
+   */
+  private static void runLive(RoundTripTracer tracer) throws KbException,
+          QueryConstructionException, SessionException, CycConnectionException, CycApiException,
+          IOException {
+    try (SessionManager sessionMgr = SessionManager.getInstance()) {
+      CycSession.getCurrent();
+      final RoundTripTracer.Installation installation = tracer.install(CycClient.getCurrent());
+      try {
+        new BasicWalkthrough().runExample();
+      } finally {
+        installation.close();
+      }
+    }
+  }
+
+  /**
+   * Look up the BasicWalkthrough's terms via a CycClient over the scripted connection, tracing
+   * the client.
+   */
+  private static void runScripted(RoundTripTracer tracer) throws CycConnectionException {
+    final CycClient client = CycClient.get(new ScriptedConnection());
+    final RoundTripTracer.Installation installation = tracer.install(client);
+    try {
+      lookUpWalkthroughTerms(client);
+    } finally {
+      installation.close();
+    }
+    if (tracer.getRoundTripCount() == 0) {
+      throw new IllegalStateException("No round trips were traced");
+    }
+  }
+
+  /**
+   * Find each term, as the KB API's {@code get} and {@code findOrCreate} methods do, and check
+   * that it has the expected type, and not one of the others.
+   */
+  private static void lookUpWalkthroughTerms(CycClient client) throws CycConnectionException {
+    final LookupTool lookup = client.getLookupTool();
+    final InspectorTool inspector = client.getInspectorTool();
+    for (Map.Entry<String, String> term : WALKTHROUGH_TERMS.entrySet()) {
+      final CycConstant constant = lookup.getKnownConstantByName(term.getKey());
+      final String type;
+      if (inspector.isMicrotheory(constant)) {
+        type = "Microtheory";
+      } else if (inspector.isCollection(constant)) {
+        type = "Collection";
+      } else if (inspector.isBinaryPredicate(constant)) {
+        type = "BinaryPredicate";
+      } else if (inspector.isIndividual(constant)) {
+        type = "Individual";
+      } else {
+        type = "(unknown)";
+      }
+      System.out.println("  " + constant.cyclify() + ": " + type);
+      if (!type.equals(term.getValue())) {
+        throw new IllegalStateException(term.getKey() + " was found to be a " + type
+                + ", not a " + term.getValue());
+      }
+    }
+  }
+
+  private static int intArg(String[] args, int index, int defaultValue) {
+    return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+  //====|    ScriptedConnection    |==============================================================//
+
+  /**
+   * A stand-in for the connection to a Cyc server. It answers {@code find-constant} and the type
+   * checks which the Core Client sends from {@link #WALKTHROUGH_TERMS}, the server's image ID with
+   * a made-up one, and every other command with {@code NIL}, after 1 or 2 milliseconds. It cannot
+   * run inferences, so it fails every command sent via a {@link Worker}. It is a
+   * CycConnectionImpl only so that a CycClient will accept it.
+   */
+  private static final class ScriptedConnection extends CycConnectionImpl {
+
+    private static final Pattern FIND_CONSTANT = Pattern.compile("^\\(find-constant \"([^\"]+)\"");
+    private static final Pattern ISA_CHECK
+            = Pattern.compile("isa-in-any-mt\\? #\\$(\\S+) #\\$([^\\s)]+)\\)");
+    private static final Pattern BINARY_PREDICATE_CHECK
+            = Pattern.compile("^\\(binary-predicate\\? #\\$([^\\s)]+)\\)");
+    private static final Object NIL = new CycSymbolImpl("NIL");
+    private static final Object T = new CycSymbolImpl("T");
+
+    private ScriptedConnection() throws CycConnectionException, CycApiException {
+      super((Comm) null, null);
+      this.hostName = "scripted";
+      this.basePort = 3600;
+      RoundTripTracer.markEstablished(this);
+    }
+
+    @Override
+    public Object[] converse(Object command) {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(
+              ThreadLocalRandom.current().nextLong(1_000, 3_000)));
+      final String text = command.toString();
+      final Matcher findConstant = FIND_CONSTANT.matcher(text);
+      final Matcher isaCheck = ISA_CHECK.matcher(text);
+      final Matcher binaryPredicateCheck = BINARY_PREDICATE_CHECK.matcher(text);
+      final Object response;
+      if (text.startsWith("(cyc-image-id")) {
+        response = "scripted-image";
+      } else if (findConstant.find()) {
+        final String name = findConstant.group(1);
+        response = WALKTHROUGH_TERMS.containsKey(name) ? constant(name) : NIL;
+      } else if (isaCheck.find()) {
+        response = isaCheck.group(2).equals(WALKTHROUGH_TERMS.get(isaCheck.group(1))) ? T : NIL;
+      } else if (binaryPredicateCheck.find()) {
+        response = "BinaryPredicate".equals(WALKTHROUGH_TERMS.get(binaryPredicateCheck.group(1)))
+                           ? T : NIL;
+      } else {
+        response = NIL;
+      }
+      return new Object[]{Boolean.TRUE, response};
+    }
+
+    @Override
+    public Object[] converse(Object command, Timer timeout) {
+      return converse(command);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Object[] converseBinary(CycList command, Timer timeout) {
+      return converse(command);
+    }
+
+    @Override
+    public void converseBinary(Worker worker) {
+      throw new CycApiException("The scripted connection cannot run " + worker.getSublCommand());
+    }
+
+    @Override
+    public boolean isValidBinaryConnection() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+      return "ScriptedConnection";
+    }
+
+    private static CycConstant constant(String name) {
+      return new CycConstantImpl(name, new GuidImpl(
+              UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString()));
+    }
+  }
+
+}
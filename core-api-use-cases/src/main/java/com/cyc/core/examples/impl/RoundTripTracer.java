@@ -0,0 +1,727 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: RoundTripTracer.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.base.connection.CycConnection;
+import com.cyc.base.connection.LeaseManager;
+import com.cyc.base.connection.Timer;
+import com.cyc.base.connection.Worker;
+import com.cyc.base.cycobject.CycList;
+import com.cyc.base.exception.CycApiException;
+import com.cyc.base.exception.CycConnectionException;
+import com.cyc.baseclient.CycClient;
+import com.cyc.baseclient.comm.Comm;
+import com.cyc.baseclient.connection.CfaslOutputStream;
+import com.cyc.baseclient.connection.CycConnectionImpl;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the round trips which the Core Client makes to a Cyc server, so that chatty API calls can
+ * be found. The Cyc APIs do not report how many SubL commands a high-level call such as
+ * {@link com.cyc.kb.Fact#findOrCreate(String) Fact.findOrCreate} makes; a tracer wraps the
+ * {@link CycConnection} through which a {@link CycClient} sends every command, and records a
+ * {@link Span} for each: the command, the API method from which it originated, its latency, and
+ * the sizes of its request and response.
+ * <p>
+ * Every round trip is counted, but only one in every {@code sampleEvery} is recorded as a span,
+ * since finding the originating method means capturing the stack, and sizing a request or response
+ * means encoding it. Spans are kept in a fixed-size ring buffer, which may be
+ * {@link #getSpans() read}, {@link #dump(Appendable) dumped}, or summarized by
+ * {@link #report() method} at any time. Each span is also logged at DEBUG level, so that the usual
+ * SLF4J configuration (see {@code simplelogger.properties}) can direct them to a log.
+ * <p>
+ * The originating method is the outermost stack frame in the Cyc APIs, beneath the first frame in
+ * application code. By default, any class in a {@code com.cyc} package, other than these examples,
+ * is considered part of the APIs. Sizes are those of the CFASL encoding of each request and
+ * response, which is what the Core Client sends; commands run via a {@link Worker} (such as
+ * inferences) respond asynchronously, so their latency is the time taken to submit them, and their
+ * response size is unknown.
+ * <p>
+ * The Core Client offers no hook for this, so {@link #install(CycClient)} replaces the client's
+ * connection via reflection. A CycClient casts its connection to {@link CycConnectionImpl}, so the
+ * replacement is one, built without a socket, which passes every call on to the connection it
+ * wraps. If the client re-establishes a dropped connection, the new connection is not traced.
+ * Instances are thread-safe.
+ */
+public class RoundTripTracer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RoundTripTracer.class);
+
+  //====|    Fields    |==========================================================================//
+
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /**
+   * Matches the classes of the Cyc APIs, but not of these examples.
+   */
+  public static final Predicate<String> CYC_API_CLASSES
+          = className -> className.startsWith("com.cyc.")
+                                 && !className.startsWith("com.cyc.core.examples.");
+
+  private static final String UNKNOWN_ORIGIN = "(unknown)";
+
+  private final int sampleEvery;
+  private final Predicate<String> apiClasses;
+  private final AtomicReferenceArray<Span> spans;
+  private final AtomicLong roundTrips = new AtomicLong();
+  private final LongAdder totalLatencyNanos = new LongAdder();
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * Creates a tracer.
+   *
+   * @param capacity    the number of spans to keep; older spans are overwritten
+   * @param sampleEvery record one round trip in every {@code sampleEvery} as a span; 1 records all
+   *                    of them
+   * @param apiClasses  matches the names of the classes whose methods are API methods
+   */
+  public RoundTripTracer(int capacity, int sampleEvery, Predicate<String> apiClasses) {
+    if (capacity <= 0 || sampleEvery <= 0) {
+      throw new IllegalArgumentException("Capacity and sampling interval must be positive: "
+                                                 + capacity + ", " + sampleEvery);
+    }
+    this.sampleEvery = sampleEvery;
+    this.apiClasses = apiClasses;
+    this.spans = new AtomicReferenceArray<>(capacity);
+  }
+
+  public RoundTripTracer(int sampleEvery) {
+    this(DEFAULT_CAPACITY, sampleEvery, CYC_API_CLASSES);
+  }
+
+  public RoundTripTracer() {
+    this(1);
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Trace every command sent through {@code client}, until the returned Installation is closed.
+   *
+   * @param client the client
+   *
+   * @return the installation, which restores the client's original connection when closed
+   *
+   * @throws IllegalStateException if the client's connection could not be replaced
+   */
+  public Installation install(CycClient client) {
+    synchronized (client) {
+      final CycConnection original = client.getCycConnection();
+      setConnection(client, wrap(original));
+      return new Installation(client, original);
+    }
+  }
+
+  /**
+   * Returns a CycConnection which traces every command sent through {@code connection}.
+   *
+   * @param connection the connection
+   *
+   * @return the traced connection
+   */
+  public CycConnection wrap(CycConnection connection) {
+    try {
+      return new TracedConnection(connection);
+    } catch (CycConnectionException | CycApiException ex) {
+      throw new IllegalStateException("Could not wrap " + connection, ex);
+    }
+  }
+
+  /**
+   * Returns the number of round trips traced, whether or not they were sampled.
+   *
+   * @return the number of round trips
+   */
+  public long getRoundTripCount() {
+    return roundTrips.get();
+  }
+
+  public long getTotalLatency(TimeUnit unit) {
+    return unit.convert(totalLatencyNanos.sum(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the spans in the ring buffer, oldest first.
+   *
+   * @return the spans
+   */
+  public List<Span> getSpans() {
+    final List<Span> results = new ArrayList<>(spans.length());
+    for (int i = 0; i < spans.length(); i++) {
+      final Span span = spans.get(i);
+      if (span != null) {
+        results.add(span);
+      }
+    }
+    results.sort(Comparator.comparingLong(Span::getSequence));
+    return results;
+  }
+
+  /**
+   * Write every span in the ring buffer to {@code out}, one per line, oldest first.
+   *
+   * @param out the destination
+   *
+   * @throws IOException if {@code out} could not be written
+   */
+  public void dump(Appendable out) throws IOException {
+    for (Span span : getSpans()) {
+      out.append(span.toString()).append('\n');
+    }
+  }
+
+  /**
+   * Returns a breakdown of the spans in the ring buffer by originating method, busiest first: the
+   * number of round trips each method made, their total and mean latency, and their total request
+   * and response sizes. With sampling, the counts are of sampled round trips only.
+   *
+   * @return the report
+   */
+  public String report() {
+    final Map<String, long[]> byOrigin = new HashMap<>();
+    final List<Span> current = getSpans();
+    for (Span span : current) {
+      // round trips, latency, request bytes, response bytes:
+      final long[] totals = byOrigin.computeIfAbsent(span.getOrigin(), origin -> new long[4]);
+      totals[0]++;
+      totals[1] += span.getLatencyNanos();
+      totals[2] += Math.max(0, span.getRequestBytes());
+      totals[3] += Math.max(0, span.getResponseBytes());
+    }
+    final List<Map.Entry<String, long[]>> entries = new ArrayList<>(byOrigin.entrySet());
+    entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+    final StringBuilder report = new StringBuilder(String.format(
+            "%d round trips (%d sampled, %d in buffer), %.1fms in total%n",
+            getRoundTripCount(), getRoundTripCount() / sampleEvery, current.size(),
+            totalLatencyNanos.sum() / 1e6));
+    report.append(String.format("%-40s %8s %10s %10s %10s %10s%n",
+            "Method", "Trips", "Total ms", "Mean ms", "Bytes out", "Bytes in"));
+    for (Map.Entry<String, long[]> entry : entries) {
+      final long[] totals = entry.getValue();
+      report.append(String.format("%-40s %8d %10.1f %10.2f %10d %10d%n", entry.getKey(),
+              totals[0], totals[1] / 1e6, totals[1] / 1e6 / totals[0], totals[2], totals[3]));
+    }
+    return report.toString();
+  }
+
+  /**
+   * Forget every span, and reset the counts.
+   */
+  public void reset() {
+    for (int i = 0; i < spans.length(); i++) {
+      spans.set(i, null);
+    }
+    roundTrips.set(0);
+    totalLatencyNanos.reset();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[roundTrips=" + getRoundTripCount()
+            + ", sampleEvery=" + sampleEvery + "]";
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  /**
+   * Makes a round trip, timing it, and records it if it is sampled.
+   */
+  private <T> T trace(Object command, RoundTrip<T> roundTrip)
+          throws CycConnectionException, CycApiException {
+    final long sequence = roundTrips.incrementAndGet();
+    final long start = System.nanoTime();
+    T result = null;
+    Throwable error = null;
+    try {
+      result = roundTrip.call();
+      return result;
+    } catch (CycConnectionException | RuntimeException | Error ex) {
+      error = ex;
+      throw ex;
+    } finally {
+      final long latency = System.nanoTime() - start;
+      totalLatencyNanos.add(latency);
+      if (sequence % sampleEvery == 0) {
+        record(sequence, command, result, latency, error);
+      }
+    }
+  }
+
+  private void record(long sequence, Object command, Object result, long latencyNanos,
+          Throwable error) {
+    final Object sublCommand = (command instanceof Worker)
+                                       ? ((Worker) command).getSublCommand()
+                                       : command;
+    final Object response = (command instanceof Worker || !(result instanceof Object[]))
+                                    ? null
+                                    : ((Object[]) result)[((Object[]) result).length - 1];
+    final long startMillis
+            = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+    final Span span = new Span(sequence, startMillis, commandType(sublCommand),
+            findOrigin(), Thread.currentThread().getName(), latencyNanos,
+            encodedSize(sublCommand), (response != null) ? encodedSize(response) : -1,
+            (error != null) ? error.toString() : null);
+    spans.set((int) (sequence / sampleEvery % spans.length()), span);
+    LOG.debug("{}", span);
+  }
+
+  /**
+   * Returns the outermost API frame beneath the innermost application frame, skipping the JDK.
+   */
+  private String findOrigin() {
+    String origin = null;
+    for (StackTraceElement frame : new Throwable().getStackTrace()) {
+      final String className = frame.getClassName();
+      if (className.startsWith(RoundTripTracer.class.getName()) || isJdkClass(className)) {
+        continue;
+      }
+      if (apiClasses.test(className)) {
+        origin = simpleName(className) + "." + frame.getMethodName();
+      } else if (origin != null) {
+        break;
+      }
+    }
+    return (origin != null) ? origin : UNKNOWN_ORIGIN;
+  }
+
+  private static boolean isJdkClass(String className) {
+    return className.startsWith("java.") || className.startsWith("javax.")
+                   || className.startsWith("sun.") || className.startsWith("com.sun.")
+                   || className.startsWith("jdk.") || className.contains("$Proxy")
+                   || className.contains("$$Lambda$");
+  }
+
+  private static String simpleName(String className) {
+    return className.substring(Math.max(className.lastIndexOf('.'), className.lastIndexOf('$'))
+                                       + 1);
+  }
+
+  private static String commandType(Object command) {
+    if (command instanceof CycList && !((CycList<?>) command).isEmpty()) {
+      return String.valueOf(((CycList<?>) command).get(0)).toLowerCase();
+    } else if (command instanceof String) {
+      final String text = ((String) command).trim();
+      final int start = text.startsWith("(") ? 1 : 0;
+      int end = start;
+      while (end < text.length() && !Character.isWhitespace(text.charAt(end))
+                     && text.charAt(end) != '(' && text.charAt(end) != ')') {
+        end++;
+      }
+      return text.substring(start, end).toLowerCase();
+    }
+    return String.valueOf(command);
+  }
+
+  /**
+   * Returns the size of {@code object}'s CFASL encoding, or -1 if it could not be encoded.
+   */
+  private static long encodedSize(Object object) {
+    final CountingOutputStream counter = new CountingOutputStream();
+    try {
+      final CfaslOutputStream cfasl = new CfaslOutputStream(counter);
+      cfasl.writeObject(object);
+      cfasl.flush();
+      return counter.count;
+    } catch (IOException | RuntimeException ex) {
+      return -1;
+    }
+  }
+
+  private static void setConnection(CycClient client, CycConnection connection) {
+    try {
+      final Field field = CycClient.class.getDeclaredField("cycConnection");
+      field.setAccessible(true);
+      field.set(client, connection);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      throw new IllegalStateException("Could not replace the connection of " + client, ex);
+    }
+  }
+
+  /**
+   * Stops the timer which every CycConnectionImpl starts when it is built, and which closes the
+   * connection after a minute unless a socket has been connected by then.
+   */
+  static void markEstablished(CycConnectionImpl connection) {
+    try {
+      final Field timerField = CycConnectionImpl.class.getDeclaredField("connectionTimer");
+      timerField.setAccessible(true);
+      final Object timer = timerField.get(connection);
+      final Field established = timer.getClass().getDeclaredField("isCycConnectionEstablished");
+      established.setAccessible(true);
+      established.setBoolean(timer, true);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      throw new IllegalStateException("Could not stop the connection timer of " + connection, ex);
+    }
+  }
+
+  private static interface RoundTrip<T> {
+
+    T call() throws CycConnectionException, CycApiException;
+  }
+
+  //====|    TracedConnection    |================================================================//
+
+  /**
+   * Passes every call on to the traced connection, tracing each round trip. It is a
+   * CycConnectionImpl only so that a CycClient will accept it; none of its own state is used.
+   */
+  private final class TracedConnection extends CycConnectionImpl {
+
+    private final CycConnection connection;
+
+    private TracedConnection(CycConnection connection)
+            throws CycConnectionException, CycApiException {
+      super((Comm) null, null);
+      this.connection = connection;
+      markEstablished(this);
+    }
+
+    @Override
+    public Object[] converse(Object command) throws CycConnectionException, CycApiException {
+      return trace(command, () -> connection.converse(command));
+    }
+
+    @Override
+    public Object[] converse(Object command, Timer timeout)
+            throws CycConnectionException, CycApiException {
+      return trace(command, () -> connection.converse(command, timeout));
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Object[] converseBinary(CycList command, Timer timeout)
+            throws CycConnectionException, CycApiException {
+      return trace(command, () -> connection.converseBinary(command, timeout));
+    }
+
+    @Override
+    public void converseBinary(Worker worker) throws CycConnectionException, CycApiException {
+      trace(worker, () -> {
+        connection.converseBinary(worker);
+        return null;
+      });
+    }
+
+    @Override
+    public boolean isValidBinaryConnection() {
+      return !(connection instanceof CycConnectionImpl)
+                     || ((CycConnectionImpl) connection).isValidBinaryConnection();
+    }
+
+    @Override
+    public boolean isValidBinaryConnection(boolean quiet) {
+      return !(connection instanceof CycConnectionImpl)
+                     || ((CycConnectionImpl) connection).isValidBinaryConnection(quiet);
+    }
+
+    @Override
+    public boolean isClosed() {
+      return (connection instanceof CycConnectionImpl)
+                     && ((CycConnectionImpl) connection).isClosed();
+    }
+
+    @Override
+    public void close() {
+      connection.close();
+    }
+
+    /**
+     * Does nothing: CycConnectionImpl would close the traced connection.
+     */
+    @Override
+    protected void finalize() {
+    }
+
+    @Override
+    public String connectionInfo() {
+      return connection.connectionInfo();
+    }
+
+    @Override
+    public int getTrace() {
+      return connection.getTrace();
+    }
+
+    @Override
+    public void setTrace(int trace) {
+      connection.setTrace(trace);
+    }
+
+    @Override
+    public void traceOff() {
+      connection.traceOff();
+    }
+
+    @Override
+    public void traceOn() {
+      connection.traceOn();
+    }
+
+    @Override
+    public void traceOnDetailed() {
+      connection.traceOnDetailed();
+    }
+
+    @Override
+    public int getConnectionType() {
+      return connection.getConnectionType();
+    }
+
+    @Override
+    public boolean connectedToStaticCyc() {
+      return connection.connectedToStaticCyc();
+    }
+
+    @Override
+    public UUID getUuid() {
+      return connection.getUuid();
+    }
+
+    @Override
+    public String getHostName() {
+      return connection.getHostName();
+    }
+
+    @Override
+    public String getResolvedHostName() {
+      return connection.getResolvedHostName();
+    }
+
+    @Override
+    public int getBasePort() {
+      return connection.getBasePort();
+    }
+
+    @Override
+    public int getHttpPort() {
+      return connection.getHttpPort();
+    }
+
+    @Override
+    public void cancelCommunication(Worker worker) throws CycConnectionException {
+      connection.cancelCommunication(worker);
+    }
+
+    @Override
+    public void abortCommunication(Worker worker) throws CycConnectionException {
+      connection.abortCommunication(worker);
+    }
+
+    @Override
+    public void setupNewCommConnection(InputStream in)
+            throws CycConnectionException, CycApiException {
+      connection.setupNewCommConnection(in);
+    }
+
+    @Override
+    public Map<String, LeaseManager> getCycLeaseManagerMap() {
+      return connection.getCycLeaseManagerMap();
+    }
+
+    @Override
+    public void setCycLeaseManagerMap(Map<String, LeaseManager> map) {
+      connection.setCycLeaseManagerMap(map);
+    }
+
+    @Override
+    public Map<InputStream, LeaseManager> getCycLeaseManagerCommMap() {
+      return connection.getCycLeaseManagerCommMap();
+    }
+
+    @Override
+    public void setCycLeaseManagerCommMap(Map<InputStream, LeaseManager> map) {
+      connection.setCycLeaseManagerCommMap(map);
+    }
+
+    @Override
+    public String toString() {
+      return "Traced " + connection;
+    }
+  }
+
+  //====|    Installation    |====================================================================//
+
+  /**
+   * A tracer installed on a CycClient. Closing it restores the client's original connection, if
+   * it has not since been replaced.
+   */
+  public static final class Installation implements AutoCloseable {
+
+    private final CycClient client;
+    private final CycConnection original;
+
+    private Installation(CycClient client, CycConnection original) {
+      this.client = client;
+      this.original = original;
+    }
+
+    @Override
+    public void close() {
+      synchronized (client) {
+        if (client.getCycConnection() instanceof TracedConnection) {
+          setConnection(client, original);
+        }
+      }
+    }
+  }
+
+  //====|    Span    |============================================================================//
+
+  /**
+   * A single round trip.
+   */
+  public static final class Span {
+
+    private final long sequence;
+    private final long startMillis;
+    private final String command;
+    private final String origin;
+    private final String threadName;
+    private final long latencyNanos;
+    private final long requestBytes;
+    private final long responseBytes;
+    private final String error;
+
+    private Span(long sequence, long startMillis, String command, String origin,
+            String threadName, long latencyNanos, long requestBytes, long responseBytes,
+            String error) {
+      this.sequence = sequence;
+      this.startMillis = startMillis;
+      this.command = command;
+      this.origin = origin;
+      this.threadName = threadName;
+      this.latencyNanos = latencyNanos;
+      this.requestBytes = requestBytes;
+      this.responseBytes = responseBytes;
+      this.error = error;
+    }
+
+    /**
+     * Returns the round trip's position among all of those traced, counting from 1.
+     *
+     * @return the sequence number
+     */
+    public long getSequence() {
+      return sequence;
+    }
+
+    public long getStartMillis() {
+      return startMillis;
+    }
+
+    /**
+     * Returns the command's operator, such as {@code find-constant}.
+     *
+     * @return the command type
+     */
+    public String getCommand() {
+      return command;
+    }
+
+    /**
+     * Returns the API method which sent the command, as {@code Class.method}.
+     *
+     * @return the originating method
+     */
+    public String getOrigin() {
+      return origin;
+    }
+
+    public String getThreadName() {
+      return threadName;
+    }
+
+    public long getLatencyNanos() {
+      return latencyNanos;
+    }
+
+    /**
+     * Returns the size of the request, in bytes, or -1 if it is not known.
+     *
+     * @return the request size
+     */
+    public long getRequestBytes() {
+      return requestBytes;
+    }
+
+    /**
+     * Returns the size of the response, in bytes, or -1 if it is not known.
+     *
+     * @return the response size
+     */
+    public long getResponseBytes() {
+      return responseBytes;
+    }
+
+    /**
+     * Returns a description of the exception with which the round trip failed, if any.
+     *
+     * @return the error, or null
+     */
+    public String getError() {
+      return error;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("#%d %s %s via %s [%s]: %.2fms, sent %d, received %d%s",
+              sequence, command, (error != null) ? "failed" : "ok", origin, threadName,
+              latencyNanos / 1e6, requestBytes, responseBytes,
+              (error != null) ? " (" + error + ")" : "");
+    }
+  }
+
+  //====|    CountingOutputStream    |============================================================//
+
+  private static final class CountingOutputStream extends OutputStream {
+
+    private long count = 0;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+      count += length;
+    }
+  }
+
+}
@@ -0,0 +1,594 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: SessionPool.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.session.CycSession;
+import com.cyc.session.CycSession.ConnectionStatus;
+import com.cyc.session.SessionManager;
+import com.cyc.session.SessionManagerImpl;
+import com.cyc.session.exception.SessionException;
+import com.cyc.session.exception.SessionInitializationException;
+import com.cyc.session.internal.CurrentObjectCache;
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of CycSessions, for programs which serve many concurrent requests. The
+ * {@link com.cyc.core.examples.basics.BasicWalkthrough BasicWalkthrough} uses a single session on
+ * a single thread; a server instead {@link #checkout() checks out} a session for each request,
+ * and returns it when the request is done:
+ * <pre>{@code
+ * try (SessionPool.Lease lease = pool.checkout(5, TimeUnit.SECONDS)) {
+ *   KbCollection movie = KbCollection.get("Movie-CW");
+ *   ...
+ * }
+ * }</pre>
+ * <p>
+ * Every session in the pool shares one connection to the Cyc server. The Core Client gives all
+ * sessions for the same server a single CycClient, and so a single connection; the pool bounds and
+ * balances the load which a program places on that connection, and gives each request its own
+ * session state, but it does not open further connections, nor let requests reach the server any
+ * more concurrently than that one connection allows.
+ * <p>
+ * The Core Client tracks the current session per thread, and the KB and Query APIs implicitly use
+ * the current session; checking out a session therefore makes it the current session of the
+ * calling thread, and returning it unbinds it again, so that a thread cannot go on using a session
+ * which it has returned, and which another thread may by then have checked out.
+ * <p>
+ * The pool holds between {@code minSize} and {@code maxSize} sessions. When all {@code maxSize}
+ * are in use, callers wait, and are served in the order in which they arrived. Idle sessions are
+ * health checked periodically, and before being handed out if they have been idle for longer than
+ * the health check interval; sessions which fail are closed and replaced. Idle sessions beyond
+ * {@code minSize} are closed once they have been idle for a full interval.
+ */
+public class SessionPool implements Closeable {
+
+  //====|    SessionSource    |===================================================================//
+
+  /**
+   * Opens, binds and health checks sessions on behalf of the pool. The default implementation,
+   * {@link #CYC_SERVER}, opens sessions to the configured Cyc server; other implementations may be
+   * supplied for offline use.
+   */
+  public static interface SessionSource {
+
+    /**
+     * Open a new session.
+     *
+     * @return the session
+     *
+     * @throws SessionException if the session could not be opened
+     */
+    CycSession open() throws SessionException;
+
+    /**
+     * Make {@code session} the current session of the calling thread.
+     *
+     * @param session the session
+     *
+     * @throws SessionException if the session could not be made current
+     */
+    void bind(CycSession session) throws SessionException;
+
+    /**
+     * Clear the calling thread's current session, if it is {@code session}. By default, this
+     * clears the Core Client's current session.
+     *
+     * @param session the session being returned to the pool
+     */
+    default void unbind(CycSession session) {
+      final CurrentObjectCache<CycSession> current = new CurrentObjectCache<>();
+      if (current.getCurrentSession() == session) {
+        current.clearCurrentSession();
+      }
+    }
+
+    /**
+     * Returns whether {@code session} is usable. By default, a session is usable if it is open and
+     * connected, and its server can be queried for its KB version.
+     *
+     * @param session the session
+     *
+     * @return whether the session is usable
+     */
+    default boolean isHealthy(CycSession session) {
+      if (session.isClosed() || session.getConnectionStatus() != ConnectionStatus.CONNECTED) {
+        return false;
+      }
+      try {
+        return session.getServerInfo().getCycKbVersionString() != null;
+      } catch (RuntimeException ex) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Opens sessions via the SessionManager, as configured by the {@code cyc.session.*} system
+   * properties.
+   */
+  public static final SessionSource CYC_SERVER = new SessionSource() {
+
+    /**
+     * The SessionManager only creates a session for a thread which has no current session, so each
+     * session is created on a new, short-lived thread.
+     */
+    @Override
+    public CycSession open() throws SessionException {
+      final FutureTask<CycSession> task
+              = new FutureTask<>(() -> SessionManager.getInstance().getCurrentSession());
+      final Thread opener = new Thread(task, SessionPool.class.getSimpleName() + "-opener");
+      opener.setDaemon(true);
+      opener.start();
+      try {
+        return task.get();
+      } catch (ExecutionException ex) {
+        if (ex.getCause() instanceof SessionException) {
+          throw (SessionException) ex.getCause();
+        }
+        throw SessionInitializationException.fromThrowable(ex.getCause());
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw SessionInitializationException.fromThrowable("Interrupted while opening session", ex);
+      }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void bind(CycSession session) throws SessionException {
+      ((SessionManagerImpl<CycSession>) SessionManager.getInstance()).setCurrentSession(session);
+    }
+  };
+
+  //====|    Fields    |==========================================================================//
+
+  public static final long DEFAULT_HEALTH_CHECK_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+
+  private final SessionSource source;
+  private final int minSize;
+  private final int maxSize;
+  private final long healthCheckIntervalNanos;
+  private final long createdNanos = System.nanoTime();
+  /**
+   * One permit per session which may be checked out. Fair, so that waiting callers are served in
+   * the order in which they arrived.
+   */
+  private final Semaphore permits;
+  /**
+   * Idle sessions, most recently returned first, so that surplus sessions sink to the bottom and
+   * are closed by {@link #maintain()}.
+   */
+  private final Deque<IdleSession> idle = new ArrayDeque<>();
+  private final AtomicInteger sessionCount = new AtomicInteger();
+  private final AtomicInteger activeCount = new AtomicInteger();
+  private final ScheduledExecutorService maintenance;
+  private volatile boolean closed = false;
+
+  private final LongAdder checkouts = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final LongAdder waitNanos = new LongAdder();
+  private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+  private final LongAdder busyNanos = new LongAdder();
+  private final LongAdder opened = new LongAdder();
+  private final LongAdder closedSessions = new LongAdder();
+  private final LongAdder healthCheckFailures = new LongAdder();
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * Creates a pool, and opens its first {@code minSize} sessions.
+   *
+   * @param source              how to open, bind and health check sessions
+   * @param minSize             the number of sessions to keep open, even when idle
+   * @param maxSize             the maximum number of sessions
+   * @param healthCheckInterval how often to check idle sessions; if zero, sessions are only
+   *                            checked when they are checked out
+   * @param unit                the unit of {@code healthCheckInterval}
+   *
+   * @throws SessionException if the first {@code minSize} sessions could not be opened
+   */
+  public SessionPool(SessionSource source, int minSize, int maxSize, long healthCheckInterval,
+          TimeUnit unit) throws SessionException {
+    if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+      throw new IllegalArgumentException(
+              "Pool size must satisfy 0 <= min <= max, 0 < max: " + minSize + ", " + maxSize);
+    }
+    if (healthCheckInterval < 0) {
+      throw new IllegalArgumentException(
+              "Health check interval must not be negative: " + healthCheckInterval);
+    }
+    this.source = source;
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    this.healthCheckIntervalNanos = unit.toNanos(healthCheckInterval);
+    this.permits = new Semaphore(maxSize, true);
+    try {
+      replenish();
+    } catch (SessionException | RuntimeException ex) {
+      close();
+      throw ex;
+    }
+    if (healthCheckInterval > 0) {
+      maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, getClass().getSimpleName() + "-maintenance");
+        thread.setDaemon(true);
+        return thread;
+      });
+      maintenance.scheduleWithFixedDelay(
+              this::maintain, healthCheckInterval, healthCheckInterval, unit);
+    } else {
+      maintenance = null;
+    }
+  }
+
+  public SessionPool(int minSize, int maxSize) throws SessionException {
+    this(CYC_SERVER, minSize, maxSize, DEFAULT_HEALTH_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  //====|    Checkout    |========================================================================//
+
+  /**
+   * Check out a session, waiting as long as necessary for one to become available, and make it the
+   * current session of the calling thread.
+   *
+   * @return a lease on the session, which must be closed to return the session to the pool
+   *
+   * @throws SessionException     if a new session was needed but could not be opened
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public Lease checkout() throws SessionException, InterruptedException {
+    final long start = System.nanoTime();
+    permits.acquire();
+    return lease(start);
+  }
+
+  /**
+   * Check out a session, waiting at most the specified time for one to become available, and make
+   * it the current session of the calling thread.
+   *
+   * @param timeout the maximum time to wait
+   * @param unit    the unit of {@code timeout}
+   *
+   * @return a lease on the session, which must be closed to return the session to the pool
+   *
+   * @throws TimeoutException     if no session became available in time
+   * @throws SessionException     if a new session was needed but could not be opened
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public Lease checkout(long timeout, TimeUnit unit)
+          throws TimeoutException, SessionException, InterruptedException {
+    final long start = System.nanoTime();
+    if (!permits.tryAcquire(timeout, unit)) {
+      timeouts.increment();
+      throw new TimeoutException("No session became available within " + timeout + " "
+                                         + unit.toString().toLowerCase() + ": " + this);
+    }
+    return lease(start);
+  }
+
+  /**
+   * A checked-out session. Closing the lease returns the session to the pool, and unbinds it from
+   * the calling thread; it should be closed on the thread which checked it out.
+   */
+  public final class Lease implements AutoCloseable {
+
+    private final CycSession session;
+    private final long leasedNanos = System.nanoTime();
+    private boolean broken = false;
+    private boolean returned = false;
+
+    private Lease(CycSession session) {
+      this.session = session;
+    }
+
+    public CycSession getSession() {
+      return session;
+    }
+
+    /**
+     * Mark the session as unusable, e.g. after a communication error, so that it is closed rather
+     * than returned to the pool.
+     */
+    public void invalidate() {
+      broken = true;
+    }
+
+    @Override
+    public void close() {
+      if (returned) {
+        return;
+      }
+      returned = true;
+      busyNanos.add(System.nanoTime() - leasedNanos);
+      activeCount.decrementAndGet();
+      try {
+        source.unbind(session);
+      } finally {
+        release(session, broken);
+      }
+    }
+  }
+
+  //====|    Statistics    |======================================================================//
+
+  public int getMinSize() {
+    return minSize;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Returns the number of open sessions, both idle and checked out.
+   */
+  public int getSessionCount() {
+    return sessionCount.get();
+  }
+
+  public int getActiveCount() {
+    return activeCount.get();
+  }
+
+  public int getIdleCount() {
+    synchronized (idle) {
+      return idle.size();
+    }
+  }
+
+  /**
+   * Returns the number of callers currently waiting for a session.
+   */
+  public int getWaitingCount() {
+    return permits.getQueueLength();
+  }
+
+  public long getCheckoutCount() {
+    return checkouts.sum();
+  }
+
+  public long getTimeoutCount() {
+    return timeouts.sum();
+  }
+
+  /**
+   * Returns the mean time which successful checkouts spent waiting for a session.
+   */
+  public double getMeanWaitTime(TimeUnit unit) {
+    final long count = getCheckoutCount();
+    return (count == 0) ? 0 : (double) waitNanos.sum() / unit.toNanos(1) / count;
+  }
+
+  public long getMaxWaitTime(TimeUnit unit) {
+    return unit.convert(maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the mean fraction of the pool's capacity ({@code maxSize} sessions) which has been
+   * checked out since the pool was created, counting only completed leases.
+   */
+  public double getUtilization() {
+    final long elapsed = System.nanoTime() - createdNanos;
+    return (elapsed <= 0) ? 0 : (double) busyNanos.sum() / elapsed / maxSize;
+  }
+
+  public long getOpenedCount() {
+    return opened.sum();
+  }
+
+  public long getClosedCount() {
+    return closedSessions.sum();
+  }
+
+  public long getHealthCheckFailureCount() {
+    return healthCheckFailures.sum();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[sessions=" + getSessionCount()
+            + " (" + getActiveCount() + " active, " + getIdleCount() + " idle, min=" + minSize
+            + ", max=" + maxSize + "), waiting=" + getWaitingCount()
+            + ", checkouts=" + getCheckoutCount() + ", timeouts=" + getTimeoutCount()
+            + String.format(", meanWait=%.2fms", getMeanWaitTime(TimeUnit.MICROSECONDS) / 1_000)
+            + ", maxWait=" + getMaxWaitTime(TimeUnit.MILLISECONDS) + "ms"
+            + String.format(", utilization=%.1f%%", getUtilization() * 100)
+            + ", opened=" + getOpenedCount() + ", closed=" + getClosedCount()
+            + ", healthCheckFailures=" + getHealthCheckFailureCount() + "]";
+  }
+
+  //====|    Closing    |=========================================================================//
+
+  /**
+   * Close the pool and its idle sessions. Sessions which are checked out are closed when they are
+   * returned.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    if (maintenance != null) {
+      maintenance.shutdownNow();
+    }
+    final List<IdleSession> toClose;
+    synchronized (idle) {
+      toClose = new ArrayList<>(idle);
+      idle.clear();
+    }
+    toClose.forEach(entry -> discard(entry.session));
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  /**
+   * Hand out an idle or new session. The caller must already hold a permit, which is released if no
+   * session can be handed out.
+   */
+  private Lease lease(long waitStartNanos) throws SessionException {
+    final long waited = System.nanoTime() - waitStartNanos;
+    try {
+      if (closed) {
+        throw new IllegalStateException("Pool is closed: " + this);
+      }
+      final CycSession session = takeHealthyOrOpen();
+      try {
+        source.bind(session);
+      } catch (SessionException | RuntimeException ex) {
+        discard(session);
+        throw ex;
+      }
+      checkouts.increment();
+      waitNanos.add(waited);
+      maxWaitNanos.accumulate(waited);
+      activeCount.incrementAndGet();
+      return new Lease(session);
+    } catch (SessionException | RuntimeException ex) {
+      permits.release();
+      throw ex;
+    }
+  }
+
+  private CycSession takeHealthyOrOpen() throws SessionException {
+    while (true) {
+      final IdleSession entry;
+      synchronized (idle) {
+        entry = idle.pollFirst();
+      }
+      if (entry == null) {
+        return openSession();
+      }
+      if (System.nanoTime() - entry.returnedNanos < healthCheckIntervalNanos
+                  || isHealthy(entry.session)) {
+        return entry.session;
+      }
+      discard(entry.session);
+    }
+  }
+
+  private void release(CycSession session, boolean broken) {
+    try {
+      if (broken || closed || session.isClosed()) {
+        discard(session);
+      } else {
+        synchronized (idle) {
+          idle.addFirst(new IdleSession(session));
+        }
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Health check sessions which have been idle for a full interval, close any which fail or which
+   * are surplus to {@code minSize}, and open sessions until there are at least {@code minSize}.
+   */
+  private void maintain() {
+    try {
+      final long now = System.nanoTime();
+      final List<IdleSession> stale = new ArrayList<>();
+      synchronized (idle) {
+        for (Iterator<IdleSession> it = idle.descendingIterator(); it.hasNext();) {
+          final IdleSession entry = it.next();
+          if (now - entry.returnedNanos >= healthCheckIntervalNanos) {
+            it.remove();
+            stale.add(entry);
+          }
+        }
+      }
+      for (IdleSession entry : stale) {
+        if (sessionCount.get() > minSize || !isHealthy(entry.session)) {
+          discard(entry.session);
+        } else {
+          synchronized (idle) {
+            idle.addLast(new IdleSession(entry.session));
+          }
+        }
+      }
+      replenish();
+    } catch (SessionException | RuntimeException ex) {
+      // Try again at the next interval; checkouts will open sessions as needed in the meantime.
+    }
+  }
+
+  private void replenish() throws SessionException {
+    while (!closed && sessionCount.get() < minSize) {
+      final CycSession session = openSession();
+      synchronized (idle) {
+        idle.addLast(new IdleSession(session));
+      }
+    }
+  }
+
+  private boolean isHealthy(CycSession session) {
+    if (source.isHealthy(session)) {
+      return true;
+    }
+    healthCheckFailures.increment();
+    return false;
+  }
+
+  private CycSession openSession() throws SessionException {
+    final CycSession session = source.open();
+    sessionCount.incrementAndGet();
+    opened.increment();
+    return session;
+  }
+
+  private void discard(CycSession session) {
+    sessionCount.decrementAndGet();
+    closedSessions.increment();
+    try {
+      session.close();
+    } catch (RuntimeException ex) {
+      // The session is being discarded anyway.
+    }
+  }
+
+  private static final class IdleSession {
+
+    private final CycSession session;
+    private final long returnedNanos = System.nanoTime();
+
+    private IdleSession(CycSession session) {
+      this.session = session;
+    }
+  }
+
+}
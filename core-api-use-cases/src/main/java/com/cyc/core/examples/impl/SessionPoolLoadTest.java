@@ -0,0 +1,301 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: SessionPoolLoadTest.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.kb.KbCollection;
+import com.cyc.kb.exception.KbException;
+import com.cyc.session.CycServerInfo;
+import com.cyc.session.CycSession;
+import com.cyc.session.CycSession.ConnectionStatus;
+import com.cyc.session.SessionManager;
+import com.cyc.session.exception.SessionCommunicationException;
+import com.cyc.session.exception.SessionException;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A multithreaded load test of the {@link SessionPool}. Many more threads than the pool has
+ * sessions each check out a session, do a little work, and return it; the pool's statistics are
+ * printed periodically and at the end.
+ * <p>
+ * By default, this runs against a simulated, in-process Cyc server, whose requests take a few
+ * milliseconds and whose sessions occasionally fail their health checks, so that it can be run
+ * anywhere. With the {@code --live} flag, it instead runs against the Cyc server configured via
+ * the {@code cyc.session.*} system properties, and each request looks up a KB term.
+ * <p>
+ * Usage: {@code SessionPoolLoadTest [--live] [threads] [requests per thread] [min] [max]}
+ */
+public class SessionPoolLoadTest {
+
+  private static final int DEFAULT_THREADS = 32;
+  private static final int DEFAULT_REQUESTS_PER_THREAD = 200;
+  private static final int DEFAULT_MIN_SIZE = 2;
+  private static final int DEFAULT_MAX_SIZE = 8;
+
+  public static void main(String[] args) {
+    final String exampleName = SessionPoolLoadTest.class.getSimpleName();
+    final boolean live = args.length > 0 && "--live".equals(args[0]);
+    final int offset = live ? 1 : 0;
+    final int threads = intArg(args, offset, DEFAULT_THREADS);
+    final int requests = intArg(args, offset + 1, DEFAULT_REQUESTS_PER_THREAD);
+    final int minSize = intArg(args, offset + 2, DEFAULT_MIN_SIZE);
+    final int maxSize = intArg(args, offset + 3, DEFAULT_MAX_SIZE);
+    try {
+      System.out.println("Running " + exampleName + "...");
+      if (live) {
+        try (SessionManager sessionMgr = SessionManager.getInstance()) {
+          new SessionPoolLoadTest().run(SessionPool.CYC_SERVER, LIVE_REQUEST,
+                  threads, requests, minSize, maxSize);
+        }
+      } else {
+        final SimulatedServer server = new SimulatedServer();
+        new SessionPoolLoadTest().run(server, server::handleRequest,
+                threads, requests, minSize, maxSize);
+        System.out.println("Peak concurrent requests at the simulated server: "
+                                   + server.getPeakConcurrentRequests());
+        if (server.getStaleBindings() != 0) {
+          throw new IllegalStateException(server.getStaleBindings()
+                  + " checkouts found the thread's previous session still bound");
+        }
+      }
+      System.out.println();
+    } catch (SessionException | InterruptedException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+      System.exit(1);
+    } catch (IOException ioe) {
+      ioe.printStackTrace(System.err);
+      System.exit(1);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(0);
+    }
+  }
+
+  /**
+   * The work done for a single request, while a session is checked out.
+   */
+  @FunctionalInterface
+  public static interface Request {
+
+    void handle(CycSession session) throws Exception;
+  }
+
+  private static final Request LIVE_REQUEST = session -> {
+    try {
+      KbCollection.get("Movie-CW");
+    } catch (KbException ex) {
+      // Run the BasicWalkthrough first to create #$Movie-CW; the lookup costs a round trip anyway.
+    }
+  };
+
+  /**
+   * Run {@code threads} threads, each of which handles {@code requestsPerThread} requests, on a
+   * pool of between {@code minSize} and {@code maxSize} sessions, and print the pool's statistics.
+   *
+   * @param source            the source of the pool's sessions
+   * @param request           the work to do for each request
+   * @param threads           the number of concurrent threads
+   * @param requestsPerThread the number of requests per thread
+   * @param minSize           the pool's minimum size
+   * @param maxSize           the pool's maximum size
+   *
+   * @throws SessionException     if the pool could not be created
+   * @throws InterruptedException if interrupted while waiting for the threads to finish
+   */
+  public void run(SessionPool.SessionSource source, Request request, int threads,
+          int requestsPerThread, int minSize, int maxSize)
+          throws SessionException, InterruptedException {
+    System.out.println(threads + " threads x " + requestsPerThread + " requests, pool of "
+                               + minSize + ".." + maxSize + " sessions");
+    final LongAdder completed = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try (SessionPool pool = new SessionPool(source, minSize, maxSize, 250, TimeUnit.MILLISECONDS)) {
+      final long start = System.nanoTime();
+      final List<Future<?>> workers = new ArrayList<>(threads);
+      for (int t = 0; t < threads; t++) {
+        workers.add(executor.submit(() -> {
+          for (int i = 0; i < requestsPerThread; i++) {
+            try (SessionPool.Lease lease = pool.checkout(10, TimeUnit.SECONDS)) {
+              try {
+                request.handle(lease.getSession());
+                completed.increment();
+              } catch (SessionCommunicationException ex) {
+                lease.invalidate();
+                failed.increment();
+              }
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+              return null;
+            } catch (Exception ex) {
+              failed.increment();
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<?> worker : workers) {
+        while (true) {
+          try {
+            worker.get(1, TimeUnit.SECONDS);
+            break;
+          } catch (TimeoutException ex) {
+            System.out.println("  " + completed.sum() + " completed; " + pool);
+          } catch (ExecutionException ex) {
+            ex.getCause().printStackTrace(System.err);
+            break;
+          }
+        }
+      }
+      final double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format("Completed %d requests (%d failed) in %.2fs: %.0f/s",
+              completed.sum(), failed.sum(), seconds, completed.sum() / seconds));
+      System.out.println(pool);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static int intArg(String[] args, int index, int defaultValue) {
+    return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+  //====|    SimulatedServer    |=================================================================//
+
+  /**
+   * An in-process stand-in for a Cyc server. Each request takes between 1 and 5 milliseconds, and
+   * roughly one health check in fifty fails, as though the session's connection had dropped. It
+   * counts the checkouts which find a session still bound to the thread, having not been unbound
+   * when it was returned.
+   */
+  static class SimulatedServer implements SessionPool.SessionSource {
+
+    private final ThreadLocal<CycSession> current = new ThreadLocal<>();
+    private final AtomicInteger sessionIds = new AtomicInteger();
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+    private final AtomicInteger peakConcurrentRequests = new AtomicInteger();
+    private final AtomicInteger staleBindings = new AtomicInteger();
+
+    @Override
+    public CycSession open() {
+      simulateLatency(5, 10);
+      final int id = sessionIds.incrementAndGet();
+      final AtomicBoolean closed = new AtomicBoolean();
+      final AtomicBoolean dropped = new AtomicBoolean();
+      final CycServerInfo serverInfo = (CycServerInfo) Proxy.newProxyInstance(
+              getClass().getClassLoader(), new Class<?>[]{CycServerInfo.class},
+              (proxy, method, args) -> {
+                if ("getCycKbVersionString".equals(method.getName())) {
+                  simulateLatency(1, 2);
+                  if (dropped.get() || ThreadLocalRandom.current().nextInt(50) == 0) {
+                    dropped.set(true);
+                    throw new SessionCommunicationException("Simulated connection failure");
+                  }
+                  return "simulated";
+                }
+                throw new UnsupportedOperationException(method.getName());
+              });
+      return (CycSession) Proxy.newProxyInstance(
+              getClass().getClassLoader(), new Class<?>[]{CycSession.class},
+              (proxy, method, args) -> {
+                switch (method.getName()) {
+                  case "getServerInfo":
+                    return serverInfo;
+                  case "getConnectionStatus":
+                    return (closed.get() || dropped.get())
+                                   ? ConnectionStatus.DISCONNECTED
+                                   : ConnectionStatus.CONNECTED;
+                  case "isClosed":
+                    return closed.get();
+                  case "close":
+                    closed.set(true);
+                    return null;
+                  case "equals":
+                    return proxy == args[0];
+                  case "hashCode":
+                    return id;
+                  case "toString":
+                    return "SimulatedSession-" + id;
+                  default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+              });
+    }
+
+    @Override
+    public void bind(CycSession session) {
+      if (current.get() != null) {
+        staleBindings.incrementAndGet();
+      }
+      current.set(session);
+    }
+
+    @Override
+    public void unbind(CycSession session) {
+      if (current.get() == session) {
+        current.remove();
+      }
+    }
+
+    void handleRequest(CycSession session) {
+      if (current.get() != session) {
+        throw new IllegalStateException(session + " is not bound to the current thread");
+      }
+      final int concurrent = concurrentRequests.incrementAndGet();
+      peakConcurrentRequests.accumulateAndGet(concurrent, Math::max);
+      try {
+        simulateLatency(1, 5);
+      } finally {
+        concurrentRequests.decrementAndGet();
+      }
+    }
+
+    int getPeakConcurrentRequests() {
+      return peakConcurrentRequests.get();
+    }
+
+    int getStaleBindings() {
+      return staleBindings.get();
+    }
+
+    private static void simulateLatency(int minMillis, int maxMillis) {
+      try {
+        Thread.sleep(ThreadLocalRandom.current().nextInt(minMillis, maxMillis + 1));
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,281 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: StreamingProofViewMarshaller.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.query.exception.ProofViewException;
+import com.cyc.xml.query.Content;
+import com.cyc.xml.query.ProofView;
+import com.cyc.xml.query.ProofViewEntry;
+import com.cyc.xml.query.SubEntries;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Marshals proof views to XML incrementally, as they are traversed, rather than building a DOM of
+ * the whole document first. {@link com.cyc.query.ProofViewMarshaller ProofViewMarshaller} (via
+ * {@link com.cyc.xml.query.ProofViewJaxbMarshaller ProofViewJaxbMarshaller}) marshals the proof
+ * view's JAXB tree into a DOM, and then serializes the DOM via an XSLT Transformer; for large proof
+ * views, or for services which marshal many of them, that intermediate document dominates the
+ * cost.
+ * <p>
+ * This marshaller writes the proof view elements directly via StAX, delegating only the CycML
+ * fragments (paraphrases and content) to JAXB, which writes them to the same stream. Output is
+ * encoded into pooled buffers, and each full buffer is written to a {@link WritableByteChannel}.
+ * The XML is equivalent to that of the Core Client's marshaller: the same elements, namespaces,
+ * stylesheet instruction, and CDATA sections for text containing markup characters.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class StreamingProofViewMarshaller implements ProofViewWriter {
+
+  //====|    Fields    |==========================================================================//
+
+  public static final String PROOF_VIEW_NAMESPACE = "http://www.opencyc.org/xml/proofView/";
+  public static final String CYCML_NAMESPACE = "http://www.opencyc.org/xml/cycML/";
+  public static final URI DEFAULT_XSL_URI = URI.create("http://localhost/tmp/ProofView.xsl");
+
+  private static final Pattern XML_CHARS = Pattern.compile("[<>&]");
+  private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+  private final JAXBContext jaxbContext;
+  private final ThreadLocal<Marshaller> fragmentMarshaller;
+  private final URI xslUri;
+  private final boolean indent;
+  private final LongAdder proofViews = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * Creates a marshaller.
+   *
+   * @param xslUri the stylesheet to reference from each document; may be null
+   * @param indent whether to start each proof view element on a new line, as the Core Client's
+   *               marshaller does
+   *
+   * @throws JAXBException if the CycML fragment marshaller could not be created
+   */
+  public StreamingProofViewMarshaller(URI xslUri, boolean indent) throws JAXBException {
+    this.jaxbContext = JAXBContext.newInstance(ProofView.class);
+    this.xslUri = xslUri;
+    this.indent = indent;
+    this.fragmentMarshaller = ThreadLocal.withInitial(() -> {
+      try {
+        final Marshaller marshaller = jaxbContext.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+        return marshaller;
+      } catch (JAXBException ex) {
+        throw new IllegalStateException("Could not create CycML fragment marshaller", ex);
+      }
+    });
+  }
+
+  public StreamingProofViewMarshaller() throws JAXBException {
+    this(DEFAULT_XSL_URI, true);
+  }
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Marshal {@code proofView}. The channel is not closed.
+   *
+   * @param proofView the proof view
+   * @param channel   the channel to which to write
+   *
+   * @return the number of bytes written
+   *
+   * @throws ProofViewException if the proof view could not be written
+   */
+  @Override
+  public long marshal(ProofView proofView, WritableByteChannel channel)
+          throws ProofViewException {
+    try (PooledChannelOutputStream out = new PooledChannelOutputStream(channel)) {
+      final XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+      try {
+        writeDocument(proofView, writer);
+        writer.flush();
+      } finally {
+        writer.close();
+      }
+      out.flush();
+      proofViews.increment();
+      bytes.add(out.getByteCount());
+      return out.getByteCount();
+    } catch (XMLStreamException | JAXBException | IOException | RuntimeException ex) {
+      throw ProofViewException.fromThrowable("Could not marshal proof view " + proofView.getId(),
+              ex);
+    }
+  }
+
+  /**
+   * Marshal {@code proofView}. The stream is not closed.
+   *
+   * @param proofView the proof view
+   * @param out       the stream to which to write
+   *
+   * @return the number of bytes written
+   *
+   * @throws ProofViewException if the proof view could not be written
+   */
+  public long marshal(ProofView proofView, OutputStream out) throws ProofViewException {
+    return marshal(proofView, Channels.newChannel(out));
+  }
+
+  public long getProofViewCount() {
+    return proofViews.sum();
+  }
+
+  public long getByteCount() {
+    return bytes.sum();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[proofViews=" + getProofViewCount()
+            + ", bytes=" + getByteCount() + "]";
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private void writeDocument(ProofView proofView, XMLStreamWriter writer)
+          throws XMLStreamException, JAXBException {
+    writer.writeStartDocument("UTF-8", "1.0");
+    if (xslUri != null) {
+      writer.writeProcessingInstruction("xml-stylesheet",
+              "type=\"text/xsl\" href=\"" + xslUri + "\"");
+    }
+    writer.setDefaultNamespace(PROOF_VIEW_NAMESPACE);
+    writer.setPrefix("cycml", CYCML_NAMESPACE);
+    writer.writeStartElement(PROOF_VIEW_NAMESPACE, "proof-view");
+    writer.writeDefaultNamespace(PROOF_VIEW_NAMESPACE);
+    writer.writeNamespace("cycml", CYCML_NAMESPACE);
+    writer.writeAttribute("id", String.valueOf(proofView.getId()));
+    if (proofView.getProofViewEntry() != null) {
+      writeEntries(proofView.getProofViewEntry(), writer);
+    }
+    newLine(writer);
+    writer.writeEndElement();
+    writer.writeEndDocument();
+  }
+
+  /**
+   * Writes an entry and its descendants, depth first. Iterative rather than recursive, so that
+   * arbitrarily deep proofs cannot overflow the stack.
+   */
+  private void writeEntries(ProofViewEntry root, XMLStreamWriter writer)
+          throws XMLStreamException, JAXBException {
+    // Each element is the remaining sub-entries of an entry whose start tag has been written:
+    final Deque<Iterator<ProofViewEntry>> stack = new ArrayDeque<>();
+    writeEntry(root, writer, stack);
+    while (!stack.isEmpty()) {
+      final Iterator<ProofViewEntry> subEntries = stack.peek();
+      if (subEntries.hasNext()) {
+        writeEntry(subEntries.next(), writer, stack);
+      } else {
+        stack.pop();
+        newLine(writer);
+        writer.writeEndElement(); // sub-entries
+        newLine(writer);
+        writer.writeEndElement(); // proof-view-entry
+      }
+    }
+  }
+
+  /**
+   * Writes an entry, up to and including the start tag of its sub-entries, which are pushed onto
+   * {@code stack}. Entries without sub-entries are written in full.
+   */
+  private void writeEntry(ProofViewEntry entry, XMLStreamWriter writer,
+          Deque<Iterator<ProofViewEntry>> stack) throws XMLStreamException, JAXBException {
+    newLine(writer);
+    writer.writeStartElement(PROOF_VIEW_NAMESPACE, "proof-view-entry");
+    if (entry.isAbducedSupport() != null) {
+      writer.writeAttribute("abduced-support", entry.isAbducedSupport().toString());
+    }
+    if (entry.isExpandInitially() != null) {
+      writer.writeAttribute("expand-initially", entry.isExpandInitially().toString());
+    }
+    writer.writeAttribute("id", String.valueOf(entry.getId()));
+    if (entry.getLabel() != null) {
+      writer.writeAttribute("label", entry.getLabel());
+    }
+    if (entry.getObjectType() != null) {
+      writer.writeAttribute("object-type", entry.getObjectType());
+    }
+    if (entry.getParaphrase() != null) {
+      newLine(writer);
+      fragmentMarshaller.get().marshal(entry.getParaphrase(), writer);
+    }
+    writeTextElement("cycl", entry.getCycl(), writer);
+    writeTextElement("silk", entry.getSilk(), writer);
+    final Content content = entry.getContent();
+    if (content != null) {
+      newLine(writer);
+      fragmentMarshaller.get().marshal(content, writer);
+    }
+    final SubEntries subEntries = entry.getSubEntries();
+    if (subEntries != null && !subEntries.getProofViewEntry().isEmpty()) {
+      newLine(writer);
+      writer.writeStartElement(PROOF_VIEW_NAMESPACE, "sub-entries");
+      stack.push(subEntries.getProofViewEntry().iterator());
+    } else {
+      newLine(writer);
+      writer.writeEndElement(); // proof-view-entry
+    }
+  }
+
+  private void writeTextElement(String name, String text, XMLStreamWriter writer)
+          throws XMLStreamException {
+    if (text == null) {
+      return;
+    }
+    newLine(writer);
+    writer.writeStartElement(PROOF_VIEW_NAMESPACE, name);
+    if (XML_CHARS.matcher(text).find() && !text.contains("]]>")) {
+      writer.writeCData(text);
+    } else {
+      writer.writeCharacters(text);
+    }
+    writer.writeEndElement();
+  }
+
+  private void newLine(XMLStreamWriter writer) throws XMLStreamException {
+    if (indent) {
+      writer.writeCharacters("\n");
+    }
+  }
+
+}
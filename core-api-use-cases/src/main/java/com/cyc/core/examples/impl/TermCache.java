@@ -0,0 +1,534 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: TermCache.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.base.CycAccess;
+import com.cyc.base.cycobject.CycConstant;
+import com.cyc.base.cycobject.CycList;
+import com.cyc.base.exception.CycApiException;
+import com.cyc.base.exception.CycConnectionException;
+import com.cyc.kb.BinaryPredicate;
+import com.cyc.kb.Context;
+import com.cyc.kb.KbCollection;
+import com.cyc.kb.KbIndividual;
+import com.cyc.kb.KbObject;
+import com.cyc.kb.KbPredicate;
+import com.cyc.kb.KbTerm;
+import com.cyc.kb.client.KbObjectImpl;
+import com.cyc.kb.exception.DeleteException;
+import com.cyc.kb.exception.KbException;
+import com.cyc.kb.exception.KbObjectNotFoundException;
+import com.cyc.kb.exception.KbTypeException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A client-side cache of KB terms, looked up by name. Looking up a term via, e.g.,
+ * {@link KbCollection#get(String)} costs at least one round trip to the Cyc server, and code which
+ * refers to the same handful of terms over and over (as the {@link
+ * com.cyc.core.examples.basics.BasicWalkthrough BasicWalkthrough} does with
+ * {@code #$MassMediaDataMt} and {@code #$Movie-CW}) pays that cost every time.
+ * <p>
+ * Terms are cached by name and by type, so that {@code #$Microtheory} may be cached both as a
+ * KbCollection and as a KbTerm. The cache holds at most a fixed number of entries, evicting the
+ * least recently used, and each entry expires after a fixed time. Terms which are deleted via
+ * {@link #delete(KbTerm)} are removed from the cache; terms which are deleted by any other means
+ * should be {@link #invalidate(KbTerm) invalidated} explicitly.
+ * <p>
+ * {@link #getAll(Collection, Class)} looks up every uncached name in a single request to the Cyc
+ * server, so that a program can warm the cache with all of the terms it needs up front. The Core
+ * Client then checks the type of each term which it has not seen before, as it builds an object for
+ * it, at the cost of one further round trip per term; once cached, a term costs no round trips.
+ */
+public class TermCache {
+
+  //====|    TermSource    |======================================================================//
+
+  /**
+   * Resolves names to KB terms. The default implementation, {@link #CYC_SERVER}, asks the current
+   * Cyc server; other implementations may be supplied for offline use.
+   */
+  @FunctionalInterface
+  public static interface TermSource {
+
+    /**
+     * Resolve each of the names to a term of the specified type.
+     *
+     * @param names the names to resolve
+     * @param type  the type of term to which each name should resolve
+     *
+     * @return the terms, keyed by name. Names which do not exist, or which are not of the
+     *         specified type, are omitted.
+     *
+     * @throws KbException if the names could not be resolved
+     */
+    Map<String, KbTerm> resolveAll(Collection<String> names, Class<? extends KbTerm> type)
+            throws KbException;
+  }
+
+  /**
+   * Resolves names via the current Cyc server. The names of constants are all looked up, and their
+   * types checked, in a single SubL command; any other names (e.g. of non-atomic terms) are
+   * resolved one at a time via the KB API. The Core Client will still check the type of each term
+   * the first time it builds an object for it.
+   */
+  public static final TermSource CYC_SERVER = (names, type) -> {
+    final TermType termType = TermType.forClass(type);
+    final Map<String, KbTerm> results = new HashMap<>();
+    final List<String> constantNames = new ArrayList<>();
+    for (String name : names) {
+      if (isConstantName(name)) {
+        constantNames.add(name);
+      } else {
+        try {
+          results.put(name, termType.getViaApi(name));
+        } catch (KbTypeException | KbObjectNotFoundException ex) {
+          // Not a term of the specified type, so omit it.
+        }
+      }
+    }
+    if (constantNames.isEmpty()) {
+      return results;
+    }
+    final StringBuilder command = new StringBuilder("(list");
+    for (String name : constantNames) {
+      command.append("\n (clet ((c (find-constant \"").append(escapeSublString(name))
+              .append("\"))) (pwhen (cand c ").append(termType.sublTypeTest("c"))
+              .append(") c))");
+    }
+    command.append(')');
+    try {
+      final CycList<?> response = CycAccess.getCurrent().converse()
+              .converseList(command.toString());
+      for (int i = 0; i < constantNames.size(); i++) {
+        final Object constant = response.get(i);
+        if (constant instanceof CycConstant) {
+          results.put(constantNames.get(i), termType.build((CycConstant) constant));
+        }
+      }
+      return results;
+    } catch (CycConnectionException | CycApiException ex) {
+      throw KbException.fromThrowable("Could not resolve " + constantNames.size() + " names", ex);
+    }
+  };
+
+  //====|    Fields    |==========================================================================//
+
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+
+  public static final long DEFAULT_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+
+  private final TermSource source;
+  private final int maxSize;
+  private final long ttlNanos;
+  private final Map<Key, CachedTerm> entries;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder requests = new LongAdder();
+  private final long createdNanos = System.nanoTime();
+
+  //====|    Construction    |====================================================================//
+
+  /**
+   * Creates a cache.
+   *
+   * @param source  how to resolve names which are not in the cache
+   * @param maxSize the maximum number of entries to hold
+   * @param ttl     how long each entry remains valid
+   * @param unit    the unit of {@code ttl}
+   */
+  public TermCache(TermSource source, int maxSize, long ttl, TimeUnit unit) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+    }
+    this.source = source;
+    this.maxSize = maxSize;
+    this.ttlNanos = unit.toNanos(ttl);
+    this.entries = new LinkedHashMap<Key, CachedTerm>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, CachedTerm> eldest) {
+        if (size() > TermCache.this.maxSize) {
+          evictions.increment();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  public TermCache(int maxSize, long ttl, TimeUnit unit) {
+    this(CYC_SERVER, maxSize, ttl, unit);
+  }
+
+  public TermCache() {
+    this(DEFAULT_MAX_SIZE, DEFAULT_TTL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  //====|    Lookup    |==========================================================================//
+
+  /**
+   * Returns the term of the specified type with the specified name, from the cache if possible.
+   *
+   * @param <T>  the type of term
+   * @param name the name of the term
+   * @param type the type of term
+   *
+   * @return the term
+   *
+   * @throws KbObjectNotFoundException if there is no such term of the specified type
+   * @throws KbException               if the name could not be resolved
+   */
+  public <T extends KbTerm> T get(String name, Class<T> type) throws KbException {
+    final T result = getAll(Collections.singleton(name), type).get(name);
+    if (result == null) {
+      throw new KbObjectNotFoundException("No " + type.getSimpleName() + " named " + name);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the terms of the specified type with the specified names. Any names which are not in
+   * the cache are resolved together, by a single call to the cache's {@link TermSource}.
+   *
+   * @param <T>   the type of term
+   * @param names the names of the terms
+   * @param type  the type of term
+   *
+   * @return the terms, keyed by name, in the iteration order of {@code names}. Names which do not
+   *         exist, or which are not of the specified type, are omitted.
+   *
+   * @throws KbException if the names could not be resolved
+   */
+  public <T extends KbTerm> Map<String, T> getAll(Collection<String> names, Class<T> type)
+          throws KbException {
+    final Map<String, T> results = new LinkedHashMap<>();
+    final Set<String> missing = new LinkedHashSet<>();
+    final long now = System.nanoTime();
+    synchronized (entries) {
+      for (String name : names) {
+        final Key key = new Key(name, type);
+        final CachedTerm entry = entries.get(key);
+        if (entry != null && entry.expiresNanos - now > 0) {
+          hits.increment();
+          results.put(name, type.cast(entry.term));
+        } else {
+          if (entry != null) {
+            entries.remove(key);
+          }
+          misses.increment();
+          missing.add(name);
+        }
+      }
+    }
+    if (!missing.isEmpty()) {
+      requests.increment();
+      final Map<String, KbTerm> resolved = source.resolveAll(missing, type);
+      final long expiresNanos = System.nanoTime() + ttlNanos;
+      synchronized (entries) {
+        resolved.forEach((name, term) -> entries.put(new Key(name, type),
+                new CachedTerm(term, expiresNanos)));
+      }
+      for (String name : missing) {
+        final KbTerm term = resolved.get(name);
+        if (term != null) {
+          results.put(name, type.cast(term));
+        }
+      }
+    }
+    if (results.size() == names.size()) {
+      return results;
+    }
+    // Restore the caller's order, now that cached and resolved names have been interleaved:
+    final Map<String, T> ordered = new LinkedHashMap<>();
+    for (String name : names) {
+      if (results.containsKey(name)) {
+        ordered.put(name, results.get(name));
+      }
+    }
+    return ordered;
+  }
+
+  public KbTerm term(String name) throws KbException {
+    return get(name, KbTerm.class);
+  }
+
+  public KbCollection collection(String name) throws KbException {
+    return get(name, KbCollection.class);
+  }
+
+  public KbIndividual individual(String name) throws KbException {
+    return get(name, KbIndividual.class);
+  }
+
+  public KbPredicate predicate(String name) throws KbException {
+    return get(name, KbPredicate.class);
+  }
+
+  public BinaryPredicate binaryPredicate(String name) throws KbException {
+    return get(name, BinaryPredicate.class);
+  }
+
+  public Context context(String name) throws KbException {
+    return get(name, Context.class);
+  }
+
+  //====|    Invalidation    |====================================================================//
+
+  /**
+   * Delete {@code term} from the KB, and remove it from the cache.
+   *
+   * @param term the term to delete
+   *
+   * @throws DeleteException if the term could not be deleted
+   */
+  public void delete(KbTerm term) throws DeleteException {
+    try {
+      term.delete();
+    } finally {
+      invalidate(term);
+    }
+  }
+
+  /**
+   * Remove {@code term} from the cache, under whatever names and types it was cached.
+   *
+   * @param term the term to remove
+   */
+  public void invalidate(KbTerm term) {
+    synchronized (entries) {
+      entries.values().removeIf(entry -> entry.term.equals(term));
+    }
+  }
+
+  /**
+   * Remove any terms with the specified name from the cache, whatever their types.
+   *
+   * @param name the name to remove
+   */
+  public void invalidate(String name) {
+    synchronized (entries) {
+      for (Iterator<Key> it = entries.keySet().iterator(); it.hasNext();) {
+        if (it.next().name.equals(name)) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  public void invalidateAll() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  //====|    Statistics    |======================================================================//
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * Returns the number of times that the cache has asked its {@link TermSource} to resolve names.
+   * When the source is {@link #CYC_SERVER}, this is the number of lookup requests which the cache
+   * has sent to the Cyc server; it does not include the Core Client's checks of the type of each
+   * newly resolved term.
+   *
+   * @return the number of requests
+   */
+  public long getRequestCount() {
+    return requests.sum();
+  }
+
+  /**
+   * Returns the fraction of lookups which were served from the cache.
+   *
+   * @return the hit rate, between 0 and 1
+   */
+  public double getHitRate() {
+    final long lookups = getHitCount() + getMissCount();
+    return (lookups == 0) ? 0 : (double) getHitCount() / lookups;
+  }
+
+  /**
+   * Returns the mean number of lookups per second since the cache was created.
+   *
+   * @return lookups per second
+   */
+  public double getLookupsPerSecond() {
+    final long elapsedNanos = Math.max(1, System.nanoTime() - createdNanos);
+    return (getHitCount() + getMissCount()) * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[size=" + size() + "/" + maxSize
+            + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+            + ", evictions=" + getEvictionCount() + ", requests=" + getRequestCount()
+            + String.format(", hitRate=%.1f%%, lookups/sec=%.0f]",
+                    100 * getHitRate(), getLookupsPerSecond());
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  private static boolean isConstantName(String name) {
+    return !name.isEmpty() && name.indexOf('(') < 0 && name.indexOf(' ') < 0;
+  }
+
+  static String escapeSublString(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+
+  //====|    Key & CachedTerm    |================================================================//
+
+  private static final class Key {
+
+    private final String name;
+    private final Class<?> type;
+
+    private Key(String name, Class<?> type) {
+      this.name = name;
+      this.type = type;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return name.equals(other.name) && type.equals(other.type);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(name, type);
+    }
+  }
+
+  private static final class CachedTerm {
+
+    private final KbTerm term;
+    private final long expiresNanos;
+
+    private CachedTerm(KbTerm term, long expiresNanos) {
+      this.term = term;
+      this.expiresNanos = expiresNanos;
+    }
+  }
+
+  //====|    TermType    |========================================================================//
+
+  /**
+   * The term types which {@link #CYC_SERVER} can resolve, with how to check and build each.
+   */
+  private static enum TermType {
+    TERM(KbTerm.class, null),
+    COLLECTION(KbCollection.class, "#$Collection"),
+    INDIVIDUAL(KbIndividual.class, "#$Individual"),
+    PREDICATE(KbPredicate.class, "#$Predicate"),
+    BINARY_PREDICATE(BinaryPredicate.class, "#$BinaryPredicate"),
+    CONTEXT(Context.class, "#$Microtheory");
+
+    private final Class<? extends KbTerm> apiClass;
+    private final String cycType;
+
+    private TermType(Class<? extends KbTerm> apiClass, String cycType) {
+      this.apiClass = apiClass;
+      this.cycType = cycType;
+    }
+
+    static TermType forClass(Class<? extends KbTerm> type) {
+      for (TermType termType : values()) {
+        if (termType.apiClass.equals(type)) {
+          return termType;
+        }
+      }
+      throw new IllegalArgumentException("Unsupported term type: " + type.getName());
+    }
+
+    String sublTypeTest(String var) {
+      return (cycType == null) ? "t" : "(isa-in-any-mt? " + var + " " + cycType + ")";
+    }
+
+    /**
+     * Builds a term of this type for a constant which the server has found to be of this type. The
+     * Core API builds each term as its most specific type, which is usually a subtype of this one;
+     * if it isn't, the term is looked up again as this type.
+     */
+    KbTerm build(CycConstant constant) throws KbException {
+      final KbObject object = KbObjectImpl.get(constant);
+      return apiClass.isInstance(object)
+                     ? apiClass.cast(object)
+                     : getViaApi(constant.getName());
+    }
+
+    KbTerm getViaApi(String name) throws KbException {
+      switch (this) {
+        case COLLECTION:
+          return KbCollection.get(name);
+        case INDIVIDUAL:
+          return KbIndividual.get(name);
+        case PREDICATE:
+          return KbPredicate.get(name);
+        case BINARY_PREDICATE:
+          return BinaryPredicate.get(name);
+        case CONTEXT:
+          return Context.get(name);
+        default:
+          return KbTerm.get(name);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,154 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: TermCacheExample.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.base.exception.CycConnectionException;
+import com.cyc.baseclient.CycClient;
+import com.cyc.baseclient.CycObjectFactory;
+import com.cyc.core.examples.basics.BasicWalkthrough;
+import com.cyc.kb.BinaryPredicate;
+import com.cyc.kb.Context;
+import com.cyc.kb.KbCollection;
+import com.cyc.kb.KbPredicate;
+import com.cyc.kb.client.KbObjectImplFactory;
+import com.cyc.kb.exception.KbException;
+import com.cyc.session.SessionManager;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class provides an example of looking up KB terms via a {@link TermCache}. It replays the
+ * term lookups which the {@link BasicWalkthrough} makes while setting up its background knowledge,
+ * first directly via the KB API, and then via a cache which has been warmed with a single bulk
+ * request per type, and compares the number of round trips made to the Cyc server, as counted by a
+ * {@link RoundTripTracer}. The Core Client's own caches of constants and KB objects are cleared
+ * before each, so that neither benefits from the lookups made by the other.
+ */
+public class TermCacheExample {
+
+  public static void main(String[] args) {
+    final String exampleName = TermCacheExample.class.getSimpleName();
+    try (SessionManager sessionMgr = SessionManager.getInstance()) {
+      System.out.println("Running " + exampleName + "...");
+      TermCacheExample example = new TermCacheExample();
+      example.runExample();
+      System.out.println();
+    } catch (KbException | CycConnectionException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+      System.exit(1);
+    } catch (IOException ioe) {
+      ioe.printStackTrace(System.err);
+      System.exit(1);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(0);
+    }
+  }
+
+  /**
+   * The collections to which the BasicWalkthrough refers while setting up its background knowledge,
+   * in the order in which it looks them up.
+   */
+  private static final List<String> WALKTHROUGH_COLLECTIONS = Arrays.asList(
+          "DramaticMovie", "RestrictedRating", "Person", "Movie-CW", "ActorInMovies", "Movie-CW",
+          "ActorInMovies", "Person", "HomoSapiens");
+
+  /**
+   * The Contexts to which the BasicWalkthrough refers, in the order in which it looks them up.
+   */
+  private static final List<String> WALKTHROUGH_CONTEXTS = Arrays.asList(
+          "PeopleDataMt", "MassMediaDataMt", "MassMediaDataMt", "MassMediaDataMt",
+          "MassMediaDataMt", "MassMediaDataMt", "UniversalVocabularyMt", "PeopleDataMt");
+
+  /**
+   * Look up each of the walkthrough's terms, first directly and then via a TermCache, counting the
+   * round trips made by each.
+   *
+   * @throws KbException
+   * @throws CycConnectionException
+   */
+  public void runExample() throws KbException, CycConnectionException {
+    final int lookupCount = WALKTHROUGH_COLLECTIONS.size() + WALKTHROUGH_CONTEXTS.size() + 2;
+    final RoundTripTracer tracer = new RoundTripTracer();
+    final RoundTripTracer.Installation installation = tracer.install(CycClient.getCurrent());
+    try {
+      // Looking terms up directly:
+      clearClientCaches(tracer);
+      final long directStart = System.nanoTime();
+      for (String name : WALKTHROUGH_COLLECTIONS) {
+        KbCollection.get(name);
+      }
+      for (String name : WALKTHROUGH_CONTEXTS) {
+        Context.get(name);
+      }
+      BinaryPredicate.get("movieAdvisoryRating");
+      KbPredicate.get("movieActors");
+      System.out.println("Looked up " + lookupCount + " terms directly in "
+              + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - directStart) + "ms, making "
+              + tracer.getRoundTripCount() + " round trips.");
+
+      // A cache which counts how often it has to ask the Cyc server:
+      final AtomicInteger serverRequests = new AtomicInteger();
+      final TermCache cache = new TermCache((names, type) -> {
+        serverRequests.incrementAndGet();
+        return TermCache.CYC_SERVER.resolveAll(names, type);
+      }, TermCache.DEFAULT_MAX_SIZE, TermCache.DEFAULT_TTL_MS, TimeUnit.MILLISECONDS);
+
+      clearClientCaches(tracer);
+      final long cachedStart = System.nanoTime();
+      // Warm the cache with one request per type...
+      cache.getAll(WALKTHROUGH_COLLECTIONS, KbCollection.class);
+      cache.getAll(WALKTHROUGH_CONTEXTS, Context.class);
+      cache.getAll(Arrays.asList("movieAdvisoryRating", "movieActors"), BinaryPredicate.class);
+      // ... after which every lookup is a hit:
+      for (String name : WALKTHROUGH_COLLECTIONS) {
+        cache.collection(name);
+      }
+      for (String name : WALKTHROUGH_CONTEXTS) {
+        cache.context(name);
+      }
+      cache.binaryPredicate("movieAdvisoryRating");
+      cache.binaryPredicate("movieActors");
+      System.out.println("Looked up " + lookupCount + " terms via the cache in "
+              + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - cachedStart) + "ms, making "
+              + serverRequests.get() + " lookup requests and " + tracer.getRoundTripCount()
+              + " round trips.");
+      System.out.println(cache);
+    } finally {
+      installation.close();
+    }
+  }
+
+  /**
+   * Forget every constant and KB object which the Core Client has cached, and every round trip
+   * which {@code tracer} has counted.
+   */
+  private static void clearClientCaches(RoundTripTracer tracer) {
+    KbObjectImplFactory.clearKBObjectCache();
+    CycObjectFactory.resetCycConstantCaches();
+    tracer.reset();
+  }
+
+}
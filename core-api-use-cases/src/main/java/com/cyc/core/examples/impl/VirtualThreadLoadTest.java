@@ -0,0 +1,260 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: VirtualThreadLoadTest.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.session.CycSession;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A load test which compares the throughput of blocking requests on platform threads with that on
+ * virtual threads, via {@link VirtualThreads}. All of the requests are submitted at once, first to
+ * a pool of platform threads, then to an executor bounded to a number of concurrent calls, and
+ * then, if available, to an unbounded executor of virtual threads. The bounded executor runs on
+ * virtual threads where they are available, and otherwise on a pool of platform threads.
+ * <p>
+ * The requests go to an in-process stand-in for a Cyc server, which responds to each request after
+ * a fixed latency. Its client side mirrors that of the Core Client: each request is written while
+ * holding the connection's monitor, and the requesting thread then waits on a semaphore, which is
+ * released by a single response thread. The write time keeps each request in the monitor for that
+ * long, to show the effect of pinning on JDK 21 to 23.
+ * <p>
+ * The test fails (exiting with status 1) if any request fails, or if any request runs without the
+ * submitting thread's session bound to its own thread.
+ * <p>
+ * Virtual threads require JDK 21 or later, and the multi-release jar built by the {@code java21}
+ * Maven profile; otherwise, only the platform threads are tested.
+ * <p>
+ * Usage:
+ * {@code VirtualThreadLoadTest [requests] [latency millis] [platform threads] [write micros]
+ * [max concurrent calls]}
+ */
+public class VirtualThreadLoadTest {
+
+  private static final int DEFAULT_REQUESTS = 10_000;
+  private static final int DEFAULT_LATENCY_MILLIS = 50;
+  private static final int DEFAULT_PLATFORM_THREADS = 200;
+  private static final int DEFAULT_WRITE_MICROS = 20;
+  private static final int DEFAULT_MAX_CONCURRENT_CALLS = 1_000;
+
+  /**
+   * The session of the thread which submits the requests, as seen by the stand-in binding.
+   */
+  private static final CycSession SUBMITTER_SESSION = (CycSession) Proxy.newProxyInstance(
+          VirtualThreadLoadTest.class.getClassLoader(), new Class<?>[]{CycSession.class},
+          (proxy, method, args) -> {
+            if ("toString".equals(method.getName())) {
+              return "simulated session";
+            }
+            throw new UnsupportedOperationException(method.getName());
+          });
+
+  public static void main(String[] args) {
+    final String exampleName = VirtualThreadLoadTest.class.getSimpleName();
+    final int requests = intArg(args, 0, DEFAULT_REQUESTS);
+    final int latencyMillis = intArg(args, 1, DEFAULT_LATENCY_MILLIS);
+    final int platformThreads = intArg(args, 2, DEFAULT_PLATFORM_THREADS);
+    final int writeMicros = intArg(args, 3, DEFAULT_WRITE_MICROS);
+    final int maxConcurrentCalls = intArg(args, 4, DEFAULT_MAX_CONCURRENT_CALLS);
+    boolean passed = false;
+    try {
+      System.out.println("Running " + exampleName + "...");
+      System.out.println(requests + " concurrent requests, " + latencyMillis + "ms latency, "
+                                 + writeMicros + "us write, on Java "
+                                 + System.getProperty("java.version"));
+      final VirtualThreadLoadTest test = new VirtualThreadLoadTest();
+      test.binding.set(SUBMITTER_SESSION);
+      passed = test.run(platformThreads + " platform threads",
+              VirtualThreads.newPlatformExecutor("platform", platformThreads, test.binding),
+              requests, latencyMillis, writeMicros);
+      passed &= test.run("bounded to " + maxConcurrentCalls,
+              VirtualThreads.newExecutor("bounded", maxConcurrentCalls, test.binding),
+              requests, latencyMillis, writeMicros);
+      if (VirtualThreads.isAvailable()) {
+        passed &= test.run("virtual threads", VirtualThreads.newExecutor("virtual", test.binding),
+                requests, latencyMillis, writeMicros);
+        if (VirtualThreads.isPinnedByMonitors()) {
+          System.out.println("Virtual threads are pinned while they hold or wait to enter a "
+                                     + "monitor on this JDK.");
+        }
+      } else {
+        System.out.println("Virtual threads are unavailable: they require JDK 21 or later, "
+                                   + "and the multi-release jar.");
+      }
+      System.out.println();
+    } catch (InterruptedException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+      System.exit(1);
+    } finally {
+      System.out.println("... " + exampleName + " concluded.");
+      System.exit(passed ? 0 : 1);
+    }
+  }
+
+  //====|    Fields    |==========================================================================//
+
+  private final ThreadLocal<CycSession> currentSession = new ThreadLocal<>();
+
+  /**
+   * Holds each thread's session in {@link #currentSession}, in place of the Core API's.
+   */
+  final VirtualThreads.SessionBinding binding = new VirtualThreads.SessionBinding() {
+    @Override
+    public CycSession get() {
+      return currentSession.get();
+    }
+
+    @Override
+    public void set(CycSession session) {
+      currentSession.set(session);
+    }
+  };
+
+  //====|    Public methods    |==================================================================//
+
+  /**
+   * Submit {@code requests} requests to {@code executor} at once, wait for them all to complete,
+   * and print the throughput. The executor is shut down. A request fails if it runs without the
+   * submitting thread's session.
+   *
+   * @param label         describes the executor
+   * @param executor      runs the requests
+   * @param requests      the number of requests
+   * @param latencyMillis the stand-in server's latency
+   * @param writeMicros   the time for which each request holds the connection's monitor
+   *
+   * @return whether every request completed, with the submitting thread's session
+   *
+   * @throws InterruptedException if interrupted while waiting for the requests to complete
+   */
+  public boolean run(String label, ExecutorService executor, int requests, int latencyMillis,
+          int writeMicros) throws InterruptedException {
+    final StandInServer server = new StandInServer(latencyMillis, writeMicros);
+    final CycSession session = currentSession.get();
+    final CountDownLatch done = new CountDownLatch(requests);
+    final LongAdder failed = new LongAdder();
+    try {
+      final long start = System.nanoTime();
+      for (int i = 0; i < requests; i++) {
+        executor.execute(() -> {
+          try {
+            if (currentSession.get() != session) {
+              throw new IllegalStateException("Ran without the submitter's session");
+            }
+            server.request();
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failed.increment();
+          } catch (RuntimeException ex) {
+            failed.increment();
+          } finally {
+            done.countDown();
+          }
+        });
+      }
+      done.await();
+      final double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format("%-20s %d requests (%d failed) in %.2fs: %.0f/s; "
+                                               + "peak %d in flight",
+              label + ":", requests, failed.sum(), seconds, requests / seconds,
+              server.getPeakConcurrentRequests()));
+      return failed.sum() == 0 && server.getCompletedCount() == requests;
+    } finally {
+      executor.shutdownNow();
+      server.close();
+    }
+  }
+
+  private static int intArg(String[] args, int index, int defaultValue) {
+    return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+  //====|    StandInServer    |===================================================================//
+
+  /**
+   * An in-process stand-in for a Cyc server and the Core Client's connection to it. A request is
+   * written while holding the connection's monitor, as by the Core Client's {@code sendBinary}, and
+   * the requesting thread then waits on a semaphore, which a single response thread releases once
+   * the server's latency has elapsed.
+   */
+  static class StandInServer implements AutoCloseable {
+
+    private final Object connection = new Object();
+    private final ScheduledExecutorService responder;
+    private final long latencyMillis;
+    private final long writeNanos;
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+    private final AtomicInteger peakConcurrentRequests = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+
+    StandInServer(long latencyMillis, long writeMicros) {
+      this.latencyMillis = latencyMillis;
+      this.writeNanos = TimeUnit.MICROSECONDS.toNanos(writeMicros);
+      this.responder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, getClass().getSimpleName() + "-responder");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+
+    void request() throws InterruptedException {
+      final int concurrent = concurrentRequests.incrementAndGet();
+      peakConcurrentRequests.accumulateAndGet(concurrent, Math::max);
+      try {
+        final Semaphore response = new Semaphore(0);
+        synchronized (connection) {
+          final long writeEnd = System.nanoTime() + writeNanos;
+          for (long left = writeNanos; left > 0; left = writeEnd - System.nanoTime()) {
+            LockSupport.parkNanos(left);
+          }
+          responder.schedule(() -> response.release(), latencyMillis, TimeUnit.MILLISECONDS);
+        }
+        response.acquire();
+        completed.increment();
+      } finally {
+        concurrentRequests.decrementAndGet();
+      }
+    }
+
+    int getPeakConcurrentRequests() {
+      return peakConcurrentRequests.get();
+    }
+
+    long getCompletedCount() {
+      return completed.sum();
+    }
+
+    @Override
+    public void close() {
+      responder.shutdownNow();
+    }
+  }
+
+}
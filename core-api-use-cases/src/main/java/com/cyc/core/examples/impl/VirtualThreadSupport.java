@@ -0,0 +1,53 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: VirtualThreadSupport.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates virtual threads, where the JDK supports them. This is the Java 8 version, which never
+ * does. The multi-release jar built by the {@code java21} Maven profile overrides it, on JDK 21
+ * and later, with the version in {@code src/main/java21}.
+ */
+final class VirtualThreadSupport {
+
+  private VirtualThreadSupport() {
+  }
+
+  static boolean isAvailable() {
+    return false;
+  }
+
+  /**
+   * Returns whether a virtual thread which blocks while holding a monitor, or while waiting to
+   * enter one, also blocks its carrier thread.
+   */
+  static boolean isPinnedByMonitors() {
+    return false;
+  }
+
+  static ExecutorService newThreadPerTaskExecutor(String name) {
+    throw new UnsupportedOperationException(
+            "Virtual threads require JDK 21 or later, and the multi-release jar");
+  }
+
+}
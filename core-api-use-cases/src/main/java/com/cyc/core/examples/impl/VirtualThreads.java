@@ -0,0 +1,315 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: VirtualThreads.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cyc.session.CycSession;
+import com.cyc.session.exception.SessionConfigurationException;
+import com.cyc.session.internal.CurrentObjectCache;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors for running many blocking Core API calls at once, such as thousands of
+ * concurrent KB lookups or queries, each on its own virtual thread. Every Core API call blocks
+ * until the Cyc server responds, so a platform thread per call limits a client to as many calls in
+ * flight as it can afford threads. A virtual thread, on the other hand, gives up its carrier
+ * (platform) thread while it waits.
+ * <p>
+ * The Core Client is well suited to virtual threads. It waits for each response on a
+ * {@link Semaphore}, which releases the carrier. It holds its connection's monitor only while it
+ * writes the request to the socket. On JDK 21 to 23, a virtual thread which writes a request, or
+ * which waits to enter the monitor while another thread writes, is pinned to its carrier; as
+ * writes are short, so is the pinning. From JDK 24 (JEP 491), monitors no longer pin virtual
+ * threads at all. Where a great many calls share one connection on JDK 21 to 23, the number of
+ * calls in flight can be bounded via {@link #newExecutor(String, int)}, so that the threads over
+ * the limit wait on a semaphore, unpinned, rather than on the connection's monitor.
+ * <p>
+ * The current session is held per thread, and neither virtual threads nor pooled platform
+ * threads inherit it. Each task therefore runs with the session which was current on the thread
+ * which submitted it, if any, bound to its own thread; once the task completes, its thread's
+ * previous session is restored. A task submitted from a thread with no current session runs with
+ * none, rather than opening one.
+ * <p>
+ * Virtual threads require JDK 21 or later, and the multi-release jar built by the {@code java21}
+ * Maven profile. Otherwise, {@link #isAvailable()} returns false, and the executors fall back to
+ * pools of platform threads.
+ */
+public final class VirtualThreads {
+
+  /**
+   * The number of platform threads in an executor created by {@link #newExecutor(String)}, when
+   * virtual threads are unavailable.
+   */
+  public static final int DEFAULT_PLATFORM_THREADS = 64;
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * Returns whether executors are backed by virtual threads, rather than by platform threads.
+   */
+  public static boolean isAvailable() {
+    return VirtualThreadSupport.isAvailable();
+  }
+
+  /**
+   * Returns whether virtual threads are available, but are pinned to their carriers while they
+   * hold or wait to enter a monitor, as on JDK 21 to 23.
+   */
+  public static boolean isPinnedByMonitors() {
+    return VirtualThreadSupport.isPinnedByMonitors();
+  }
+
+  /**
+   * Creates an executor which runs each task on a new virtual thread, without limit. If virtual
+   * threads are unavailable, it instead runs them on a pool of {@link #DEFAULT_PLATFORM_THREADS}
+   * daemon threads.
+   *
+   * @param name the prefix for the names of the executor's threads
+   *
+   * @return the executor, which should be shut down once it is no longer needed
+   */
+  public static ExecutorService newExecutor(String name) {
+    return newExecutor(name, SessionBinding.CURRENT_SESSION);
+  }
+
+  /**
+   * Creates an executor which runs each task on a new virtual thread, but which runs no more than
+   * {@code maxConcurrentCalls} of them at once; the others wait, unpinned, for a permit. If virtual
+   * threads are unavailable, it instead runs the tasks on a pool of {@code maxConcurrentCalls}
+   * daemon threads.
+   *
+   * @param name               the prefix for the names of the executor's threads
+   * @param maxConcurrentCalls the maximum number of tasks to run at once
+   *
+   * @return the executor, which should be shut down once it is no longer needed
+   */
+  public static ExecutorService newExecutor(String name, int maxConcurrentCalls) {
+    return newExecutor(name, maxConcurrentCalls, SessionBinding.CURRENT_SESSION);
+  }
+
+  /**
+   * Creates a pool of {@code threads} daemon platform threads.
+   *
+   * @param name    the prefix for the names of the executor's threads
+   * @param threads the number of threads
+   *
+   * @return the executor, which should be shut down once it is no longer needed
+   */
+  public static ExecutorService newPlatformExecutor(String name, int threads) {
+    return newPlatformExecutor(name, threads, SessionBinding.CURRENT_SESSION);
+  }
+
+  //====|    Internal methods    |================================================================//
+
+  /**
+   * As {@link #newExecutor(String)}, but with the current session held by {@code binding}.
+   */
+  static ExecutorService newExecutor(String name, SessionBinding binding) {
+    return isAvailable()
+                   ? new SessionBoundExecutor(VirtualThreadSupport.newThreadPerTaskExecutor(name),
+                           0, binding)
+                   : newPlatformExecutor(name, DEFAULT_PLATFORM_THREADS, binding);
+  }
+
+  /**
+   * As {@link #newExecutor(String, int)}, but with the current session held by {@code binding}.
+   */
+  static ExecutorService newExecutor(String name, int maxConcurrentCalls,
+          SessionBinding binding) {
+    if (maxConcurrentCalls <= 0) {
+      throw new IllegalArgumentException("Invalid maxConcurrentCalls: " + maxConcurrentCalls);
+    }
+    return isAvailable()
+                   ? new SessionBoundExecutor(VirtualThreadSupport.newThreadPerTaskExecutor(name),
+                           maxConcurrentCalls, binding)
+                   : newPlatformExecutor(name, maxConcurrentCalls, binding);
+  }
+
+  /**
+   * As {@link #newPlatformExecutor(String, int)}, but with the current session held by
+   * {@code binding}.
+   */
+  static ExecutorService newPlatformExecutor(String name, int threads, SessionBinding binding) {
+    final AtomicInteger threadIds = new AtomicInteger();
+    return new SessionBoundExecutor(Executors.newFixedThreadPool(threads, runnable -> {
+      final Thread thread = new Thread(runnable, name + "-" + threadIds.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }), 0, binding);
+  }
+
+  //====|    SessionBinding    |==================================================================//
+
+  /**
+   * Gets and sets the current session of the current thread.
+   */
+  interface SessionBinding {
+
+    /**
+     * The Core API's current session.
+     */
+    static final SessionBinding CURRENT_SESSION = new SessionBinding() {
+      private final CurrentObjectCache<CycSession> cache = new CurrentObjectCache<>();
+
+      @Override
+      public CycSession get() {
+        return cache.getCurrentSession();
+      }
+
+      @Override
+      public void set(CycSession session) {
+        if (session == null) {
+          cache.clearCurrentSession();
+          return;
+        }
+        try {
+          cache.setCurrentSession(session);
+        } catch (SessionConfigurationException ex) {
+          throw new IllegalStateException("Could not bind " + session, ex);
+        }
+      }
+    };
+
+    /**
+     * Returns the current thread's session, without opening one.
+     *
+     * @return the session, or null if there is none
+     */
+    CycSession get();
+
+    /**
+     * Makes {@code session} the current thread's session.
+     *
+     * @param session the session, or null to clear the current session
+     */
+    void set(CycSession session);
+  }
+
+  //====|    SessionBoundExecutor    |============================================================//
+
+  /**
+   * Runs tasks on another executor, each with its submitter's session bound to its thread, and
+   * optionally no more than a fixed number of them at once. Each task waits for a permit on its
+   * own thread, so the limit does not hold back the submitting thread.
+   */
+  private static final class SessionBoundExecutor extends AbstractExecutorService {
+
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+    private final SessionBinding binding;
+
+    /**
+     * @param delegate           runs the tasks
+     * @param maxConcurrentCalls the maximum number of tasks to run at once, or 0 for no limit
+     * @param binding            holds the current session
+     */
+    SessionBoundExecutor(ExecutorService delegate, int maxConcurrentCalls,
+            SessionBinding binding) {
+      this.delegate = delegate;
+      this.permits = (maxConcurrentCalls > 0) ? new Semaphore(maxConcurrentCalls, true) : null;
+      this.binding = binding;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      delegate.execute(new SessionBoundTask(command, binding.get()));
+    }
+
+    @Override
+    public void shutdown() {
+      delegate.shutdown();
+    }
+
+    /**
+     * Stops the delegate, and returns the tasks which never started, as they were submitted.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+      final List<Runnable> notStarted = new ArrayList<>();
+      for (Runnable runnable : delegate.shutdownNow()) {
+        notStarted.add((runnable instanceof SessionBoundTask)
+                               ? ((SessionBoundTask) runnable).command
+                               : runnable);
+      }
+      return notStarted;
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      return delegate.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Runs a submitted task, with its submitter's session, once a permit is free.
+     */
+    private final class SessionBoundTask implements Runnable {
+
+      private final Runnable command;
+      private final CycSession session;
+
+      private SessionBoundTask(Runnable command, CycSession session) {
+        this.command = command;
+        this.session = session;
+      }
+
+      @Override
+      public void run() {
+        if (permits != null) {
+          try {
+            permits.acquire();
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+        final CycSession previous = binding.get();
+        try {
+          binding.set(session);
+          command.run();
+        } finally {
+          binding.set(previous);
+          if (permits != null) {
+            permits.release();
+          }
+        }
+      }
+    }
+  }
+
+}
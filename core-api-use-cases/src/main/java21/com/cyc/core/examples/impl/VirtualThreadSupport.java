@@ -0,0 +1,55 @@
+package com.cyc.core.examples.impl;
+
+/*
+ * #%L
+ * File: VirtualThreadSupport.java
+ * Project: Cyc Core API Use Cases
+ * %%
+ * Copyright (C) 2013 - 2018 Cycorp, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates virtual threads. This version is compiled into {@code META-INF/versions/21} of the
+ * multi-release jar built by the {@code java21} Maven profile, where it replaces the Java 8
+ * version in {@code src/main/java}.
+ */
+final class VirtualThreadSupport {
+
+  /**
+   * The first feature release in which virtual threads no longer pin their carriers while in a
+   * synchronized block or method (JEP 491).
+   */
+  private static final int UNPINNED_MONITORS_RELEASE = 24;
+
+  private VirtualThreadSupport() {
+  }
+
+  static boolean isAvailable() {
+    return true;
+  }
+
+  static boolean isPinnedByMonitors() {
+    return Runtime.version().feature() < UNPINNED_MONITORS_RELEASE;
+  }
+
+  static ExecutorService newThreadPerTaskExecutor(String name) {
+    return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+  }
+
+}